@@ -36,6 +36,10 @@ public class Thread {
 		
 	}
 	
+	public final void setDaemon(boolean on) {
+		// noop emu
+	}
+	
 	public ClassLoader getContextClassLoader() {
 		return null;
 	}
@@ -8,6 +8,7 @@ import peergos.shared.user.*;
 
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.stream.*;
 
 public class RegisteredUserKeyFilter {
 
@@ -36,10 +37,14 @@ public class RegisteredUserKeyFilter {
     private void reloadKeys() {
         try {
             List<String> usernames = core.getUsernames("").get();
-            Set<PublicKeyHash> updated = new HashSet<>();
-            for (String username : usernames) {
-                updated.addAll(WriterData.getOwnedKeysRecursive(username, core, mutable, dht));
-            }
+            List<CompletableFuture<Optional<PublicKeyHash>>> identities = usernames.stream()
+                    .map(core::getPublicKeyHash)
+                    .collect(Collectors.toList());
+            List<PublicKeyHash> identityKeys = new ArrayList<>();
+            for (CompletableFuture<Optional<PublicKeyHash>> identity : identities)
+                identity.get().ifPresent(identityKeys::add);
+            // resolve the pointers of all users together, rather than one request per key
+            Set<PublicKeyHash> updated = WriterData.getOwnedKeysRecursive(identityKeys, mutable, dht);
             Set<PublicKeyHash> toRemove = new HashSet<>();
             for (PublicKeyHash hash : allowedKeys.keySet())
                 if (! updated.contains(hash))
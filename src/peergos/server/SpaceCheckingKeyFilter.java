@@ -177,9 +177,7 @@ public class SpaceCheckingKeyFilter {
 
     public void accept(MutableEvent event) {
         try {
-            HashCasPair hashCasPair = dht.getSigningKey(event.writer)
-                    .thenApply(signer -> HashCasPair.fromCbor(CborObject.fromByteArray(signer.get()
-                            .unsignMessage(event.writerSignedBtreeRootHash)))).get();
+            HashCasPair hashCasPair = VerifiedPointers.verify(event.writer, event.writerSignedBtreeRootHash, dht).get();
             processMutablePointerEvent(event.writer, hashCasPair.original, hashCasPair.updated);
         } catch (Exception e) {
             LOG.log(Level.WARNING, e.getMessage(), e);
@@ -32,7 +32,7 @@ import java.util.stream.Stream;
 public class Start
 {
     static {
-        PublicSigningKey.addProvider(PublicSigningKey.Type.Ed25519, new Ed25519.Java());
+        PublicSigningKey.addProvider(PublicSigningKey.Type.Ed25519, new Ed25519.FastJava());
     }
 
     public static Command CORE_NODE = new Command("core",
@@ -226,7 +226,7 @@ public class Start
     public static void startPeergos(Args a) {
 
         try {
-            PublicSigningKey.addProvider(PublicSigningKey.Type.Ed25519, new Ed25519.Java());
+            PublicSigningKey.addProvider(PublicSigningKey.Type.Ed25519, new Ed25519.FastJava());
 
             int webPort = a.getInt("port");
             URL coreAddress = new URI(a.getArg("corenodeURL")).toURL();
@@ -251,7 +251,9 @@ public class Start
             MutablePointers mutable = HttpMutablePointers.getInstance(coreAddress);
             Path blacklistPath = a.fromPeergosDir("blacklist_file", "blacklist.txt");
             PublicKeyBlackList blacklist = new UserBasedBlacklist(blacklistPath, core, mutable, dht);
-            MutablePointers mutablePointers = new BlockingMutablePointers(new PinningMutablePointers(mutable, dht), blacklist);
+            PinRefCounts pinRefs = PinRefCounts.build(a.fromPeergosDir("pin_index_file", "pinrefs.sql").toString());
+            IncrementalPinner pinner = new IncrementalPinner(dht, pinRefs);
+            MutablePointers mutablePointers = new BlockingMutablePointers(new PinningMutablePointers(mutable, dht, pinner), blacklist);
 
             Path userPath = a.fromPeergosDir("whitelist_file", "user_whitelist.txt");
             int delayMs = a.getInt("whitelist_sleep_period", 1000 * 60 * 10);
@@ -297,6 +299,23 @@ public class Start
         }
     }
 
+    // One repository, and so one connection pool, per database file, even if the core and social nodes share it
+    private static final Map<String, UserRepository> userRepositories = new HashMap<>();
+
+    private static synchronized UserRepository getUserRepository(String path,
+                                                                 ContentAddressedStorage dht,
+                                                                 int maxUserCount) throws SQLException {
+        if (SqliteConnectionPool.isInMemory(path))
+            return UserRepository.buildSqlLite(path, dht, maxUserCount);
+        String file = Paths.get(path).toAbsolutePath().normalize().toString();
+        UserRepository existing = userRepositories.get(file);
+        if (existing != null)
+            return existing;
+        UserRepository repo = UserRepository.buildSqlLite(file, dht, maxUserCount);
+        userRepositories.put(file, repo);
+        return repo;
+    }
+
     public static void startCoreNode(Args a) {
         String corenodeFile = a.getArg("corenodeFile");
         String path = corenodeFile.equals(":memory:") ? corenodeFile : a.fromPeergosDir("corenodeFile").toString();
@@ -311,8 +330,7 @@ public class Start
                 new FileContentAddressedStorage(blockstorePath(a));
         try {
             Crypto crypto = Crypto.initJava();
-            MutablePointers mutable = UserRepository.buildSqlLite(path
-                    , dht, maxUserCount);
+            MutablePointers mutable = getUserRepository(path, dht, maxUserCount);
             PublicKeyHash peergosIdentity = PublicKeyHash.fromString(a.getArg("peergos.identity.hash"));
 
             String pkiSecretKeyfilePassword = a.getArg("pki.keyfile.password");
@@ -355,7 +373,7 @@ public class Start
                 new CachingStorage(new IpfsDHT(), dhtCacheEntries, maxValueSizeToCache) :
                 new FileContentAddressedStorage(blockstorePath(a));
         try {
-            SocialNetwork social = UserRepository.buildSqlLite(path, dht, maxUserCount);
+            SocialNetwork social = getUserRepository(path, dht, maxUserCount);
             HttpSocialNetworkServer.createAndStart(keyfile, passphrase, socialnodePort, social, a);
         } catch (SQLException e) {
             throw new RuntimeException(e);
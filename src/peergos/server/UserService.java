@@ -23,6 +23,7 @@ import java.net.*;
 import java.nio.file.*;
 import java.security.*;
 import java.security.cert.*;
+import java.util.*;
 import java.util.concurrent.*;
 import java.util.function.*;
 
@@ -36,6 +37,8 @@ public class UserService {
 
     public static final int HANDLER_THREADS = 100;
     public static final int CONNECTION_BACKLOG = 100;
+    public static final int POINTER_UPDATES_RETAINED = 10_000;
+    public static final long POINTER_UPDATES_POLL_TIMEOUT_MILLIS = 30_000;
 
     static {
         // disable weak algorithms
@@ -175,21 +178,27 @@ public class UserService {
         UserQuotas userQuotas = new UserQuotas(quotaFilePath, defaultQuota);
         SpaceCheckingKeyFilter spaceChecker = new SpaceCheckingKeyFilter(coreNode, mutable, dht, userQuotas::quota);
 
+        long blockCacheSize = args.getLong("block-cache-size", DHTHandler.DEFAULT_RESPONSE_CACHE_SIZE);
+        HotBlockCache blockCache = new HotBlockCache(blockCacheSize, ContentAddressedStorage.MAX_OBJECT_LENGTH);
         server.createContext(DHT_URL,
-                wrap.apply(new DHTHandler(dht, spaceChecker::allowWrite)));
+                wrap.apply(new DHTHandler(dht, spaceChecker::allowWrite, blockCache)));
 
         CorenodeEventPropagator corenodePropagator = new CorenodeEventPropagator(this.coreNode);
-        corenodePropagator.addListener(spaceChecker::accept);
+        corenodePropagator.addListener("Space checker", spaceChecker::accept);
         server.createContext("/" + HttpCoreNodeServer.CORE_URL,
                 wrap.apply(new HttpCoreNodeServer.CoreNodeHandler(corenodePropagator)));
 
+        PointerUpdateLog pointerUpdates = new PointerUpdateLog(dht, POINTER_UPDATES_RETAINED, POINTER_UPDATES_POLL_TIMEOUT_MILLIS);
+        SocialEventPropagator socialPropagator = new SocialEventPropagator(this.social);
+        socialPropagator.addListener("Pointer update feed", pointerUpdates::followRequestsChanged);
         server.createContext("/" + HttpSocialNetworkServer.SOCIAL_URL,
-                wrap.apply(new HttpSocialNetworkServer.SocialHandler(this.social)));
+                wrap.apply(new HttpSocialNetworkServer.SocialHandler(socialPropagator)));
 
         MutableEventPropagator mutablePropagator = new MutableEventPropagator(this.mutable);
-        mutablePropagator.addListener(spaceChecker::accept);
+        mutablePropagator.addListener("Space checker", spaceChecker::accept);
+        mutablePropagator.addListener("Pointer update feed", pointerUpdates);
         server.createContext("/" + HttpMutablePointerServer.MUTABLE_POINTERS_URL,
-                wrap.apply(new HttpMutablePointerServer.MutationHandler(mutablePropagator)));
+                wrap.apply(new HttpMutablePointerServer.MutationHandler(mutablePropagator, Optional.of(pointerUpdates), Optional.of(dht))));
 
         server.createContext(SIGNUP_URL,
                 wrap.apply(new InverseProxyHandler("demo.peergos.net", isLocal)));
@@ -1,5 +1,6 @@
 package peergos.server.corenode;
 
+import peergos.server.util.*;
 import peergos.shared.corenode.*;
 import peergos.shared.crypto.hash.*;
 
@@ -8,32 +9,37 @@ import java.util.*;
 import java.util.concurrent.*;
 import java.util.function.*;
 
-/** This class propagates core node writes to
+/** This class propagates core node writes to listeners, asynchronously so they don't delay the write
  *
  */
 public class CorenodeEventPropagator implements CoreNode {
 
     private final CoreNode target;
-    private final List<Consumer<? super CorenodeEvent>> listeners = new ArrayList<>();
+    // listeners only need the latest key for each username
+    private final EventBus<CorenodeEvent> listeners = new EventBus<>("Core node", e -> e.username);
 
     public CorenodeEventPropagator(CoreNode target) {
         this.target = target;
     }
 
+    public void addListener(String name, Consumer<? super CorenodeEvent> listener) {
+        listeners.addListener(name, listener, EventBus.DEFAULT_QUEUE_SIZE);
+    }
+
     public void addListener(Consumer<? super CorenodeEvent> listener) {
-        listeners.add(listener);
+        listeners.addListener(listener);
+    }
+
+    public List<EventBus.Stats> getListenerStats() {
+        return listeners.getStats();
     }
 
     @Override
     public CompletableFuture<Boolean> updateChain(String username, List<UserPublicKeyLink> chain) {
         return target.updateChain(username, chain)
                 .thenApply(res -> {
-                    if (res) {
-                        CorenodeEvent event = new CorenodeEvent(username, chain.get(chain.size() - 1).owner);
-                        for (Consumer<? super CorenodeEvent> listener : listeners) {
-                            listener.accept(event);
-                        }
-                    }
+                    if (res)
+                        listeners.publish(new CorenodeEvent(username, chain.get(chain.size() - 1).owner));
                     return res;
                 });
     }
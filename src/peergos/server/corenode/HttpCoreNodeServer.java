@@ -2,6 +2,7 @@ package peergos.server.corenode;
 import java.util.logging.*;
 
 import peergos.server.util.Logging;
+import peergos.server.util.AsyncLogHandler;
 
 import peergos.server.mutable.*;
 import peergos.shared.cbor.*;
@@ -96,7 +97,7 @@ public class HttpCoreNodeServer {
                 exchange.close();
                 long t2 = System.currentTimeMillis();
                 if (LOGGING)
-                    LOG.info("Corenode server handled " + method + " request in: " + (t2 - t1) + " mS");
+                    LOG.log(new AsyncLogHandler.AccessEvent("Corenode server", method, t2 - t1));
             }
 
         }
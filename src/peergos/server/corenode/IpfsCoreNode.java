@@ -85,7 +85,11 @@ public class IpfsCoreNode implements CoreNode {
             MaybeMultihash currentTree = current.props.tree.map(MaybeMultihash::of).orElseGet(MaybeMultihash::empty);
             MaybeMultihash updatedTree = updated.props.tree.map(MaybeMultihash::of).orElseGet(MaybeMultihash::empty);
             Consumer<Triple<ByteArrayWrapper, MaybeMultihash, MaybeMultihash>> consumer =
-                    t -> updateMapping(t.left, t.middle, t.right, ipfs, chains, reverseLookup, usernames);
+                    t -> {
+                        // usernames are never removed
+                        if (t.right.isPresent())
+                            updateMapping(t.left, t.middle, t.right, ipfs, chains, reverseLookup, usernames);
+                    };
             Champ.applyToDiff(currentTree, updatedTree, consumer, ipfs).get();
         } catch (Exception e) {
             throw new RuntimeException(e.getMessage(), e);
@@ -6,6 +6,7 @@ import peergos.server.util.Logging;
 import peergos.shared.cbor.*;
 import peergos.shared.corenode.*;
 import peergos.shared.crypto.hash.*;
+import peergos.shared.mutable.*;
 import peergos.shared.social.*;
 import peergos.shared.util.*;
 
@@ -20,6 +21,8 @@ public class JDBCCoreNode {
 	private static final Logger LOG = Logging.LOG();
     public static final boolean LOGGING = false;
 
+    // SQLite limits the number of parameters in a statement to 999
+    private static final int MAX_POINTERS_PER_QUERY = 500;
     public static final long MIN_USERNAME_SET_REFRESH_PERIOD = 60*1000000000L;
 
     private static final String TABLE_NAMES_SELECT_STMT = "SELECT * FROM sqlite_master WHERE type='table';";
@@ -43,8 +46,32 @@ public class JDBCCoreNode {
         TABLES.put("metadatablobs", CREATE_METADATA_BLOBS_TABLE);
     }
 
-    private Connection conn;
+    private static final String SELECT_USERNAME = "select name from usernames u inner join chains ch on u.id=ch.userid inner join links ln on ch.linkid=ln.id and ln.publickey = ? limit 1";
+    private static final String SELECT_CHAIN = "select chains.lindex, links.publickey, links.link from links inner join chains on links.id=chains.linkid \n" +
+            "inner join usernames on chains.userid=usernames.id where usernames.name=? order by chains.lindex;";
+    private static final String SELECT_USERNAMES = "select name from usernames where name like ?";
+    private static final String COUNT_USERNAMES = "select count(name) from usernames;";
+    private static final String INSERT_USERNAME = "insert into usernames (name) VALUES(?);";
+    private static final String INSERT_LINK = "insert into links (publickey, link) VALUES(?, ?);";
+    private static final String UPDATE_LINK = "update links set link=? where links.publickey=?;";
+    private static final String INSERT_FIRST_CHAIN_LINK = "insert into chains (userid, linkid, lindex) select usernames.id, links.id, 0 "
+            + "from usernames join links where links.publickey=? and usernames.name=?;";
+    private static final String INSERT_NEXT_CHAIN_LINK = "insert into chains (userid, linkid, lindex) " +
+            "select usernames.id, links.id, " +
+            "((select max(lindex) from chains inner join usernames where " +
+            "chains.userid=usernames.id and usernames.name=?)+1) " +
+            "from usernames join links where links.publickey=? and usernames.name=?;";
+    private static final String SELECT_FOLLOW_REQUESTS = "select followrequest from followrequests where name = ?;";
+    private static final String COUNT_FOLLOW_REQUESTS = "select count(id) from followrequests where name = ?;";
+    private static final String INSERT_FOLLOW_REQUEST = "insert into followrequests (name, followrequest) VALUES(?, ?);";
+    private static final String DELETE_FOLLOW_REQUEST = "delete from followrequests where name = ? and followrequest = ?;";
+    private static final String SELECT_POINTER = "select hash from metadatablobs where writingkey = ?;";
+    private static final String UPSERT_POINTER = "INSERT OR REPLACE INTO metadatablobs (writingkey, hash) VALUES(?, ?)";
+
+    private final SqliteConnectionPool db;
     private final UserSetCache userSet = new UserSetCache();
+    // pointer updates waiting for the writer connection, which are written together in a single transaction
+    private final Queue<PendingPointer> pendingPointers = new ConcurrentLinkedQueue<>();
 
     private static class UserSetCache {
         private volatile List<String> userSet = null;
@@ -62,268 +89,14 @@ public class JDBCCoreNode {
         }
     }
 
-    private abstract class RowData
-    {
-        public final String name;
-        public final byte[] data;
-        public final String b64string;
-        RowData(String name, byte[] data)
-        {
-            this(name,data,(data == null ? null: new String(Base64.getEncoder().encode(data))));
-        }
-
-        RowData(String name, String d)
-        {
-            this(name, Base64.getDecoder().decode(d), d);
-        }
-
-        RowData(String name, byte[] data, String b64string)
-        {
-            this.name = name;
-            this.data = data;
-            this.b64string = b64string;
-        }
-
-
-        abstract String b64DataName();
-        abstract String insertStatement();
-        abstract String selectStatement();
-        abstract String deleteStatement();
-
-        public boolean insert()
-        {
-            PreparedStatement stmt = null;
-            try
-            {
-                stmt = conn.prepareStatement(insertStatement());
-                stmt.setString(1,this.name);
-                stmt.setString(2,this.b64string);
-                stmt.executeUpdate();
-                return true;
-            } catch (SQLException sqe) {
-                LOG.log(Level.WARNING, sqe.getMessage(), sqe);
-                return false;
-            } finally {
-                if (stmt != null)
-                    try
-                    {
-                        stmt.close();
-                    } catch (SQLException sqe2) {
-                        sqe2.printStackTrace();
-                    }
-            }
-        }
-
-        public RowData[] select()
-        {
-            PreparedStatement stmt = null;
-            try
-            {
-                stmt = conn.prepareStatement(selectStatement());
-                ResultSet rs = stmt.executeQuery();
-                List<RowData> list = new ArrayList<>();
-                while (rs.next())
-                {
-                    String username = rs.getString("name");
-                    String b64string = rs.getString(b64DataName());
-                    list.add(new UserData(username, b64string));
-                }
-                return list.toArray(new RowData[0]);
-            } catch (SQLException sqe) {
-                LOG.log(Level.WARNING, sqe.getMessage(), sqe);
-                return null;
-            }finally {
-                if (stmt != null)
-                    try
-                    {
-                        stmt.close();
-                    } catch (SQLException sqe2) {
-                        sqe2.printStackTrace();
-                    }
-            }
-        }
-
-
-        public boolean delete()
-        {
-            Statement stmt = null;
-            try
-            {
-                stmt = conn.createStatement();
-                stmt.executeUpdate(deleteStatement());
-                return true;
-            } catch (SQLException sqe) {
-                LOG.severe(deleteStatement());
-                LOG.log(Level.WARNING, sqe.getMessage(), sqe);
-                return false;
-            } finally {
-                if (stmt != null)
-                    try
-                    {
-                        stmt.close();
-                    } catch (SQLException sqe2) {
-                        sqe2.printStackTrace();
-                    }
-            }
-        }
-
-    }
-
-    private class UserData extends RowData
-    {
-        UserData(String name, byte[] publicKey)
-        {
-            super(name, publicKey);
-        }
-        UserData(String name, String d)
-        {
-            super(name, d);
-        }
-
-        public String b64DataName(){return DATA_NAME;}
-        public String insertStatement(){return "insert into users (name, publickey) VALUES(?, ?);";}
-        public String selectStatement(){return "select name, "+b64DataName()+" from users where name = '"+name+"';";}
-        public String deleteStatement(){return "delete from users where name = \""+ name +"\" and "+ b64DataName()+ " = \""+ b64string + "\";";}
-        static final String DATA_NAME = "publickey";
-    }
-
-    private class FollowRequestData extends RowData
-    {
-        FollowRequestData(PublicKeyHash owner, byte[] publicKey)
-        {
-            super(owner.toString(), publicKey);
-        }
-        FollowRequestData(String name, String d)
-        {
-            super(name, d);
-        }
-
-        public String b64DataName(){return DATA_NAME;}
-        public String insertStatement(){return "insert into followrequests (name, followrequest) VALUES(?, ?);";}
-        public String selectStatement(){return "select name, "+b64DataName()+" from followrequests where name = \""+name+"\";";}
-        public String deleteStatement(){return "delete from followrequests where name = \""+ name +"\" and "+ b64DataName()+ " = \""+ b64string + "\";";}
-        static final String DATA_NAME = "followrequest";
-    }
-
-    private class MetadataBlob
-    {
-        final byte[] writingKey, hash;
+    private static class PendingPointer {
         final String b64WritingKey, b64hash;
+        final CompletableFuture<Boolean> result = new CompletableFuture<>();
 
-        MetadataBlob(byte[] writingKey, byte[] hash)
-        {
-            this(writingKey, new String(Base64.getEncoder().encode(writingKey)), hash, hash == null ? null : new String(Base64.getEncoder().encode(hash)));
-
-        }
-
-        MetadataBlob(String b64WritingKey, String b64hash)
-        {
-            this(Base64.getDecoder().decode(b64WritingKey), b64WritingKey, Base64.getDecoder().decode(b64hash), b64hash);
-        }
-
-        MetadataBlob(byte[] writingKey, String b64WritingKey, byte[] hash, String b64hash)
-        {
-            this.writingKey = writingKey;
+        PendingPointer(String b64WritingKey, String b64hash) {
             this.b64WritingKey = b64WritingKey;
-            this.hash = hash;
             this.b64hash = b64hash;
         }
-
-        public String selectStatement(){return "select writingkey, hash from metadatablobs where writingkey = "+ b64WritingKey +";";}
-        public String deleteStatement(){return "delete from metadatablobs where writingkey = "+ b64WritingKey +";";}
-
-        public boolean insert()
-        {
-            PreparedStatement stmt = null;
-            try
-            {
-                stmt = conn.prepareStatement("INSERT OR REPLACE INTO metadatablobs (writingkey, hash) VALUES(?, ?)");
-
-                stmt.setString(1,this.b64WritingKey);
-                stmt.setString(2,this.b64hash);
-                stmt.executeUpdate();
-                return true;
-            } catch (SQLException sqe) {
-                LOG.log(Level.WARNING, sqe.getMessage(), sqe);
-                return false;
-            } finally {
-                if (stmt != null)
-                    try
-                    {
-                        stmt.close();
-                    } catch (SQLException sqe2) {
-                        sqe2.printStackTrace();
-                    }
-            }
-        }
-
-        public boolean delete()
-        {
-            PreparedStatement stmt = null;
-            try
-            {
-                stmt = conn.prepareStatement("DELETE from metadatablobs where writingkey=? AND hash=?");
-
-                stmt.setString(1,this.b64WritingKey);
-                stmt.setString(2,this.b64hash);
-                stmt.executeUpdate();
-                return true;
-            } catch (SQLException sqe) {
-                LOG.log(Level.WARNING, sqe.getMessage(), sqe);
-                return false;
-            } finally {
-                if (stmt != null)
-                    try
-                    {
-                        stmt.close();
-                    } catch (SQLException sqe2) {
-                        sqe2.printStackTrace();
-                    }
-            }
-        }
-
-        public MetadataBlob selectOne()
-        {
-            MetadataBlob[] fd = select("where writingKey = '"+ b64WritingKey +"'");
-            if (fd == null || fd.length != 1)
-                return null;
-            return fd[0];
-        }
-
-        public MetadataBlob[] selectAllByName(String username)
-        {
-            return select("where name = "+ username);
-        }
-
-        public MetadataBlob[] select(String selectString)
-        {
-            PreparedStatement stmt = null;
-            try
-            {
-                stmt = conn.prepareStatement("select writingKey, hash from metadatablobs "+ selectString + ";");
-                ResultSet rs = stmt.executeQuery();
-                List<MetadataBlob> list = new ArrayList<MetadataBlob>();
-                while (rs.next())
-                {
-                    MetadataBlob f = new MetadataBlob(rs.getString("writingkey"), rs.getString("hash"));
-                    list.add(f);
-                }
-
-                return list.toArray(new MetadataBlob[0]);
-            } catch (SQLException sqe) {
-                LOG.severe("Error selecting: "+selectString);
-                LOG.log(Level.WARNING, sqe.getMessage(), sqe);
-                return null;
-            } finally {
-                if (stmt != null)
-                    try
-                    {
-                        stmt.close();
-                    } catch (SQLException sqe2) {
-                        sqe2.printStackTrace();
-                    }
-            }
-        }
     }
 
     private volatile boolean isClosed;
@@ -336,7 +109,12 @@ public class JDBCCoreNode {
 
     public JDBCCoreNode(Connection conn, int maxUsernameCount) throws SQLException
     {
-        this.conn = conn;
+        this(SqliteConnectionPool.single(conn), maxUsernameCount);
+    }
+
+    public JDBCCoreNode(SqliteConnectionPool db, int maxUsernameCount) throws SQLException
+    {
+        this.db = db;
         this.maxUsernameCount = maxUsernameCount;
         init();
     }
@@ -346,49 +124,53 @@ public class JDBCCoreNode {
         if (isClosed)
             return;
 
-        //do tables exists?
-        Statement stmt = conn.createStatement();
-        ResultSet rs = stmt.executeQuery(TABLE_NAMES_SELECT_STMT);
-
-        ArrayList<String> missingTables = new ArrayList(TABLES.keySet());
-        while (rs.next())
-        {
-            String tableName = rs.getString("name");
-            missingTables.remove(tableName);
-        }
+        db.write(conn -> {
+            //do tables exists?
+            ArrayList<String> missingTables = new ArrayList<>(TABLES.keySet());
+            try (ResultSet rs = conn.prepare(TABLE_NAMES_SELECT_STMT).executeQuery()) {
+                while (rs.next()) {
+                    String tableName = rs.getString("name");
+                    missingTables.remove(tableName);
+                }
+            }
 
-        for (String missingTable: missingTables)
-        {
-            try
-            {
-                Statement createStmt = conn.createStatement();
-                //LOG.info("Adding table "+ missingTable);
-                createStmt.executeUpdate(TABLES.get(missingTable));
-                createStmt.close();
-
-            } catch ( Exception e ) {
-                LOG.severe( e.getClass().getName() + ": " + e.getMessage() );
+            for (String missingTable : missingTables) {
+                // these contain multiple statements, so can't be prepared
+                try (Statement createStmt = conn.connection().createStatement()) {
+                    //LOG.info("Adding table "+ missingTable);
+                    createStmt.executeUpdate(TABLES.get(missingTable));
+                } catch (Exception e) {
+                    LOG.severe(e.getClass().getName() + ": " + e.getMessage());
+                }
             }
-        }
+            return true;
+        });
+    }
+
+    private static String toBase64(byte[] data) {
+        return Base64.getEncoder().encodeToString(data);
     }
 
     public CompletableFuture<String> getUsername(PublicKeyHash encodedKey)
     {
-        String b64key = Base64.getEncoder().encodeToString(encodedKey.serialize());
+        String b64key = toBase64(encodedKey.serialize());
         try {
-            try (PreparedStatement preparedStatement = conn.prepareStatement("select name from usernames u inner join chains ch on u.id=ch.userid inner join links ln on ch.linkid=ln.id and ln.publickey = ? limit 1")) {
-                preparedStatement.setString(1, b64key);
-                ResultSet resultSet = preparedStatement.executeQuery();
-                boolean next = resultSet.next();
-                if (! next)
-                    return CompletableFuture.completedFuture("");
-                String username = resultSet.getString(1);
-                return getChain(username).thenApply(chain -> {
-                    if (!chain.get(chain.size() - 1).owner.equals(encodedKey))
-                        return "";
-                    return username;
-                });
-            }
+            Optional<String> username = db.read(conn -> {
+                PreparedStatement stmt = conn.prepare(SELECT_USERNAME);
+                stmt.setString(1, b64key);
+                try (ResultSet resultSet = stmt.executeQuery()) {
+                    if (! resultSet.next())
+                        return Optional.<String>empty();
+                    return Optional.of(resultSet.getString(1));
+                }
+            });
+            if (! username.isPresent())
+                return CompletableFuture.completedFuture("");
+            return getChain(username.get()).thenApply(chain -> {
+                if (!chain.get(chain.size() - 1).owner.equals(encodedKey))
+                    return "";
+                return username.get();
+            });
         } catch (SQLException sqle) {
             throw new IllegalStateException(sqle);
         }
@@ -396,23 +178,25 @@ public class JDBCCoreNode {
 
     public CompletableFuture<List<UserPublicKeyLink>> getChain(String username) {
         try {
-            try (PreparedStatement preparedStatement = conn.prepareStatement("select chains.lindex, links.publickey, links.link from links inner join chains on links.id=chains.linkid \n" +
-                    "inner join usernames on chains.userid=usernames.id where usernames.name=? order by chains.lindex;")) {
-                preparedStatement.setString(1, username);
-                ResultSet resultSet = preparedStatement.executeQuery();
-                Map<Integer, UserPublicKeyLink> serializedChain = new HashMap<>();
-                while (resultSet.next()) {
-                    serializedChain.put(resultSet.getInt(1), UserPublicKeyLink.fromCbor(CborObject.fromByteArray(
-                            Base64.getDecoder().decode(resultSet.getString(3)))));
-                }
-                ArrayList<UserPublicKeyLink> result = new ArrayList<>();
-                for (int i=0; i < serializedChain.size(); i++) {
-                    if (!serializedChain.containsKey(i))
-                        throw new IllegalStateException("Missing UserPublicKeyLink at index: "+i);
-                    result.add(serializedChain.get(i));
+            Map<Integer, UserPublicKeyLink> serializedChain = db.read(conn -> {
+                PreparedStatement stmt = conn.prepare(SELECT_CHAIN);
+                stmt.setString(1, username);
+                Map<Integer, UserPublicKeyLink> links = new HashMap<>();
+                try (ResultSet resultSet = stmt.executeQuery()) {
+                    while (resultSet.next()) {
+                        links.put(resultSet.getInt(1), UserPublicKeyLink.fromCbor(CborObject.fromByteArray(
+                                Base64.getDecoder().decode(resultSet.getString(3)))));
+                    }
                 }
-                return CompletableFuture.completedFuture(result);
+                return links;
+            });
+            ArrayList<UserPublicKeyLink> result = new ArrayList<>();
+            for (int i=0; i < serializedChain.size(); i++) {
+                if (!serializedChain.containsKey(i))
+                    throw new IllegalStateException("Missing UserPublicKeyLink at index: "+i);
+                result.add(serializedChain.get(i));
             }
+            return CompletableFuture.completedFuture(result);
         } catch (SQLException sqle) {
             throw new IllegalStateException(sqle);
         }
@@ -434,135 +218,94 @@ public class JDBCCoreNode {
             throw new IllegalStateException("Invalid  username '" +username+"'");
 
 
-        List<String> toWrite = merged.stream().map(x -> new String(Base64.getEncoder().encode(x.serialize()))).collect(Collectors.toList());
+        List<String> toWrite = merged.stream().map(x -> toBase64(x.serialize())).collect(Collectors.toList());
         Optional<PublicKeyHash> oldKey = existing.size() == 0 ? Optional.empty() : Optional.of(existing.get(existing.size() - 1).owner);
         PublicKeyHash newKey = tail.get(tail.size() - 1).owner;
 
         // Conceptually this should be a CAS of the new chain in for the old one under the username
         // The last one or two elements will have changed
         // Ensure usernamesandkeys table is uptodate as well
-        Optional<String> existingKeyb64 = oldKey.map(x -> new String(Base64.getEncoder().encode(x.serialize())));
-        String newKeyb64 = new String(Base64.getEncoder().encode(newKey.serialize()));
-        List<String> existingStrings = existing.stream().map(x -> new String(Base64.getEncoder().encode(x.serialize()))).collect(Collectors.toList());
-        if (existingStrings.size() == 0 && toWrite.size() == 1) {
-            // single link to claim a new username
-            try {
-                PreparedStatement user = null, link = null, chain = null;
-                try {
-                    conn.setAutoCommit(false);
-
-                    long userCount = conn.createStatement().executeQuery("select count(name) from usernames;").getLong(1);
-                    if (userCount >= this.maxUsernameCount)
-                        throw new IllegalStateException("Not currently accepting new users.");
-
-                    user = conn.prepareStatement("insert into usernames (name) VALUES(?);");
+        Optional<String> existingKeyb64 = oldKey.map(x -> toBase64(x.serialize()));
+        String newKeyb64 = toBase64(newKey.serialize());
+        List<String> existingStrings = existing.stream().map(x -> toBase64(x.serialize())).collect(Collectors.toList());
+        try {
+            if (existingStrings.size() == 0 && toWrite.size() == 1) {
+                // single link to claim a new username
+                db.transaction(conn -> {
+                    try (ResultSet count = conn.prepare(COUNT_USERNAMES).executeQuery()) {
+                        if (count.next() && count.getLong(1) >= this.maxUsernameCount)
+                            throw new IllegalStateException("Not currently accepting new users.");
+                    }
+
+                    PreparedStatement user = conn.prepare(INSERT_USERNAME);
                     user.setString(1, username);
                     user.execute();
-                    link = conn.prepareStatement("insert into links (publickey, link) VALUES(?, ?);");
+                    PreparedStatement link = conn.prepare(INSERT_LINK);
                     link.setString(1, newKeyb64);
                     link.setString(2, toWrite.get(0));
                     link.execute();
-                    chain = conn.prepareStatement("insert into chains (userid, linkid, lindex) select usernames.id, links.id, 0 "
-                            + "from usernames join links where links.publickey=? and usernames.name=?;");
+                    PreparedStatement chain = conn.prepare(INSERT_FIRST_CHAIN_LINK);
                     chain.setString(1, newKeyb64);
                     chain.setString(2, username);
                     chain.execute();
-                    conn.commit();
-                    // updated cached list of usernames
-                    List<String> updatedUsernames = Stream.concat(
-                            Stream.of(username),
-                            userSet.getMostRecent().orElse(Collections.emptyList()).stream()
-                    ).sorted().collect(Collectors.toList());
-                    userSet.setUserSet(updatedUsernames);
                     return true;
-                } catch (SQLException sqe) {
-                    throw new IllegalStateException(sqe);
-                } finally {
-                    if (user != null) {
-                        user.close();
-                    }
-                    if (link != null) {
-                        link.close();
-                    }
-                    if (chain != null) {
-                        chain.close();
-                    }
-                    conn.setAutoCommit(true);
-                }
-            } catch (SQLException e) {
-                throw new IllegalStateException(e);
-            }
-        } else if (toWrite.size() == existingStrings.size() + 1) {
-            // two link update ( a key change to an existing username)
-            try {
-                PreparedStatement update = null, link = null, chain = null;
-                try {
-                    conn.setAutoCommit(false);
-                    update = conn.prepareStatement("update links set link=? where links.publickey=?;");
+                });
+                // updated cached list of usernames
+                List<String> updatedUsernames = Stream.concat(
+                        Stream.of(username),
+                        userSet.getMostRecent().orElse(Collections.emptyList()).stream()
+                ).sorted().collect(Collectors.toList());
+                userSet.setUserSet(updatedUsernames);
+                return true;
+            } else if (toWrite.size() == existingStrings.size() + 1) {
+                // two link update ( a key change to an existing username)
+                return db.transaction(conn -> {
+                    PreparedStatement update = conn.prepare(UPDATE_LINK);
                     update.setString(1, toWrite.get(toWrite.size() - 2));
                     update.setString(2, existingKeyb64.get());
                     update.execute();
-                    link = conn.prepareStatement("insert into links (publickey, link) VALUES(?, ?);");
+                    PreparedStatement link = conn.prepare(INSERT_LINK);
                     link.setString(1, newKeyb64);
                     link.setString(2, toWrite.get(toWrite.size() - 1));
                     link.execute();
-                    chain = conn.prepareStatement("insert into chains (userid, linkid, lindex) " +
-                            "select usernames.id, links.id, " +
-                            "((select max(lindex) from chains inner join usernames where " +
-                            "chains.userid=usernames.id and usernames.name=?)+1) " +
-                            "from usernames join links where links.publickey=? and usernames.name=?;");
+                    PreparedStatement chain = conn.prepare(INSERT_NEXT_CHAIN_LINK);
                     chain.setString(1, username);
                     chain.setString(2, newKeyb64);
                     chain.setString(3, username);
                     chain.execute();
-                    conn.commit();
                     return true;
-                } catch (SQLException sqe) {
-                    throw new IllegalStateException(sqe);
-                } finally {
-                    if (update != null) {
-                        update.close();
-                    }
-                    if (link != null) {
-                        link.close();
-                    }
-                    if (chain != null) {
-                        chain.close();
-                    }
-                    conn.setAutoCommit(true);
-                }
-            } catch (SQLException e) {
-                throw new IllegalStateException(e);
-            }
-        } else if (toWrite.size() == existingStrings.size()) {
-            // single link update to existing username and key (changing expiry date)
-            try (PreparedStatement stmt = conn.prepareStatement("update links set link=? where links.publickey=?;")) {
-                stmt.setString(1, toWrite.get(toWrite.size() - 1));
-                stmt.setString(2, existingKeyb64.get());
-                stmt.execute();
-
-                return true;
-            } catch (SQLException sqe) {
-                throw new IllegalStateException(sqe);
-            }
-        } else
-            throw new IllegalStateException("Tried to shorten key chain for username: " + username + "!");
+                });
+            } else if (toWrite.size() == existingStrings.size()) {
+                // single link update to existing username and key (changing expiry date)
+                return db.write(conn -> {
+                    PreparedStatement stmt = conn.prepare(UPDATE_LINK);
+                    stmt.setString(1, toWrite.get(toWrite.size() - 1));
+                    stmt.setString(2, existingKeyb64.get());
+                    stmt.execute();
+                    return true;
+                });
+            } else
+                throw new IllegalStateException("Tried to shorten key chain for username: " + username + "!");
+        } catch (SQLException sqe) {
+            throw new IllegalStateException(sqe);
+        }
     }
 
     public CompletableFuture<List<String>> getUsernames(String prefix) {
         Optional<List<String>> cached = userSet.getMostRecent();
         if (cached.isPresent())
             return CompletableFuture.completedFuture(cached.get());
-        try (PreparedStatement stmt = conn.prepareStatement("select name from usernames where name like ?"))
-        {
-            stmt.setString(1, prefix + "%");
-            ResultSet rs = stmt.executeQuery();
-            List<String> list = new ArrayList<>();
-            while (rs.next())
-            {
-                String username = rs.getString("name");
-                list.add(username);
-            }
+        try {
+            List<String> list = db.read(conn -> {
+                PreparedStatement stmt = conn.prepare(SELECT_USERNAMES);
+                stmt.setString(1, prefix + "%");
+                List<String> names = new ArrayList<>();
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next())
+                        names.add(rs.getString("name"));
+                }
+                return names;
+            });
 
             userSet.setUserSet(list);
             return CompletableFuture.completedFuture(list);
@@ -573,36 +316,71 @@ public class JDBCCoreNode {
 
     public CompletableFuture<Boolean> addFollowRequest(PublicKeyHash owner, byte[] encryptedPermission)
     {
-        byte[] dummy = null;
-        FollowRequestData selector = new FollowRequestData(owner, dummy);
-        RowData[] requests = selector.select();
-        if (requests != null && requests.length > SocialNetwork.MAX_PENDING_FOLLOWERS)
-            return CompletableFuture.completedFuture(false);
-        // ToDo add a crypto currency transaction to prevent spam
+        String name = owner.toString();
+        String b64request = toBase64(encryptedPermission);
+        try {
+            // count and insert on the writer so concurrent requests can't exceed the limit
+            return CompletableFuture.completedFuture(db.write(conn -> {
+                PreparedStatement count = conn.prepare(COUNT_FOLLOW_REQUESTS);
+                count.setString(1, name);
+                try (ResultSet rs = count.executeQuery()) {
+                    if (rs.next() && rs.getLong(1) > SocialNetwork.MAX_PENDING_FOLLOWERS)
+                        return false;
+                }
+                // ToDo add a crypto currency transaction to prevent spam
 
-        FollowRequestData request = new FollowRequestData(owner, encryptedPermission);
-        return CompletableFuture.completedFuture(request.insert());
+                PreparedStatement insert = conn.prepare(INSERT_FOLLOW_REQUEST);
+                insert.setString(1, name);
+                insert.setString(2, b64request);
+                insert.executeUpdate();
+                return true;
+            }));
+        } catch (SQLException sqe) {
+            LOG.log(Level.WARNING, sqe.getMessage(), sqe);
+            return CompletableFuture.completedFuture(false);
+        }
     }
 
     public CompletableFuture<Boolean> removeFollowRequest(PublicKeyHash owner, byte[] unsigned)
     {
-        FollowRequestData request = new FollowRequestData(owner, unsigned);
-        return CompletableFuture.completedFuture(request.delete());
+        try {
+            return CompletableFuture.completedFuture(db.write(conn -> {
+                PreparedStatement stmt = conn.prepare(DELETE_FOLLOW_REQUEST);
+                stmt.setString(1, owner.toString());
+                stmt.setString(2, toBase64(unsigned));
+                stmt.executeUpdate();
+                return true;
+            }));
+        } catch (SQLException sqe) {
+            LOG.log(Level.WARNING, sqe.getMessage(), sqe);
+            return CompletableFuture.completedFuture(false);
+        }
     }
 
     public CompletableFuture<byte[]> getFollowRequests(PublicKeyHash owner) {
-        byte[] dummy = null;
-        FollowRequestData request = new FollowRequestData(owner, dummy);
-        RowData[] requests = request.select();
-        if (requests == null)
+        List<byte[]> requests;
+        try {
+            requests = db.read(conn -> {
+                PreparedStatement stmt = conn.prepare(SELECT_FOLLOW_REQUESTS);
+                stmt.setString(1, owner.toString());
+                List<byte[]> res = new ArrayList<>();
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next())
+                        res.add(Base64.getDecoder().decode(rs.getString("followrequest")));
+                }
+                return res;
+            });
+        } catch (SQLException sqe) {
+            LOG.log(Level.WARNING, sqe.getMessage(), sqe);
             return CompletableFuture.completedFuture(new byte[4]);
+        }
 
         ByteArrayOutputStream bout = new ByteArrayOutputStream();
         DataOutput dout = new DataOutputStream(bout);
         try {
-            dout.writeInt(requests.length);
-            for (RowData req : requests)
-                Serialize.serialize(req.data, dout);
+            dout.writeInt(requests.size());
+            for (byte[] req : requests)
+                Serialize.serialize(req, dout);
             return CompletableFuture.completedFuture(bout.toByteArray());
         } catch (IOException e) {
             LOG.log(Level.WARNING, e.getMessage(), e);
@@ -610,18 +388,154 @@ public class JDBCCoreNode {
         }
     }
 
+    /** Concurrent pointer updates are queued, and whichever caller gets the writer connection next writes all the
+     *  queued updates in one batched transaction.
+     *
+     * @param owner
+     * @param writerHash
+     * @param writingKeySignedHash
+     * @return
+     */
     public CompletableFuture<Boolean> setPointer(PublicKeyHash owner, PublicKeyHash writerHash, byte[] writingKeySignedHash) {
-        MetadataBlob blob = new MetadataBlob(writerHash.serialize(), writingKeySignedHash);
-        return CompletableFuture.completedFuture(blob.insert());
+        PendingPointer update = new PendingPointer(toBase64(writerHash.serialize()), toBase64(writingKeySignedHash));
+        pendingPointers.add(update);
+        writePendingPointers();
+        return update.result;
+    }
+
+    private void writePendingPointers() {
+        List<PendingPointer> batch = new ArrayList<>();
+        try {
+            db.write(conn -> {
+                PendingPointer next;
+                while ((next = pendingPointers.poll()) != null)
+                    batch.add(next);
+                // our update may already have been written by another caller
+                if (batch.isEmpty())
+                    return true;
+                return db.transaction(tx -> {
+                    PreparedStatement stmt = tx.prepare(UPSERT_POINTER);
+                    for (PendingPointer update : batch) {
+                        stmt.setString(1, update.b64WritingKey);
+                        stmt.setString(2, update.b64hash);
+                        stmt.addBatch();
+                    }
+                    stmt.executeBatch();
+                    return true;
+                });
+            });
+            for (PendingPointer update : batch)
+                update.result.complete(true);
+        } catch (SQLException sqe) {
+            LOG.log(Level.WARNING, sqe.getMessage(), sqe);
+            for (PendingPointer update : batch)
+                update.result.complete(false);
+        }
+    }
+
+    /** Apply several pointer updates in a single transaction, if every pointer still has its expected current value
+     *
+     * @param owner
+     * @param updates
+     * @param expected the current value of each writer that the updates were validated against
+     * @return true if all the updates were written
+     */
+    public boolean setPointers(PublicKeyHash owner,
+                               List<PointerUpdates.PointerUpdate> updates,
+                               Map<PublicKeyHash, Optional<byte[]>> expected) {
+        try {
+            return db.transaction(tx -> {
+                PreparedStatement select = tx.prepare(SELECT_POINTER);
+                for (PointerUpdates.PointerUpdate update : updates) {
+                    select.setString(1, toBase64(update.writer.serialize()));
+                    Optional<byte[]> current;
+                    try (ResultSet rs = select.executeQuery()) {
+                        current = rs.next() ?
+                                Optional.of(Base64.getDecoder().decode(rs.getString("hash"))) :
+                                Optional.empty();
+                    }
+                    Optional<byte[]> claimed = expected.getOrDefault(update.writer, Optional.empty());
+                    if (current.isPresent() != claimed.isPresent() ||
+                            (current.isPresent() && ! Arrays.equals(current.get(), claimed.get())))
+                        return false;
+                }
+                PreparedStatement upsert = tx.prepare(UPSERT_POINTER);
+                for (PointerUpdates.PointerUpdate update : updates) {
+                    upsert.setString(1, toBase64(update.writer.serialize()));
+                    upsert.setString(2, toBase64(update.writerSignedBtreeRootHash));
+                    upsert.addBatch();
+                }
+                upsert.executeBatch();
+                return true;
+            });
+        } catch (SQLException sqe) {
+            LOG.log(Level.WARNING, sqe.getMessage(), sqe);
+            return false;
+        }
     }
 
     public CompletableFuture<Optional<byte[]>> getPointer(PublicKeyHash writingKey) {
-        byte[] dummy = null;
-        MetadataBlob blob = new MetadataBlob(writingKey.serialize(), dummy);
-        MetadataBlob users = blob.selectOne();
-        if (users == null)
+        String b64WritingKey = toBase64(writingKey.serialize());
+        try {
+            return CompletableFuture.completedFuture(db.read(conn -> {
+                PreparedStatement stmt = conn.prepare(SELECT_POINTER);
+                stmt.setString(1, b64WritingKey);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    if (! rs.next())
+                        return Optional.<byte[]>empty();
+                    return Optional.of(Base64.getDecoder().decode(rs.getString("hash")));
+                }
+            }));
+        } catch (SQLException sqe) {
+            LOG.log(Level.WARNING, sqe.getMessage(), sqe);
             return CompletableFuture.completedFuture(Optional.empty());
-        return CompletableFuture.completedFuture(Optional.of(users.hash));
+        }
+    }
+
+    /** Look up many pointers with one query per MAX_POINTERS_PER_QUERY writers
+     *
+     * @param writingKeys
+     * @return
+     */
+    public CompletableFuture<Map<PublicKeyHash, Optional<byte[]>>> getPointers(List<PublicKeyHash> writingKeys) {
+        Map<String, PublicKeyHash> byB64 = new LinkedHashMap<>();
+        for (PublicKeyHash writer : writingKeys)
+            byB64.put(toBase64(writer.serialize()), writer);
+        Map<PublicKeyHash, Optional<byte[]>> res = new HashMap<>();
+        for (PublicKeyHash writer : byB64.values())
+            res.put(writer, Optional.empty());
+
+        List<String> keys = new ArrayList<>(byB64.keySet());
+        try {
+            db.read(conn -> {
+                for (int start = 0; start < keys.size(); start += MAX_POINTERS_PER_QUERY) {
+                    List<String> batch = keys.subList(start, Math.min(keys.size(), start + MAX_POINTERS_PER_QUERY));
+                    String sql = "select writingkey, hash from metadatablobs where writingkey in (" +
+                            String.join(",", Collections.nCopies(batch.size(), "?")) + ");";
+                    // only the full size batch statement is worth caching
+                    boolean isFullBatch = batch.size() == MAX_POINTERS_PER_QUERY;
+                    PreparedStatement stmt = isFullBatch ? conn.prepare(sql) : conn.connection().prepareStatement(sql);
+                    try {
+                        for (int i = 0; i < batch.size(); i++)
+                            stmt.setString(i + 1, batch.get(i));
+                        try (ResultSet rs = stmt.executeQuery()) {
+                            while (rs.next())
+                                res.put(byB64.get(rs.getString("writingkey")), Optional.of(Base64.getDecoder().decode(rs.getString("hash"))));
+                        }
+                    } finally {
+                        if (! isFullBatch)
+                            stmt.close();
+                    }
+                }
+                return true;
+            });
+        } catch (SQLException sqe) {
+            LOG.log(Level.WARNING, sqe.getMessage(), sqe);
+            CompletableFuture<Map<PublicKeyHash, Optional<byte[]>>> err = new CompletableFuture<>();
+            err.completeExceptionally(sqe);
+            return err;
+        }
+        return CompletableFuture.completedFuture(res);
     }
 
     public synchronized void close()
@@ -630,36 +544,13 @@ public class JDBCCoreNode {
             return;
         try
         {
-            if (conn != null)
-                conn.close();
+            db.close();
             isClosed = true;
         } catch (Exception e) {
             LOG.log(Level.WARNING, e.getMessage(), e);
         }
     }
 
-    public boolean delete(String table, String deleteString)
-    {
-        Statement stmt = null;
-        try
-        {
-            stmt = conn.createStatement();
-            stmt.executeUpdate("delete from "+table+" where "+ deleteString +";");
-            return true;
-        } catch (SQLException sqe) {
-            LOG.log(Level.WARNING, sqe.getMessage(), sqe);
-            return false;
-        } finally {
-            if (stmt != null)
-                try
-                {
-                    stmt.close();
-                } catch (SQLException sqe2) {
-                    sqe2.printStackTrace();
-                }
-        }
-    }
-
     public static Connection buildSqlLite(String dbPath) throws SQLException
     {
         try
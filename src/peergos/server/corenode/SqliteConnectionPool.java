@@ -0,0 +1,208 @@
+package peergos.server.corenode;
+import java.util.logging.*;
+
+import peergos.server.util.Logging;
+
+import org.sqlite.*;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/** A single writer connection and a pool of read only connections to a SQLite database in WAL mode, so that reads
+ *  proceed concurrently with each other and with the writer. Each connection keeps its prepared statements.
+ *
+ *  An in memory database is private to its connection, so it is served by a single connection for reads and writes.
+ */
+public class SqliteConnectionPool {
+	private static final Logger LOG = Logging.LOG();
+
+    public static final int DEFAULT_READERS = Math.max(2, Math.min(8, Runtime.getRuntime().availableProcessors()));
+    private static final int BUSY_TIMEOUT_SECONDS = 30;
+
+    public interface SqlFunction<T> {
+        T apply(PooledConnection conn) throws SQLException;
+    }
+
+    public static class PooledConnection {
+        private final Connection conn;
+        private final Map<String, PreparedStatement> statements = new HashMap<>();
+
+        PooledConnection(Connection conn) {
+            this.conn = conn;
+        }
+
+        public Connection connection() {
+            return conn;
+        }
+
+        /**
+         *
+         * @param sql
+         * @return a cached prepared statement for sql, which must not be closed by the caller
+         * @throws SQLException
+         */
+        public PreparedStatement prepare(String sql) throws SQLException {
+            PreparedStatement stmt = statements.get(sql);
+            if (stmt == null) {
+                stmt = conn.prepareStatement(sql);
+                stmt.setQueryTimeout(BUSY_TIMEOUT_SECONDS);
+                statements.put(sql, stmt);
+            } else
+                stmt.clearParameters();
+            return stmt;
+        }
+
+        void close() {
+            for (PreparedStatement stmt : statements.values()) {
+                try {
+                    stmt.close();
+                } catch (SQLException e) {
+                    LOG.log(Level.WARNING, e.getMessage(), e);
+                }
+            }
+            statements.clear();
+            try {
+                conn.close();
+            } catch (SQLException e) {
+                LOG.log(Level.WARNING, e.getMessage(), e);
+            }
+        }
+    }
+
+    private final PooledConnection writer;
+    private final List<PooledConnection> allReaders;
+    private final BlockingQueue<PooledConnection> readers;
+
+    private SqliteConnectionPool(Connection writer, List<Connection> readers) {
+        this.writer = new PooledConnection(writer);
+        this.allReaders = new ArrayList<>();
+        for (Connection reader : readers)
+            allReaders.add(new PooledConnection(reader));
+        this.readers = new ArrayBlockingQueue<>(Math.max(1, allReaders.size()), false, allReaders);
+    }
+
+    /**
+     *
+     * @param conn
+     * @return A pool which does all reads and writes on a single connection
+     */
+    public static SqliteConnectionPool single(Connection conn) {
+        return new SqliteConnectionPool(conn, Collections.emptyList());
+    }
+
+    /**
+     *
+     * @param dbPath
+     * @param readers the number of read only connections
+     * @return
+     * @throws SQLException
+     */
+    public static SqliteConnectionPool build(String dbPath, int readers) throws SQLException {
+        try {
+            Class.forName("org.sqlite.JDBC");
+        } catch (ClassNotFoundException cnfe) {
+            throw new SQLException(cnfe);
+        }
+        String url = "jdbc:sqlite:" + dbPath;
+        if (isInMemory(dbPath)) {
+            Connection conn = DriverManager.getConnection(url);
+            conn.setAutoCommit(true);
+            return single(conn);
+        }
+
+        SQLiteConfig writerConfig = new SQLiteConfig();
+        // in WAL mode this is still durable against application crashes, just not power loss mid checkpoint
+        writerConfig.setSynchronous(SQLiteConfig.SynchronousMode.NORMAL);
+        Connection writer = writerConfig.createConnection(url);
+        writer.setAutoCommit(true);
+        // WAL mode is persistent, and lets readers continue whilst a write is in progress
+        try (Statement stmt = writer.createStatement();
+             ResultSet mode = stmt.executeQuery("PRAGMA journal_mode=WAL;")) {
+            if (! mode.next() || ! mode.getString(1).equalsIgnoreCase("wal"))
+                LOG.warning("Couldn't enable WAL mode for " + dbPath);
+        }
+
+        List<Connection> readerConnections = new ArrayList<>();
+        for (int i = 0; i < readers; i++) {
+            SQLiteConfig readerConfig = new SQLiteConfig();
+            readerConfig.setReadOnly(true);
+            Connection reader = readerConfig.createConnection(url);
+            reader.setAutoCommit(true);
+            readerConnections.add(reader);
+        }
+        return new SqliteConnectionPool(writer, readerConnections);
+    }
+
+    public static boolean isInMemory(String dbPath) {
+        return dbPath.isEmpty() || dbPath.equals(":memory:") || dbPath.contains("mode=memory");
+    }
+
+    /** Run a read only operation on a pooled connection
+     *
+     * @param query
+     * @param <T>
+     * @return
+     * @throws SQLException
+     */
+    public <T> T read(SqlFunction<T> query) throws SQLException {
+        if (allReaders.isEmpty())
+            return write(query);
+        PooledConnection conn;
+        try {
+            conn = readers.take();
+        } catch (InterruptedException e) {
+            throw new SQLException(e);
+        }
+        try {
+            return query.apply(conn);
+        } finally {
+            readers.add(conn);
+        }
+    }
+
+    /** Run an operation on the writer connection, with exclusive access to it
+     *
+     * @param update
+     * @param <T>
+     * @return
+     * @throws SQLException
+     */
+    public <T> T write(SqlFunction<T> update) throws SQLException {
+        synchronized (writer) {
+            return update.apply(writer);
+        }
+    }
+
+    /** Run an operation on the writer connection in a single transaction, which is rolled back if it throws
+     *
+     * @param update
+     * @param <T>
+     * @return
+     * @throws SQLException
+     */
+    public <T> T transaction(SqlFunction<T> update) throws SQLException {
+        synchronized (writer) {
+            Connection conn = writer.conn;
+            conn.setAutoCommit(false);
+            try {
+                T res = update.apply(writer);
+                conn.commit();
+                return res;
+            } catch (SQLException | RuntimeException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+    }
+
+    public void close() {
+        synchronized (writer) {
+            for (PooledConnection reader : allReaders)
+                reader.close();
+            writer.close();
+        }
+    }
+}
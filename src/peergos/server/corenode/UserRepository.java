@@ -90,6 +90,11 @@ public class UserRepository implements CoreNode, SocialNetwork, MutablePointers
         return store.getPointer(writer);
     }
 
+    @Override
+    public CompletableFuture<Map<PublicKeyHash, Optional<byte[]>>> getPointers(List<PublicKeyHash> writers) {
+        return store.getPointers(writers);
+    }
+
     @Override
     public CompletableFuture<Boolean> setPointer(PublicKeyHash owner, PublicKeyHash writer, byte[] writerSignedBtreeRootHash) {
         return getPointer(writer)
@@ -99,7 +104,7 @@ public class UserRepository implements CoreNode, SocialNetwork, MutablePointers
                                 if (! writerOpt.isPresent())
                                     throw new IllegalStateException("Couldn't retrieve writer key from ipfs with hash " + writer);
                                 PublicSigningKey writerKey = writerOpt.get();
-                                if (! MutablePointers.isValidUpdate(writerKey, current, writerSignedBtreeRootHash))
+                                if (! MutablePointers.isValidUpdate(writer, writerKey, current, writerSignedBtreeRootHash))
                                     return CompletableFuture.completedFuture(false);
 
                                 return store.setPointer(owner, writer, writerSignedBtreeRootHash);
@@ -111,6 +116,36 @@ public class UserRepository implements CoreNode, SocialNetwork, MutablePointers
 
     }
 
+    /** Each update is validated against the current value of its writer, and the store only applies them if none of
+     *  those values have changed since.
+     *
+     */
+    @Override
+    public CompletableFuture<Boolean> setPointers(PublicKeyHash owner, List<PointerUpdates.PointerUpdate> updates) {
+        List<PublicKeyHash> writers = new ArrayList<>();
+        for (PointerUpdates.PointerUpdate update : updates)
+            writers.add(update.writer);
+        if (new HashSet<>(writers).size() != writers.size())
+            return CompletableFuture.completedFuture(false);
+        return getPointers(writers).thenApply(current -> {
+            for (PointerUpdates.PointerUpdate update : updates) {
+                try {
+                    Optional<PublicSigningKey> writerOpt = ipfs.getSigningKey(update.writer).get();
+                    if (! writerOpt.isPresent())
+                        throw new IllegalStateException("Couldn't retrieve writer key from ipfs with hash " + update.writer);
+                    if (! MutablePointers.isValidUpdate(update.writer, writerOpt.get(), current.get(update.writer), update.writerSignedBtreeRootHash))
+                        return false;
+                } catch (TweetNaCl.InvalidSignatureException e) {
+                    System.err.println("Invalid signature during setPointers for sharer: " + update.writer);
+                    return false;
+                } catch (InterruptedException | ExecutionException e) {
+                    throw new RuntimeException(e.getMessage(), e);
+                }
+            }
+            return store.setPointers(owner, updates, current);
+        });
+    }
+
     @Override
     public void close() throws IOException {
 
@@ -119,7 +154,7 @@ public class UserRepository implements CoreNode, SocialNetwork, MutablePointers
     public static UserRepository buildSqlLite(String dbPath, ContentAddressedStorage ipfs, int maxUserCount) throws SQLException
     {
         JDBCCoreNode coreNode = new JDBCCoreNode(
-            JDBCCoreNode.buildSqlLite(dbPath), maxUserCount);
+            SqliteConnectionPool.build(dbPath, SqliteConnectionPool.DEFAULT_READERS), maxUserCount);
 
         return new UserRepository(ipfs, coreNode);
     }
@@ -182,8 +182,7 @@ public class PeergosFS extends FuseStubFS implements AutoCloseable {
                 Optional<FileTreeNode> renamedOriginal = context.getByPath(renamedInPlacePath.toString()).get();;
                 if (! renamedOriginal.isPresent())
                     return 1;
-                renamedOriginal.get().copyTo(newParent.get(), context.network, context.crypto.random, context.fragmenter()).get();
-                FileTreeNode updatedParent2 = renamedOriginal.get().remove(context.network, parent).get();
+                renamedOriginal.get().moveTo(newParent.get(), parent, context.network, context.crypto.random, context.fragmenter()).get();
             }
             return 0;
         } catch (Exception ioe) {
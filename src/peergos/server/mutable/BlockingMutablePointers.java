@@ -24,6 +24,17 @@ public class BlockingMutablePointers implements MutablePointers {
         return res;
     }
 
+    @Override
+    public CompletableFuture<Boolean> setPointers(PublicKeyHash owner, List<PointerUpdates.PointerUpdate> updates) {
+        for (PointerUpdates.PointerUpdate update : updates)
+            if (! blacklist.isAllowed(update.writer)) {
+                CompletableFuture<Boolean> res = new CompletableFuture<>();
+                res.completeExceptionally(new IllegalStateException("This Peergos subspace has been banned from this server"));
+                return res;
+            }
+        return source.setPointers(owner, updates);
+    }
+
     @Override
     public CompletableFuture<Optional<byte[]>> getPointer(PublicKeyHash writer) {
         if (blacklist.isAllowed(writer))
@@ -32,4 +43,15 @@ public class BlockingMutablePointers implements MutablePointers {
         res.completeExceptionally(new IllegalStateException("This Peergos subspace has been banned from this server"));
         return res;
     }
+
+    @Override
+    public CompletableFuture<Map<PublicKeyHash, Optional<byte[]>>> getPointers(List<PublicKeyHash> writers) {
+        for (PublicKeyHash writer : writers)
+            if (! blacklist.isAllowed(writer)) {
+                CompletableFuture<Map<PublicKeyHash, Optional<byte[]>>> res = new CompletableFuture<>();
+                res.completeExceptionally(new IllegalStateException("This Peergos subspace has been banned from this server"));
+                return res;
+            }
+        return source.getPointers(writers);
+    }
 }
@@ -2,16 +2,21 @@ package peergos.server.mutable;
 import java.util.logging.*;
 
 import peergos.server.util.Logging;
+import peergos.server.util.AsyncLogHandler;
 
 import com.sun.net.httpserver.*;
 import peergos.shared.cbor.*;
 import peergos.shared.corenode.*;
 import peergos.shared.crypto.hash.*;
+import peergos.shared.hamt.*;
 import peergos.shared.mutable.*;
+import peergos.shared.storage.*;
 
 import java.io.*;
 import java.net.*;
+import java.util.*;
 import java.util.concurrent.*;
+import java.util.stream.*;
 
 public class HttpMutablePointerServer {
 	private static final Logger LOG = Logging.LOG();
@@ -23,13 +28,32 @@ public class HttpMutablePointerServer {
     private static final int HANDLER_THREAD_COUNT = 100;
 
     public static final String MUTABLE_POINTERS_URL = "mutable/";
+    private static final int MAX_POINTERS_REQUEST_SIZE = MutablePointers.MAX_WRITERS_PER_GET_POINTERS * PublicKeyHash.MAX_KEY_HASH_SIZE;
+    // subscribed writers, and signed follow request subscriptions
+    private static final int MAX_SUBSCRIBE_REQUEST_SIZE = 2 * MAX_POINTERS_REQUEST_SIZE;
+    private static final int MAX_LOOKUP_REQUEST_SIZE = 4096;
+    private static final int MAX_POINTERS_PER_TRANSACTION = 100;
+    private static final int MAX_SET_POINTERS_REQUEST_SIZE = MAX_POINTERS_PER_TRANSACTION * 1024;
 
     public static class MutationHandler implements HttpHandler
     {
         private final MutablePointers mutable;
+        private final Optional<PointerFeed> feed;
+        // used to resolve champ lookups
+        private final Optional<ContentAddressedStorage> dht;
 
-        public MutationHandler(MutablePointers mutable) {
+        public MutationHandler(MutablePointers mutable, Optional<PointerFeed> feed, Optional<ContentAddressedStorage> dht) {
             this.mutable = mutable;
+            this.feed = feed;
+            this.dht = dht;
+        }
+
+        public MutationHandler(MutablePointers mutable, Optional<PointerFeed> feed) {
+            this(mutable, feed, Optional.empty());
+        }
+
+        public MutationHandler(MutablePointers mutable) {
+            this(mutable, Optional.empty());
         }
 
         public void handle(HttpExchange exchange) throws IOException
@@ -46,6 +70,17 @@ public class HttpMutablePointerServer {
             String[] subComponents = path.substring(MUTABLE_POINTERS_URL.length()).split("/");
             String method = subComponents[0];
 //            LOG.info("core method "+ method +" from path "+ path);
+            if (method.equals("subscribe") && feed.isPresent()) {
+                // This is a long poll, so respond asynchronously rather than holding a handler thread
+                try {
+                    getUpdates(exchange, din, feed.get());
+                } catch (Exception e) {
+                    LOG.log(Level.WARNING, e.getMessage(), e);
+                    exchange.sendResponseHeaders(400, 0);
+                    exchange.close();
+                }
+                return;
+            }
 
             try {
                 switch (method)
@@ -53,9 +88,20 @@ public class HttpMutablePointerServer {
                     case "setPointer":
                         setPointer(din, dout);
                         break;
+                    case "setPointers":
+                        setPointers(din, dout);
+                        break;
                     case "getPointer":
                         getPointer(din, dout);
                         break;
+                    case "getPointers":
+                        getPointers(din, dout);
+                        break;
+                    case "lookup":
+                        if (! dht.isPresent())
+                            throw new IOException("Unknown method "+ method);
+                        lookup(din, dout, dht.get());
+                        break;
                     default:
                         throw new IOException("Unknown method "+ method);
                 }
@@ -67,6 +113,8 @@ public class HttpMutablePointerServer {
                 exchange.getResponseBody().write(b);
             } catch (Exception e) {
                 LOG.log(Level.WARNING, e.getMessage(), e);
+                // clients see the reason in the trailer, e.g. to stop using an unknown method
+                exchange.getResponseHeaders().set("Trailer", String.valueOf(e.getMessage()).replaceAll("[\r\n]", " "));
                 exchange.sendResponseHeaders(400, 0);
                 OutputStream body = exchange.getResponseBody();
                 body.write(e.getMessage().getBytes());
@@ -74,7 +122,7 @@ public class HttpMutablePointerServer {
                 exchange.close();
                 long t2 = System.currentTimeMillis();
                 if (LOGGING)
-                    LOG.info("Mutable pointers server handled " + method + " request in: " + (t2 - t1) + " mS");
+                    LOG.log(new AsyncLogHandler.AccessEvent("Mutable pointers server", method, t2 - t1));
             }
 
         }
@@ -91,6 +139,59 @@ public class HttpMutablePointerServer {
             dout.writeBoolean(isAdded);
         }
 
+        void setPointers(DataInputStream din, DataOutputStream dout) throws Exception
+        {
+            CborObject.CborList request = (CborObject.CborList) CborObject.deserialize(new CborDecoder(din), MAX_SET_POINTERS_REQUEST_SIZE);
+            PublicKeyHash owner = PublicKeyHash.fromCbor(request.value.get(0));
+            List<PointerUpdates.PointerUpdate> updates = ((CborObject.CborList) request.value.get(1)).value.stream()
+                    .map(PointerUpdates.PointerUpdate::fromCbor)
+                    .collect(Collectors.toList());
+            if (updates.size() > MAX_POINTERS_PER_TRANSACTION)
+                throw new IllegalStateException("Too many pointers in transaction: " + updates.size());
+            boolean isAdded = mutable.setPointers(owner, updates).get();
+            dout.writeBoolean(isAdded);
+        }
+
+        void getUpdates(HttpExchange exchange, DataInputStream din, PointerFeed feed) throws IOException
+        {
+            long epoch = din.readLong();
+            long since = din.readLong();
+            // only the changes to the keys a client names are sent to it
+            CborObject.CborList request = (CborObject.CborList) CborObject.deserialize(new CborDecoder(din), MAX_SUBSCRIBE_REQUEST_SIZE);
+            List<? extends Cborable> writers = ((CborObject.CborList) request.value.get(0)).value;
+            List<? extends Cborable> followRequests = ((CborObject.CborList) request.value.get(1)).value;
+            if (writers.size() + followRequests.size() > PointerFeed.MAX_SUBSCRIBED_KEYS)
+                throw new IllegalStateException("Too many keys in subscription: " + (writers.size() + followRequests.size()));
+            feed.getUpdates(epoch, since,
+                    writers.stream()
+                            .map(PublicKeyHash::fromCbor)
+                            .collect(Collectors.toSet()),
+                    followRequests.stream()
+                            .map(FollowRequestsSubscription::fromCbor)
+                            .collect(Collectors.toList())
+            ).thenAccept(updates -> {
+                try {
+                    byte[] b = updates.serialize();
+                    exchange.sendResponseHeaders(200, b.length);
+                    exchange.getResponseBody().write(b);
+                } catch (IOException e) {
+                    LOG.log(Level.WARNING, e.getMessage(), e);
+                } finally {
+                    exchange.close();
+                }
+            }).exceptionally(t -> {
+                LOG.log(Level.WARNING, t.getMessage(), t);
+                try {
+                    exchange.sendResponseHeaders(400, 0);
+                } catch (IOException e) {
+                    LOG.log(Level.WARNING, e.getMessage(), e);
+                } finally {
+                    exchange.close();
+                }
+                return null;
+            });
+        }
+
         void getPointer(DataInputStream din, DataOutputStream dout) throws Exception
         {
             PublicKeyHash encodedSharingKey = PublicKeyHash.fromCbor(CborObject.deserialize(new CborDecoder(din), PublicKeyHash.MAX_KEY_HASH_SIZE));
@@ -98,6 +199,31 @@ public class HttpMutablePointerServer {
 
             dout.write(metadataBlob);
         }
+
+        void getPointers(DataInputStream din, DataOutputStream dout) throws Exception
+        {
+            CborObject.CborList request = (CborObject.CborList) CborObject.deserialize(new CborDecoder(din), MAX_POINTERS_REQUEST_SIZE);
+            if (request.value.size() > MutablePointers.MAX_WRITERS_PER_GET_POINTERS)
+                throw new IllegalStateException("Too many writers in request: " + request.value.size());
+            List<PublicKeyHash> writers = request.value.stream()
+                    .map(c -> PublicKeyHash.fromCbor(c))
+                    .collect(Collectors.toList());
+            Map<PublicKeyHash, Optional<byte[]>> pointers = mutable.getPointers(writers).get();
+            // absent pointers are empty, in the same order as the request
+            List<CborObject.CborByteArray> res = writers.stream()
+                    .map(w -> new CborObject.CborByteArray(pointers.getOrDefault(w, Optional.empty()).orElse(new byte[0])))
+                    .collect(Collectors.toList());
+            dout.write(new CborObject.CborList(res).serialize());
+        }
+
+        void lookup(DataInputStream din, DataOutputStream dout, ContentAddressedStorage dht) throws Exception
+        {
+            CborObject.CborList request = (CborObject.CborList) CborObject.deserialize(new CborDecoder(din), MAX_LOOKUP_REQUEST_SIZE);
+            PublicKeyHash writer = PublicKeyHash.fromCbor(request.value.get(0));
+            byte[] mapKey = ((CborObject.CborByteArray) request.value.get(1)).value;
+            ChampLookup lookup = ChampLookup.build(writer, mapKey, mutable, dht).get();
+            dout.write(lookup.serialize());
+        }
     }
 
     private final HttpServer server;
@@ -1,5 +1,6 @@
 package peergos.server.mutable;
 
+import peergos.server.util.*;
 import peergos.shared.crypto.hash.*;
 import peergos.shared.mutable.*;
 
@@ -7,29 +8,48 @@ import java.util.*;
 import java.util.concurrent.*;
 import java.util.function.*;
 
+/** Propagates successful pointer updates to listeners, asynchronously so they don't delay the write
+ *
+ */
 public class MutableEventPropagator implements MutablePointers {
 
     private final MutablePointers target;
-    private final List<Consumer<? super MutableEvent>> listeners = new ArrayList<>();
+    // listeners only need the latest update for each writer
+    private final EventBus<MutableEvent> listeners = new EventBus<>("Mutable pointers", e -> e.writer);
 
     public MutableEventPropagator(MutablePointers target) {
         this.target = target;
     }
 
+    public void addListener(String name, Consumer<? super MutableEvent> listener) {
+        listeners.addListener(name, listener, EventBus.DEFAULT_QUEUE_SIZE);
+    }
+
     public void addListener(Consumer<? super MutableEvent> listener) {
-        listeners.add(listener);
+        listeners.addListener(listener);
+    }
+
+    public List<EventBus.Stats> getListenerStats() {
+        return listeners.getStats();
     }
 
     @Override
     public CompletableFuture<Boolean> setPointer(PublicKeyHash owner, PublicKeyHash writer, byte[] writerSignedBtreeRootHash) {
         return target.setPointer(owner, writer, writerSignedBtreeRootHash)
                 .thenApply(res -> {
-                    if (res) {
-                        MutableEvent event = new MutableEvent(writer, writerSignedBtreeRootHash);
-                        for (Consumer<? super MutableEvent> listener : listeners) {
-                            listener.accept(event);
-                        }
-                    }
+                    if (res)
+                        listeners.publish(new MutableEvent(writer, writerSignedBtreeRootHash));
+                    return res;
+                });
+    }
+
+    @Override
+    public CompletableFuture<Boolean> setPointers(PublicKeyHash owner, List<PointerUpdates.PointerUpdate> updates) {
+        return target.setPointers(owner, updates)
+                .thenApply(res -> {
+                    if (res)
+                        for (PointerUpdates.PointerUpdate update : updates)
+                            listeners.publish(new MutableEvent(update.writer, update.writerSignedBtreeRootHash));
                     return res;
                 });
     }
@@ -38,4 +58,9 @@ public class MutableEventPropagator implements MutablePointers {
     public CompletableFuture<Optional<byte[]>> getPointer(PublicKeyHash writer) {
         return target.getPointer(writer);
     }
+
+    @Override
+    public CompletableFuture<Map<PublicKeyHash, Optional<byte[]>>> getPointers(List<PublicKeyHash> writers) {
+        return target.getPointers(writers);
+    }
 }
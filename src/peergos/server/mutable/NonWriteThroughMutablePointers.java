@@ -7,6 +7,7 @@ import peergos.shared.storage.*;
 
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.stream.*;
 
 public class NonWriteThroughMutablePointers implements MutablePointers {
 
@@ -30,7 +31,7 @@ public class NonWriteThroughMutablePointers implements MutablePointers {
             Optional<PublicSigningKey> opt = storage.getSigningKey(writer).get();
             if (! opt.isPresent())
                 throw new IllegalStateException("Couldn't retrieve signing key!");
-            boolean validUpdate = MutablePointers.isValidUpdate(opt.get(), Optional.ofNullable(modifications.get(writer)), writerSignedBtreeRootHash);
+            boolean validUpdate = MutablePointers.isValidUpdate(writer, opt.get(), Optional.ofNullable(modifications.get(writer)), writerSignedBtreeRootHash);
             if (! validUpdate)
                 return CompletableFuture.completedFuture(false);
             modifications.put(writer, writerSignedBtreeRootHash);
@@ -40,6 +41,28 @@ public class NonWriteThroughMutablePointers implements MutablePointers {
         }
     }
 
+    @Override
+    public CompletableFuture<Boolean> setPointers(PublicKeyHash owner, List<PointerUpdates.PointerUpdate> updates) {
+        try {
+            // check every update before applying any of them
+            for (PointerUpdates.PointerUpdate update : updates) {
+                Optional<byte[]> current = modifications.containsKey(update.writer) ?
+                        Optional.of(modifications.get(update.writer)) :
+                        source.getPointer(update.writer).get();
+                Optional<PublicSigningKey> opt = storage.getSigningKey(update.writer).get();
+                if (! opt.isPresent())
+                    throw new IllegalStateException("Couldn't retrieve signing key!");
+                if (! MutablePointers.isValidUpdate(update.writer, opt.get(), current, update.writerSignedBtreeRootHash))
+                    return CompletableFuture.completedFuture(false);
+            }
+            for (PointerUpdates.PointerUpdate update : updates)
+                modifications.put(update.writer, update.writerSignedBtreeRootHash);
+            return CompletableFuture.completedFuture(true);
+        } catch (Exception e) {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+    }
+
     @Override
     public CompletableFuture<Optional<byte[]>> getPointer(PublicKeyHash writer) {
         try {
@@ -50,4 +73,20 @@ public class NonWriteThroughMutablePointers implements MutablePointers {
             throw new RuntimeException(e.getMessage(), e);
         }
     }
+
+    @Override
+    public CompletableFuture<Map<PublicKeyHash, Optional<byte[]>>> getPointers(List<PublicKeyHash> writers) {
+        List<PublicKeyHash> unmodified = writers.stream()
+                .filter(w -> ! modifications.containsKey(w))
+                .collect(Collectors.toList());
+        return (unmodified.isEmpty() ?
+                CompletableFuture.completedFuture(new HashMap<PublicKeyHash, Optional<byte[]>>()) :
+                source.getPointers(unmodified)).thenApply(fromSource -> {
+            Map<PublicKeyHash, Optional<byte[]>> res = new HashMap<>(fromSource);
+            for (PublicKeyHash writer : writers)
+                if (modifications.containsKey(writer))
+                    res.put(writer, Optional.of(modifications.get(writer)));
+            return res;
+        });
+    }
 }
@@ -1,19 +1,20 @@
 package peergos.server.mutable;
 import java.util.logging.*;
 
+import peergos.server.storage.*;
 import peergos.server.util.Logging;
 
 import peergos.shared.cbor.*;
 import peergos.shared.crypto.hash.*;
-import peergos.shared.io.ipfs.cid.*;
-import peergos.shared.io.ipfs.multiaddr.*;
 import peergos.shared.io.ipfs.multihash.*;
 import peergos.shared.merklebtree.*;
 import peergos.shared.mutable.*;
 import peergos.shared.storage.ContentAddressedStorage;
+import peergos.shared.util.*;
 
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.function.*;
 import java.util.stream.*;
 
 public class PinningMutablePointers implements MutablePointers {
@@ -21,62 +22,110 @@ public class PinningMutablePointers implements MutablePointers {
     private static final boolean LOGGING = true;
     private final MutablePointers target;
     private final ContentAddressedStorage storage;
+    private final IncrementalPinner pinner;
 
-    public PinningMutablePointers(MutablePointers target, ContentAddressedStorage storage) {
+    public PinningMutablePointers(MutablePointers target, ContentAddressedStorage storage, IncrementalPinner pinner) {
         this.target = target;
         this.storage = storage;
+        this.pinner = pinner;
     }
 
     @Override
     public CompletableFuture<Boolean> setPointer(PublicKeyHash owner, PublicKeyHash signerHash, byte[] sharingKeySignedBtreeRootHashes) {
-        // first pin new root
-        return storage.getSigningKey(signerHash).thenCompose(signer -> {
-            byte[] message = signer.get().unsignMessage(sharingKeySignedBtreeRootHashes);
-            HashCasPair cas = HashCasPair.fromCbor(CborObject.fromByteArray(message));
-            long t1 = System.currentTimeMillis();
-            return (cas.original.isPresent() ? storage.pinUpdate(cas.original.get(), cas.updated.get())
-                    .thenApply(PinningMutablePointers::convert) :
-                    storage.recursivePin(cas.updated.get())).thenCompose(pins -> {
-                if (!pins.contains(cas.updated.get())) {
-                    CompletableFuture<Boolean> err = new CompletableFuture<>();
-                    err.completeExceptionally(new IllegalStateException("Couldn't pin new hash: " + cas.updated.get()));
-                    return err;
-                }
-                long t2 = System.currentTimeMillis();
-                if (LOGGING)
-                    LOG.info("Tree:Pin update " + cas.updated + " took: " + (t2 - t1) + " mS");
-                return target.setPointer(owner, signerHash, sharingKeySignedBtreeRootHashes)
-                        .thenCompose(b -> {
-                            if (!b) {
-                                CompletableFuture<Boolean> err = new CompletableFuture<>();
-                                err.completeExceptionally(new IllegalStateException("Couldn't update mutable pointer, cas failed: " + cas));
-                                return err;
-                            }
-                            long t3 = System.currentTimeMillis();
-                            // unpin old root
-                            return !cas.original.isPresent() ?
-                                    CompletableFuture.completedFuture(true) :
-                                    storage.recursiveUnpin(cas.original.get())
-                                            .thenApply(unpins -> {
-                                                long t4 = System.currentTimeMillis();
-                                                if (LOGGING)
-                                                    LOG.info("Unpinning " + cas.original + " took: " + (t4 - t3) + " mS");
-                                                return unpins.contains(cas.original.get());
-                                            });
-                        });
-            });
-        });
+        return setPointers(Collections.singletonList(new PointerUpdates.PointerUpdate(signerHash, sharingKeySignedBtreeRootHashes)),
+                () -> target.setPointer(owner, signerHash, sharingKeySignedBtreeRootHashes));
     }
 
-    private static List<Multihash> convert(List<MultiAddress> addresses) {
-        return addresses.stream()
-                .filter(addr -> addr.toString().startsWith("/ipfs/"))
-                .map(addr -> Cid.decode(addr.toString().substring(6)))
-                .collect(Collectors.toList());
+    @Override
+    public CompletableFuture<Boolean> setPointers(PublicKeyHash owner, List<PointerUpdates.PointerUpdate> updates) {
+        return setPointers(updates, () -> target.setPointers(owner, updates));
+    }
+
+    /** Pin every new root before the atomic update. If the update succeeds release the old roots, otherwise, or if
+     *  only some of the new roots could be pinned, release the new roots we pinned.
+     *
+     */
+    private CompletableFuture<Boolean> setPointers(List<PointerUpdates.PointerUpdate> updates,
+                                                   Supplier<CompletableFuture<Boolean>> commit) {
+        return Futures.combineAllInOrder(updates.stream()
+                .map(u -> VerifiedPointers.verify(u.writer, u.writerSignedBtreeRootHash, storage))
+                .collect(Collectors.toList()))
+                .thenCompose(cases -> {
+                    long t1 = System.currentTimeMillis();
+                    // the new roots we hold a reference to, which must be released if the update fails
+                    List<Multihash> pinned = new ArrayList<>();
+                    return Futures.reduceAll(cases, true, (b, cas) ->
+                            (cas.original.isPresent() ? indexExistingRoot(cas.original.get()) : CompletableFuture.completedFuture(true))
+                                    .thenCompose(x -> pinner.pin(cas.updated.get()))
+                                    .thenApply(pins -> {
+                                        if (! pinner.isPinned(cas.updated.get()))
+                                            throw new IllegalStateException("Couldn't pin new hash: " + cas.updated.get());
+                                        pinned.add(cas.updated.get());
+                                        if (LOGGING)
+                                            LOG.info("Tree:Pin update " + cas.updated + " pinned " + pins.size() + " blocks");
+                                        return true;
+                                    }), (a, b) -> a && b)
+                            .thenCompose(x -> commit.get())
+                            .handle((committed, t) -> {
+                                if (t == null && committed)
+                                    return unpinOriginals(cases, t1);
+                                Throwable cause = t != null ? t :
+                                        new IllegalStateException("Couldn't update mutable pointers, cas failed: " + cases);
+                                return release(pinned).<Boolean>thenApply(x -> {
+                                    throw cause instanceof RuntimeException ? (RuntimeException) cause : new RuntimeException(cause);
+                                });
+                            }).thenCompose(x -> x);
+                });
+    }
+
+    private CompletableFuture<Boolean> unpinOriginals(List<HashCasPair> cases, long t1) {
+        return Futures.reduceAll(cases.stream()
+                .filter(cas -> cas.original.isPresent())
+                .collect(Collectors.toList()), true, (x, cas) -> pinner.unpin(cas.original.get())
+                .thenApply(unpins -> true), (x, y) -> x && y)
+                .thenApply(x -> {
+                    long t2 = System.currentTimeMillis();
+                    if (LOGGING)
+                        LOG.info("Updating " + cases.size() + " pointers and unpinning their old roots took: " + (t2 - t1) + " mS");
+                    return true;
+                });
+    }
+
+    /** Release our references to roots, without failing, so that the original failure is reported
+     *
+     * @param roots
+     * @return true
+     */
+    private CompletableFuture<Boolean> release(List<Multihash> roots) {
+        return Futures.reduceAll(roots, true, (x, root) -> pinner.unpin(root)
+                .thenApply(unpinned -> true)
+                .exceptionally(t -> {
+                    LOG.log(Level.WARNING, "Couldn't release pin of " + root + ": " + t.getMessage(), t);
+                    return false;
+                }), (x, y) -> x && y);
+    }
+
+    /** Roots from before incremental pinning were pinned recursively. The first time such a root is updated, index its
+     *  tree so the blocks it shares with the new root stay pinned. The old root keeps its recursive pin until it is
+     *  unpinned, because ipfs won't pin a recursively pinned block directly.
+     *
+     * @param root
+     * @return
+     */
+    private CompletableFuture<Boolean> indexExistingRoot(Multihash root) {
+        if (pinner.isPinned(root))
+            return CompletableFuture.completedFuture(true);
+        LOG.info("Indexing pins of existing root " + root);
+        return pinner.adoptRecursivePin(root).thenApply(pinned -> true);
     }
 
     @Override
     public CompletableFuture<Optional<byte[]>> getPointer(PublicKeyHash writer) {
         return target.getPointer(writer);
     }
+
+    @Override
+    public CompletableFuture<Map<PublicKeyHash, Optional<byte[]>>> getPointers(List<PublicKeyHash> writers) {
+        return target.getPointers(writers);
+    }
 }
@@ -0,0 +1,167 @@
+package peergos.server.mutable;
+
+import peergos.shared.crypto.hash.*;
+import peergos.shared.mutable.*;
+import peergos.shared.storage.*;
+import peergos.shared.util.*;
+
+import java.security.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+import java.util.stream.*;
+
+/** Keeps a bounded window of recent pointer and follow request changes, and serves them as a long polled PointerFeed,
+ *  filtered to the keys a client has subscribed to. Follow request changes are only sent for owners who have signed
+ *  the subscription.
+ *
+ */
+public class PointerUpdateLog implements PointerFeed, Consumer<MutableEvent> {
+
+    private static class Change {
+        final PublicKeyHash key;
+        // empty for a change to the follow requests sent to key
+        final Optional<byte[]> writerSignedBtreeRootHash;
+
+        Change(PublicKeyHash key, Optional<byte[]> writerSignedBtreeRootHash) {
+            this.key = key;
+            this.writerSignedBtreeRootHash = writerSignedBtreeRootHash;
+        }
+    }
+
+    private static class Waiter {
+        final long since;
+        final Set<PublicKeyHash> writers, owners;
+        final CompletableFuture<PointerUpdates> result;
+
+        Waiter(long since, Set<PublicKeyHash> writers, Set<PublicKeyHash> owners, CompletableFuture<PointerUpdates> result) {
+            this.since = since;
+            this.writers = writers;
+            this.owners = owners;
+            this.result = result;
+        }
+
+        boolean isInterestedIn(Change change) {
+            return PointerUpdateLog.isInterestedIn(change, writers, owners);
+        }
+    }
+
+    private static boolean isInterestedIn(Change change, Set<PublicKeyHash> writers, Set<PublicKeyHash> owners) {
+        return change.writerSignedBtreeRootHash.isPresent() ? writers.contains(change.key) : owners.contains(change.key);
+    }
+
+    // A new epoch on every start, so clients know that sequence numbers from a previous run are meaningless
+    private final long epoch = new SecureRandom().nextLong();
+    // used to verify follow request subscriptions
+    private final ContentAddressedStorage dht;
+    private final int maxRetained;
+    private final long pollTimeoutMillis;
+    private final ArrayDeque<Change> recent = new ArrayDeque<>();
+    private final List<Waiter> waiting = new ArrayList<>();
+    private final ScheduledExecutorService responder = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "Pointer update feed");
+        t.setDaemon(true);
+        return t;
+    });
+    private long nextSequence = 0;
+
+    public PointerUpdateLog(ContentAddressedStorage dht, int maxRetained, long pollTimeoutMillis) {
+        this.dht = dht;
+        this.maxRetained = maxRetained;
+        this.pollTimeoutMillis = pollTimeoutMillis;
+    }
+
+    @Override
+    public void accept(MutableEvent event) {
+        record(new Change(event.writer, Optional.of(event.writerSignedBtreeRootHash)));
+    }
+
+    public void followRequestsChanged(PublicKeyHash owner) {
+        record(new Change(owner, Optional.empty()));
+    }
+
+    private synchronized void record(Change change) {
+        recent.addLast(change);
+        nextSequence++;
+        while (recent.size() > maxRetained)
+            recent.removeFirst();
+        if (waiting.isEmpty())
+            return;
+        for (Iterator<Waiter> it = waiting.iterator(); it.hasNext(); ) {
+            Waiter waiter = it.next();
+            if (! waiter.isInterestedIn(change))
+                continue;
+            it.remove();
+            // Any earlier changes a waiter was interested in would have already completed it, so it doesn't matter if
+            // its starting position has since been dropped from the window
+            PointerUpdates updates = updatesSince(waiter.since, waiter.writers, waiter.owners);
+            // complete off the writer's thread as this writes the responses
+            responder.execute(() -> waiter.result.complete(updates));
+        }
+    }
+
+    @Override
+    public CompletableFuture<PointerUpdates> getUpdates(long epoch,
+                                                        long since,
+                                                        Set<PublicKeyHash> writers,
+                                                        List<FollowRequestsSubscription> followRequests) {
+        long now = System.currentTimeMillis();
+        List<CompletableFuture<Optional<PublicKeyHash>>> verified = followRequests.stream()
+                .map(sub -> sub.isValid(dht, now)
+                        .thenApply(valid -> valid ? Optional.of(sub.owner) : Optional.<PublicKeyHash>empty()))
+                .collect(Collectors.toList());
+        return Futures.combineAll(verified).thenCompose(owners -> getUpdates(epoch, since, writers, owners.stream()
+                .flatMap(o -> o.map(Stream::of).orElse(Stream.empty()))
+                .collect(Collectors.toSet())));
+    }
+
+    private synchronized CompletableFuture<PointerUpdates> getUpdates(long epoch,
+                                                                      long since,
+                                                                      Set<PublicKeyHash> writers,
+                                                                      Set<PublicKeyHash> owners) {
+        long oldestRetained = nextSequence - recent.size();
+        if (epoch != this.epoch || since < oldestRetained || since > nextSequence)
+            return CompletableFuture.completedFuture(new PointerUpdates(this.epoch, nextSequence, true, Collections.emptyList()));
+        if (since < nextSequence) {
+            PointerUpdates updates = updatesSince(since, writers, owners);
+            if (! updates.isEmpty())
+                return CompletableFuture.completedFuture(updates);
+        }
+
+        CompletableFuture<PointerUpdates> res = new CompletableFuture<>();
+        Waiter waiter = new Waiter(since, writers, owners, res);
+        waiting.add(waiter);
+        responder.schedule(() -> {
+            PointerUpdates none;
+            synchronized (this) {
+                if (! waiting.remove(waiter))
+                    return;
+                // nothing the waiter is interested in has changed up to now
+                none = new PointerUpdates(this.epoch, nextSequence, false, Collections.emptyList());
+            }
+            res.complete(none);
+        }, pollTimeoutMillis, TimeUnit.MILLISECONDS);
+        return res;
+    }
+
+    private PointerUpdates updatesSince(long since, Set<PublicKeyHash> writers, Set<PublicKeyHash> owners) {
+        long oldestRetained = nextSequence - recent.size();
+        // only the latest value of each pointer matters
+        Map<PublicKeyHash, PointerUpdates.PointerUpdate> latest = new LinkedHashMap<>();
+        Set<PublicKeyHash> followRequests = new LinkedHashSet<>();
+        long seq = oldestRetained;
+        for (Change change : recent) {
+            if (seq++ < since)
+                continue;
+            if (! isInterestedIn(change, writers, owners))
+                continue;
+            if (! change.writerSignedBtreeRootHash.isPresent()) {
+                followRequests.add(change.key);
+                continue;
+            }
+            latest.remove(change.key);
+            latest.put(change.key, new PointerUpdates.PointerUpdate(change.key, change.writerSignedBtreeRootHash.get()));
+        }
+        return new PointerUpdates(epoch, nextSequence, false, new ArrayList<>(latest.values()), new ArrayList<>(followRequests));
+    }
+}
@@ -0,0 +1,181 @@
+package peergos.server.net;
+
+import com.sun.net.httpserver.*;
+
+import java.io.*;
+import java.util.*;
+
+/** An inclusive range of byte offsets into a response body, as in RFC 7233
+ *
+ */
+public class ByteRange {
+    public static final int MAX_RANGES = 16;
+    private static final String BOUNDARY = "peergos-byteranges";
+
+    public final long start, end;
+
+    public ByteRange(long start, long end) {
+        if (start < 0 || end < start)
+            throw new IllegalStateException("Invalid byte range " + start + "-" + end);
+        this.start = start;
+        this.end = end;
+    }
+
+    public long length() {
+        return end - start + 1;
+    }
+
+    public String contentRange(long total) {
+        return "bytes " + start + "-" + end + "/" + total;
+    }
+
+    /**
+     *
+     * @param header the value of a Range header
+     * @param total the length of the full response body
+     * @return empty if the header should be ignored, otherwise the satisfiable ranges, in ascending order with any
+     * overlapping or adjacent ranges coalesced. An empty list means the range is not satisfiable.
+     */
+    public static Optional<List<ByteRange>> parse(String header, long total) {
+        if (header == null || ! header.startsWith("bytes="))
+            return Optional.empty();
+        String[] specs = header.substring(6).split(",");
+        if (specs.length > MAX_RANGES)
+            return Optional.empty();
+        List<ByteRange> ranges = new ArrayList<>();
+        try {
+            for (String rawSpec : specs) {
+                String spec = rawSpec.trim();
+                int dash = spec.indexOf("-");
+                if (dash < 0)
+                    return Optional.empty();
+                String first = spec.substring(0, dash);
+                String last = spec.substring(dash + 1);
+                if (first.isEmpty()) {
+                    // suffix range, i.e. the final N bytes
+                    long suffix = Long.parseLong(last);
+                    if (suffix < 0)
+                        return Optional.empty();
+                    if (suffix > 0 && total > 0)
+                        ranges.add(new ByteRange(Math.max(0, total - suffix), total - 1));
+                    continue;
+                }
+                long start = Long.parseLong(first);
+                long end = last.isEmpty() ? total - 1 : Long.parseLong(last);
+                if (start < 0 || end < start)
+                    return Optional.empty();
+                if (start >= total)
+                    continue;
+                ranges.add(new ByteRange(start, Math.min(end, total - 1)));
+            }
+        } catch (NumberFormatException e) {
+            return Optional.empty();
+        }
+        return Optional.of(coalesce(ranges));
+    }
+
+    private static List<ByteRange> coalesce(List<ByteRange> ranges) {
+        List<ByteRange> sorted = new ArrayList<>(ranges);
+        sorted.sort(Comparator.comparingLong(r -> r.start));
+        List<ByteRange> res = new ArrayList<>();
+        for (ByteRange range : sorted) {
+            if (res.isEmpty()) {
+                res.add(range);
+                continue;
+            }
+            ByteRange prev = res.get(res.size() - 1);
+            if (range.start <= prev.end + 1)
+                res.set(res.size() - 1, new ByteRange(prev.start, Math.max(prev.end, range.end)));
+            else
+                res.add(range);
+        }
+        return res;
+    }
+
+    /** Send body as the response, honouring any Range header in the request. The caller is responsible for setting
+     *  Content-Type and any validators before calling this.
+     *
+     * @param exchange
+     * @param body
+     * @param etag the strong validator of this body, used to evaluate If-Range
+     * @throws IOException
+     */
+    public static void reply(HttpExchange exchange, byte[] body, Optional<String> etag) throws IOException {
+        Headers responseHeaders = exchange.getResponseHeaders();
+        responseHeaders.set("Accept-Ranges", "bytes");
+        String rangeHeader = exchange.getRequestHeaders().getFirst("Range");
+        String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+        boolean rangeApplies = rangeHeader != null &&
+                (ifRange == null || (etag.isPresent() && etag.get().equals(ifRange)));
+        Optional<List<ByteRange>> ranges = rangeApplies ? parse(rangeHeader, body.length) : Optional.empty();
+        boolean isHead = exchange.getRequestMethod().equals("HEAD");
+
+        if (! ranges.isPresent()) {
+            send(exchange, 200, body, isHead);
+            return;
+        }
+        List<ByteRange> satisfiable = ranges.get();
+        // A content-coding applies to the whole of a multipart body, so we can't mark encoded slices within one
+        if (satisfiable.size() > 1 && responseHeaders.containsKey("Content-Encoding")) {
+            send(exchange, 200, body, isHead);
+            return;
+        }
+        if (satisfiable.isEmpty()) {
+            responseHeaders.set("Content-Range", "bytes */" + body.length);
+            exchange.sendResponseHeaders(416, -1);
+            return;
+        }
+        if (satisfiable.size() == 1) {
+            ByteRange range = satisfiable.get(0);
+            responseHeaders.set("Content-Range", range.contentRange(body.length));
+            send(exchange, 206, Arrays.copyOfRange(body, (int) range.start, (int) range.end + 1), isHead);
+            return;
+        }
+
+        String partType = responseHeaders.getFirst("Content-Type");
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        for (ByteRange range : satisfiable) {
+            StringBuilder partHeader = new StringBuilder();
+            partHeader.append("\r\n--").append(BOUNDARY).append("\r\n");
+            if (partType != null)
+                partHeader.append("Content-Type: ").append(partType).append("\r\n");
+            partHeader.append("Content-Range: ").append(range.contentRange(body.length)).append("\r\n\r\n");
+            bout.write(partHeader.toString().getBytes());
+            bout.write(body, (int) range.start, (int) range.length());
+        }
+        bout.write(("\r\n--" + BOUNDARY + "--\r\n").getBytes());
+        responseHeaders.set("Content-Type", "multipart/byteranges; boundary=" + BOUNDARY);
+        send(exchange, 206, bout.toByteArray(), isHead);
+    }
+
+    private static void send(HttpExchange exchange, int status, byte[] body, boolean isHead) throws IOException {
+        if (isHead) {
+            exchange.getResponseHeaders().set("Content-Length", "" + body.length);
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(status, body.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(body);
+        out.flush();
+        out.close();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        ByteRange byteRange = (ByteRange) o;
+        return start == byteRange.start && end == byteRange.end;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(start, end);
+    }
+
+    @Override
+    public String toString() {
+        return start + "-" + end;
+    }
+}
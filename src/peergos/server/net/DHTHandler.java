@@ -1,6 +1,7 @@
 package peergos.server.net;
 import java.util.logging.*;
 import peergos.server.util.Logging;
+import peergos.server.util.AsyncLogHandler;
 
 import peergos.shared.cbor.*;
 import peergos.shared.crypto.asymmetric.*;
@@ -21,19 +22,31 @@ public class DHTHandler implements HttpHandler {
 	private static final Logger LOG = Logging.LOG();
 
     private static final boolean LOGGING = true;
+    public static final long DEFAULT_RESPONSE_CACHE_SIZE = 64 * 1024 * 1024;
     private final ContentAddressedStorage dht;
     private final BiFunction<PublicKeyHash, Integer, Boolean> keyFilter;
     private final String apiPrefix;
+    private final HotBlockCache responseCache;
 
-    public DHTHandler(ContentAddressedStorage dht, BiFunction<PublicKeyHash, Integer, Boolean> keyFilter, String apiPrefix) throws IOException
+    public DHTHandler(ContentAddressedStorage dht,
+                      BiFunction<PublicKeyHash, Integer, Boolean> keyFilter,
+                      String apiPrefix,
+                      HotBlockCache responseCache) throws IOException
     {
         this.dht = dht;
         this.keyFilter = keyFilter;
         this.apiPrefix = apiPrefix;
+        this.responseCache = responseCache;
+    }
+
+    public DHTHandler(ContentAddressedStorage dht,
+                      BiFunction<PublicKeyHash, Integer, Boolean> keyFilter,
+                      HotBlockCache responseCache) throws IOException {
+        this(dht, keyFilter, "/api/v0/", responseCache);
     }
 
     public DHTHandler(ContentAddressedStorage dht, BiFunction<PublicKeyHash, Integer, Boolean> keyFilter) throws IOException {
-        this(dht, keyFilter, "/api/v0/");
+        this(dht, keyFilter, new HotBlockCache(DEFAULT_RESPONSE_CACHE_SIZE, ContentAddressedStorage.MAX_OBJECT_LENGTH));
     }
 
     private Map<String, List<String>> parseQuery(String query) {
@@ -131,11 +144,24 @@ public class DHTHandler implements HttpHandler {
                 }
                 case "block/get":{
                     Multihash hash = Cid.decode(args.get(0));
+                    // blocks are immutable, so a client with any version of this block has the current one
+                    if (isNotModified(httpExchange, etag(hash))) {
+                        replyNotModified(httpExchange, hash);
+                        break;
+                    }
+                    String cacheKey = path + "/" + hash;
+                    Optional<HotBlockCache.Response> cached = responseCache.get(cacheKey);
+                    if (cached.isPresent()) {
+                        replyBytes(httpExchange, cached.get().body, Optional.of(hash));
+                        break;
+                    }
                     (hash instanceof Cid && ((Cid) hash).codec == Cid.Codec.Raw ?
                             dht.getRaw(hash) :
                             dht.get(hash).thenApply(opt -> opt.map(CborObject::toByteArray)))
-                            .thenAccept(opt -> replyBytes(httpExchange,
-                                    opt.orElse(new byte[0]), opt.map(x -> hash)))
+                            .thenAccept(opt -> {
+                                opt.ifPresent(body -> responseCache.offer(cacheKey, new HotBlockCache.Response(body, etag(hash))));
+                                replyBytes(httpExchange, opt.orElse(new byte[0]), opt.map(x -> hash));
+                            })
                             .exceptionally(Futures::logError);
                     break;
                 }
@@ -162,10 +188,22 @@ public class DHTHandler implements HttpHandler {
                 }
                 case "block/stat": {
                     Multihash block = Cid.decode(args.get(0));
+                    if (isNotModified(httpExchange, etag(block))) {
+                        replyNotModified(httpExchange, block);
+                        break;
+                    }
+                    String cacheKey = path + "/" + block;
+                    Optional<HotBlockCache.Response> cached = responseCache.get(cacheKey);
+                    if (cached.isPresent()) {
+                        replyJson(httpExchange, cached.get().body, Optional.of(block));
+                        break;
+                    }
                     dht.getSize(block).thenAccept(sizeOpt -> {
                         Map<String, Object> res = new HashMap<>();
                         res.put("Size", sizeOpt.orElse(0));
-                        String json = JSONParser.toString(res);
+                        byte[] json = JSONParser.toString(res).getBytes();
+                        if (sizeOpt.isPresent())
+                            responseCache.offer(cacheKey, new HotBlockCache.Response(json, etag(block)));
                         replyJson(httpExchange, json, Optional.of(block));
                     }).exceptionally(Futures::logError);
                     break;
@@ -199,7 +237,7 @@ public class DHTHandler implements HttpHandler {
             httpExchange.close();
             long t2 = System.currentTimeMillis();
             if (LOGGING)
-                LOG.info("DHT Handler handled " + path + " query in: " + (t2 - t1) + " mS");
+                LOG.log(new AsyncLogHandler.AccessEvent("DHT Handler", path, t2 - t1));
         }
     }
 
@@ -223,13 +261,36 @@ public class DHTHandler implements HttpHandler {
         }
     }
 
+    private static String etag(Multihash block) {
+        return "\"" + block.toString() + "\"";
+    }
+
+    private static boolean isNotModified(HttpExchange exchange, String etag) {
+        List<String> conditions = exchange.getRequestHeaders().get("If-None-Match");
+        if (conditions == null)
+            return false;
+        return conditions.stream()
+                .flatMap(c -> Arrays.stream(c.split(",")))
+                .map(String::trim)
+                .anyMatch(c -> c.equals(etag) || c.equals("W/" + etag) || c.equals("*"));
+    }
+
+    private static void replyNotModified(HttpExchange exchange, Multihash key) throws IOException {
+        exchange.getResponseHeaders().set("Cache-Control", "public, max-age=31622400 immutable");
+        exchange.getResponseHeaders().set("ETag", etag(key));
+        exchange.sendResponseHeaders(304, -1);
+    }
+
     private static void replyJson(HttpExchange exchange, String json, Optional<Multihash> key) {
+        replyJson(exchange, json.getBytes(), key);
+    }
+
+    private static void replyJson(HttpExchange exchange, byte[] raw, Optional<Multihash> key) {
         try {
             if (key.isPresent()) {
                 exchange.getResponseHeaders().set("Cache-Control", "public, max-age=31622400 immutable");
-                exchange.getResponseHeaders().set("ETag", "\"" + key.get().toString() + "\"");
+                exchange.getResponseHeaders().set("ETag", etag(key.get()));
             }
-            byte[] raw = json.getBytes();
             exchange.sendResponseHeaders(200, raw.length);
             DataOutputStream dout = new DataOutputStream(exchange.getResponseBody());
             dout.write(raw);
@@ -243,15 +304,13 @@ public class DHTHandler implements HttpHandler {
 
     private static void replyBytes(HttpExchange exchange, byte[] body, Optional<Multihash> key) {
         try {
+            Optional<String> etag = key.map(DHTHandler::etag);
             if (key.isPresent()) {
                 exchange.getResponseHeaders().set("Cache-Control", "public, max-age=31622400 immutable");
-                exchange.getResponseHeaders().set("ETag", "\"" + key.get().toString() + "\"");
+                exchange.getResponseHeaders().set("ETag", etag.get());
             }
-            exchange.sendResponseHeaders(200, body.length);
-            DataOutputStream dout = new DataOutputStream(exchange.getResponseBody());
-            dout.write(body);
-            dout.flush();
-            dout.close();
+            // blocks are immutable, so ranges of them can be fetched (e.g. for seeking or resuming) independently
+            ByteRange.reply(exchange, body, etag);
         } catch (IOException e)
         {
             LOG.log(Level.WARNING, e.getMessage(), e);
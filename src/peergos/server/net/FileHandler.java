@@ -2,6 +2,7 @@ package peergos.server.net;
 
 import java.io.*;
 import java.nio.file.Path;
+import java.util.*;
 
 public class FileHandler extends StaticHandler
 {
@@ -15,7 +16,8 @@ public class FileHandler extends StaticHandler
     public Asset getAsset(String resourcePath) throws IOException {
         String stem = resourcePath.startsWith("/")  ?  resourcePath.substring(1) : resourcePath;
         Path fullPath = root.resolve(stem);
-        byte[] bytes = readResource(new FileInputStream(fullPath.toFile()), isGzip());
-        return new Asset(bytes);
+        byte[] bytes = readResource(new FileInputStream(fullPath.toFile()), false);
+        File brotli = root.resolve(stem + ".br").toFile();
+        return new Asset(bytes, isGzip() && isCompressible(stem), readOptionalResource(brotli.exists() ? new FileInputStream(brotli) : null));
     }
 }
@@ -0,0 +1,134 @@
+package peergos.server.net;
+
+import java.util.*;
+
+/** A cache of ready to send responses for immutable blocks, bounded by the total size of the cached responses.
+ *
+ *  Entries are evicted in least recently used order, but a new response is only admitted if it has been requested
+ *  repeatedly, and more often than the responses it would evict, as estimated by a count-min sketch of recent
+ *  requests. This stops a scan of cold blocks from flushing out popular ones.
+ */
+public class HotBlockCache {
+    private static final int MIN_ADMISSION_FREQUENCY = 2;
+
+    public static class Response {
+        public final byte[] body;
+        public final String etag;
+
+        public Response(byte[] body, String etag) {
+            this.body = body;
+            this.etag = etag;
+        }
+    }
+
+    private final long maxBytes;
+    private final int maxEntrySize;
+    private final LinkedHashMap<String, Response> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private final FrequencySketch frequencies;
+    private long currentBytes = 0;
+
+    /**
+     *
+     * @param maxBytes the maximum total size of cached response bodies
+     * @param maxEntrySize responses larger than this are never cached
+     */
+    public HotBlockCache(long maxBytes, int maxEntrySize) {
+        this.maxBytes = maxBytes;
+        this.maxEntrySize = maxEntrySize;
+        // assume responses of about 4 KiB to size the sketch
+        this.frequencies = new FrequencySketch((int) Math.min(1 << 20, Math.max(1024, maxBytes / 4096)));
+    }
+
+    /** Look up a response, and record the request for admission decisions
+     *
+     * @param key
+     * @return
+     */
+    public synchronized Optional<Response> get(String key) {
+        frequencies.increment(key);
+        return Optional.ofNullable(cache.get(key));
+    }
+
+    /** Offer a response which has just been computed for the cache
+     *
+     * @param key
+     * @param response
+     * @return whether the response was admitted
+     */
+    public synchronized boolean offer(String key, Response response) {
+        int size = response.body.length;
+        if (size > maxEntrySize || size > maxBytes || cache.containsKey(key))
+            return false;
+        int candidateFrequency = frequencies.estimate(key);
+        if (candidateFrequency < MIN_ADMISSION_FREQUENCY)
+            return false;
+        List<String> victims = new ArrayList<>();
+        long freed = 0;
+        Iterator<Map.Entry<String, Response>> eldest = cache.entrySet().iterator();
+        while (currentBytes - freed + size > maxBytes) {
+            Map.Entry<String, Response> victim = eldest.next();
+            if (frequencies.estimate(victim.getKey()) >= candidateFrequency)
+                return false;
+            victims.add(victim.getKey());
+            freed += victim.getValue().body.length;
+        }
+        for (String victim : victims)
+            cache.remove(victim);
+        currentBytes -= freed;
+        cache.put(key, response);
+        currentBytes += size;
+        return true;
+    }
+
+    public synchronized long sizeInBytes() {
+        return currentBytes;
+    }
+
+    /** A count-min sketch of 4-bit counters, which are halved periodically so that old popularity decays.
+     */
+    private static class FrequencySketch {
+        private static final int DEPTH = 4;
+        private static final int[] SEEDS = {0x97cb3127, 0xb1d7b1b5, 0x4e3a9b37, 0x26a4c2e9};
+        private static final int MAX_COUNT = 15;
+
+        private final byte[][] counters;
+        private final int mask;
+        private final int resetThreshold;
+        private int increments = 0;
+
+        FrequencySketch(int width) {
+            int size = Integer.highestOneBit(width - 1) << 1;
+            this.counters = new byte[DEPTH][size];
+            this.mask = size - 1;
+            this.resetThreshold = 10 * size;
+        }
+
+        private int index(int hash, int row) {
+            int h = (hash ^ SEEDS[row]) * 0x9e3779b9;
+            return (h ^ (h >>> 16)) & mask;
+        }
+
+        void increment(String key) {
+            int hash = key.hashCode();
+            for (int row = 0; row < DEPTH; row++) {
+                int i = index(hash, row);
+                if (counters[row][i] < MAX_COUNT)
+                    counters[row][i]++;
+            }
+            if (++increments >= resetThreshold) {
+                for (byte[] row : counters)
+                    for (int i = 0; i < row.length; i++)
+                        row[i] = (byte) (row[i] >> 1);
+                increments /= 2;
+            }
+        }
+
+        int estimate(String key) {
+            int hash = key.hashCode();
+            int min = MAX_COUNT;
+            for (int row = 0; row < DEPTH; row++)
+                min = Math.min(min, counters[row][index(hash, row)]);
+            return min;
+        }
+    }
+}
@@ -2,6 +2,7 @@ package peergos.server.net;
 
 import java.io.*;
 import java.nio.file.Path;
+import java.util.*;
 
 public class JarHandler extends StaticHandler {
     private final Path root;
@@ -15,7 +16,8 @@ public class JarHandler extends StaticHandler {
     public Asset getAsset(String resourcePath) throws IOException {
         String pathWithinJar = root.resolve(resourcePath).toString();
         ClassLoader context = Thread.currentThread().getContextClassLoader();
-        byte[] data = StaticHandler.readResource(context.getResourceAsStream(pathWithinJar), isGzip());
-        return new Asset(data);
+        byte[] data = StaticHandler.readResource(context.getResourceAsStream(pathWithinJar), false);
+        Optional<byte[]> brotli = readOptionalResource(context.getResourceAsStream(pathWithinJar + ".br"));
+        return new Asset(data, isGzip() && isCompressible(resourcePath), brotli);
     }
 }
@@ -8,10 +8,17 @@ import peergos.shared.util.ArrayOps;
 import java.io.*;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.regex.*;
 import java.util.zip.GZIPOutputStream;
 
 public abstract class StaticHandler implements HttpHandler
 {
+    // e.g. peergos.0123456789abcdef.js is the fingerprinted form of peergos.js
+    private static final Pattern FINGERPRINTED = Pattern.compile("^(.*)\\.([0-9a-f]{16})(\\.[^./]+)$");
+    private static final Pattern REFERENCE = Pattern.compile("(\\s(?:src|href)\\s*=\\s*\")([^\"]*)(\")");
+    private static final Set<String> COMPRESSIBLE = new HashSet<>(Arrays.asList(
+            ".js", ".html", ".css", ".json", ".txt", ".svg", ".xml", ".map"));
+
     private final boolean isGzip;
 
     public StaticHandler(boolean isGzip) {
@@ -20,14 +27,54 @@ public abstract class StaticHandler implements HttpHandler
 
     public abstract Asset getAsset(String resourcePath) throws IOException;
 
+    /** An asset with its encodings, which are computed at most once per asset rather than per request
+     */
     public static class Asset {
         public final byte[] data;
+        public final Optional<byte[]> brotli;
         public final String hash;
+        private final boolean gzippable;
+        private volatile byte[] gzipped;
 
-        public Asset(byte[] data) {
+        /**
+         *
+         * @param data the uncompressed asset
+         * @param gzippable whether to serve a gzipped encoding, which is computed on first use
+         * @param brotli a brotli encoding of the asset, precomputed at build time
+         */
+        public Asset(byte[] data, boolean gzippable, Optional<byte[]> brotli) {
             this.data = data;
             byte[] digest = Hash.sha256(data);
-            this.hash = ArrayOps.bytesToHex(Arrays.copyOfRange(digest, 0, 4));
+            this.hash = ArrayOps.bytesToHex(Arrays.copyOfRange(digest, 0, 8));
+            this.gzippable = gzippable;
+            this.brotli = brotli;
+        }
+
+        public Asset(byte[] data) {
+            this(data, false, Optional.empty());
+        }
+
+        public boolean isGzippable() {
+            return gzippable;
+        }
+
+        public Optional<byte[]> gzip() {
+            if (! gzippable)
+                return Optional.empty();
+            byte[] memoised = gzipped;
+            if (memoised == null) {
+                memoised = gzip(data);
+                gzipped = memoised;
+            }
+            return Optional.of(memoised);
+        }
+
+        private static byte[] gzip(byte[] data) {
+            try {
+                return readResource(new ByteArrayInputStream(data), true);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
         }
     }
 
@@ -35,6 +82,68 @@ public abstract class StaticHandler implements HttpHandler
         return isGzip;
     }
 
+    /**
+     *
+     * @param resourcePath
+     * @return whether an asset is worth gzipping, which excludes already compressed formats like images and fonts
+     */
+    protected static boolean isCompressible(String resourcePath) {
+        int dot = resourcePath.lastIndexOf(".");
+        return dot > resourcePath.lastIndexOf("/") && COMPRESSIBLE.contains(resourcePath.substring(dot));
+    }
+
+    /**
+     *
+     * @param resourcePath
+     * @param asset
+     * @return The path to serve asset at with immutable caching
+     */
+    public static String fingerprint(String resourcePath, Asset asset) {
+        int dot = resourcePath.lastIndexOf(".");
+        if (dot <= resourcePath.lastIndexOf("/"))
+            return resourcePath + "." + asset.hash;
+        return resourcePath.substring(0, dot) + "." + asset.hash + resourcePath.substring(dot);
+    }
+
+    /**
+     *
+     * @param resourcePath
+     * @return The asset to serve at a path, where html pages have their references to other assets rewritten to the
+     * fingerprinted paths
+     * @throws IOException
+     */
+    public Asset getServedAsset(String resourcePath) throws IOException {
+        Asset asset = getAsset(resourcePath);
+        if (! resourcePath.endsWith(".html"))
+            return asset;
+        return new Asset(fingerprintReferences(resourcePath, new String(asset.data, "UTF-8")).getBytes("UTF-8"),
+                asset.isGzippable(), Optional.empty());
+    }
+
+    private String fingerprintReferences(String htmlPath, String html) {
+        int slash = htmlPath.lastIndexOf("/");
+        String dir = slash < 0 ? "" : htmlPath.substring(0, slash + 1);
+        Matcher refs = REFERENCE.matcher(html);
+        StringBuffer res = new StringBuffer();
+        while (refs.find()) {
+            String ref = refs.group(2);
+            String replacement = ref;
+            boolean local = ! ref.isEmpty() && ! ref.contains(":") && ! ref.startsWith("//")
+                    && ! ref.contains("?") && ! ref.contains("#");
+            if (local) {
+                String resourcePath = ref.startsWith("/") ? ref.substring(1) : dir + ref;
+                try {
+                    replacement = fingerprint(ref, getAsset(resourcePath));
+                } catch (Exception e) {
+                    // not one of our assets, leave it alone
+                }
+            }
+            refs.appendReplacement(res, Matcher.quoteReplacement(refs.group(1) + replacement + refs.group(3)));
+        }
+        refs.appendTail(res);
+        return res.toString();
+    }
+
     @Override
     public void handle(HttpExchange httpExchange) throws IOException {
         String path = httpExchange.getRequestURI().getPath();
@@ -44,10 +153,35 @@ public abstract class StaticHandler implements HttpHandler
             if (path.length() == 0)
                 path = "index.html";
 
-            Asset res = getAsset(path);
+            boolean immutable = false;
+            Asset res = null;
+            Matcher fingerprinted = FINGERPRINTED.matcher(path);
+            if (fingerprinted.matches()) {
+                String unfingerprinted = fingerprinted.group(1) + fingerprinted.group(3);
+                try {
+                    res = getServedAsset(unfingerprinted);
+                    path = unfingerprinted;
+                    // an old fingerprint gets the current asset, but without the immutable caching
+                    immutable = fingerprinted.group(2).equals(res.hash);
+                } catch (Exception e) {
+                    // not a fingerprint, just a name that looks like one
+                }
+            }
+            if (res == null)
+                res = getServedAsset(path);
+
+            String acceptEncoding = Optional.ofNullable(httpExchange.getRequestHeaders().getFirst("Accept-Encoding")).orElse("");
+            String encoding = res.brotli.isPresent() && accepts(acceptEncoding, "br") ? "br" :
+                    res.isGzippable() && accepts(acceptEncoding, "gzip") ? "gzip" :
+                            "identity";
+            byte[] body = encoding.equals("br") ? res.brotli.get() :
+                    encoding.equals("gzip") ? res.gzip().get() :
+                            res.data;
 
-            if (isGzip)
-                httpExchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            if (! encoding.equals("identity"))
+                httpExchange.getResponseHeaders().set("Content-Encoding", encoding);
+            if (res.isGzippable() || res.brotli.isPresent())
+                httpExchange.getResponseHeaders().set("Vary", "Accept-Encoding");
             if (path.endsWith(".js"))
                 httpExchange.getResponseHeaders().set("Content-Type", "text/javascript");
             else if (path.endsWith(".html"))
@@ -60,16 +194,17 @@ public abstract class StaticHandler implements HttpHandler
                 httpExchange.getResponseHeaders().set("Content-Type", "image/png");
 	    else if (path.endsWith(".woff"))
                 httpExchange.getResponseHeaders().set("Content-Type", "application/font-woff");
-	    
-            if (httpExchange.getRequestMethod().equals("HEAD")) {
-                httpExchange.getResponseHeaders().set("Content-Length", "" + res.data.length);
-                httpExchange.sendResponseHeaders(200, -1);
-                return;
-            }
-            if (res.data.length > 100 * 1024) {
+
+            // Each encoding is a different representation, so needs its own strong validator
+            String etag = "\"" + res.hash + (encoding.equals("identity") ? "" : "-" + encoding) + "\"";
+            httpExchange.getResponseHeaders().set("ETag", etag);
+            if (immutable)
+                httpExchange.getResponseHeaders().set("Cache-Control", "public, max-age=31536000, immutable");
+            else if (path.endsWith(".html"))
+                // pages must be revalidated so that they always refer to the current fingerprinted assets
+                httpExchange.getResponseHeaders().set("Cache-Control", "no-cache");
+            else
                 httpExchange.getResponseHeaders().set("Cache-Control", "public, max-age=3600");
-                httpExchange.getResponseHeaders().set("ETag", res.hash);
-            }
 
             // Only allow assets to be loaded from the original host
 //            httpExchange.getResponseHeaders().set("content-security-policy", "default-src https: 'self'");
@@ -82,9 +217,13 @@ public abstract class StaticHandler implements HttpHandler
             // Don't send Peergos referrer to anyone
             httpExchange.getResponseHeaders().set("referrer-policy", "no-referrer");
 
-            httpExchange.sendResponseHeaders(200, res.data.length);
-            httpExchange.getResponseBody().write(res.data);
-            httpExchange.getResponseBody().close();
+            if (matches(httpExchange.getRequestHeaders().get("If-None-Match"), etag)) {
+                httpExchange.sendResponseHeaders(304, -1);
+                httpExchange.close();
+                return;
+            }
+
+            ByteRange.reply(httpExchange, body, Optional.of(etag));
         } catch (NullPointerException t) {
             System.err.println("Error retrieving: " + path);
         } catch (Throwable t) {
@@ -94,6 +233,34 @@ public abstract class StaticHandler implements HttpHandler
         }
     }
 
+    private static boolean accepts(String acceptEncoding, String encoding) {
+        for (String accepted : acceptEncoding.split(",")) {
+            String[] parts = accepted.trim().split(";");
+            if (! parts[0].trim().equals(encoding))
+                continue;
+            for (int i = 1; i < parts.length; i++) {
+                String param = parts[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        return Double.parseDouble(param.substring(2)) > 0;
+                    } catch (NumberFormatException e) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static boolean matches(List<String> ifNoneMatch, String etag) {
+        if (ifNoneMatch == null)
+            return false;
+        return ifNoneMatch.stream()
+                .flatMap(c -> Arrays.stream(c.split(",")))
+                .map(String::trim)
+                .anyMatch(c -> c.equals(etag) || c.equals("W/" + etag) || c.equals("*"));
+    }
 
     protected static byte[] readResource(InputStream in, boolean gzip) throws IOException {
         ByteArrayOutputStream bout = new ByteArrayOutputStream();
@@ -108,9 +275,21 @@ public abstract class StaticHandler implements HttpHandler
         return bout.toByteArray();
     }
 
+    /**
+     *
+     * @param in
+     * @return The contents of a precompressed variant of an asset, if there is one
+     * @throws IOException
+     */
+    protected static Optional<byte[]> readOptionalResource(InputStream in) throws IOException {
+        if (in == null)
+            return Optional.empty();
+        return Optional.of(readResource(in, false));
+    }
 
     public StaticHandler withCache() {
         Map<String, Asset> cache = new ConcurrentHashMap<>();
+        Map<String, Asset> served = new ConcurrentHashMap<>();
         StaticHandler that = this;
 
         return new StaticHandler(isGzip) {
@@ -120,6 +299,13 @@ public abstract class StaticHandler implements HttpHandler
                     cache.put(resourcePath, that.getAsset(resourcePath));
                 return cache.get(resourcePath);
             }
+
+            @Override
+            public Asset getServedAsset(String resourcePath) throws IOException {
+                if (! served.containsKey(resourcePath))
+                    served.put(resourcePath, super.getServedAsset(resourcePath));
+                return served.get(resourcePath);
+            }
         };
     }
 }
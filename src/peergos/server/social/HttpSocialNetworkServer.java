@@ -3,6 +3,7 @@ import java.util.logging.*;
 
 import peergos.server.util.Args;
 import peergos.server.util.Logging;
+import peergos.server.util.AsyncLogHandler;
 
 import com.sun.net.httpserver.*;
 import peergos.shared.cbor.*;
@@ -82,7 +83,7 @@ public class HttpSocialNetworkServer  {
                 exchange.close();
                 long t2 = System.currentTimeMillis();
                 if (LOGGING)
-                    LOG.info("Social Network server handled " + method + " request in: " + (t2 - t1) + " mS");
+                    LOG.log(new AsyncLogHandler.AccessEvent("Social Network server", method, t2 - t1));
             }
 
         }
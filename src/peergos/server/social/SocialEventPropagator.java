@@ -0,0 +1,55 @@
+package peergos.server.social;
+
+import peergos.server.util.*;
+import peergos.shared.crypto.hash.*;
+import peergos.shared.social.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+/** Propagates the owner of any follow requests which change to listeners, asynchronously so they don't delay the write
+ *
+ */
+public class SocialEventPropagator implements SocialNetwork {
+
+    private final SocialNetwork target;
+    private final EventBus<PublicKeyHash> listeners = new EventBus<>("Follow requests", owner -> owner);
+
+    public SocialEventPropagator(SocialNetwork target) {
+        this.target = target;
+    }
+
+    public void addListener(String name, Consumer<? super PublicKeyHash> listener) {
+        listeners.addListener(name, listener, EventBus.DEFAULT_QUEUE_SIZE);
+    }
+
+    public List<EventBus.Stats> getListenerStats() {
+        return listeners.getStats();
+    }
+
+    @Override
+    public CompletableFuture<Boolean> sendFollowRequest(PublicKeyHash target, byte[] encryptedPermission) {
+        return this.target.sendFollowRequest(target, encryptedPermission)
+                .thenApply(res -> {
+                    if (res)
+                        listeners.publish(target);
+                    return res;
+                });
+    }
+
+    @Override
+    public CompletableFuture<byte[]> getFollowRequests(PublicKeyHash owner) {
+        return target.getFollowRequests(owner);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> removeFollowRequest(PublicKeyHash owner, byte[] data) {
+        return target.removeFollowRequest(owner, data)
+                .thenApply(res -> {
+                    if (res)
+                        listeners.publish(owner);
+                    return res;
+                });
+    }
+}
@@ -3,6 +3,7 @@ package peergos.server.storage;
 import peergos.server.util.Logging;
 import peergos.shared.cbor.*;
 import peergos.shared.crypto.hash.*;
+import peergos.shared.hamt.*;
 import peergos.shared.io.ipfs.cid.*;
 import peergos.shared.io.ipfs.multiaddr.*;
 import peergos.shared.io.ipfs.multihash.*;
@@ -27,6 +28,7 @@ public class FileContentAddressedStorage implements ContentAddressedStorage {
     private static final int CID_V1 = 1;
     private static final int DIRECTORY_DEPTH = 5;
     private final Path root;
+    private final ChampNodeCache champNodes = ChampNodeCache.bounded();
 
     public FileContentAddressedStorage(Path root) {
         this.root = root;
@@ -76,6 +78,16 @@ public class FileContentAddressedStorage implements ContentAddressedStorage {
         return CompletableFuture.completedFuture(Arrays.asList(h));
     }
 
+    @Override
+    public CompletableFuture<List<Multihash>> directPin(List<Multihash> blocks) {
+        return CompletableFuture.completedFuture(blocks);
+    }
+
+    @Override
+    public CompletableFuture<List<Multihash>> directUnpin(List<Multihash> blocks) {
+        return CompletableFuture.completedFuture(blocks);
+    }
+
     @Override
     public CompletableFuture<List<Multihash>> getLinks(Multihash root) {
         if (root instanceof Cid && ((Cid) root).codec == Cid.Codec.Raw)
@@ -192,10 +204,18 @@ public class FileContentAddressedStorage implements ContentAddressedStorage {
         return CompletableFuture.completedFuture(file.exists() ? Optional.of((int) file.length()) : Optional.empty());
     }
 
+    @Override
+    public Optional<ChampNodeCache> champNodes() {
+        return Optional.of(champNodes);
+    }
+
     protected boolean delete(Multihash h) {
         Path path = getFilePath(h);
         File file = root.resolve(path).toFile();
-        return file.exists() && file.delete();
+        boolean deleted = file.exists() && file.delete();
+        if (deleted)
+            champNodes.clear();
+        return deleted;
     }
 
     public Optional<Long> getLastAccessTimeMillis(Multihash h) {
@@ -259,6 +279,8 @@ public class FileContentAddressedStorage implements ContentAddressedStorage {
                     LOG.warning("Could not delete " + legacy);
             }
         }
+        if (! removed.isEmpty())
+            champNodes.clear();
         return removed;
     }
 
@@ -160,6 +160,11 @@ public class IPFS {
                     .collect(Collectors.toList());
         }
 
+        public List<Multihash> add(List<Multihash> hashes, boolean recursive) throws IOException {
+            String args = hashes.stream().map(h -> "&arg=" + h).collect(Collectors.joining());
+            return parsePins(retrieveAndParse("pin/add?stream-channels=true&recursive=" + recursive + args));
+        }
+
         public Map<Multihash, Object> ls() throws IOException {
             return ls(PinType.direct);
         }
@@ -179,6 +184,22 @@ public class IPFS {
             return ((List<Object>) json.get("Pins")).stream().map(x -> Cid.decode((String) x)).collect(Collectors.toList());
         }
 
+        public List<Multihash> rm(List<Multihash> hashes, boolean recursive) throws IOException {
+            String args = hashes.stream().map(h -> "&arg=" + h).collect(Collectors.joining());
+            return parsePins(retrieveAndParse("pin/rm?stream-channels=true&r=" + recursive + args));
+        }
+
+        private List<Multihash> parsePins(Object json) throws IOException {
+            if (! (json instanceof Map))
+                throw new IOException("Unexpected pin response: " + json);
+            Object pins = ((Map<?, ?>) json).get("Pins");
+            if (! (pins instanceof List))
+                throw new IOException("Unexpected pin response: " + json);
+            return ((List<?>) pins).stream()
+                    .map(x -> Cid.decode((String) x))
+                    .collect(Collectors.toList());
+        }
+
         public List<MultiAddress> update(Multihash existing, Multihash modified, boolean unpin) throws IOException {
             return ((List<Object>)((Map)retrieveAndParse("pin/update?stream-channels=true&arg=" + existing + "&arg=" + modified + "&unpin=" + unpin)).get("Pins"))
                     .stream()
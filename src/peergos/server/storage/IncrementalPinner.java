@@ -0,0 +1,263 @@
+package peergos.server.storage;
+import java.util.logging.*;
+
+import peergos.server.util.Logging;
+
+import peergos.shared.io.ipfs.multihash.*;
+import peergos.shared.storage.*;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.*;
+
+/** Pins blocks individually, keeping a reference count for each pinned block.
+ *
+ *  Pinning a new root only descends into blocks which weren't already referenced, and unpinning an old root only
+ *  descends into blocks which are no longer referenced. So when a root is replaced by pinning the new root, then
+ *  unpinning the old one, only the blocks in the difference between the two trees are visited, rather than both
+ *  entire trees.
+ *
+ *  The counts are only locked while they are read and written, never during calls to the storage. Blocks which are
+ *  being pinned or unpinned are marked as pending, and any other operation which reaches them waits for that to
+ *  finish before planning again.
+ */
+public class IncrementalPinner {
+	private static final Logger LOG = Logging.LOG();
+    private static final int MAX_BLOCKS_PER_PIN_REQUEST = 100;
+
+    private final ContentAddressedStorage storage;
+    private final PinRefCounts refs;
+    private final Object countLock = new Object();
+    private final Map<Multihash, CompletableFuture<Boolean>> pending = new ConcurrentHashMap<>();
+
+    public IncrementalPinner(ContentAddressedStorage storage, PinRefCounts refs) {
+        this.storage = storage;
+        this.refs = refs;
+    }
+
+    public boolean isPinned(Multihash block) {
+        try {
+            return refs.getCount(block) > 0;
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** Add a reference to a root
+     *
+     * @param root
+     * @return the blocks which were pinned as a result
+     */
+    public CompletableFuture<List<Multihash>> pin(Multihash root) {
+        return addReference(root, false);
+    }
+
+    /** Take over a root which was pinned recursively before its blocks were counted. The descendants of the root are
+     *  pinned directly, but the root keeps its recursive pin until its last reference is removed. This does nothing
+     *  if the root is already referenced.
+     *
+     * @param root
+     * @return the blocks which were pinned as a result
+     */
+    public CompletableFuture<List<Multihash>> adoptRecursivePin(Multihash root) {
+        return addReference(root, true);
+    }
+
+    /** Remove a reference to a root
+     *
+     * @param root
+     * @return the blocks which were unpinned as a result
+     */
+    public CompletableFuture<List<Multihash>> unpin(Multihash root) {
+        try {
+            Map<Multihash, List<Multihash>> links = new HashMap<>();
+            Plan plan;
+            List<Multihash> recursiveRoots = new ArrayList<>();
+            CompletableFuture<Boolean> done = new CompletableFuture<>();
+            while (true) {
+                synchronized (countLock) {
+                    plan = plan(root, -1, links);
+                    if (plan.isReady()) {
+                        // record the counts before unpinning, so a failure can only leak pins, never lose blocks
+                        refs.addToCounts(plan.deltas);
+                        for (Multihash block : plan.changed) {
+                            pending.put(block, done);
+                            if (refs.isRecursiveRoot(block))
+                                recursiveRoots.add(block);
+                        }
+                        break;
+                    }
+                }
+                waitOrFetch(plan, links);
+            }
+
+            try {
+                for (Multihash recursiveRoot : recursiveRoots) {
+                    storage.recursiveUnpin(recursiveRoot).get();
+                    synchronized (countLock) {
+                        refs.setRecursiveRoot(recursiveRoot, false);
+                    }
+                }
+                List<Multihash> toUnpin = plan.changed.stream()
+                        .filter(b -> ! recursiveRoots.contains(b))
+                        .collect(Collectors.toList());
+                for (int i = 0; i < toUnpin.size(); i += MAX_BLOCKS_PER_PIN_REQUEST)
+                    storage.directUnpin(toUnpin.subList(i, Math.min(toUnpin.size(), i + MAX_BLOCKS_PER_PIN_REQUEST))).get();
+                return CompletableFuture.completedFuture(plan.changed);
+            } finally {
+                release(plan.changed, done);
+            }
+        } catch (Exception e) {
+            return failed(e);
+        }
+    }
+
+    private CompletableFuture<List<Multihash>> addReference(Multihash root, boolean recursivelyPinned) {
+        try {
+            Map<Multihash, List<Multihash>> links = new HashMap<>();
+            Plan plan;
+            Map<Multihash, Long> existing = new HashMap<>();
+            List<Multihash> toPin = new ArrayList<>();
+            CompletableFuture<Boolean> done = new CompletableFuture<>();
+            while (true) {
+                synchronized (countLock) {
+                    if (recursivelyPinned && ! pending.containsKey(root) && refs.getCount(root) > 0)
+                        return CompletableFuture.completedFuture(Collections.emptyList());
+                    plan = plan(root, 1, links);
+                    if (plan.isReady()) {
+                        // blocks which were already referenced are already pinned, so their counts can be recorded now
+                        Set<Multihash> newlyReferenced = new HashSet<>(plan.changed);
+                        for (Map.Entry<Multihash, Long> e : plan.deltas.entrySet())
+                            if (! newlyReferenced.contains(e.getKey()))
+                                existing.put(e.getKey(), e.getValue());
+                        refs.addToCounts(existing);
+                        for (Multihash block : plan.changed) {
+                            pending.put(block, done);
+                            boolean stillRecursivelyPinned = (recursivelyPinned && block.equals(root)) || refs.isRecursiveRoot(block);
+                            if (! stillRecursivelyPinned)
+                                toPin.add(block);
+                        }
+                        break;
+                    }
+                }
+                waitOrFetch(plan, links);
+            }
+
+            try {
+                // make sure an adopted root really is pinned recursively, this is a no-op if it already is
+                if (recursivelyPinned)
+                    storage.recursivePin(root).get();
+                // pin before recording the counts, so a failure can only leak pins, never lose blocks
+                for (int i = 0; i < toPin.size(); i += MAX_BLOCKS_PER_PIN_REQUEST)
+                    storage.directPin(toPin.subList(i, Math.min(toPin.size(), i + MAX_BLOCKS_PER_PIN_REQUEST))).get();
+                Map<Multihash, Long> added = new HashMap<>();
+                for (Multihash block : plan.changed)
+                    added.put(block, plan.deltas.get(block));
+                synchronized (countLock) {
+                    if (recursivelyPinned)
+                        refs.setRecursiveRoot(root, true);
+                    refs.addToCounts(added);
+                }
+            } catch (Exception e) {
+                Map<Multihash, Long> rollback = new HashMap<>();
+                for (Map.Entry<Multihash, Long> entry : existing.entrySet())
+                    rollback.put(entry.getKey(), -entry.getValue());
+                synchronized (countLock) {
+                    refs.addToCounts(rollback);
+                }
+                throw e;
+            } finally {
+                release(plan.changed, done);
+            }
+            return CompletableFuture.completedFuture(plan.changed);
+        } catch (Exception e) {
+            return failed(e);
+        }
+    }
+
+    /** The changes to the counts from adding (delta = 1) or removing (delta = -1) a reference to a root, or the
+     *  reason they can't be calculated yet. Must be called holding the count lock.
+     */
+    private Plan plan(Multihash root, int delta, Map<Multihash, List<Multihash>> links) throws SQLException {
+        Plan plan = new Plan();
+        Map<Multihash, Long> counts = new HashMap<>();
+        List<Multihash> level = Collections.singletonList(root);
+        while (! level.isEmpty()) {
+            List<Multihash> next = new ArrayList<>();
+            for (Multihash block : level) {
+                CompletableFuture<Boolean> inProgress = pending.get(block);
+                if (inProgress != null) {
+                    plan.waitFor = inProgress;
+                    return plan;
+                }
+                Long updated = counts.get(block);
+                long count = updated != null ? updated : refs.getCount(block);
+                if (delta < 0 && count == 0) {
+                    LOG.warning("Unpinning block which isn't pinned: " + block);
+                    continue;
+                }
+                counts.put(block, count + delta);
+                plan.deltas.merge(block, (long) delta, Long::sum);
+                if (count == 0 || count + delta == 0) {
+                    plan.changed.add(block);
+                    List<Multihash> blockLinks = links.get(block);
+                    if (blockLinks == null)
+                        plan.missingLinks.add(block);
+                    else
+                        next.addAll(blockLinks);
+                }
+            }
+            level = next;
+        }
+        return plan;
+    }
+
+    /** Wait, without holding the count lock, for whatever is stopping a plan from being ready
+     */
+    private void waitOrFetch(Plan plan, Map<Multihash, List<Multihash>> links) throws InterruptedException, ExecutionException {
+        if (plan.waitFor != null) {
+            try {
+                plan.waitFor.get();
+            } catch (ExecutionException e) {}
+            return;
+        }
+        links.putAll(getLinks(new ArrayList<>(plan.missingLinks)));
+    }
+
+    private void release(List<Multihash> blocks, CompletableFuture<Boolean> done) {
+        for (Multihash block : blocks)
+            pending.remove(block, done);
+        done.complete(true);
+    }
+
+    private static <T> CompletableFuture<T> failed(Exception e) {
+        LOG.log(Level.WARNING, e.getMessage(), e);
+        CompletableFuture<T> err = new CompletableFuture<>();
+        err.completeExceptionally(e);
+        return err;
+    }
+
+    /** Retrieve the links of a set of blocks in parallel
+     */
+    private Map<Multihash, List<Multihash>> getLinks(List<Multihash> blocks) throws InterruptedException, ExecutionException {
+        List<CompletableFuture<List<Multihash>>> links = blocks.stream()
+                .map(storage::getLinks)
+                .collect(Collectors.toList());
+        Map<Multihash, List<Multihash>> res = new HashMap<>();
+        for (int i = 0; i < blocks.size(); i++)
+            res.put(blocks.get(i), links.get(i).get());
+        return res;
+    }
+
+    private static class Plan {
+        final Map<Multihash, Long> deltas = new HashMap<>();
+        final List<Multihash> changed = new ArrayList<>();
+        final Set<Multihash> missingLinks = new HashSet<>();
+        CompletableFuture<Boolean> waitFor;
+
+        boolean isReady() {
+            return waitFor == null && missingLinks.isEmpty();
+        }
+    }
+}
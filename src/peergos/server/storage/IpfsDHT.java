@@ -2,6 +2,7 @@ package peergos.server.storage;
 
 import peergos.shared.cbor.*;
 import peergos.shared.crypto.hash.*;
+import peergos.shared.hamt.*;
 import peergos.shared.io.ipfs.multiaddr.MultiAddress;
 import peergos.shared.io.ipfs.multihash.Multihash;
 import peergos.shared.storage.ContentAddressedStorage;
@@ -13,6 +14,7 @@ import java.util.stream.*;
 
 public class IpfsDHT implements ContentAddressedStorage {
     private final IPFS ipfs;
+    private final ChampNodeCache champNodes = ChampNodeCache.bounded();
 
     public IpfsDHT(IPFS ipfs) {
         this.ipfs = ipfs;
@@ -123,6 +125,28 @@ public class IpfsDHT implements ContentAddressedStorage {
         return res;
     }
 
+    @Override
+    public CompletableFuture<List<Multihash>> directPin(List<Multihash> blocks) {
+        CompletableFuture<List<Multihash>> res = new CompletableFuture<>();
+        try {
+            res.complete(blocks.isEmpty() ? Collections.emptyList() : ipfs.pin.add(blocks, false));
+        } catch (Exception e) {
+            res.completeExceptionally(e);
+        }
+        return res;
+    }
+
+    @Override
+    public CompletableFuture<List<Multihash>> directUnpin(List<Multihash> blocks) {
+        CompletableFuture<List<Multihash>> res = new CompletableFuture<>();
+        try {
+            res.complete(blocks.isEmpty() ? Collections.emptyList() : ipfs.pin.rm(blocks, false));
+        } catch (Exception e) {
+            res.completeExceptionally(e);
+        }
+        return res;
+    }
+
     @Override
     public CompletableFuture<List<Multihash>> getLinks(Multihash root) {
         CompletableFuture<List<Multihash>> res = new CompletableFuture<>();
@@ -144,4 +168,9 @@ public class IpfsDHT implements ContentAddressedStorage {
         }
         return res;
     }
+
+    @Override
+    public Optional<ChampNodeCache> champNodes() {
+        return Optional.of(champNodes);
+    }
 }
@@ -2,6 +2,7 @@ package peergos.server.storage;
 
 import peergos.shared.cbor.*;
 import peergos.shared.crypto.hash.*;
+import peergos.shared.hamt.*;
 import peergos.shared.io.ipfs.multiaddr.*;
 import peergos.shared.io.ipfs.multihash.*;
 import peergos.shared.storage.*;
@@ -12,6 +13,7 @@ import java.util.concurrent.*;
 public class NonWriteThroughStorage implements ContentAddressedStorage {
     private final ContentAddressedStorage source;
     private final ContentAddressedStorage modifications;
+    private final ChampNodeCache champNodes = ChampNodeCache.bounded();
 
     public NonWriteThroughStorage(ContentAddressedStorage source) {
         this.source = source;
@@ -67,6 +69,16 @@ public class NonWriteThroughStorage implements ContentAddressedStorage {
         return modifications.recursiveUnpin(h);
     }
 
+    @Override
+    public CompletableFuture<List<Multihash>> directPin(List<Multihash> blocks) {
+        return modifications.directPin(blocks);
+    }
+
+    @Override
+    public CompletableFuture<List<Multihash>> directUnpin(List<Multihash> blocks) {
+        return modifications.directUnpin(blocks);
+    }
+
     @Override
     public CompletableFuture<List<MultiAddress>> pinUpdate(Multihash existing, Multihash updated) {
         return modifications.pinUpdate(existing, updated);
@@ -95,4 +107,9 @@ public class NonWriteThroughStorage implements ContentAddressedStorage {
             throw new RuntimeException(e.getMessage(), e);
         }
     }
+
+    @Override
+    public Optional<ChampNodeCache> champNodes() {
+        return Optional.of(champNodes);
+    }
 }
@@ -0,0 +1,132 @@
+package peergos.server.storage;
+
+import peergos.server.corenode.*;
+import peergos.shared.io.ipfs.multihash.*;
+
+import java.sql.*;
+import java.util.*;
+
+/** A persistent count of the references to each pinned block, from pinned parent blocks or as a root, and the set of
+ *  roots which are still pinned recursively from before their blocks were counted.
+ *
+ */
+public class PinRefCounts {
+
+    private static final String CREATE_TABLE = "create table if not exists pinrefs (hash text primary key not null, refs integer not null);";
+    private static final String SELECT_COUNT = "select refs from pinrefs where hash = ?;";
+    private static final String UPSERT_COUNT = "INSERT OR REPLACE INTO pinrefs (hash, refs) VALUES(?, ?);";
+    private static final String DELETE_COUNT = "delete from pinrefs where hash = ?;";
+    private static final String CREATE_RECURSIVE_TABLE = "create table if not exists recursiveroots (hash text primary key not null);";
+    private static final String SELECT_RECURSIVE = "select hash from recursiveroots where hash = ?;";
+    private static final String INSERT_RECURSIVE = "INSERT OR IGNORE INTO recursiveroots (hash) VALUES(?);";
+    private static final String DELETE_RECURSIVE = "delete from recursiveroots where hash = ?;";
+
+    private final SqliteConnectionPool db;
+
+    public PinRefCounts(SqliteConnectionPool db) throws SQLException {
+        this.db = db;
+        db.write(conn -> conn.prepare(CREATE_TABLE).executeUpdate());
+        db.write(conn -> conn.prepare(CREATE_RECURSIVE_TABLE).executeUpdate());
+    }
+
+    public static PinRefCounts build(String dbPath) throws SQLException {
+        return new PinRefCounts(SqliteConnectionPool.build(dbPath, 1));
+    }
+
+    public long getCount(Multihash block) throws SQLException {
+        return db.read(conn -> {
+            PreparedStatement stmt = conn.prepare(SELECT_COUNT);
+            stmt.setString(1, block.toString());
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : 0L;
+            }
+        });
+    }
+
+    /** Set many counts in a single transaction. Blocks with a count of zero are removed.
+     *
+     * @param counts
+     * @throws SQLException
+     */
+    public void setCounts(Map<Multihash, Long> counts) throws SQLException {
+        if (counts.isEmpty())
+            return;
+        db.transaction(conn -> {
+            PreparedStatement upsert = conn.prepare(UPSERT_COUNT);
+            PreparedStatement delete = conn.prepare(DELETE_COUNT);
+            for (Map.Entry<Multihash, Long> e : counts.entrySet()) {
+                if (e.getValue() > 0) {
+                    upsert.setString(1, e.getKey().toString());
+                    upsert.setLong(2, e.getValue());
+                    upsert.addBatch();
+                } else {
+                    delete.setString(1, e.getKey().toString());
+                    delete.addBatch();
+                }
+            }
+            upsert.executeBatch();
+            delete.executeBatch();
+            return true;
+        });
+    }
+
+    /** Add to many counts in a single transaction. Blocks whose count reaches zero are removed.
+     *
+     * @param deltas
+     * @throws SQLException
+     */
+    public void addToCounts(Map<Multihash, Long> deltas) throws SQLException {
+        if (deltas.isEmpty())
+            return;
+        db.transaction(conn -> {
+            PreparedStatement select = conn.prepare(SELECT_COUNT);
+            PreparedStatement upsert = conn.prepare(UPSERT_COUNT);
+            PreparedStatement delete = conn.prepare(DELETE_COUNT);
+            for (Map.Entry<Multihash, Long> e : deltas.entrySet()) {
+                select.setString(1, e.getKey().toString());
+                long current;
+                try (ResultSet rs = select.executeQuery()) {
+                    current = rs.next() ? rs.getLong(1) : 0L;
+                }
+                long updated = current + e.getValue();
+                if (updated > 0) {
+                    upsert.setString(1, e.getKey().toString());
+                    upsert.setLong(2, updated);
+                    upsert.executeUpdate();
+                } else {
+                    delete.setString(1, e.getKey().toString());
+                    delete.executeUpdate();
+                }
+            }
+            return true;
+        });
+    }
+
+    /**
+     *
+     * @param root
+     * @return whether root is pinned recursively rather than directly
+     * @throws SQLException
+     */
+    public boolean isRecursiveRoot(Multihash root) throws SQLException {
+        return db.read(conn -> {
+            PreparedStatement stmt = conn.prepare(SELECT_RECURSIVE);
+            stmt.setString(1, root.toString());
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next();
+            }
+        });
+    }
+
+    public void setRecursiveRoot(Multihash root, boolean isRecursive) throws SQLException {
+        db.write(conn -> {
+            PreparedStatement stmt = conn.prepare(isRecursive ? INSERT_RECURSIVE : DELETE_RECURSIVE);
+            stmt.setString(1, root.toString());
+            return stmt.executeUpdate();
+        });
+    }
+
+    public void close() {
+        db.close();
+    }
+}
@@ -3,6 +3,7 @@ package peergos.server.storage;
 import peergos.shared.cbor.*;
 import peergos.shared.crypto.asymmetric.*;
 import peergos.shared.crypto.hash.*;
+import peergos.shared.hamt.*;
 import peergos.shared.io.ipfs.multiaddr.*;
 import peergos.shared.io.ipfs.multihash.*;
 import peergos.shared.io.ipfs.cid.*;
@@ -20,6 +21,7 @@ public class RAMStorage implements ContentAddressedStorage {
     private Map<Multihash, byte[]> storage = new EfficientHashMap<>();
 
     private final Set<Multihash> pinnedRoots = new HashSet<>();
+    private final ChampNodeCache champNodes = ChampNodeCache.bounded();
 
     @Override
     public CompletableFuture<Multihash> id() {
@@ -71,6 +73,7 @@ public class RAMStorage implements ContentAddressedStorage {
 
     public synchronized void clear() {
         storage.clear();
+        champNodes.clear();
     }
 
     public synchronized int size() {
@@ -87,6 +90,16 @@ public class RAMStorage implements ContentAddressedStorage {
         return CompletableFuture.completedFuture(Arrays.asList(h));
     }
 
+    @Override
+    public CompletableFuture<List<Multihash>> directPin(List<Multihash> blocks) {
+        return CompletableFuture.completedFuture(blocks);
+    }
+
+    @Override
+    public CompletableFuture<List<Multihash>> directUnpin(List<Multihash> blocks) {
+        return CompletableFuture.completedFuture(blocks);
+    }
+
     @Override
     public CompletableFuture<List<MultiAddress>> pinUpdate(Multihash existing, Multihash updated) {
         return CompletableFuture.completedFuture(Arrays.asList(new MultiAddress("/ipfs/"+existing), new MultiAddress("/ipfs/"+updated)));
@@ -109,6 +122,11 @@ public class RAMStorage implements ContentAddressedStorage {
         return CompletableFuture.completedFuture(Optional.of(storage.get(block).length));
     }
 
+    @Override
+    public Optional<ChampNodeCache> champNodes() {
+        return Optional.of(champNodes);
+    }
+
     public static Cid hashToCid(byte[] input, boolean isRaw) {
         byte[] hash = hash(input);
         Multihash multihash = new Multihash(Multihash.Type.sha2_256, hash);
@@ -0,0 +1,121 @@
+package peergos.server.tests;
+
+import org.junit.*;
+import peergos.server.util.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.*;
+import java.util.logging.Formatter;
+
+public class AsyncLogHandlerTests {
+
+    /** Collects the lines of every batch written to it, optionally blocking until released */
+    private static class CollectingHandler extends Handler {
+        public final List<String> lines = Collections.synchronizedList(new ArrayList<>());
+        public final CountDownLatch entered = new CountDownLatch(1);
+        public final CountDownLatch release;
+
+        public CollectingHandler(boolean block, Formatter formatter) {
+            this.release = new CountDownLatch(block ? 1 : 0);
+            setFormatter(formatter);
+        }
+
+        @Override
+        public void publish(LogRecord record) {
+            entered.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {}
+            for (String line : getFormatter().format(record).split("\n"))
+                if (! line.isEmpty())
+                    lines.add(line);
+        }
+
+        @Override
+        public void flush() {}
+
+        @Override
+        public void close() {}
+    }
+
+    private static class MessageFormatter extends Formatter {
+        @Override
+        public String format(LogRecord record) {
+            return formatMessage(record) + "\n";
+        }
+    }
+
+    private static class SourceFormatter extends Formatter {
+        @Override
+        public String format(LogRecord record) {
+            return record.getSourceClassName() + "\n";
+        }
+    }
+
+    private static List<String> messages(int from, int to) {
+        List<String> res = new ArrayList<>();
+        for (int i = from; i < to; i++)
+            res.add(Integer.toString(i));
+        return res;
+    }
+
+    @Test
+    public void wrapAround() {
+        CollectingHandler target = new CollectingHandler(false, new MessageFormatter());
+        AsyncLogHandler async = new AsyncLogHandler(target, 4, AsyncLogHandler.OverflowPolicy.BLOCK, Collections.emptyMap());
+        // many times round the ring, with the publisher waiting for space
+        for (String message : messages(0, 1000))
+            async.publish(new LogRecord(Level.INFO, message));
+        async.close();
+        Assert.assertEquals(messages(0, 1000), target.lines);
+        Assert.assertEquals(0, async.droppedCount());
+    }
+
+    @Test
+    public void dropWhenFull() throws Exception {
+        CollectingHandler target = new CollectingHandler(true, new MessageFormatter());
+        AsyncLogHandler async = new AsyncLogHandler(target, 8, AsyncLogHandler.OverflowPolicy.DROP, Collections.emptyMap());
+        async.publish(new LogRecord(Level.INFO, "0"));
+        // wait until the writer is stuck writing the first record
+        Assert.assertTrue(target.entered.await(5, TimeUnit.SECONDS));
+        for (String message : messages(1, 21))
+            async.publish(new LogRecord(Level.INFO, message));
+        Assert.assertEquals(12, async.droppedCount());
+
+        target.release.countDown();
+        async.close();
+        List<String> expected = messages(0, 9);
+        expected.add("Log buffer full, dropped 12 records");
+        Assert.assertEquals(expected, target.lines);
+    }
+
+    @Test
+    public void flushOnClose() {
+        CollectingHandler target = new CollectingHandler(false, new MessageFormatter());
+        AsyncLogHandler async = new AsyncLogHandler(target, 1024, AsyncLogHandler.OverflowPolicy.DROP, Collections.emptyMap());
+        for (String message : messages(0, 500))
+            async.publish(new LogRecord(Level.INFO, message));
+        async.close();
+        Assert.assertEquals(messages(0, 500), target.lines);
+        // nothing is accepted after closing
+        async.publish(new LogRecord(Level.INFO, "late"));
+        async.flush();
+        Assert.assertEquals(500, target.lines.size());
+    }
+
+    @Test
+    public void callerIsInferredOnTheLoggingThread() {
+        Logger logger = Logger.getLogger(AsyncLogHandlerTests.class.getName() + ".caller");
+        logger.setUseParentHandlers(false);
+
+        CollectingHandler withSource = new CollectingHandler(false, new SourceFormatter());
+        AsyncLogHandler async = new AsyncLogHandler(withSource, 16, AsyncLogHandler.OverflowPolicy.BLOCK, Collections.emptyMap());
+        logger.addHandler(async);
+        logger.info("something");
+        logger.log(new AsyncLogHandler.AccessEvent("DHT Handler", "block/get", 3));
+        logger.removeHandler(async);
+        async.close();
+        Assert.assertEquals(Arrays.asList(AsyncLogHandlerTests.class.getName(), "DHT Handler"), withSource.lines);
+    }
+}
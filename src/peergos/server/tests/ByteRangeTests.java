@@ -0,0 +1,100 @@
+package peergos.server.tests;
+
+import com.sun.net.httpserver.*;
+import org.junit.*;
+import peergos.server.net.*;
+import peergos.shared.user.*;
+import peergos.shared.util.*;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class ByteRangeTests {
+
+    private final HttpServer server;
+    private final JavaPoster poster;
+
+    public ByteRangeTests() throws IOException {
+        int port = 5680;
+        this.server = HttpServer.create(new InetSocketAddress("localhost", port), 10);
+        server.createContext("/", new FileHandler(FileHandlerTests.TEST_ROOT, false));
+        server.setExecutor(Executors.newFixedThreadPool(1));
+        server.start();
+        this.poster = new JavaPoster(new URL("http://localhost:" + port + "/"));
+    }
+
+    @After
+    public void finish() {
+        server.stop(0);
+    }
+
+    @Test
+    public void parse() {
+        Assert.assertEquals(Optional.of(Arrays.asList(new ByteRange(0, 499))), ByteRange.parse("bytes=0-499", 1000));
+        Assert.assertEquals(Optional.of(Arrays.asList(new ByteRange(900, 999))), ByteRange.parse("bytes=-100", 1000));
+        Assert.assertEquals(Optional.of(Arrays.asList(new ByteRange(900, 999))), ByteRange.parse("bytes=900-", 1000));
+        Assert.assertEquals(Optional.of(Arrays.asList(new ByteRange(900, 999))), ByteRange.parse("bytes=900-2000", 1000));
+        // overlapping and adjacent ranges are coalesced
+        Assert.assertEquals(Optional.of(Arrays.asList(new ByteRange(0, 199), new ByteRange(500, 599))),
+                ByteRange.parse("bytes=500-599, 100-199,0-150", 1000));
+        // unsatisfiable
+        Assert.assertEquals(Optional.of(Collections.emptyList()), ByteRange.parse("bytes=1000-1100", 1000));
+        // invalid headers are ignored
+        Assert.assertEquals(Optional.empty(), ByteRange.parse("bytes=500-400", 1000));
+        Assert.assertEquals(Optional.empty(), ByteRange.parse("items=0-5", 1000));
+        Assert.assertEquals(Optional.empty(), ByteRange.parse("bytes=a-5", 1000));
+    }
+
+    @Test
+    public void partialGet() throws Exception {
+        String full = "The thing!";
+        Assert.assertEquals(full.substring(4, 9), new String(poster.get("something.txt", 4, 9).get()));
+        Assert.assertEquals(full.substring(4), new String(poster.get("something.txt", 4, 100).get()));
+        Assert.assertEquals("", new String(poster.get("something.txt", 100, 200).get()));
+        Assert.assertEquals("", new String(poster.get("something.txt", 5, 5).get()));
+        Assert.assertEquals("", new String(poster.get("something.txt", 6, 2).get()));
+    }
+
+    @Test
+    public void defaultPartialGetMatches() throws Exception {
+        HttpPoster whole = new HttpPoster() {
+            @Override
+            public CompletableFuture<byte[]> postUnzip(String url, byte[] payload) {
+                throw new IllegalStateException();
+            }
+
+            @Override
+            public CompletableFuture<byte[]> postMultipart(String url, List<byte[]> files) {
+                throw new IllegalStateException();
+            }
+
+            @Override
+            public CompletableFuture<byte[]> post(String url, byte[] payload, boolean unzip) {
+                throw new IllegalStateException();
+            }
+
+            @Override
+            public CompletableFuture<byte[]> get(String url) {
+                return poster.get(url);
+            }
+        };
+        int[][] ranges = {{4, 9}, {4, 100}, {100, 200}, {5, 5}, {6, 2}, {0, 10}};
+        for (int[] range : ranges)
+            Assert.assertArrayEquals(poster.get("something.txt", range[0], range[1]).get(),
+                    whole.get("something.txt", range[0], range[1]).get());
+    }
+
+    @Test
+    public void multiRange() throws Exception {
+        HttpURLConnection conn = (HttpURLConnection) new URL("http://localhost:" + server.getAddress().getPort() + "/something.txt").openConnection();
+        conn.setRequestProperty("Range", "bytes=0-2,4-8");
+        Assert.assertEquals(206, conn.getResponseCode());
+        Assert.assertTrue(conn.getContentType().startsWith("multipart/byteranges"));
+        String body = new String(Serialize.readFully(conn.getInputStream()));
+        Assert.assertTrue(body.contains("Content-Range: bytes 0-2/10\r\n\r\nThe\r\n"));
+        Assert.assertTrue(body.contains("Content-Range: bytes 4-8/10\r\n\r\nthing\r\n"));
+        conn.disconnect();
+    }
+}
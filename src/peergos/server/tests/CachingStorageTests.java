@@ -0,0 +1,42 @@
+package peergos.server.tests;
+
+import org.junit.*;
+import peergos.server.storage.*;
+import peergos.shared.crypto.hash.*;
+import peergos.shared.io.ipfs.multihash.*;
+import peergos.shared.storage.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+public class CachingStorageTests {
+
+    @Test
+    public void failedRawGetIsRetried() throws Exception {
+        AtomicBoolean fail = new AtomicBoolean(true);
+        RAMStorage target = new RAMStorage() {
+            @Override
+            public CompletableFuture<Optional<byte[]>> getRaw(Multihash key) {
+                if (! fail.get())
+                    return super.getRaw(key);
+                CompletableFuture<Optional<byte[]>> err = new CompletableFuture<>();
+                err.completeExceptionally(new IllegalStateException("Unavailable"));
+                return err;
+            }
+        };
+        byte[] block = new byte[]{1, 2, 3};
+        Multihash hash = target.putRaw(PublicKeyHash.NULL, new byte[0], block).get();
+        CachingStorage storage = new CachingStorage(target, 100, 1024);
+
+        try {
+            storage.getRaw(hash).get();
+            Assert.fail("A failed get should fail");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+
+        fail.set(false);
+        Assert.assertTrue(Arrays.equals(block, storage.getRaw(hash).get(1, TimeUnit.SECONDS).get()));
+    }
+}
@@ -2,9 +2,11 @@ package peergos.server.tests;
 
 import org.junit.*;
 import peergos.shared.cbor.*;
+import peergos.shared.crypto.hash.*;
 import peergos.shared.io.ipfs.multihash.*;
 import peergos.shared.util.*;
 
+import java.io.*;
 import java.util.*;
 
 public class CborObjects {
@@ -26,6 +28,49 @@ public class CborObjects {
         } catch (RuntimeException e) {}
     }
 
+    @Test
+    public void truncatedCborView() {
+        byte[] raw = new CborObject.CborList(Arrays.asList(new CborObject.CborByteArray(random(32)),
+                new CborObject.CborLong(Long.MAX_VALUE))).toByteArray();
+        for (int i = 0; i < raw.length; i++) {
+            try {
+                CborView.of(Arrays.copyOfRange(raw, 0, i));
+                Assert.fail("Should have failed!");
+            } catch (RuntimeException e) {}
+        }
+        try {
+            CborView.of(ArrayOps.hexToBytes("5b0004000000000000"));
+            Assert.fail("Should have failed!");
+        } catch (RuntimeException e) {}
+    }
+
+    @Test
+    public void cborViewAccessors() {
+        Multihash hash = Multihash.fromBase58("QmPZ9gcCEpqKTo6aq61g2nXGUhM4iCL3ewB6LDXZCtioEB");
+        byte[] bytes = random(100);
+        SortedMap<CborObject, CborObject> map = new TreeMap<>();
+        map.put(new CborObject.CborString("link"), new CborObject.CborMerkleLink(hash));
+        map.put(new CborObject.CborString("long"), new CborObject.CborLong(-300));
+        map.put(new CborObject.CborString("data"), new CborObject.CborByteArray(bytes));
+        CborObject.CborList list = new CborObject.CborList(Arrays.asList(
+                new CborObject.CborMap(map),
+                new CborObject.CborString("G'day mate!"),
+                new CborObject.CborBoolean(false)));
+
+        CborView view = CborView.of(list.toByteArray());
+        Assert.assertEquals(3, view.size());
+        CborView mapView = view.get(0);
+        Assert.assertEquals(hash, mapView.get("link").get().getLink());
+        Assert.assertEquals(-300, mapView.get("long").get().getLong());
+        Assert.assertTrue(Arrays.equals(bytes, mapView.get("data").get().getByteArray()));
+        Assert.assertFalse(mapView.get("absent").isPresent());
+        Assert.assertEquals("G'day mate!", view.get(1).getString());
+        Assert.assertFalse(view.get(2).getBoolean());
+        Assert.assertEquals(list.links(), view.links());
+        Assert.assertTrue(Arrays.equals(map.get(new CborObject.CborString("data")).toByteArray(),
+                mapView.get("data").get().toByteArray()));
+    }
+
     @Test
     public void cborNull() {
         CborObject.CborNull cbor = new CborObject.CborNull();
@@ -95,6 +140,44 @@ public class CborObjects {
         compatibleAndIdempotentSerialization(cborMap);
     }
 
+    @Test
+    public void decodedMapsAreSorted() {
+        for (int size : Arrays.asList(0, 1, 5, 8, 9, 100)) {
+            SortedMap<CborObject, CborObject> map = new TreeMap<>();
+            for (int i = 0; i < size; i++)
+                map.put(new CborObject.CborString("key" + rnd.nextInt(1_000_000)), new CborObject.CborLong(i));
+            CborObject.CborMap decoded = (CborObject.CborMap) CborObject.fromByteArray(new CborObject.CborMap(map).toByteArray());
+
+            Assert.assertEquals(map, decoded.values);
+            Assert.assertEquals(new ArrayList<>(map.keySet()), new ArrayList<>(decoded.values.keySet()));
+            for (Map.Entry<CborObject, CborObject> e : map.entrySet()) {
+                Assert.assertTrue(decoded.values.containsKey(e.getKey()));
+                Assert.assertEquals(e.getValue(), decoded.values.get(e.getKey()));
+            }
+            Assert.assertNull(decoded.values.get(new CborObject.CborString("absent")));
+            if (size > 0) {
+                CborObject middle = new ArrayList<>(map.keySet()).get(size / 2);
+                Assert.assertEquals(map.headMap(middle), decoded.values.headMap(middle));
+                Assert.assertEquals(map.tailMap(middle), decoded.values.tailMap(middle));
+                Assert.assertEquals(map.lastKey(), decoded.values.lastKey());
+            }
+        }
+    }
+
+    @Test
+    public void nonCanonicalMapIsSorted() {
+        // {"bb": 1, "a": 2, "bb": 3} with keys out of order and duplicated
+        byte[] raw = ArrayOps.hexToBytes("a36262620161610262626203");
+        CborObject.CborMap decoded = (CborObject.CborMap) CborObject.fromByteArray(raw);
+
+        SortedMap<CborObject, CborObject> expected = new TreeMap<>();
+        expected.put(new CborObject.CborString("a"), new CborObject.CborLong(2));
+        expected.put(new CborObject.CborString("bb"), new CborObject.CborLong(3));
+        Assert.assertEquals(expected, decoded.values);
+        Assert.assertEquals(new ArrayList<>(expected.keySet()), new ArrayList<>(decoded.values.keySet()));
+        Assert.assertTrue(Arrays.equals(new CborObject.CborMap(expected).toByteArray(), decoded.toByteArray()));
+    }
+
     @Test
     public void cborList() {
         List<CborObject> list = new ArrayList<>();
@@ -106,8 +189,41 @@ public class CborObjects {
         compatibleAndIdempotentSerialization(cborList);
     }
 
+    @Test
+    public void immutableCollections() {
+        List<CborObject> inner = new ArrayList<>();
+        inner.add(new CborObject.CborString("\u00e9t\u00e9 \ud83d\ude00"));
+        inner.add(new CborObject.CborLong(-1L << 40));
+        CborObject.CborList child = new CborObject.CborList(inner);
+        byte[] before = child.toByteArray();
+        inner.add(new CborObject.CborMerkleLink(Multihash.fromBase58("QmPZ9gcCEpqKTo6aq61g2nXGUhM4iCL3ewB6LDXZCtioEB")));
+        Assert.assertTrue("Unaffected by the original list", Arrays.equals(before, child.toByteArray()));
+        try {
+            ((List<CborObject>) child.value).add(new CborObject.CborNull());
+            Assert.fail("Modified a cbor list");
+        } catch (UnsupportedOperationException expected) {}
+
+        SortedMap<CborObject, Cborable> map = new TreeMap<>();
+        map.put(new CborObject.CborString("child"), child);
+        map.put(new CborObject.CborString("data"), new CborObject.CborByteArray(random(300)));
+        map.put(new CborObject.CborString("link"), new PublicKeyHash(Multihash.fromBase58("QmPZ9gcCEpqKTo6aq61g2nXGUhM4iCL3ewB6LDXZCtioEB")));
+        CborObject.CborMap parent = new CborObject.CborMap(map);
+        map.remove(new CborObject.CborString("data"));
+        Assert.assertEquals("Unaffected by the original map", 3, parent.values.size());
+        Assert.assertTrue("Values are converted once", parent.values.get(new CborObject.CborString("link")) instanceof CborObject);
+        try {
+            ((SortedMap<CborObject, CborObject>) parent.values).remove(new CborObject.CborString("child"));
+            Assert.fail("Modified a cbor map");
+        } catch (UnsupportedOperationException expected) {}
+        compatibleAndIdempotentSerialization(parent);
+    }
+
     public void compatibleAndIdempotentSerialization(CborObject value) {
         byte[] raw = value.toByteArray();
+        Assert.assertEquals("Serialized size", raw.length, value.serializedSize());
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        value.serialize(new CborEncoder(bout));
+        Assert.assertTrue("Same bytes from stream encoder", Arrays.equals(raw, bout.toByteArray()));
         CborObject deserialized = CborObject.fromByteArray(raw);
 
         boolean equals = deserialized.equals(value);
@@ -115,5 +231,11 @@ public class CborObjects {
         byte[] raw2 = deserialized.toByteArray();
         boolean sameRaw = Arrays.equals(raw, raw2);
         Assert.assertTrue("Idempotent serialization", sameRaw);
+
+        CborObject viewed = CborView.of(raw).toCbor();
+        Assert.assertTrue("Equal objects from view", viewed.equals(value));
+
+        CborObject streamed = CborObject.deserialize(new CborDecoder(new ByteArrayInputStream(raw)), raw.length);
+        Assert.assertTrue("Equal objects from stream decoder", streamed.equals(value));
     }
 }
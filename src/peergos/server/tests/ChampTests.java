@@ -3,6 +3,7 @@ package peergos.server.tests;
 import org.junit.*;
 import peergos.server.storage.*;
 import peergos.shared.*;
+import peergos.shared.cbor.*;
 import peergos.shared.crypto.*;
 import peergos.shared.crypto.hash.*;
 import peergos.shared.hamt.*;
@@ -12,7 +13,9 @@ import peergos.shared.storage.*;
 import peergos.shared.util.*;
 
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.function.*;
+import java.util.stream.*;
 
 public class ChampTests {
 
@@ -98,6 +101,41 @@ public class ChampTests {
         }
     }
 
+    @Test
+    public void wireFormatRoundTrips() throws Exception {
+        RAMStorage storage = new RAMStorage();
+        SigningPrivateKeyAndPublicHash user = createUser(storage, crypto);
+        Random r = new Random(28);
+
+        // compact bitmaps for bit widths up to 5, including a full bitmap, and wide ones above that
+        for (int bitWidth : Arrays.asList(3, 5, 6, 8)) {
+            Champ current = Champ.empty();
+            Multihash currentHash = storage.put(user, current.serialize()).get();
+            for (int i = 0; i < 500; i++) {
+                byte[] keyBytes = new byte[32];
+                r.nextBytes(keyBytes);
+                ByteArrayWrapper key = new ByteArrayWrapper(keyBytes);
+                Multihash value = new Multihash(Multihash.Type.sha2_256, keyBytes);
+                Pair<Champ, Multihash> updated = current.put(user, key, key.data, 0, MaybeMultihash.empty(),
+                        MaybeMultihash.of(value), bitWidth, 3, x -> x.data, storage, currentHash).get();
+                current = updated.left;
+                currentHash = updated.right;
+            }
+            checkRoundTrip(currentHash, storage);
+        }
+    }
+
+    private static void checkRoundTrip(Multihash node, RAMStorage storage) throws Exception {
+        Optional<byte[]> block = storage.getRaw(node).get();
+        if (! block.isPresent())
+            return; // a value rather than a child node
+        byte[] raw = block.get();
+        Assert.assertArrayEquals(raw, Champ.fromCbor(CborObject.fromByteArray(raw)).serialize());
+        Assert.assertArrayEquals(raw, Champ.fromView(CborView.of(raw)).serialize());
+        for (Multihash child : storage.getLinks(node).get())
+            checkRoundTrip(child, storage);
+    }
+
     @Test
     public void canonicalDelete() throws Exception {
         RAMStorage storage = new RAMStorage();
@@ -128,6 +166,219 @@ public class ChampTests {
             }
     }
 
+    @Test
+    public void bulkUpdateMatchesSequential() throws Exception {
+        RAMStorage storage = new RAMStorage();
+        RAMStorage bulkStorage = new RAMStorage();
+        SigningPrivateKeyAndPublicHash user = createUser(storage, crypto);
+        int bitWidth = 3;
+        int maxCollisions = 4;
+        Random r = new Random(28);
+
+        Supplier<Multihash> randomHash = () -> {
+            byte[] hash = new byte[32];
+            r.nextBytes(hash);
+            return new Multihash(Multihash.Type.sha2_256, hash);
+        };
+
+        Pair<Champ, Multihash> current = new Pair<>(Champ.empty(), storage.put(user, Champ.empty().serialize()).get());
+        Pair<Champ, Multihash> bulk = new Pair<>(Champ.empty(), bulkStorage.put(user, Champ.empty().serialize()).get());
+        List<Triple<ByteArrayWrapper, MaybeMultihash, MaybeMultihash>> puts = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            ByteArrayWrapper key = new ByteArrayWrapper(randomHash.get().toBytes());
+            MaybeMultihash value = MaybeMultihash.of(randomHash.get());
+            puts.add(new Triple<>(key, MaybeMultihash.empty(), value));
+            current = current.left.put(user, key, key.data, 0, MaybeMultihash.empty(), value,
+                    bitWidth, maxCollisions, x -> x.data, storage, current.right).get();
+        }
+        int sequentialSize = storage.totalSize();
+        bulk = Champ.bulkUpdate(user, bulk.left, bulk.right, puts, bitWidth, maxCollisions, x -> x.data, bulkStorage).get();
+        Assert.assertEquals(current.right, bulk.right);
+        Assert.assertTrue("Bulk update wrote too much", bulkStorage.totalSize() * 4 < sequentialSize);
+        // check every node was written, rather than only decoded
+        bulkStorage.champNodes().get().clear();
+        Assert.assertEquals(500L, (long) bulk.left.size(0, bulkStorage).get());
+
+        // update some and remove others
+        List<Triple<ByteArrayWrapper, MaybeMultihash, MaybeMultihash>> changes = new ArrayList<>();
+        for (int i = 0; i < puts.size(); i += 3) {
+            Triple<ByteArrayWrapper, MaybeMultihash, MaybeMultihash> put = puts.get(i);
+            MaybeMultihash updated = i % 2 == 0 ? MaybeMultihash.of(randomHash.get()) : MaybeMultihash.empty();
+            changes.add(new Triple<>(put.left, put.right, updated));
+            current = updated.isPresent() ?
+                    current.left.put(user, put.left, put.left.data, 0, put.right, updated,
+                            bitWidth, maxCollisions, x -> x.data, storage, current.right).get() :
+                    current.left.remove(user, put.left, put.left.data, 0, put.right,
+                            bitWidth, maxCollisions, storage, current.right).get();
+        }
+        bulk = Champ.bulkUpdate(user, bulk.left, bulk.right, changes, bitWidth, maxCollisions, x -> x.data, bulkStorage).get();
+        Assert.assertEquals(current.right, bulk.right);
+        bulkStorage.champNodes().get().clear();
+        for (Triple<ByteArrayWrapper, MaybeMultihash, MaybeMultihash> change : changes)
+            Assert.assertEquals(change.right, bulk.left.get(change.left, change.left.data, 0, bitWidth, bulkStorage).get());
+    }
+
+    @Test
+    public void traversalVisitsEveryMappingInOrder() throws Exception {
+        // retrieve blocks on other threads, so child fetches overlap
+        RAMStorage storage = new RAMStorage() {
+            @Override
+            public CompletableFuture<Optional<CborObject>> get(Multihash hash) {
+                return CompletableFuture.supplyAsync(() -> super.get(hash).join());
+            }
+
+            @Override
+            public CompletableFuture<Optional<byte[]>> getRaw(Multihash hash) {
+                return CompletableFuture.supplyAsync(() -> super.getRaw(hash).join());
+            }
+        };
+        SigningPrivateKeyAndPublicHash user = createUser(storage, crypto);
+        Random r = new Random(28);
+        int bitWidth = 3;
+        int maxCollisions = 2;
+
+        List<Triple<ByteArrayWrapper, MaybeMultihash, MaybeMultihash>> puts = new ArrayList<>();
+        Map<ByteArrayWrapper, MaybeMultihash> state = new HashMap<>();
+        for (int i = 0; i < 2000; i++) {
+            byte[] key = new byte[32];
+            r.nextBytes(key);
+            byte[] value = new byte[32];
+            r.nextBytes(value);
+            MaybeMultihash valueHash = MaybeMultihash.of(new Multihash(Multihash.Type.sha2_256, value));
+            puts.add(new Triple<>(new ByteArrayWrapper(key), MaybeMultihash.empty(), valueHash));
+            state.put(new ByteArrayWrapper(key), valueHash);
+        }
+        Pair<Champ, Multihash> root = Champ.bulkUpdate(user, Champ.empty(), null, puts, bitWidth, maxCollisions, x -> x.data, storage).get();
+        storage.champNodes().get().clear();
+
+        Assert.assertEquals(2000L, (long) root.left.size(0, storage).get());
+        List<Pair<ByteArrayWrapper, MaybeMultihash>> applied = root.left.applyToAllMappings(new ArrayList<Pair<ByteArrayWrapper, MaybeMultihash>>(),
+                (res, mapping) -> {
+                    res.add(mapping);
+                    return CompletableFuture.completedFuture(res);
+                }, storage).get();
+        storage.champNodes().get().clear();
+        List<Pair<ByteArrayWrapper, MaybeMultihash>> streamed = root.left.stream(storage).collect(Collectors.toList());
+
+        Assert.assertEquals(state.size(), applied.size());
+        Assert.assertEquals(applied.size(), streamed.size());
+        for (int i = 0; i < applied.size(); i++) {
+            Assert.assertEquals(applied.get(i).left, streamed.get(i).left);
+            Assert.assertEquals(state.get(applied.get(i).left), applied.get(i).right);
+        }
+    }
+
+    @Test
+    public void diffReportsExactlyTheChanges() throws Exception {
+        RAMStorage storage = new RAMStorage() {
+            @Override
+            public CompletableFuture<Optional<CborObject>> get(Multihash hash) {
+                return CompletableFuture.supplyAsync(() -> super.get(hash).join());
+            }
+
+            @Override
+            public CompletableFuture<Optional<byte[]>> getRaw(Multihash hash) {
+                return CompletableFuture.supplyAsync(() -> super.getRaw(hash).join());
+            }
+        };
+        SigningPrivateKeyAndPublicHash user = createUser(storage, crypto);
+        Random r = new Random(28);
+        int bitWidth = 3;
+        int maxCollisions = 2;
+        Supplier<Multihash> randomHash = () -> {
+            byte[] hash = new byte[32];
+            r.nextBytes(hash);
+            return new Multihash(Multihash.Type.sha2_256, hash);
+        };
+
+        List<Triple<ByteArrayWrapper, MaybeMultihash, MaybeMultihash>> puts = new ArrayList<>();
+        for (int i = 0; i < 1000; i++)
+            puts.add(new Triple<>(new ByteArrayWrapper(randomHash.get().toBytes()), MaybeMultihash.empty(), MaybeMultihash.of(randomHash.get())));
+        Pair<Champ, Multihash> original = Champ.bulkUpdate(user, Champ.empty(), null, puts, bitWidth, maxCollisions, x -> x.data, storage).get();
+
+        // modify, remove and add mappings, including enough removes to collapse some subtrees into their parents
+        Map<ByteArrayWrapper, Pair<MaybeMultihash, MaybeMultihash>> expected = new HashMap<>();
+        List<Triple<ByteArrayWrapper, MaybeMultihash, MaybeMultihash>> changes = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            Triple<ByteArrayWrapper, MaybeMultihash, MaybeMultihash> put = puts.get(i);
+            MaybeMultihash newValue = i % 3 == 0 ? MaybeMultihash.of(randomHash.get()) : MaybeMultihash.empty();
+            changes.add(new Triple<>(put.left, put.right, newValue));
+            expected.put(put.left, new Pair<>(put.right, newValue));
+        }
+        for (int i = 0; i < 100; i++) {
+            ByteArrayWrapper key = new ByteArrayWrapper(randomHash.get().toBytes());
+            MaybeMultihash value = MaybeMultihash.of(randomHash.get());
+            changes.add(new Triple<>(key, MaybeMultihash.empty(), value));
+            expected.put(key, new Pair<>(MaybeMultihash.empty(), value));
+        }
+        Pair<Champ, Multihash> updated = Champ.bulkUpdate(user, original.left, original.right, changes, bitWidth, maxCollisions, x -> x.data, storage).get();
+        storage.champNodes().get().clear();
+
+        Map<ByteArrayWrapper, Pair<MaybeMultihash, MaybeMultihash>> diff = new HashMap<>();
+        Champ.applyToDiff(MaybeMultihash.of(original.right), MaybeMultihash.of(updated.right), t -> {
+            if (diff.put(t.left, new Pair<>(t.middle, t.right)) != null)
+                throw new IllegalStateException("Duplicate diff for key " + t.left);
+        }, storage).get();
+        Assert.assertEquals(expected.size(), diff.size());
+        for (Map.Entry<ByteArrayWrapper, Pair<MaybeMultihash, MaybeMultihash>> e : expected.entrySet()) {
+            Pair<MaybeMultihash, MaybeMultihash> found = diff.get(e.getKey());
+            Assert.assertEquals(e.getValue().left, found.left);
+            Assert.assertEquals(e.getValue().right, found.right);
+        }
+
+        // the reverse diff is the inverse, and identical trees have no differences
+        Map<ByteArrayWrapper, Pair<MaybeMultihash, MaybeMultihash>> reverse = new HashMap<>();
+        Champ.applyToDiff(MaybeMultihash.of(updated.right), MaybeMultihash.of(original.right),
+                t -> reverse.put(t.left, new Pair<>(t.middle, t.right)), storage).get();
+        Assert.assertEquals(expected.size(), reverse.size());
+        for (Map.Entry<ByteArrayWrapper, Pair<MaybeMultihash, MaybeMultihash>> e : expected.entrySet())
+            Assert.assertEquals(e.getValue().left, reverse.get(e.getKey()).right);
+        Champ.applyToDiff(MaybeMultihash.of(updated.right), MaybeMultihash.of(updated.right), t -> {
+            throw new IllegalStateException("Identical trees differ!");
+        }, storage).get();
+    }
+
+    @Test
+    public void bufferedNodesAreReadableBeforeCommit() throws Exception {
+        RAMStorage storage = new RAMStorage();
+        SigningPrivateKeyAndPublicHash user = createUser(storage, crypto);
+        BufferedStorage buffer = new BufferedStorage(storage);
+        Random r = new Random(28);
+        byte[] key = new byte[32];
+        r.nextBytes(key);
+        Multihash value = new Multihash(Multihash.Type.sha2_256, key);
+        Multihash emptyHash = buffer.put(user, Champ.empty().serialize()).get();
+        Pair<Champ, Multihash> root = Champ.empty().put(user, new ByteArrayWrapper(key), key, 0, MaybeMultihash.empty(),
+                MaybeMultihash.of(value), 3, 2, x -> x.data, buffer, emptyHash).get();
+
+        // uncommitted nodes are read back from the buffer, and never cached
+        Assert.assertFalse(storage.getRaw(root.right).get().isPresent());
+        Champ node = Champ.getNode(root.right, buffer).get().get();
+        Assert.assertEquals(MaybeMultihash.of(value), node.get(new ByteArrayWrapper(key), key, 0, 3, buffer).get());
+        Assert.assertNull(storage.champNodes().get().get(root.right));
+
+        buffer.commit(user, root.right).get();
+        Assert.assertTrue(Champ.getNode(root.right, buffer).get().isPresent());
+        Assert.assertNotNull(storage.champNodes().get().get(root.right));
+    }
+
+    @Test
+    public void nodeCacheIsPerStorage() throws Exception {
+        RAMStorage storage = new RAMStorage();
+        RAMStorage other = new RAMStorage();
+        SigningPrivateKeyAndPublicHash user = createUser(storage, crypto);
+        byte[] key = new byte[32];
+        new Random(28).nextBytes(key);
+        Multihash emptyHash = storage.put(user, Champ.empty().serialize()).get();
+        Pair<Champ, Multihash> root = Champ.empty().put(user, new ByteArrayWrapper(key), key, 0, MaybeMultihash.empty(),
+                MaybeMultihash.of(new Multihash(Multihash.Type.sha2_256, key)), 3, 2, x -> x.data, storage, emptyHash).get();
+
+        Assert.assertNotNull(storage.champNodes().get().get(root.right));
+        Assert.assertFalse(Champ.getNode(root.right, other).get().isPresent());
+        storage.clear();
+        Assert.assertFalse(Champ.getNode(root.right, storage).get().isPresent());
+    }
+
     private static byte[] randomKey(byte[] startingWith, int extraBytes, Random r) {
         byte[] suffix = new byte[extraBytes];
         r.nextBytes(suffix);
@@ -0,0 +1,68 @@
+package peergos.server.tests;
+
+import org.junit.*;
+import peergos.server.util.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+public class EventBusTests {
+
+    @Test
+    public void coalescesQueuedEventsPerKey() throws Exception {
+        EventBus<int[]> bus = new EventBus<>("test", e -> e[0]);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<int[]> received = Collections.synchronizedList(new ArrayList<>());
+        bus.addListener("slow", e -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException ex) {}
+            received.add(e);
+        }, 10);
+
+        bus.publish(new int[]{0, 0});
+        started.await();
+        // the listener is blocked, so these queue up and coalesce per key
+        for (int i = 1; i <= 5; i++) {
+            bus.publish(new int[]{1, i});
+            bus.publish(new int[]{2, i});
+        }
+        release.countDown();
+        bus.close();
+        while (bus.getStats().get(0).delivered < 3)
+            Thread.sleep(10);
+
+        Assert.assertEquals(3, received.size());
+        Assert.assertArrayEquals(new int[]{1, 5}, received.get(1));
+        Assert.assertArrayEquals(new int[]{2, 5}, received.get(2));
+        EventBus.Stats stats = bus.getStats().get(0);
+        Assert.assertEquals(11, stats.published);
+        Assert.assertEquals(8, stats.coalesced);
+    }
+
+    @Test
+    public void fullQueueBlocksPublisher() throws Exception {
+        EventBus<Integer> bus = new EventBus<>("test", e -> e);
+        CountDownLatch release = new CountDownLatch(1);
+        bus.addListener("slow", e -> {
+            try {
+                release.await();
+            } catch (InterruptedException ex) {}
+        }, 2);
+
+        // one event being delivered, two queued, so the fourth must wait
+        CompletableFuture<Boolean> published = CompletableFuture.supplyAsync(() -> {
+            for (int i = 0; i < 4; i++)
+                bus.publish(i);
+            return true;
+        });
+        Thread.sleep(200);
+        Assert.assertFalse(published.isDone());
+        release.countDown();
+        Assert.assertTrue(published.get(5, TimeUnit.SECONDS));
+        Assert.assertTrue(bus.getStats().get(0).blockedPublishes > 0);
+        bus.close();
+    }
+}
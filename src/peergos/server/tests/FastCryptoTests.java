@@ -0,0 +1,169 @@
+package peergos.server.tests;
+
+import org.junit.*;
+import peergos.shared.crypto.*;
+import peergos.shared.util.*;
+
+import java.math.*;
+import java.util.*;
+import java.util.function.*;
+
+/** Known answer tests showing that the fast providers are equivalent to TweetNaCl.
+ */
+public class FastCryptoTests {
+    private static final BigInteger L = BigInteger.ONE.shiftLeft(252)
+            .add(new BigInteger("27742317777372353535851937790883648493"));
+
+    private final Random rnd = new Random(1);
+
+    private byte[] random(int len) {
+        byte[] res = new byte[len];
+        rnd.nextBytes(res);
+        return res;
+    }
+
+    @Test
+    public void secretbox() {
+        for (int len : Arrays.asList(0, 1, 15, 16, 17, 31, 32, 33, 63, 64, 65, 127, 128, 129, 1000, 4096, 5 * 1024 * 1024 + 7)) {
+            byte[] message = random(len);
+            byte[] nonce = random(TweetNaCl.SECRETBOX_NONCE_BYTES);
+            byte[] key = random(TweetNaCl.SECRETBOX_KEY_BYTES);
+
+            byte[] cipher = TweetNaCl.secretbox(message, nonce, key);
+            Assert.assertTrue("Same cipher text for " + len + " bytes",
+                    Arrays.equals(cipher, FastSalsa20Poly1305.secretbox(message, nonce, key)));
+            Assert.assertTrue(Arrays.equals(message, FastSalsa20Poly1305.secretbox_open(cipher, nonce, key)));
+        }
+    }
+
+    @Test
+    public void secretboxRejectsTampering() {
+        byte[] nonce = random(TweetNaCl.SECRETBOX_NONCE_BYTES);
+        byte[] key = random(TweetNaCl.SECRETBOX_KEY_BYTES);
+        byte[] cipher = FastSalsa20Poly1305.secretbox(random(100), nonce, key);
+        for (int i = 0; i < cipher.length; i++) {
+            byte[] tampered = Arrays.copyOf(cipher, cipher.length);
+            tampered[i] ^= 1 << rnd.nextInt(8);
+            bothFail(tampered, c -> TweetNaCl.secretbox_open(c, nonce, key),
+                    c -> FastSalsa20Poly1305.secretbox_open(c, nonce, key));
+        }
+        for (int len = 0; len < TweetNaCl.SECRETBOX_OVERHEAD_BYTES; len++)
+            bothFail(Arrays.copyOf(cipher, len), c -> TweetNaCl.secretbox_open(c, nonce, key),
+                    c -> FastSalsa20Poly1305.secretbox_open(c, nonce, key));
+
+        byte[] otherKey = Arrays.copyOf(key, key.length);
+        otherKey[31] ^= 0x80;
+        bothFail(cipher, c -> TweetNaCl.secretbox_open(c, nonce, otherKey),
+                c -> FastSalsa20Poly1305.secretbox_open(c, nonce, otherKey));
+    }
+
+    @Test
+    public void signatures() {
+        for (int i = 0; i < 100; i++) {
+            byte[] seed = random(TweetNaCl.SIGN_KEYPAIR_SEED_BYTES);
+            byte[] pk = new byte[TweetNaCl.SIGN_PUBLIC_KEY_BYTES], sk = new byte[TweetNaCl.SIGN_SECRET_KEY_BYTES];
+            System.arraycopy(seed, 0, sk, 0, seed.length);
+            TweetNaCl.crypto_sign_keypair(pk, sk, true);
+
+            byte[] fastPk = new byte[TweetNaCl.SIGN_PUBLIC_KEY_BYTES], fastSk = new byte[TweetNaCl.SIGN_SECRET_KEY_BYTES];
+            System.arraycopy(seed, 0, fastSk, 0, seed.length);
+            FastEd25519.crypto_sign_keypair(fastPk, fastSk);
+            Assert.assertTrue("Same public key", Arrays.equals(pk, fastPk));
+            Assert.assertTrue("Same secret key", Arrays.equals(sk, fastSk));
+
+            byte[] message = random(rnd.nextInt(300));
+            byte[] signed = TweetNaCl.crypto_sign(message, sk);
+            Assert.assertTrue("Same signature", Arrays.equals(signed, FastEd25519.crypto_sign(message, sk)));
+            Assert.assertTrue(Arrays.equals(message, FastEd25519.crypto_sign_open(signed, pk)));
+        }
+    }
+
+    @Test
+    public void invalidSignatures() {
+        byte[] pk = new byte[TweetNaCl.SIGN_PUBLIC_KEY_BYTES], sk = new byte[TweetNaCl.SIGN_SECRET_KEY_BYTES];
+        System.arraycopy(random(32), 0, sk, 0, 32);
+        TweetNaCl.crypto_sign_keypair(pk, sk, true);
+        byte[] signed = TweetNaCl.crypto_sign(random(50), sk);
+
+        for (int i = 0; i < signed.length; i++) {
+            byte[] tampered = Arrays.copyOf(signed, signed.length);
+            tampered[i] ^= 1 << rnd.nextInt(8);
+            sameVerification(tampered, pk);
+        }
+        for (int i = 0; i < pk.length; i++) {
+            byte[] otherKey = Arrays.copyOf(pk, pk.length);
+            otherKey[i] ^= 1 << rnd.nextInt(8);
+            sameVerification(signed, otherKey);
+        }
+        for (int len = 0; len < TweetNaCl.SIGNATURE_SIZE_BYTES; len++)
+            sameVerification(Arrays.copyOf(signed, len), pk);
+
+        // the identity and other points of small order
+        sameVerification(signed, ArrayOps.hexToBytes("0100000000000000000000000000000000000000000000000000000000000000"));
+        sameVerification(signed, ArrayOps.hexToBytes("0000000000000000000000000000000000000000000000000000000000000080"));
+        sameVerification(signed, ArrayOps.hexToBytes("ecffffffffffffffffffffffffffffffffffffffffffffffffffffffffffff7f"));
+        sameVerification(signed, ArrayOps.hexToBytes("c7176a703d4dd84fba3c0b760d10670f2a2053fa2c39ccc64ec7fd7792ac037a"));
+    }
+
+    @Test
+    public void nonCanonicalScalars() {
+        byte[] pk = new byte[TweetNaCl.SIGN_PUBLIC_KEY_BYTES], sk = new byte[TweetNaCl.SIGN_SECRET_KEY_BYTES];
+        System.arraycopy(random(32), 0, sk, 0, 32);
+        TweetNaCl.crypto_sign_keypair(pk, sk, true);
+        byte[] signed = TweetNaCl.crypto_sign(random(50), sk);
+
+        // TweetNaCl accepts S + kL for any k that fits in 256 bits
+        BigInteger s = fromLittleEndian(Arrays.copyOfRange(signed, 32, 64));
+        for (int k = 1; k < 16; k++) {
+            BigInteger altered = s.add(L.multiply(BigInteger.valueOf(k)));
+            if (altered.bitLength() > 256)
+                break;
+            byte[] malleated = Arrays.copyOf(signed, signed.length);
+            System.arraycopy(toLittleEndian(altered), 0, malleated, 32, 32);
+            sameVerification(malleated, pk);
+        }
+    }
+
+    private static BigInteger fromLittleEndian(byte[] le) {
+        byte[] be = new byte[le.length + 1];
+        for (int i = 0; i < le.length; i++)
+            be[le.length - i] = le[i];
+        return new BigInteger(be);
+    }
+
+    private static byte[] toLittleEndian(BigInteger value) {
+        byte[] be = value.toByteArray();
+        byte[] le = new byte[32];
+        for (int i = 0; i < Math.min(32, be.length); i++)
+            le[i] = be[be.length - 1 - i];
+        return le;
+    }
+
+    private static void sameVerification(byte[] signed, byte[] pk) {
+        byte[] expected;
+        try {
+            expected = TweetNaCl.crypto_sign_open(signed, pk);
+        } catch (TweetNaCl.InvalidSignatureException e) {
+            bothFail(signed, s -> TweetNaCl.crypto_sign_open(s, pk), s -> FastEd25519.crypto_sign_open(s, pk));
+            return;
+        }
+        Assert.assertTrue(Arrays.equals(expected, FastEd25519.crypto_sign_open(signed, pk)));
+    }
+
+    private static void bothFail(byte[] input, Function<byte[], byte[]> reference, Function<byte[], byte[]> fast) {
+        RuntimeException expected = null;
+        try {
+            reference.apply(input);
+        } catch (RuntimeException e) {
+            expected = e;
+        }
+        Assert.assertNotNull("Reference implementation should fail", expected);
+        try {
+            fast.apply(input);
+            Assert.fail("Should have failed!");
+        } catch (RuntimeException e) {
+            Assert.assertEquals(expected.getClass(), e.getClass());
+            Assert.assertEquals(expected.getMessage(), e.getMessage());
+        }
+    }
+}
@@ -1,10 +1,12 @@
 package peergos.server.tests;
+import com.sun.net.httpserver.*;
 import org.junit.Assert;
 import org.junit.Test;
 import  peergos.server.net.FileHandler;
 import peergos.server.net.StaticHandler;
 
 import java.io.IOException;
+import java.net.*;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Arrays;
@@ -22,4 +24,52 @@ public class FileHandlerTests {
         StaticHandler.Asset hello = fileHandler.getAsset("test/hello.txt");
         Assert.assertEquals(new String(hello.data), "Hello, Peergos!");
     }
+
+    @Test
+    public void precompressed() throws IOException {
+        FileHandler fileHandler = new FileHandler(TEST_ROOT, true);
+        StaticHandler.Asset asset = fileHandler.getAsset("something.txt");
+        Assert.assertEquals(new String(asset.data), "The thing!");
+        Assert.assertTrue(asset.gzip().isPresent());
+        Assert.assertFalse(asset.brotli.isPresent());
+    }
+
+    @Test
+    public void fingerprintedReferences() throws IOException {
+        FileHandler fileHandler = new FileHandler(TEST_ROOT, false);
+        String index = new String(fileHandler.getServedAsset("index.html").data);
+        String hello = StaticHandler.fingerprint("test/hello.txt", fileHandler.getAsset("test/hello.txt"));
+        String something = StaticHandler.fingerprint("/something.txt", fileHandler.getAsset("something.txt"));
+        Assert.assertTrue(index.contains("href=\"" + hello + "\""));
+        Assert.assertTrue(index.contains("src=\"" + something + "\""));
+        Assert.assertTrue(index.contains("src=\"https://example.com/other.js\""));
+        Assert.assertTrue(index.contains("src=\"missing.js\""));
+    }
+
+    @Test
+    public void immutableCaching() throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 5681), 10);
+        server.createContext("/", new FileHandler(TEST_ROOT, false).withCache());
+        server.start();
+        try {
+            FileHandler fileHandler = new FileHandler(TEST_ROOT, false);
+            String fingerprinted = StaticHandler.fingerprint("something.txt", fileHandler.getAsset("something.txt"));
+            Assert.assertEquals("public, max-age=31536000, immutable", cacheControl(fingerprinted));
+            Assert.assertEquals("public, max-age=3600", cacheControl("something.txt"));
+            Assert.assertEquals("public, max-age=3600", cacheControl("something.0123456789abcdef.txt"));
+            Assert.assertEquals("no-cache", cacheControl("index.html"));
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    private static String cacheControl(String path) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) new URL("http://localhost:5681/" + path).openConnection();
+        try {
+            Assert.assertEquals(200, conn.getResponseCode());
+            return conn.getHeaderField("Cache-Control");
+        } finally {
+            conn.disconnect();
+        }
+    }
 }
@@ -0,0 +1,31 @@
+package peergos.server.tests;
+
+import org.junit.*;
+import peergos.shared.util.*;
+
+public class GenerationalCacheTests {
+
+    @Test
+    public void generationRollover() {
+        // two generations of two entries
+        GenerationalCache<Integer, String> cache = new GenerationalCache<>(4);
+        cache.put(1, "1");
+        cache.put(2, "2"); // fills the current generation, which becomes the previous one
+        cache.put(3, "3");
+        // reading from the previous generation promotes to the current one, which then rolls over
+        Assert.assertEquals("1", cache.get(1));
+        Assert.assertNull("Dropped with the oldest generation", cache.get(2));
+        Assert.assertEquals("1", cache.get(1));
+        Assert.assertEquals("3", cache.get(3));
+    }
+
+    @Test
+    public void clear() {
+        GenerationalCache<Integer, String> cache = new GenerationalCache<>(4);
+        for (int i = 0; i < 3; i++)
+            cache.put(i, Integer.toString(i));
+        cache.clear();
+        for (int i = 0; i < 3; i++)
+            Assert.assertNull(cache.get(i));
+    }
+}
@@ -0,0 +1,56 @@
+package peergos.server.tests;
+
+import org.junit.*;
+import peergos.server.net.*;
+
+public class HotBlockCacheTests {
+
+    private static HotBlockCache.Response response(int size) {
+        return new HotBlockCache.Response(new byte[size], "etag");
+    }
+
+    private static void request(HotBlockCache cache, String key, int times) {
+        for (int i = 0; i < times; i++)
+            cache.get(key);
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        HotBlockCache cache = new HotBlockCache(300, 100);
+        for (String key : new String[]{"a", "b", "c"}) {
+            request(cache, key, 2);
+            Assert.assertTrue(cache.offer(key, response(100)));
+        }
+        Assert.assertEquals(300, cache.sizeInBytes());
+
+        // a is now more recently used than b
+        request(cache, "a", 1);
+        request(cache, "d", 4);
+        Assert.assertTrue(cache.offer("d", response(100)));
+        Assert.assertEquals(300, cache.sizeInBytes());
+
+        Assert.assertFalse("Least recently used evicted", cache.get("b").isPresent());
+        Assert.assertTrue(cache.get("a").isPresent());
+        Assert.assertTrue(cache.get("c").isPresent());
+        Assert.assertTrue(cache.get("d").isPresent());
+    }
+
+    @Test
+    public void coldBlocksDontEvictPopularOnes() {
+        HotBlockCache cache = new HotBlockCache(200, 100);
+        for (String key : new String[]{"a", "b"}) {
+            request(cache, key, 3);
+            Assert.assertTrue(cache.offer(key, response(100)));
+        }
+
+        request(cache, "once", 1);
+        Assert.assertFalse("Requested once", cache.offer("once", response(100)));
+        request(cache, "twice", 2);
+        Assert.assertFalse("Less popular than the eviction victim", cache.offer("twice", response(100)));
+        Assert.assertFalse("Too big", cache.offer("big", response(101)));
+
+        Assert.assertEquals(200, cache.sizeInBytes());
+        Assert.assertTrue(cache.get("a").isPresent());
+        Assert.assertTrue(cache.get("b").isPresent());
+    }
+}
@@ -0,0 +1,295 @@
+package peergos.server.tests;
+
+import org.junit.*;
+import peergos.server.mutable.*;
+import peergos.server.storage.*;
+import peergos.shared.*;
+import peergos.shared.cbor.*;
+import peergos.shared.crypto.*;
+import peergos.shared.crypto.asymmetric.*;
+import peergos.shared.crypto.hash.*;
+import peergos.shared.io.ipfs.multihash.*;
+import peergos.shared.merklebtree.*;
+import peergos.shared.mutable.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.*;
+
+public class IncrementalPinnerTests {
+
+    private static final Crypto crypto = Crypto.initJava();
+
+    private static class CountingStorage extends RAMStorage {
+        final Set<Multihash> pinned = new HashSet<>();
+        int linkLookups = 0;
+
+        @Override
+        public CompletableFuture<List<Multihash>> directPin(List<Multihash> blocks) {
+            for (Multihash block : blocks)
+                Assert.assertTrue("Pinned twice: " + block, pinned.add(block));
+            return super.directPin(blocks);
+        }
+
+        @Override
+        public CompletableFuture<List<Multihash>> directUnpin(List<Multihash> blocks) {
+            for (Multihash block : blocks)
+                Assert.assertTrue("Unpinned when not pinned: " + block, pinned.remove(block));
+            return super.directUnpin(blocks);
+        }
+
+        @Override
+        public CompletableFuture<List<Multihash>> getLinks(Multihash root) {
+            linkLookups++;
+            return super.getLinks(root);
+        }
+    }
+
+    /** Fails the way ipfs does when a pin doesn't match the existing pins
+     */
+    private static class IpfsLikeStorage extends CountingStorage {
+        final Set<Multihash> recursive = new HashSet<>();
+
+        @Override
+        public synchronized CompletableFuture<List<Multihash>> recursivePin(Multihash h) {
+            pinned.remove(h);
+            recursive.add(h);
+            return super.recursivePin(h);
+        }
+
+        @Override
+        public synchronized CompletableFuture<List<Multihash>> recursiveUnpin(Multihash h) {
+            if (! recursive.remove(h))
+                return failed("not pinned or pinned indirectly");
+            return super.recursiveUnpin(h);
+        }
+
+        @Override
+        public synchronized CompletableFuture<List<Multihash>> directPin(List<Multihash> blocks) {
+            for (Multihash block : blocks)
+                if (recursive.contains(block))
+                    return failed(block + " already pinned recursively");
+            return super.directPin(blocks);
+        }
+
+        @Override
+        public synchronized CompletableFuture<List<Multihash>> directUnpin(List<Multihash> blocks) {
+            for (Multihash block : blocks)
+                if (! pinned.contains(block))
+                    return failed(block + " is not pinned");
+            return super.directUnpin(blocks);
+        }
+
+        private static CompletableFuture<List<Multihash>> failed(String message) {
+            CompletableFuture<List<Multihash>> err = new CompletableFuture<>();
+            err.completeExceptionally(new IllegalStateException(message));
+            return err;
+        }
+    }
+
+    private static Multihash put(CountingStorage storage, Cborable node) throws Exception {
+        return storage.put(PublicKeyHash.NULL, new byte[0], node.serialize()).get();
+    }
+
+    private static Multihash leaf(CountingStorage storage, String value) throws Exception {
+        return put(storage, new CborObject.CborString(value));
+    }
+
+    private static Multihash branch(CountingStorage storage, List<Multihash> children) throws Exception {
+        return put(storage, new CborObject.CborList(children.stream()
+                .map(CborObject.CborMerkleLink::new)
+                .collect(Collectors.toList())));
+    }
+
+    @Test
+    public void onlyTheDifferenceIsVisited() throws Exception {
+        CountingStorage storage = new CountingStorage();
+        IncrementalPinner pinner = new IncrementalPinner(storage, PinRefCounts.build(":memory:"));
+
+        // a root with 10 subtrees of 10 leaves each
+        List<Multihash> subtrees = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            List<Multihash> leaves = new ArrayList<>();
+            for (int j = 0; j < 10; j++)
+                leaves.add(leaf(storage, i + "-" + j));
+            subtrees.add(branch(storage, leaves));
+        }
+        Multihash root1 = branch(storage, subtrees);
+        Assert.assertEquals(111, pinner.pin(root1).get().size());
+        Assert.assertEquals(111, storage.pinned.size());
+
+        // change one leaf
+        List<Multihash> changedLeaves = new ArrayList<>();
+        for (int j = 0; j < 10; j++)
+            changedLeaves.add(leaf(storage, j == 3 ? "changed" : "0-" + j));
+        List<Multihash> subtrees2 = new ArrayList<>(subtrees);
+        subtrees2.set(0, branch(storage, changedLeaves));
+        Multihash root2 = branch(storage, subtrees2);
+
+        storage.linkLookups = 0;
+        List<Multihash> added = pinner.pin(root2).get();
+        Assert.assertEquals(3, added.size());
+        List<Multihash> removed = pinner.unpin(root1).get();
+        Assert.assertEquals(3, removed.size());
+        Assert.assertTrue("Visited too much of the tree: " + storage.linkLookups, storage.linkLookups <= 6);
+
+        Assert.assertEquals(111, storage.pinned.size());
+        Assert.assertTrue(pinner.isPinned(root2));
+        Assert.assertFalse(pinner.isPinned(root1));
+        for (Multihash subtree : subtrees.subList(1, subtrees.size()))
+            Assert.assertTrue(pinner.isPinned(subtree));
+
+        // a block shared by two roots stays pinned until both are unpinned
+        Multihash other = branch(storage, Arrays.asList(subtrees.get(5)));
+        Assert.assertEquals(1, pinner.pin(other).get().size());
+        pinner.unpin(root2).get();
+        Assert.assertTrue(pinner.isPinned(subtrees.get(5)));
+        Assert.assertEquals(12, storage.pinned.size());
+        pinner.unpin(other).get();
+        Assert.assertEquals(0, storage.pinned.size());
+    }
+
+    @Test
+    public void updateRecursivelyPinnedRoot() throws Exception {
+        IpfsLikeStorage storage = new IpfsLikeStorage();
+        IncrementalPinner pinner = new IncrementalPinner(storage, PinRefCounts.build(":memory:"));
+        SigningPrivateKeyAndPublicHash writer = ChampTests.createUser(storage, crypto);
+        PublicSigningKey publicKey = storage.getSigningKey(writer.publicKeyHash).get().get();
+
+        List<Multihash> subtrees = new ArrayList<>();
+        for (int i = 0; i < 10; i++)
+            subtrees.add(branch(storage, Arrays.asList(leaf(storage, "a" + i), leaf(storage, "b" + i))));
+        Multihash root1 = branch(storage, subtrees);
+
+        // a root from before incremental pinning
+        storage.recursivePin(root1).get();
+        Map<PublicKeyHash, byte[]> state = new HashMap<>();
+        state.put(writer.publicKeyHash, signCas(writer, MaybeMultihash.empty(), root1));
+        MutablePointers target = new MutablePointers() {
+            @Override
+            public synchronized CompletableFuture<Boolean> setPointer(PublicKeyHash owner, PublicKeyHash writerHash, byte[] signed) {
+                if (! MutablePointers.isValidUpdate(writerHash, publicKey, Optional.ofNullable(state.get(writerHash)), signed))
+                    return CompletableFuture.completedFuture(false);
+                state.put(writerHash, signed);
+                return CompletableFuture.completedFuture(true);
+            }
+
+            @Override
+            public synchronized CompletableFuture<Optional<byte[]>> getPointer(PublicKeyHash writerHash) {
+                return CompletableFuture.completedFuture(Optional.ofNullable(state.get(writerHash)));
+            }
+        };
+        MutablePointers pointers = new PinningMutablePointers(target, storage, pinner);
+
+        List<Multihash> subtrees2 = new ArrayList<>(subtrees);
+        subtrees2.set(0, branch(storage, Arrays.asList(leaf(storage, "changed"), leaf(storage, "b0"))));
+        Multihash root2 = branch(storage, subtrees2);
+        Assert.assertTrue(pointers.setPointer(writer.publicKeyHash, writer.publicKeyHash,
+                signCas(writer, MaybeMultihash.of(root1), root2)).get());
+
+        Assert.assertTrue(storage.recursive.isEmpty());
+        Assert.assertFalse(pinner.isPinned(root1));
+        Assert.assertTrue(pinner.isPinned(root2));
+        Assert.assertTrue(storage.pinned.contains(root2));
+        Assert.assertFalse(storage.pinned.contains(subtrees.get(0)));
+        for (Multihash subtree : subtrees2)
+            Assert.assertTrue(storage.pinned.contains(subtree));
+        Assert.assertEquals(1 + 10 + 20, storage.pinned.size());
+
+        List<Multihash> subtrees3 = new ArrayList<>(subtrees2);
+        subtrees3.set(9, branch(storage, Arrays.asList(leaf(storage, "a9"))));
+        Multihash root3 = branch(storage, subtrees3);
+        Assert.assertTrue(pointers.setPointer(writer.publicKeyHash, writer.publicKeyHash,
+                signCas(writer, MaybeMultihash.of(root2), root3)).get());
+        Assert.assertTrue(pinner.isPinned(root3));
+        Assert.assertFalse(pinner.isPinned(root2));
+        Assert.assertEquals(1 + 10 + 19, storage.pinned.size());
+    }
+
+    @Test
+    public void failedUpdatesReleaseNewPins() throws Exception {
+        Set<Multihash> unpinnable = new HashSet<>();
+        CountingStorage storage = new CountingStorage() {
+            @Override
+            public CompletableFuture<List<Multihash>> directPin(List<Multihash> blocks) {
+                if (blocks.stream().anyMatch(unpinnable::contains)) {
+                    CompletableFuture<List<Multihash>> err = new CompletableFuture<>();
+                    err.completeExceptionally(new IllegalStateException("Couldn't pin"));
+                    return err;
+                }
+                return super.directPin(blocks);
+            }
+        };
+        IncrementalPinner pinner = new IncrementalPinner(storage, PinRefCounts.build(":memory:"));
+        SigningPrivateKeyAndPublicHash writer1 = ChampTests.createUser(storage, crypto);
+        SigningPrivateKeyAndPublicHash writer2 = ChampTests.createUser(storage, crypto);
+
+        // how the target responds to the update
+        List<CompletableFuture<Boolean>> result = new ArrayList<>();
+        MutablePointers target = new MutablePointers() {
+            @Override
+            public CompletableFuture<Boolean> setPointer(PublicKeyHash owner, PublicKeyHash writerHash, byte[] signed) {
+                return result.get(0);
+            }
+
+            @Override
+            public CompletableFuture<Boolean> setPointers(PublicKeyHash owner, List<PointerUpdates.PointerUpdate> updates) {
+                return result.get(0);
+            }
+
+            @Override
+            public CompletableFuture<Optional<byte[]>> getPointer(PublicKeyHash writerHash) {
+                return CompletableFuture.completedFuture(Optional.empty());
+            }
+        };
+        MutablePointers pointers = new PinningMutablePointers(target, storage, pinner);
+
+        Multihash root1 = branch(storage, Arrays.asList(leaf(storage, "a"), leaf(storage, "shared")));
+        Multihash root2 = branch(storage, Arrays.asList(leaf(storage, "b"), leaf(storage, "shared")));
+        List<PointerUpdates.PointerUpdate> updates = Arrays.asList(
+                new PointerUpdates.PointerUpdate(writer1.publicKeyHash, signCas(writer1, MaybeMultihash.empty(), root1)),
+                new PointerUpdates.PointerUpdate(writer2.publicKeyHash, signCas(writer2, MaybeMultihash.empty(), root2)));
+
+        // only the first new root can be pinned
+        Multihash unpinnableLeaf = leaf(storage, "b");
+        unpinnable.add(unpinnableLeaf);
+        result.add(CompletableFuture.completedFuture(true));
+        assertFails(pointers.setPointers(writer1.publicKeyHash, updates));
+        Assert.assertTrue(storage.pinned.isEmpty());
+        Assert.assertFalse(pinner.isPinned(root1));
+        unpinnable.clear();
+
+        // the cas fails
+        result.set(0, CompletableFuture.completedFuture(false));
+        assertFails(pointers.setPointers(writer1.publicKeyHash, updates));
+        Assert.assertTrue(storage.pinned.isEmpty());
+        assertFails(pointers.setPointer(writer1.publicKeyHash, writer1.publicKeyHash, updates.get(0).writerSignedBtreeRootHash));
+        Assert.assertTrue(storage.pinned.isEmpty());
+
+        // the target can't be reached
+        CompletableFuture<Boolean> unreachable = new CompletableFuture<>();
+        unreachable.completeExceptionally(new IllegalStateException("Unreachable"));
+        result.set(0, unreachable);
+        assertFails(pointers.setPointers(writer1.publicKeyHash, updates));
+        Assert.assertTrue(storage.pinned.isEmpty());
+        Assert.assertFalse(pinner.isPinned(root1));
+        Assert.assertFalse(pinner.isPinned(root2));
+
+        result.set(0, CompletableFuture.completedFuture(true));
+        Assert.assertTrue(pointers.setPointers(writer1.publicKeyHash, updates).get());
+        Assert.assertTrue(pinner.isPinned(root1));
+        Assert.assertTrue(pinner.isPinned(root2));
+        Assert.assertEquals(5, storage.pinned.size());
+    }
+
+    private static void assertFails(CompletableFuture<Boolean> update) {
+        try {
+            update.get();
+            Assert.fail("Update should have failed");
+        } catch (InterruptedException | ExecutionException e) {}
+    }
+
+    private static byte[] signCas(SigningPrivateKeyAndPublicHash writer, MaybeMultihash original, Multihash updated) {
+        return writer.secret.signMessage(new HashCasPair(original, MaybeMultihash.of(updated)).serialize());
+    }
+}
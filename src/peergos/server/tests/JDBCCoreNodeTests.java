@@ -4,7 +4,7 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
-import peergos.server.corenode.JDBCCoreNode;
+import peergos.server.corenode.*;
 import peergos.server.storage.*;
 import peergos.shared.corenode.UserPublicKeyLink;
 import peergos.shared.crypto.SigningKeyPair;
@@ -12,6 +12,7 @@ import peergos.shared.crypto.asymmetric.PublicSigningKey;
 import peergos.shared.crypto.asymmetric.curve25519.Ed25519;
 import peergos.shared.crypto.hash.PublicKeyHash;
 import peergos.shared.crypto.random.SafeRandom;
+import peergos.shared.io.ipfs.multihash.Multihash;
 import peergos.shared.storage.ContentAddressedStorage;
 
 import java.io.IOException;
@@ -19,8 +20,8 @@ import java.nio.file.*;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.time.LocalDate;
-import java.util.Arrays;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.*;
 import java.util.function.Function;
 
 public class JDBCCoreNodeTests {
@@ -69,4 +70,72 @@ public class JDBCCoreNodeTests {
           Assert.fail();
       } catch (IllegalStateException e) {}
   }
+
+  @Test
+  public void getPointersTest() throws Exception {
+    JDBCCoreNode coreNode = new JDBCCoreNode(conn, 5);
+    Random rnd = new Random(42);
+    Map<PublicKeyHash, byte[]> expected = new HashMap<>();
+    List<PublicKeyHash> writers = new ArrayList<>();
+    // more than fit in a single query
+    for (int i = 0; i < 1200; i++) {
+      byte[] hash = new byte[32];
+      rnd.nextBytes(hash);
+      PublicKeyHash writer = new PublicKeyHash(new Multihash(Multihash.Type.sha2_256, hash));
+      writers.add(writer);
+      if (i % 3 == 0)
+        continue;
+      byte[] value = new byte[64];
+      rnd.nextBytes(value);
+      Assert.assertTrue(coreNode.setPointer(writer, writer, value).get());
+      expected.put(writer, value);
+    }
+
+    Map<PublicKeyHash, Optional<byte[]>> pointers = coreNode.getPointers(writers).get();
+    Assert.assertEquals(writers.size(), pointers.size());
+    for (PublicKeyHash writer : writers) {
+      Optional<byte[]> value = pointers.get(writer);
+      Assert.assertEquals(expected.containsKey(writer), value.isPresent());
+      if (value.isPresent())
+        Assert.assertArrayEquals(expected.get(writer), value.get());
+      Assert.assertEquals(coreNode.getPointer(writer).get().isPresent(), value.isPresent());
+    }
+  }
+
+  @Test
+  public void concurrentPointersOnPooledConnections() throws Exception {
+    Path dbFile = Files.createTempFile("peergos-pointers", ".sql");
+    SqliteConnectionPool pool = SqliteConnectionPool.build(dbFile.toString(), 4);
+    JDBCCoreNode coreNode = new JDBCCoreNode(pool, 5);
+    try {
+      int threads = 16, writesPerThread = 50;
+      ExecutorService workers = Executors.newFixedThreadPool(threads);
+      List<Future<Boolean>> done = new ArrayList<>();
+      for (int t = 0; t < threads; t++) {
+        Random rnd = new Random(t);
+        done.add(workers.submit(() -> {
+          for (int i = 0; i < writesPerThread; i++) {
+            byte[] hash = new byte[32];
+            rnd.nextBytes(hash);
+            PublicKeyHash writer = new PublicKeyHash(new Multihash(Multihash.Type.sha2_256, hash));
+            if (! coreNode.setPointer(writer, writer, hash).get())
+              return false;
+            // a write is visible to readers as soon as it completes
+            Optional<byte[]> read = coreNode.getPointer(writer).get();
+            if (! read.isPresent() || ! Arrays.equals(read.get(), hash))
+              return false;
+          }
+          return true;
+        }));
+      }
+      for (Future<Boolean> f : done)
+        Assert.assertTrue(f.get());
+      workers.shutdown();
+    } finally {
+      coreNode.close();
+      Files.deleteIfExists(dbFile);
+      Files.deleteIfExists(Paths.get(dbFile + "-wal"));
+      Files.deleteIfExists(Paths.get(dbFile + "-shm"));
+    }
+  }
 }
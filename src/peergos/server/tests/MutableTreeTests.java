@@ -0,0 +1,506 @@
+package peergos.server.tests;
+
+import com.sun.net.httpserver.*;
+import org.junit.*;
+import peergos.server.corenode.*;
+import peergos.server.mutable.*;
+import peergos.server.storage.*;
+import peergos.shared.*;
+import peergos.shared.cbor.*;
+import peergos.shared.corenode.*;
+import peergos.shared.crypto.*;
+import peergos.shared.crypto.asymmetric.*;
+import peergos.shared.crypto.hash.*;
+import peergos.shared.hamt.*;
+import peergos.shared.io.ipfs.multihash.*;
+import peergos.shared.merklebtree.*;
+import peergos.shared.mutable.*;
+import peergos.shared.user.*;
+import peergos.shared.util.*;
+
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+public class MutableTreeTests {
+
+    private static final Crypto crypto = Crypto.initJava();
+
+    @Test
+    public void concurrentUpdatesAreGroupCommitted() throws Exception {
+        RAMStorage storage = new RAMStorage();
+        SigningPrivateKeyAndPublicHash writer = ChampTests.createUser(storage, crypto);
+        PublicSigningKey publicKey = storage.getSigningKey(writer.publicKeyHash).get().get();
+
+        Map<PublicKeyHash, byte[]> pointers = new HashMap<>();
+        AtomicInteger pointerUpdates = new AtomicInteger(0);
+        MutablePointers mutable = new MutablePointers() {
+            @Override
+            public synchronized CompletableFuture<Boolean> setPointer(PublicKeyHash owner, PublicKeyHash writerHash, byte[] signed) {
+                if (! MutablePointers.isValidUpdate(writerHash, publicKey, Optional.ofNullable(pointers.get(writerHash)), signed))
+                    return CompletableFuture.completedFuture(false);
+                pointers.put(writerHash, signed);
+                pointerUpdates.incrementAndGet();
+                return CompletableFuture.completedFuture(true);
+            }
+
+            @Override
+            public CompletableFuture<Optional<byte[]>> getPointer(PublicKeyHash writerHash) {
+                // complete on another thread, as a remote server would
+                return CompletableFuture.supplyAsync(() -> {
+                    synchronized (this) {
+                        return Optional.ofNullable(pointers.get(writerHash));
+                    }
+                });
+            }
+        };
+        MutableTree tree = new MutableTreeImpl(mutable, storage);
+
+        Random r = new Random(28);
+        int nUpdates = 50;
+        List<byte[]> keys = new ArrayList<>();
+        List<Multihash> values = new ArrayList<>();
+        List<CompletableFuture<Boolean>> results = new ArrayList<>();
+        for (int i = 0; i < nUpdates; i++) {
+            byte[] key = new byte[32];
+            r.nextBytes(key);
+            byte[] value = new byte[32];
+            r.nextBytes(value);
+            keys.add(key);
+            values.add(new Multihash(Multihash.Type.sha2_256, value));
+            results.add(tree.put(writer, key, MaybeMultihash.empty(), values.get(i)));
+        }
+        // this put expects a value which isn't there, so it should fail without affecting the others in its batch
+        CompletableFuture<Boolean> invalid = tree.put(writer, keys.get(0), MaybeMultihash.of(values.get(1)), values.get(2));
+        for (CompletableFuture<Boolean> result : results)
+            Assert.assertTrue(result.get());
+        try {
+            invalid.get();
+            Assert.fail("Invalid CAS succeeded");
+        } catch (ExecutionException e) {}
+
+        Assert.assertTrue("Updates weren't grouped: " + pointerUpdates.get(), pointerUpdates.get() < nUpdates / 10);
+        for (int i = 0; i < nUpdates; i++)
+            Assert.assertEquals(MaybeMultihash.of(values.get(i)), tree.get(writer.publicKeyHash, keys.get(i)).get());
+    }
+
+    @Test
+    public void readsDontWaitForWrites() throws Exception {
+        RAMStorage storage = new RAMStorage();
+        SigningPrivateKeyAndPublicHash writer = ChampTests.createUser(storage, crypto);
+        PublicSigningKey publicKey = storage.getSigningKey(writer.publicKeyHash).get().get();
+
+        Map<PublicKeyHash, byte[]> pointers = new ConcurrentHashMap<>();
+        CompletableFuture<Boolean> released = new CompletableFuture<>();
+        AtomicBoolean blockWrites = new AtomicBoolean(false);
+        MutablePointers mutable = new MutablePointers() {
+            @Override
+            public CompletableFuture<Boolean> setPointer(PublicKeyHash owner, PublicKeyHash writerHash, byte[] signed) {
+                if (! MutablePointers.isValidUpdate(writerHash, publicKey, Optional.ofNullable(pointers.get(writerHash)), signed))
+                    return CompletableFuture.completedFuture(false);
+                CompletableFuture<Boolean> gate = blockWrites.get() ? released : CompletableFuture.completedFuture(true);
+                return gate.thenApply(x -> {
+                    pointers.put(writerHash, signed);
+                    return true;
+                });
+            }
+
+            @Override
+            public CompletableFuture<Optional<byte[]>> getPointer(PublicKeyHash writerHash) {
+                return CompletableFuture.completedFuture(Optional.ofNullable(pointers.get(writerHash)));
+            }
+        };
+        MutableTree tree = new MutableTreeImpl(mutable, storage);
+
+        byte[] key = new byte[]{1, 2, 3};
+        Multihash value = new Multihash(Multihash.Type.sha2_256, new byte[32]);
+        Assert.assertTrue(tree.put(writer, key, MaybeMultihash.empty(), value).get());
+
+        blockWrites.set(true);
+        byte[] newRaw = new byte[32];
+        Arrays.fill(newRaw, (byte) 5);
+        Multihash newValue = new Multihash(Multihash.Type.sha2_256, newRaw);
+        CompletableFuture<Boolean> write = tree.put(writer, key, MaybeMultihash.of(value), newValue);
+        Assert.assertFalse(write.isDone());
+        // the read sees the last committed state while the write is in progress
+        Assert.assertEquals(MaybeMultihash.of(value), tree.get(writer.publicKeyHash, key).get(1, TimeUnit.SECONDS));
+
+        released.complete(true);
+        Assert.assertTrue(write.get());
+        Assert.assertEquals(MaybeMultihash.of(newValue), tree.get(writer.publicKeyHash, key).get());
+    }
+
+    @Test
+    public void cachedReadsSeeCompletedWrites() throws Exception {
+        RAMStorage storage = new RAMStorage();
+        SigningPrivateKeyAndPublicHash writer = ChampTests.createUser(storage, crypto);
+        PublicSigningKey publicKey = storage.getSigningKey(writer.publicKeyHash).get().get();
+
+        Map<PublicKeyHash, byte[]> pointers = new ConcurrentHashMap<>();
+        CompletableFuture<Boolean> released = new CompletableFuture<>();
+        AtomicBoolean delayReads = new AtomicBoolean(false);
+        MutablePointers mutable = new MutablePointers() {
+            @Override
+            public synchronized CompletableFuture<Boolean> setPointer(PublicKeyHash owner, PublicKeyHash writerHash, byte[] signed) {
+                if (! MutablePointers.isValidUpdate(writerHash, publicKey, Optional.ofNullable(pointers.get(writerHash)), signed))
+                    return CompletableFuture.completedFuture(false);
+                pointers.put(writerHash, signed);
+                return CompletableFuture.completedFuture(true);
+            }
+
+            @Override
+            public CompletableFuture<Optional<byte[]>> getPointer(PublicKeyHash writerHash) {
+                Optional<byte[]> current = Optional.ofNullable(pointers.get(writerHash));
+                if (! delayReads.get())
+                    return CompletableFuture.completedFuture(current);
+                // a slow read which returns the value from when it arrived
+                return released.thenApply(x -> current);
+            }
+        };
+        MutableTree tree = new MutableTreeImpl(new CachingPointers(mutable, 60_000), storage);
+
+        byte[] key = new byte[]{1, 2, 3};
+        Multihash value = new Multihash(Multihash.Type.sha2_256, new byte[32]);
+        Assert.assertTrue(tree.put(writer, key, MaybeMultihash.empty(), value).get());
+
+        delayReads.set(true);
+        CompletableFuture<MaybeMultihash> slowRead = tree.get(writer.publicKeyHash, key);
+        delayReads.set(false);
+        byte[] newRaw = new byte[32];
+        Arrays.fill(newRaw, (byte) 5);
+        Multihash newValue = new Multihash(Multihash.Type.sha2_256, newRaw);
+        Assert.assertTrue(tree.put(writer, key, MaybeMultihash.of(value), newValue).get());
+
+        // the read which started before the write finishes after it, and mustn't replace the cached value
+        released.complete(true);
+        Assert.assertEquals(MaybeMultihash.of(value), slowRead.get());
+        Assert.assertEquals(MaybeMultihash.of(newValue), tree.get(writer.publicKeyHash, key).get());
+    }
+
+    @Test
+    public void migrateBtreeToChamp() throws Exception {
+        RAMStorage storage = new RAMStorage();
+        SigningPrivateKeyAndPublicHash writer = ChampTests.createUser(storage, crypto);
+        PublicSigningKey publicKey = storage.getSigningKey(writer.publicKeyHash).get().get();
+
+        Map<PublicKeyHash, byte[]> pointers = new ConcurrentHashMap<>();
+        MutablePointers mutable = new MutablePointers() {
+            @Override
+            public synchronized CompletableFuture<Boolean> setPointer(PublicKeyHash owner, PublicKeyHash writerHash, byte[] signed) {
+                if (! MutablePointers.isValidUpdate(writerHash, publicKey, Optional.ofNullable(pointers.get(writerHash)), signed))
+                    return CompletableFuture.completedFuture(false);
+                pointers.put(writerHash, signed);
+                return CompletableFuture.completedFuture(true);
+            }
+
+            @Override
+            public CompletableFuture<Optional<byte[]>> getPointer(PublicKeyHash writerHash) {
+                return CompletableFuture.completedFuture(Optional.ofNullable(pointers.get(writerHash)));
+            }
+        };
+
+        // enough mappings for a multi level btree, including a removed key
+        MerkleBTree btree = MerkleBTree.create(writer, storage).get();
+        Random r = new Random(28);
+        Map<ByteArrayWrapper, Multihash> state = new HashMap<>();
+        Multihash root = null;
+        for (int i = 0; i < 200; i++) {
+            byte[] key = new byte[32];
+            r.nextBytes(key);
+            byte[] value = new byte[32];
+            r.nextBytes(value);
+            Multihash valueHash = new Multihash(Multihash.Type.sha2_256, value);
+            root = btree.put(writer, key, MaybeMultihash.empty(), valueHash).get();
+            state.put(new ByteArrayWrapper(key), valueHash);
+        }
+        ByteArrayWrapper removed = state.keySet().iterator().next();
+        root = btree.remove(writer, removed.data, MaybeMultihash.of(state.remove(removed))).get();
+        WriterData.createEmpty(writer.publicKeyHash).withBtree(root)
+                .commit(writer, MaybeMultihash.empty(), mutable, storage, x -> {}).get();
+
+        MutableTreeImpl tree = new MutableTreeImpl(mutable, storage);
+        CommittedWriterData migrated = tree.migrateToChamp(writer).get();
+        Assert.assertTrue(migrated.props.tree.isPresent());
+        Assert.assertFalse(migrated.props.btree.isPresent());
+        for (Map.Entry<ByteArrayWrapper, Multihash> e : state.entrySet())
+            Assert.assertEquals(MaybeMultihash.of(e.getValue()), tree.get(writer.publicKeyHash, e.getKey().data).get());
+        Assert.assertEquals(MaybeMultihash.empty(), tree.get(writer.publicKeyHash, removed.data).get());
+
+        // migrating again is a no-op
+        Assert.assertEquals(migrated.hash, tree.migrateToChamp(writer).get().hash);
+    }
+
+    @Test
+    public void migrationResumesWithWritesInBetween() throws Exception {
+        RAMStorage storage = new RAMStorage();
+        SigningPrivateKeyAndPublicHash writer = ChampTests.createUser(storage, crypto);
+        PublicSigningKey publicKey = storage.getSigningKey(writer.publicKeyHash).get().get();
+
+        Map<PublicKeyHash, byte[]> pointers = new ConcurrentHashMap<>();
+        MutablePointers mutable = new MutablePointers() {
+            @Override
+            public synchronized CompletableFuture<Boolean> setPointer(PublicKeyHash owner, PublicKeyHash writerHash, byte[] signed) {
+                if (! MutablePointers.isValidUpdate(writerHash, publicKey, Optional.ofNullable(pointers.get(writerHash)), signed))
+                    return CompletableFuture.completedFuture(false);
+                pointers.put(writerHash, signed);
+                return CompletableFuture.completedFuture(true);
+            }
+
+            @Override
+            public CompletableFuture<Optional<byte[]>> getPointer(PublicKeyHash writerHash) {
+                return CompletableFuture.completedFuture(Optional.ofNullable(pointers.get(writerHash)));
+            }
+        };
+
+        MerkleBTree btree = MerkleBTree.create(writer, storage).get();
+        Random r = new Random(28);
+        SortedMap<ByteArrayWrapper, Multihash> state = new TreeMap<>();
+        Multihash root = null;
+        for (int i = 0; i < 200; i++) {
+            byte[] key = new byte[32];
+            r.nextBytes(key);
+            Multihash valueHash = randomHash(r);
+            root = btree.put(writer, key, MaybeMultihash.empty(), valueHash).get();
+            state.put(new ByteArrayWrapper(key), valueHash);
+        }
+
+        // the btree can be read in key order in bounded batches
+        List<ByteArrayWrapper> walked = new ArrayList<>();
+        Optional<ByteArrayWrapper> after = Optional.empty();
+        while (true) {
+            List<Pair<ByteArrayWrapper, MaybeMultihash>> batch = btree.getMappingsAfter(after, 7).get();
+            Assert.assertTrue(batch.size() <= 7);
+            if (batch.isEmpty())
+                break;
+            for (Pair<ByteArrayWrapper, MaybeMultihash> mapping : batch) {
+                walked.add(mapping.left);
+                Assert.assertEquals(MaybeMultihash.of(state.get(mapping.left)), mapping.right);
+            }
+            after = Optional.of(batch.get(batch.size() - 1).left);
+        }
+        Assert.assertEquals(new ArrayList<>(state.keySet()), walked);
+
+        CommittedWriterData original = WriterData.createEmpty(writer.publicKeyHash).withBtree(root)
+                .commit(writer, MaybeMultihash.empty(), mutable, storage, x -> {}).get();
+
+        // migrate one batch, as if we were then interrupted
+        CommittedWriterData partial = original.props.migrateNextBatch(writer, original.hash, 50, mutable, storage, x -> {}).get();
+        Assert.assertTrue(partial.props.btree.isPresent());
+        Assert.assertTrue(partial.props.migration.isPresent());
+        ByteArrayWrapper lastMigrated = partial.props.migration.get().lastKey;
+        Assert.assertEquals(new ArrayList<>(state.keySet()).get(49), lastMigrated);
+
+        // writes to keys either side of the progress, while the btree is still in use
+        MutableTreeImpl tree = new MutableTreeImpl(mutable, storage);
+        ByteArrayWrapper changed = state.firstKey();
+        Multihash newValue = randomHash(r);
+        Assert.assertTrue(tree.put(writer, changed.data, MaybeMultihash.of(state.get(changed)), newValue).get());
+        state.put(changed, newValue);
+        ByteArrayWrapper removed = state.headMap(lastMigrated).lastKey();
+        Assert.assertTrue(tree.remove(writer, removed.data, MaybeMultihash.of(state.remove(removed))).get());
+        ByteArrayWrapper unmigrated = state.lastKey();
+        Assert.assertTrue(tree.remove(writer, unmigrated.data, MaybeMultihash.of(state.remove(unmigrated))).get());
+        byte[] added = new byte[32];
+        Multihash addedValue = randomHash(r);
+        Assert.assertTrue(tree.put(writer, added, MaybeMultihash.empty(), addedValue).get());
+        state.put(new ByteArrayWrapper(added), addedValue);
+
+        CommittedWriterData migrated = tree.migrateToChamp(writer).get();
+        Assert.assertTrue(migrated.props.tree.isPresent());
+        Assert.assertFalse(migrated.props.btree.isPresent());
+        Assert.assertFalse(migrated.props.migration.isPresent());
+        ChampWrapper champ = ChampWrapper.create(migrated.props.tree.get(), x -> x.data, storage).get();
+        Map<ByteArrayWrapper, Multihash> champMappings = new TreeMap<>();
+        champ.stream()
+                .filter(p -> p.right.isPresent())
+                .forEach(p -> champMappings.put(p.left, p.right.get()));
+        Assert.assertEquals(state, champMappings);
+        for (Map.Entry<ByteArrayWrapper, Multihash> e : state.entrySet())
+            Assert.assertEquals(MaybeMultihash.of(e.getValue()), tree.get(writer.publicKeyHash, e.getKey().data).get());
+        Assert.assertEquals(MaybeMultihash.empty(), tree.get(writer.publicKeyHash, removed.data).get());
+        Assert.assertEquals(MaybeMultihash.empty(), tree.get(writer.publicKeyHash, unmigrated.data).get());
+    }
+
+    @Test
+    public void lookupIncludesEveryBlockOnThePath() throws Exception {
+        RAMStorage storage = new RAMStorage();
+        SigningPrivateKeyAndPublicHash writer = ChampTests.createUser(storage, crypto);
+        PublicSigningKey publicKey = storage.getSigningKey(writer.publicKeyHash).get().get();
+
+        Map<PublicKeyHash, byte[]> pointers = new ConcurrentHashMap<>();
+        MutablePointers mutable = new MutablePointers() {
+            @Override
+            public synchronized CompletableFuture<Boolean> setPointer(PublicKeyHash owner, PublicKeyHash writerHash, byte[] signed) {
+                if (! MutablePointers.isValidUpdate(writerHash, publicKey, Optional.ofNullable(pointers.get(writerHash)), signed))
+                    return CompletableFuture.completedFuture(false);
+                pointers.put(writerHash, signed);
+                return CompletableFuture.completedFuture(true);
+            }
+
+            @Override
+            public CompletableFuture<Optional<byte[]>> getPointer(PublicKeyHash writerHash) {
+                return CompletableFuture.completedFuture(Optional.ofNullable(pointers.get(writerHash)));
+            }
+        };
+        MutableTree tree = new MutableTreeImpl(mutable, storage);
+        Random r = new Random(28);
+        Map<ByteArrayWrapper, Multihash> state = new HashMap<>();
+        for (int i = 0; i < 200; i++) {
+            byte[] key = new byte[32];
+            r.nextBytes(key);
+            byte[] value = new byte[32];
+            r.nextBytes(value);
+            Multihash valueHash = new Multihash(Multihash.Type.sha2_256, value);
+            Assert.assertTrue(tree.put(writer, key, MaybeMultihash.empty(), valueHash).get());
+            state.put(new ByteArrayWrapper(key), valueHash);
+        }
+
+        // a remote server resolves lookups, and the client has no other access to blocks
+        MutablePointers remote = new MutablePointers() {
+            @Override
+            public CompletableFuture<Boolean> setPointer(PublicKeyHash owner, PublicKeyHash writerHash, byte[] signed) {
+                return mutable.setPointer(owner, writerHash, signed);
+            }
+
+            @Override
+            public CompletableFuture<Optional<byte[]>> getPointer(PublicKeyHash writerHash) {
+                return mutable.getPointer(writerHash);
+            }
+
+            @Override
+            public CompletableFuture<ChampLookup> getLookup(PublicKeyHash writerHash, byte[] mapKey) {
+                return ChampLookup.build(writerHash, mapKey, mutable, storage)
+                        .thenApply(lookup -> ChampLookup.fromCbor(CborObject.fromByteArray(lookup.serialize())));
+            }
+        };
+        RAMStorage unreachable = new RAMStorage() {
+            @Override
+            public CompletableFuture<Optional<CborObject>> get(Multihash hash) {
+                throw new IllegalStateException("Block not included in lookup: " + hash);
+            }
+
+            @Override
+            public CompletableFuture<Optional<byte[]>> getRaw(Multihash hash) {
+                throw new IllegalStateException("Block not included in lookup: " + hash);
+            }
+        };
+        MutableTree client = new MutableTreeImpl(remote, unreachable);
+        for (Map.Entry<ByteArrayWrapper, Multihash> e : state.entrySet())
+            Assert.assertEquals(MaybeMultihash.of(e.getValue()), client.get(writer.publicKeyHash, e.getKey().data).get());
+        byte[] absent = new byte[32];
+        r.nextBytes(absent);
+        Assert.assertEquals(MaybeMultihash.empty(), client.get(writer.publicKeyHash, absent).get());
+    }
+
+    @Test
+    public void multiWriterTransactionIsAtomic() throws Exception {
+        RAMStorage storage = new RAMStorage();
+        SigningPrivateKeyAndPublicHash writer1 = ChampTests.createUser(storage, crypto);
+        SigningPrivateKeyAndPublicHash writer2 = ChampTests.createUser(storage, crypto);
+        UserRepository repo = UserRepository.buildSqlLite(":memory:", storage, CoreNode.MAX_USERNAME_COUNT);
+        MutableTree tree = new MutableTreeImpl(repo, storage);
+
+        Random r = new Random(46);
+        byte[] key1 = new byte[32], key2 = new byte[32];
+        r.nextBytes(key1);
+        r.nextBytes(key2);
+        Multihash value1 = randomHash(r), value2 = randomHash(r), value3 = randomHash(r);
+        Assert.assertTrue(tree.updateAll(writer1.publicKeyHash, Arrays.asList(
+                new MutableTree.Change(writer1, key1, MaybeMultihash.empty(), MaybeMultihash.of(value1)),
+                new MutableTree.Change(writer2, key2, MaybeMultihash.empty(), MaybeMultihash.of(value2)))).get());
+        Assert.assertEquals(MaybeMultihash.of(value1), tree.get(writer1.publicKeyHash, key1).get());
+        Assert.assertEquals(MaybeMultihash.of(value2), tree.get(writer2.publicKeyHash, key2).get());
+
+        // the change for writer2 expects the wrong value, so neither writer is changed
+        try {
+            tree.updateAll(writer1.publicKeyHash, Arrays.asList(
+                    new MutableTree.Change(writer1, key1, MaybeMultihash.of(value1), MaybeMultihash.of(value3)),
+                    new MutableTree.Change(writer2, key2, MaybeMultihash.of(value1), MaybeMultihash.of(value3)))).get();
+            Assert.fail("Invalid transaction succeeded");
+        } catch (ExecutionException e) {}
+        Assert.assertEquals(MaybeMultihash.of(value1), tree.get(writer1.publicKeyHash, key1).get());
+        Assert.assertEquals(MaybeMultihash.of(value2), tree.get(writer2.publicKeyHash, key2).get());
+
+        // a stale pointer cas for one writer means none of the pointers are updated
+        MaybeMultihash root1 = repo.getPointerTarget(writer1.publicKeyHash, storage).get();
+        MaybeMultihash root2 = repo.getPointerTarget(writer2.publicKeyHash, storage).get();
+        PointerUpdates.PointerUpdate valid = new PointerUpdates.PointerUpdate(writer1.publicKeyHash,
+                writer1.secret.signMessage(new HashCasPair(root1, MaybeMultihash.of(randomHash(r))).serialize()));
+        PointerUpdates.PointerUpdate stale = new PointerUpdates.PointerUpdate(writer2.publicKeyHash,
+                writer2.secret.signMessage(new HashCasPair(MaybeMultihash.empty(), MaybeMultihash.of(randomHash(r))).serialize()));
+        Assert.assertFalse(repo.setPointers(writer1.publicKeyHash, Arrays.asList(valid, stale)).get());
+        Assert.assertEquals(root1, repo.getPointerTarget(writer1.publicKeyHash, storage).get());
+        Assert.assertEquals(root2, repo.getPointerTarget(writer2.publicKeyHash, storage).get());
+    }
+
+    @Test
+    public void lookupFallsBackWhenServerCantResolve() throws Exception {
+        RAMStorage storage = new RAMStorage();
+        SigningPrivateKeyAndPublicHash writer = ChampTests.createUser(storage, crypto);
+        UserRepository repo = UserRepository.buildSqlLite(":memory:", storage, CoreNode.MAX_USERNAME_COUNT);
+        MutableTree tree = new MutableTreeImpl(repo, storage);
+        Random r = new Random(45);
+        byte[] key = new byte[32];
+        r.nextBytes(key);
+        Multihash value = randomHash(r);
+        Assert.assertTrue(tree.put(writer, key, MaybeMultihash.empty(), value).get());
+
+        // like a core node server, which has no dht to resolve lookups with
+        AtomicInteger lookups = new AtomicInteger(0);
+        HttpHandler handler = new HttpMutablePointerServer.MutationHandler(repo);
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 5683), 10);
+        server.createContext("/" + HttpMutablePointerServer.MUTABLE_POINTERS_URL, exchange -> {
+            if (exchange.getRequestURI().getPath().endsWith("/lookup"))
+                lookups.incrementAndGet();
+            handler.handle(exchange);
+        });
+        server.start();
+        try {
+            MutablePointers remote = new HttpMutablePointers(new JavaPoster(new URL("http://localhost:5683/")));
+            MutableTree client = new MutableTreeImpl(remote, storage);
+            for (int i = 0; i < 3; i++)
+                Assert.assertEquals(MaybeMultihash.of(value), client.get(writer.publicKeyHash, key).get());
+            Assert.assertEquals("Unsupported lookups are remembered", 1, lookups.get());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void largeGetPointersIsSplit() throws Exception {
+        MutablePointers local = new MutablePointers() {
+            @Override
+            public CompletableFuture<Boolean> setPointer(PublicKeyHash owner, PublicKeyHash writer, byte[] signed) {
+                return CompletableFuture.completedFuture(false);
+            }
+
+            @Override
+            public CompletableFuture<Optional<byte[]>> getPointer(PublicKeyHash writer) {
+                return CompletableFuture.completedFuture(Optional.of(writer.multihash.toBytes()));
+            }
+        };
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 5684), 10);
+        server.createContext("/" + HttpMutablePointerServer.MUTABLE_POINTERS_URL, new HttpMutablePointerServer.MutationHandler(local));
+        server.start();
+        try {
+            MutablePointers remote = new HttpMutablePointers(new JavaPoster(new URL("http://localhost:5684/")));
+            Random r = new Random(31);
+            List<PublicKeyHash> writers = new ArrayList<>();
+            for (int i = 0; i < 2 * MutablePointers.MAX_WRITERS_PER_GET_POINTERS + 1; i++)
+                writers.add(new PublicKeyHash(randomHash(r)));
+            Map<PublicKeyHash, Optional<byte[]>> pointers = remote.getPointers(writers).get();
+            Assert.assertEquals(writers.size(), pointers.size());
+            for (PublicKeyHash writer : writers)
+                Assert.assertArrayEquals(writer.multihash.toBytes(), pointers.get(writer).get());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    private static Multihash randomHash(Random r) {
+        byte[] hash = new byte[32];
+        r.nextBytes(hash);
+        return new Multihash(Multihash.Type.sha2_256, hash);
+    }
+}
@@ -0,0 +1,167 @@
+package peergos.server.tests;
+
+import com.sun.net.httpserver.*;
+import org.junit.*;
+import peergos.server.mutable.*;
+import peergos.server.storage.*;
+import peergos.shared.*;
+import peergos.shared.cbor.*;
+import peergos.shared.crypto.*;
+import peergos.shared.crypto.hash.*;
+import peergos.shared.io.ipfs.multihash.*;
+import peergos.shared.mutable.*;
+import peergos.shared.user.*;
+
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class PointerUpdateLogTests {
+    private static final Crypto crypto = Crypto.initJava();
+
+    private static PublicKeyHash key(int i) {
+        byte[] hash = new byte[32];
+        hash[0] = (byte) i;
+        return new PublicKeyHash(new Multihash(Multihash.Type.sha2_256, hash));
+    }
+
+    @Test
+    public void subscriptionOnlySeesItsKeys() throws Exception {
+        RAMStorage storage = new RAMStorage();
+        PointerUpdateLog log = new PointerUpdateLog(storage, 100, 200);
+        SigningPrivateKeyAndPublicHash owner = ChampTests.createUser(storage, crypto);
+        PublicKeyHash mine = owner.publicKeyHash, other = key(2);
+        Set<PublicKeyHash> keys = Collections.singleton(mine);
+        List<FollowRequestsSubscription> followRequests =
+                Collections.singletonList(FollowRequestsSubscription.sign(owner, System.currentTimeMillis()));
+
+        PointerUpdates start = log.getUpdates(0, PointerFeed.START, keys, followRequests).get();
+        Assert.assertTrue(start.reset);
+
+        CompletableFuture<PointerUpdates> waiting = log.getUpdates(start.epoch, start.sequence, keys, followRequests);
+        log.accept(new MutableEvent(other, new byte[]{1}));
+        Thread.sleep(50);
+        Assert.assertFalse("Woken by an unsubscribed writer", waiting.isDone());
+
+        log.accept(new MutableEvent(mine, new byte[]{2}));
+        PointerUpdates updates = waiting.get(5, TimeUnit.SECONDS);
+        Assert.assertEquals(1, updates.updates.size());
+        Assert.assertEquals(mine, updates.updates.get(0).writer);
+        Assert.assertArrayEquals(new byte[]{2}, updates.updates.get(0).writerSignedBtreeRootHash);
+
+        // follow requests for the subscribed key are delivered, and resuming misses nothing
+        log.followRequestsChanged(other);
+        log.followRequestsChanged(mine);
+        PointerUpdates resumed = log.getUpdates(updates.epoch, updates.sequence, keys, followRequests).get(5, TimeUnit.SECONDS);
+        Assert.assertFalse(resumed.reset);
+        Assert.assertTrue(resumed.updates.isEmpty());
+        Assert.assertEquals(Collections.singletonList(mine), resumed.followRequests);
+
+        // a quiet subscription times out at the latest position, so it can resume without a reset
+        log.accept(new MutableEvent(other, new byte[]{3}));
+        PointerUpdates timedOut = log.getUpdates(resumed.epoch, resumed.sequence, keys, followRequests).get(5, TimeUnit.SECONDS);
+        Assert.assertTrue(timedOut.isEmpty());
+        Assert.assertEquals(resumed.sequence + 1, timedOut.sequence);
+
+        // the serialized form round trips
+        PointerUpdates decoded = PointerUpdates.fromCbor(CborObject.fromByteArray(resumed.serialize()));
+        Assert.assertEquals(resumed.followRequests, decoded.followRequests);
+    }
+
+    @Test
+    public void followRequestsNeedTheOwnersSignature() throws Exception {
+        RAMStorage storage = new RAMStorage();
+        PointerUpdateLog log = new PointerUpdateLog(storage, 100, 200);
+        SigningPrivateKeyAndPublicHash owner = ChampTests.createUser(storage, crypto);
+        SigningPrivateKeyAndPublicHash impostor = ChampTests.createUser(storage, crypto);
+        long now = System.currentTimeMillis();
+        FollowRequestsSubscription forged = FollowRequestsSubscription.fromCbor(new CborObject.CborList(Arrays.asList(
+                owner.publicKeyHash.toCbor(),
+                new CborObject.CborLong(now),
+                new CborObject.CborByteArray(FollowRequestsSubscription.sign(impostor, now).serialize()))));
+        FollowRequestsSubscription expired = FollowRequestsSubscription.sign(owner,
+                now - FollowRequestsSubscription.MAX_AGE_MILLIS - 1);
+        PointerUpdates start = log.getUpdates(0, PointerFeed.START, Collections.emptySet(), Collections.emptyList()).get();
+
+        for (FollowRequestsSubscription invalid : Arrays.asList(forged, expired)) {
+            CompletableFuture<PointerUpdates> waiting = log.getUpdates(start.epoch, start.sequence,
+                    Collections.singleton(owner.publicKeyHash), Collections.singletonList(invalid));
+            log.followRequestsChanged(owner.publicKeyHash);
+            // naming the owner as a writer doesn't reveal its follow requests either
+            Assert.assertTrue(waiting.get(5, TimeUnit.SECONDS).isEmpty());
+        }
+    }
+
+    private static final MutablePointers EMPTY = new MutablePointers() {
+        @Override
+        public CompletableFuture<Boolean> setPointer(PublicKeyHash owner, PublicKeyHash writer, byte[] signed) {
+            return CompletableFuture.completedFuture(false);
+        }
+
+        @Override
+        public CompletableFuture<Optional<byte[]>> getPointer(PublicKeyHash writer) {
+            return CompletableFuture.completedFuture(Optional.empty());
+        }
+    };
+
+    @Test
+    public void followRequestsAreVersionedWhileFollowed() throws Exception {
+        RAMStorage storage = new RAMStorage();
+        PointerUpdateLog log = new PointerUpdateLog(storage, 100, 200);
+        CachingPointers pointers = new CachingPointers(EMPTY, 60_000);
+        SigningPrivateKeyAndPublicHash owner = ChampTests.createUser(storage, crypto);
+        PublicKeyHash mine = owner.publicKeyHash, other = key(2);
+        pointers.subscribeToFollowRequests(owner);
+        Assert.assertFalse("Not following yet", pointers.getFollowRequestsVersion(mine).isPresent());
+
+        Assert.assertTrue(pointers.pollUpdates(log).get(5, TimeUnit.SECONDS));
+        Optional<Long> version = pointers.getFollowRequestsVersion(mine);
+        Assert.assertTrue(version.isPresent());
+        Assert.assertFalse("Not subscribed", pointers.getFollowRequestsVersion(other).isPresent());
+
+        CompletableFuture<Boolean> next = pointers.pollUpdates(log);
+        log.followRequestsChanged(other);
+        Assert.assertTrue(next.get(5, TimeUnit.SECONDS));
+        Assert.assertEquals(version, pointers.getFollowRequestsVersion(mine));
+
+        next = pointers.pollUpdates(log);
+        log.followRequestsChanged(mine);
+        Assert.assertTrue(next.get(5, TimeUnit.SECONDS));
+        Assert.assertNotEquals(version, pointers.getFollowRequestsVersion(mine));
+    }
+
+    @Test
+    public void asyncFollowingRetriesWithBackoff() {
+        CachingPointers pointers = new CachingPointers(EMPTY, 1_000);
+        CompletableFuture<PointerUpdates> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new IllegalStateException("Network Error"));
+        PointerFeed down = (epoch, since, writers, followRequests) -> failed;
+        List<Integer> delays = new ArrayList<>();
+        List<Runnable> retries = new ArrayList<>();
+        pointers.followUpdatesAsync(down, (retry, millis) -> {
+            delays.add(millis);
+            retries.add(retry);
+        });
+        for (int i = 0; i < 3; i++)
+            retries.get(i).run();
+        Assert.assertEquals(Arrays.asList(1_000, 2_000, 4_000, 8_000), delays);
+    }
+
+    @Test
+    public void serverWithoutFeed() throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 5682), 10);
+        server.createContext("/" + HttpMutablePointerServer.MUTABLE_POINTERS_URL, new HttpMutablePointerServer.MutationHandler(EMPTY));
+        server.start();
+        try {
+            HttpMutablePointers remote = new HttpMutablePointers(new JavaPoster(new URL("http://localhost:5682/")));
+            CachingPointers pointers = new CachingPointers(remote, 60_000);
+            SigningPrivateKeyAndPublicHash owner = ChampTests.createUser(new RAMStorage(), crypto);
+            pointers.subscribeToFollowRequests(owner);
+            Assert.assertFalse(pointers.pollUpdates(remote).get(5, TimeUnit.SECONDS));
+            Assert.assertTrue("Unsupported feed detected", pointers.isFeedUnsupported());
+            Assert.assertFalse(pointers.getFollowRequestsVersion(owner.publicKeyHash).isPresent());
+        } finally {
+            server.stop(0);
+        }
+    }
+}
@@ -788,6 +788,31 @@ public abstract class UserTests {
         checkFileContents(data, copy, context);
     }
 
+    @Test
+    public void internalMove() throws Exception {
+        String username = generateUsername();
+        String password = "test01";
+        UserContext context = ensureSignedUp(username, password, network.clear(), crypto);
+        FileTreeNode userRoot = context.getUserRoot().get();
+        Path home = Paths.get(username);
+
+        String filename = "movedfile.bin";
+        byte[] data = randomData(1024);
+        FileTreeNode updatedUserRoot = userRoot.uploadFile(filename, new AsyncReader.ArrayBacked(data), data.length, network, crypto.random, x -> {}, context.fragmenter()).get();
+        String foldername = "afolder";
+        updatedUserRoot.mkdir(foldername, network, false, crypto.random).get();
+
+        // the move commits the link in the new folder and the removal from the old one together
+        FileTreeNode original = context.getByPath(home.resolve(filename).toString()).get().get();
+        FileTreeNode subfolder = context.getByPath(home.resolve(foldername).toString()).get().get();
+        FileTreeNode parent = context.getByPath(username).get().get();
+        original.moveTo(subfolder, parent, network, crypto.random, context.fragmenter()).get();
+
+        Assert.assertFalse("Moved from original folder", context.getByPath(home.resolve(filename).toString()).get().isPresent());
+        FileTreeNode moved = context.getByPath(home.resolve(foldername).resolve(filename).toString()).get().get();
+        checkFileContents(data, moved, context);
+    }
+
     public static SymmetricKey getDataKey(FileTreeNode file) {
         return ((FileAccess)file.getPointer().fileAccess).getDataKey(file.getPointer().filePointer.baseKey);
     }
@@ -0,0 +1,65 @@
+package peergos.server.tests.slow;
+
+import peergos.server.util.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.*;
+
+/** Compares the throughput of request threads logging access events directly to a FileHandler, with logging through
+ *  an AsyncLogHandler in front of the same FileHandler.
+ */
+public class AsyncLoggingBenchmark {
+
+    public static void main(String[] a) throws Exception {
+        int threads = 32;
+        int eventsPerThread = 20_000;
+        Path dir = Files.createTempDirectory("peergos-log-bench");
+
+        for (int run = 0; run < 3; run++) {
+            FileHandler sync = new FileHandler(dir.resolve("sync.%g.log").toString(), 10 * 1024 * 1024, 2, false);
+            sync.setFormatter(new SimpleFormatter());
+            long syncDuration = run(sync, threads, eventsPerThread);
+            sync.close();
+
+            FileHandler target = new FileHandler(dir.resolve("async.%g.log").toString(), 10 * 1024 * 1024, 2, false);
+            target.setFormatter(new SimpleFormatter());
+            AsyncLogHandler async = new AsyncLogHandler(target, 64 * 1024, AsyncLogHandler.OverflowPolicy.BLOCK,
+                    Collections.emptyMap());
+            long asyncDuration = run(async, threads, eventsPerThread);
+            long t0 = System.currentTimeMillis();
+            async.close();
+            long drainDuration = System.currentTimeMillis() - t0;
+
+            long total = (long) threads * eventsPerThread;
+            System.out.printf("Synchronous: %d events/s, asynchronous: %d events/s (+%d mS to drain)%n",
+                    total * 1000 / Math.max(1, syncDuration), total * 1000 / Math.max(1, asyncDuration), drainDuration);
+        }
+    }
+
+    private static long run(Handler handler, int threads, int eventsPerThread) throws Exception {
+        Logger logger = Logger.getAnonymousLogger();
+        logger.setUseParentHandlers(false);
+        logger.addHandler(handler);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> done = new ArrayList<>();
+        for (int t = 0; t < threads; t++)
+            done.add(pool.submit(() -> {
+                start.await();
+                for (int i = 0; i < eventsPerThread; i++)
+                    logger.log(new AsyncLogHandler.AccessEvent("DHT Handler", "block/get", i % 50));
+                return true;
+            }));
+        long t1 = System.currentTimeMillis();
+        start.countDown();
+        for (Future<?> f : done)
+            f.get();
+        long t2 = System.currentTimeMillis();
+        pool.shutdown();
+        logger.removeHandler(handler);
+        return t2 - t1;
+    }
+}
@@ -0,0 +1,79 @@
+package peergos.server.tests.slow;
+import peergos.server.util.Logging;
+import java.util.logging.*;
+
+import peergos.server.storage.*;
+import peergos.server.tests.*;
+import peergos.shared.*;
+import peergos.shared.cbor.*;
+import peergos.shared.crypto.*;
+import peergos.shared.crypto.symmetric.*;
+import peergos.shared.hamt.*;
+import peergos.shared.io.ipfs.multihash.*;
+import peergos.shared.merklebtree.*;
+import peergos.shared.user.fs.*;
+import peergos.shared.user.fs.cryptree.*;
+import peergos.shared.util.*;
+
+import java.time.*;
+import java.util.*;
+import java.util.function.*;
+
+/** Compares decoding champ nodes and file metadata by building CborObjects against decoding them directly from their
+ *  bytes with a CborView.
+ *
+ */
+public class CborDecodeBenchmark {
+	private static final Logger LOG = Logging.LOG();
+
+    private static final Crypto crypto = Crypto.initJava();
+
+    public static void main(String[] a) throws Exception {
+        Random r = new Random(28);
+        RAMStorage storage = new RAMStorage();
+        SigningPrivateKeyAndPublicHash user = ChampTests.createUser(storage, crypto);
+
+        List<Triple<ByteArrayWrapper, MaybeMultihash, MaybeMultihash>> changes = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            byte[] key = new byte[32];
+            r.nextBytes(key);
+            byte[] value = new byte[32];
+            r.nextBytes(value);
+            changes.add(new Triple<>(new ByteArrayWrapper(key), MaybeMultihash.empty(),
+                    MaybeMultihash.of(new Multihash(Multihash.Type.sha2_256, value))));
+        }
+        Pair<Champ, Multihash> root = Champ.bulkUpdate(user, Champ.empty(), null, changes,
+                ChampWrapper.BIT_WIDTH, ChampWrapper.MAX_HASH_COLLISIONS_PER_LEVEL, x -> x.data, storage).get();
+        byte[] champ = storage.getRaw(root.right).get().get();
+
+        SymmetricKey parentKey = SymmetricKey.random();
+        FileProperties props = new FileProperties("a-file.txt", "text/plain", 1024, LocalDateTime.now(), false, Optional.empty());
+        Location parent = new Location(user.publicKeyHash, user.publicKeyHash, new byte[32]);
+        FileAccess file = FileAccess.create(MaybeMultihash.empty(), parentKey, SymmetricKey.random(), SymmetricKey.random(),
+                props, null, parent, SymmetricKey.random());
+        byte[] metadata = file.serialize();
+        Multihash fileHash = new Multihash(Multihash.Type.sha2_256, new byte[32]);
+
+        time("champ node of " + champ.length + " bytes", champ,
+                raw -> Champ.fromCbor(CborObject.fromByteArray(raw)),
+                raw -> Champ.fromView(CborView.of(raw)));
+        time("file metadata of " + metadata.length + " bytes", metadata,
+                raw -> CryptreeNode.fromCbor(CborObject.fromByteArray(raw), fileHash),
+                raw -> CryptreeNode.fromRaw(raw, fileHash));
+    }
+
+    private static void time(String name, byte[] raw, Function<byte[], Object> eager, Function<byte[], Object> lazy) {
+        int iterations = 100_000;
+        for (int round = 0; round < 3; round++) {
+            long t0 = System.nanoTime();
+            for (int i = 0; i < iterations; i++)
+                eager.apply(raw);
+            long t1 = System.nanoTime();
+            for (int i = 0; i < iterations; i++)
+                lazy.apply(raw);
+            long t2 = System.nanoTime();
+            LOG.info(name + ": " + (t1 - t0) / iterations + " nS per decode via CborObject, "
+                    + (t2 - t1) / iterations + " nS via CborView");
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package peergos.server.tests.slow;
+import peergos.server.util.Logging;
+import java.util.logging.*;
+
+import peergos.server.storage.*;
+import peergos.server.tests.*;
+import peergos.shared.*;
+import peergos.shared.cbor.*;
+import peergos.shared.crypto.*;
+import peergos.shared.hamt.*;
+import peergos.shared.io.ipfs.multihash.*;
+import peergos.shared.merklebtree.*;
+import peergos.shared.util.*;
+
+import java.io.*;
+import java.util.*;
+
+/** Compares serializing a champ node through a growing stream against serializing it into an array of precomputed
+ *  size, and against serializing a cbor object which has already been converted from the node.
+ *
+ */
+public class CborEncodeBenchmark {
+	private static final Logger LOG = Logging.LOG();
+
+    private static final Crypto crypto = Crypto.initJava();
+
+    public static void main(String[] a) throws Exception {
+        Random r = new Random(28);
+        RAMStorage storage = new RAMStorage();
+        SigningPrivateKeyAndPublicHash user = ChampTests.createUser(storage, crypto);
+
+        List<Triple<ByteArrayWrapper, MaybeMultihash, MaybeMultihash>> changes = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            byte[] key = new byte[32];
+            r.nextBytes(key);
+            byte[] value = new byte[32];
+            r.nextBytes(value);
+            changes.add(new Triple<>(new ByteArrayWrapper(key), MaybeMultihash.empty(),
+                    MaybeMultihash.of(new Multihash(Multihash.Type.sha2_256, value))));
+        }
+        Pair<Champ, Multihash> root = Champ.bulkUpdate(user, Champ.empty(), null, changes,
+                ChampWrapper.BIT_WIDTH, ChampWrapper.MAX_HASH_COLLISIONS_PER_LEVEL, x -> x.data, storage).get();
+        Champ node = root.left;
+
+        int iterations = 100_000;
+        for (int round = 0; round < 3; round++) {
+            long t0 = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                ByteArrayOutputStream bout = new ByteArrayOutputStream();
+                node.toCbor().serialize(new CborEncoder(bout));
+                bout.toByteArray();
+            }
+            long t1 = System.nanoTime();
+            for (int i = 0; i < iterations; i++)
+                node.toCbor().toByteArray();
+            long t2 = System.nanoTime();
+            CborObject converted = node.toCbor();
+            for (int i = 0; i < iterations; i++)
+                converted.toByteArray();
+            long t3 = System.nanoTime();
+            LOG.info("champ node of " + converted.serializedSize() + " bytes: " + (t1 - t0) / iterations
+                    + " nS per stream serialization, " + (t2 - t1) / iterations + " nS presized, "
+                    + (t3 - t2) / iterations + " nS already converted");
+        }
+    }
+}
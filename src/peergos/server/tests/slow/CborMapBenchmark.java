@@ -0,0 +1,47 @@
+package peergos.server.tests.slow;
+import peergos.server.util.Logging;
+import java.util.logging.*;
+
+import peergos.shared.cbor.*;
+
+import java.util.*;
+
+/** Measures decoding small cbor maps, like those of metadata, and looking up their keys, compared to the cost of
+ *  putting the decoded entries into a TreeMap.
+ *
+ */
+public class CborMapBenchmark {
+	private static final Logger LOG = Logging.LOG();
+
+    public static void main(String[] a) {
+        Random r = new Random(28);
+        for (int size : Arrays.asList(3, 6, 8, 20)) {
+            Map<String, Cborable> values = new HashMap<>();
+            for (int i = 0; i < size; i++) {
+                byte[] value = new byte[32];
+                r.nextBytes(value);
+                values.put("key" + i, new CborObject.CborByteArray(value));
+            }
+            byte[] raw = CborObject.CborMap.build(values).toByteArray();
+            List<CborObject> keys = new ArrayList<>(((CborObject.CborMap) CborObject.fromByteArray(raw)).values.keySet());
+
+            int iterations = 1_000_000;
+            for (int round = 0; round < 3; round++) {
+                long t0 = System.nanoTime();
+                for (int i = 0; i < iterations; i++)
+                    CborObject.fromByteArray(raw);
+                long t1 = System.nanoTime();
+                for (int i = 0; i < iterations; i++)
+                    new TreeMap<>(((CborObject.CborMap) CborObject.fromByteArray(raw)).values);
+                long t2 = System.nanoTime();
+                CborObject.CborMap map = (CborObject.CborMap) CborObject.fromByteArray(raw);
+                for (int i = 0; i < iterations; i++)
+                    map.values.get(keys.get(i % size));
+                long t3 = System.nanoTime();
+                LOG.info("map of " + size + " keys: " + (t1 - t0) / iterations + " nS per decode, "
+                        + (t2 - t1) / iterations + " nS per decode into a TreeMap, "
+                        + (t3 - t2) / iterations + " nS per lookup");
+            }
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package peergos.server.tests.slow;
+import peergos.server.util.Logging;
+import java.util.logging.*;
+
+import peergos.server.storage.*;
+import peergos.server.tests.*;
+import peergos.shared.*;
+import peergos.shared.cbor.*;
+import peergos.shared.crypto.*;
+import peergos.shared.hamt.*;
+import peergos.shared.io.ipfs.multihash.*;
+import peergos.shared.merklebtree.*;
+import peergos.shared.util.*;
+
+import java.util.*;
+import java.util.stream.*;
+
+/** Measures the in memory size of decoded champ nodes and the cost of lookups for different bit widths. Widths of up
+ *  to 5 use the compact int bitmaps, wider ones fall back to BitSets.
+ *
+ */
+public class ChampBitmapBenchmark {
+	private static final Logger LOG = Logging.LOG();
+
+    private static final Crypto crypto = Crypto.initJava();
+
+    public static void main(String[] a) throws Exception {
+        Random r = new Random(28);
+        RAMStorage storage = new RAMStorage();
+        SigningPrivateKeyAndPublicHash user = ChampTests.createUser(storage, crypto);
+
+        int nKeys = 10_000;
+        List<ByteArrayWrapper> keys = new ArrayList<>();
+        List<Triple<ByteArrayWrapper, MaybeMultihash, MaybeMultihash>> changes = new ArrayList<>();
+        for (int i = 0; i < nKeys; i++) {
+            byte[] key = new byte[32];
+            r.nextBytes(key);
+            byte[] value = new byte[32];
+            r.nextBytes(value);
+            keys.add(new ByteArrayWrapper(key));
+            changes.add(new Triple<>(keys.get(i), MaybeMultihash.empty(),
+                    MaybeMultihash.of(new Multihash(Multihash.Type.sha2_256, value))));
+        }
+
+        for (int bitWidth = 3; bitWidth <= 8; bitWidth++) {
+            Pair<Champ, Multihash> root = Champ.bulkUpdate(user, Champ.empty(), null, changes, bitWidth,
+                    ChampWrapper.MAX_HASH_COLLISIONS_PER_LEVEL, x -> x.data, storage).get();
+            byte[] raw = storage.get(root.right).get().get().serialize();
+
+            int copies = 20_000;
+            List<Champ> decoded = new ArrayList<>(copies);
+            long before = usedMemory();
+            for (int i = 0; i < copies; i++)
+                decoded.add(Champ.fromCbor(CborObject.fromByteArray(raw)));
+            long after = usedMemory();
+            int nodeBytes = (int) ((after - before) / copies);
+
+            int lookups = 200_000;
+            Champ tree = root.left;
+            for (int i = 0; i < lookups; i++)
+                tree.get(keys.get(i % nKeys), keys.get(i % nKeys).data, 0, bitWidth, storage).get();
+            long t0 = System.nanoTime();
+            for (int i = 0; i < lookups; i++)
+                tree.get(keys.get(i % nKeys), keys.get(i % nKeys).data, 0, bitWidth, storage).get();
+            long t1 = System.nanoTime();
+            LOG.info(bitWidth + "-bit champ of " + nKeys + " keys: root node of " + raw.length + " bytes uses "
+                    + nodeBytes + " bytes of heap when decoded, " + (t1 - t0) / lookups + " nS per lookup ("
+                    + decoded.size() + " nodes held)");
+        }
+    }
+
+    private static long usedMemory() {
+        for (int i = 0; i < 3; i++)
+            System.gc();
+        Runtime rt = Runtime.getRuntime();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+}
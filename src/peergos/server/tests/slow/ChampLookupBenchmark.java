@@ -0,0 +1,58 @@
+package peergos.server.tests.slow;
+import peergos.server.util.Logging;
+import java.util.logging.*;
+
+import peergos.server.storage.*;
+import peergos.server.tests.*;
+import peergos.shared.*;
+import peergos.shared.crypto.*;
+import peergos.shared.hamt.*;
+import peergos.shared.io.ipfs.multihash.*;
+import peergos.shared.merklebtree.*;
+import peergos.shared.util.*;
+
+import java.util.*;
+
+/** Compares the time for lookups in a champ with and without the cache of decoded nodes
+ *
+ */
+public class ChampLookupBenchmark {
+	private static final Logger LOG = Logging.LOG();
+
+    private static final Crypto crypto = Crypto.initJava();
+
+    public static void main(String[] a) throws Exception {
+        Random r = new Random(28);
+        RAMStorage storage = new RAMStorage();
+        SigningPrivateKeyAndPublicHash user = ChampTests.createUser(storage, crypto);
+        ChampWrapper champ = ChampWrapper.create(user, x -> x.data, storage).get();
+
+        int nKeys = 10_000;
+        List<byte[]> keys = new ArrayList<>();
+        Multihash root = null;
+        for (int i = 0; i < nKeys; i++) {
+            byte[] key = new byte[32];
+            r.nextBytes(key);
+            byte[] value = new byte[32];
+            r.nextBytes(value);
+            keys.add(key);
+            root = champ.put(user, key, MaybeMultihash.empty(), new Multihash(Multihash.Type.sha2_256, value)).get();
+        }
+        ChampWrapper tree = ChampWrapper.create(root, x -> x.data, storage).get();
+
+        int lookups = 100_000;
+        for (int round = 0; round < 3; round++) {
+            long t0 = System.nanoTime();
+            for (int i = 0; i < lookups; i++) {
+                storage.champNodes().get().clear();
+                tree.get(keys.get(i % nKeys)).get();
+            }
+            long t1 = System.nanoTime();
+            for (int i = 0; i < lookups; i++)
+                tree.get(keys.get(i % nKeys)).get();
+            long t2 = System.nanoTime();
+            LOG.info(lookups + " lookups in a champ of " + nKeys + " keys: decoding every node " + (t1 - t0) / lookups
+                    + " nS per lookup, with cached nodes " + (t2 - t1) / lookups + " nS per lookup");
+        }
+    }
+}
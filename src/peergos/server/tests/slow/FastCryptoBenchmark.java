@@ -0,0 +1,56 @@
+package peergos.server.tests.slow;
+import peergos.server.util.Logging;
+import java.util.logging.*;
+
+import peergos.shared.crypto.*;
+
+import java.util.*;
+import java.util.function.*;
+
+/** Compares the TweetNaCl port against the fast providers for encrypting a chunk, and signing and verifying.
+ *
+ */
+public class FastCryptoBenchmark {
+	private static final Logger LOG = Logging.LOG();
+
+    public static void main(String[] a) {
+        Random r = new Random(28);
+        byte[] chunk = new byte[5 * 1024 * 1024];
+        r.nextBytes(chunk);
+        byte[] nonce = new byte[TweetNaCl.SECRETBOX_NONCE_BYTES];
+        byte[] key = new byte[TweetNaCl.SECRETBOX_KEY_BYTES];
+        r.nextBytes(nonce);
+        r.nextBytes(key);
+        byte[] cipher = TweetNaCl.secretbox(chunk, nonce, key);
+
+        byte[] pk = new byte[TweetNaCl.SIGN_PUBLIC_KEY_BYTES], sk = new byte[TweetNaCl.SIGN_SECRET_KEY_BYTES];
+        r.nextBytes(sk);
+        TweetNaCl.crypto_sign_keypair(pk, sk, true);
+        byte[] message = new byte[100];
+        r.nextBytes(message);
+        byte[] signed = TweetNaCl.crypto_sign(message, sk);
+
+        for (int round = 0; round < 3; round++) {
+            time("encrypt 5 MiB chunk", 10, () -> TweetNaCl.secretbox(chunk, nonce, key),
+                    () -> FastSalsa20Poly1305.secretbox(chunk, nonce, key));
+            time("decrypt 5 MiB chunk", 10, () -> TweetNaCl.secretbox_open(cipher, nonce, key),
+                    () -> FastSalsa20Poly1305.secretbox_open(cipher, nonce, key));
+            time("sign", 1_000, () -> TweetNaCl.crypto_sign(message, sk),
+                    () -> FastEd25519.crypto_sign(message, sk));
+            time("verify", 1_000, () -> TweetNaCl.crypto_sign_open(signed, pk),
+                    () -> FastEd25519.crypto_sign_open(signed, pk));
+        }
+    }
+
+    private static void time(String name, int iterations, Supplier<Object> reference, Supplier<Object> fast) {
+        long t0 = System.nanoTime();
+        for (int i = 0; i < iterations; i++)
+            reference.get();
+        long t1 = System.nanoTime();
+        for (int i = 0; i < iterations; i++)
+            fast.get();
+        long t2 = System.nanoTime();
+        LOG.info(name + ": " + (t1 - t0) / iterations / 1000 + " uS with TweetNaCl, "
+                + (t2 - t1) / iterations / 1000 + " uS fast");
+    }
+}
@@ -0,0 +1,248 @@
+package peergos.server.util;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+import java.util.logging.*;
+import java.util.logging.Formatter;
+
+/** A log handler which moves formatting and writing off the logging thread.
+ *
+ *  Records are published to a bounded lock free ring buffer which is drained by a single background thread. The
+ *  background thread formats a batch of records and writes them to the target handler as a single record, so the
+ *  target's lock is taken, and its output flushed, once per batch rather than once per record.
+ */
+public class AsyncLogHandler extends Handler {
+
+    public enum OverflowPolicy {
+        /** Discard records published while the buffer is full, and report how many were lost */
+        DROP,
+        /** Make the publishing thread wait for space in the buffer */
+        BLOCK
+    }
+
+    private static final int MAX_BATCH = 256;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+
+    private final Handler target;
+    private final Formatter recordFormatter;
+    private final boolean inferCaller;
+    private final OverflowPolicy overflow;
+    private final Map<String, Integer> sampleRates;
+    private final Map<String, AtomicLong> sampleCounters = new ConcurrentHashMap<>();
+
+    // A bounded multi producer, single consumer queue, see http://www.1024cores.net/home/lock-free-algorithms/queues/bounded-mpmc-queue
+    private final AtomicReferenceArray<LogRecord> buffer;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong enqueuePosition = new AtomicLong(0);
+    private long dequeuePosition = 0;
+
+    private final AtomicLong dropped = new AtomicLong(0);
+    private final Thread drainer;
+    private volatile boolean closed = false;
+
+    /**
+     *
+     * @param target the handler to write batches to
+     * @param capacity the maximum number of queued records, rounded up to a power of 2
+     * @param overflow what to do with records published when the buffer is full
+     * @param sampleRates endpoint to the fraction (1 in N) of its {@link AccessEvent}s that are logged
+     */
+    public AsyncLogHandler(Handler target, int capacity, OverflowPolicy overflow, Map<String, Integer> sampleRates) {
+        this.target = target;
+        this.recordFormatter = target.getFormatter() != null ? target.getFormatter() : new SimpleFormatter();
+        this.inferCaller = printsSource(recordFormatter);
+        target.setFormatter(new BatchFormatter(recordFormatter));
+        this.overflow = overflow;
+        this.sampleRates = new HashMap<>(sampleRates);
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.buffer = new AtomicReferenceArray<>(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++)
+            sequences.set(i, i);
+        this.mask = size - 1;
+        setLevel(target.getLevel());
+        this.drainer = new Thread(this::drain, "Async log writer");
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+
+    public long droppedCount() {
+        return dropped.get();
+    }
+
+    @Override
+    public void publish(LogRecord record) {
+        if (closed || ! isLoggable(record) || ! isSampled(record))
+            return;
+        // the caller is inferred from the stack, so it must be done on the logging thread, but only if it is written
+        if (inferCaller)
+            record.getSourceClassName();
+        if (offer(record))
+            return;
+        if (overflow == OverflowPolicy.DROP) {
+            dropped.incrementAndGet();
+            return;
+        }
+        while (! offer(record)) {
+            if (closed)
+                return;
+            LockSupport.parkNanos(IDLE_PARK_NANOS);
+        }
+    }
+
+    /**
+     *
+     * @param formatter
+     * @return whether the formatter writes the source of a record
+     */
+    private static boolean printsSource(Formatter formatter) {
+        String probe = AsyncLogHandler.class.getName() + ".probe";
+        LogRecord record = new LogRecord(Level.INFO, "");
+        record.setSourceClassName(probe);
+        record.setSourceMethodName(probe);
+        try {
+            return formatter.format(record).contains(probe);
+        } catch (Exception e) {
+            return true;
+        }
+    }
+
+    private boolean isSampled(LogRecord record) {
+        if (! (record instanceof AccessEvent))
+            return true;
+        String endpoint = ((AccessEvent) record).endpoint;
+        Integer rate = sampleRates.get(endpoint);
+        if (rate == null || rate <= 1)
+            return true;
+        long count = sampleCounters.computeIfAbsent(endpoint, e -> new AtomicLong(0)).getAndIncrement();
+        return count % rate == 0;
+    }
+
+    private boolean offer(LogRecord record) {
+        long pos = enqueuePosition.get();
+        while (true) {
+            int index = (int) (pos & mask);
+            long diff = sequences.get(index) - pos;
+            if (diff == 0) {
+                if (enqueuePosition.compareAndSet(pos, pos + 1)) {
+                    buffer.set(index, record);
+                    sequences.set(index, pos + 1);
+                    return true;
+                }
+                pos = enqueuePosition.get();
+            } else if (diff < 0) {
+                return false; // full
+            } else
+                pos = enqueuePosition.get();
+        }
+    }
+
+    private LogRecord poll() {
+        int index = (int) (dequeuePosition & mask);
+        if (sequences.get(index) != dequeuePosition + 1)
+            return null;
+        LogRecord record = buffer.get(index);
+        buffer.set(index, null);
+        sequences.set(index, dequeuePosition + mask + 1);
+        dequeuePosition++;
+        return record;
+    }
+
+    private void drain() {
+        while (! closed) {
+            if (writeBatch() == 0)
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+        }
+    }
+
+    private synchronized int writeBatch() {
+        StringBuilder batch = new StringBuilder();
+        Level level = Level.ALL;
+        int count = 0;
+        LogRecord record;
+        while (count < MAX_BATCH && (record = poll()) != null) {
+            try {
+                batch.append(recordFormatter.format(record));
+            } catch (Exception e) {
+                reportError(e.getMessage(), e, ErrorManager.FORMAT_FAILURE);
+            }
+            if (record.getLevel().intValue() > level.intValue())
+                level = record.getLevel();
+            count++;
+        }
+        long lost = dropped.getAndSet(0);
+        if (lost > 0)
+            batch.append(recordFormatter.format(
+                    new LogRecord(Level.WARNING, "Log buffer full, dropped " + lost + " records")));
+        if (batch.length() == 0)
+            return 0;
+        LogRecord combined = new LogRecord(level, batch.toString());
+        target.publish(combined);
+        target.flush();
+        return count;
+    }
+
+    @Override
+    public void flush() {
+        while (writeBatch() > 0)
+            ;
+    }
+
+    @Override
+    public void close() throws SecurityException {
+        closed = true;
+        try {
+            drainer.join(TimeUnit.SECONDS.toMillis(1));
+        } catch (InterruptedException e) {}
+        flush();
+        target.close();
+    }
+
+    /** Passes through pre-formatted batches, while keeping the head and tail of the original formatter
+     */
+    private static class BatchFormatter extends Formatter {
+        private final Formatter recordFormatter;
+
+        public BatchFormatter(Formatter recordFormatter) {
+            this.recordFormatter = recordFormatter;
+        }
+
+        @Override
+        public String format(LogRecord record) {
+            return record.getMessage();
+        }
+
+        @Override
+        public String getHead(Handler h) {
+            return recordFormatter.getHead(h);
+        }
+
+        @Override
+        public String getTail(Handler h) {
+            return recordFormatter.getTail(h);
+        }
+    }
+
+    /** The structured record of a handled request. Its message is only formatted if, and when, it is written.
+     */
+    public static class AccessEvent extends LogRecord {
+        private static final long serialVersionUID = 1L;
+
+        public final String server, endpoint;
+        public final long durationMillis;
+
+        public AccessEvent(String server, String endpoint, long durationMillis) {
+            super(Level.INFO, "{0} handled {1} request in: {2} mS");
+            this.server = server;
+            this.endpoint = endpoint;
+            this.durationMillis = durationMillis;
+            // the source is known, so never walk the stack for it
+            setSourceClassName(server);
+            setSourceMethodName(endpoint);
+            setParameters(new Object[]{server, endpoint, Long.toString(durationMillis)});
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package peergos.server.util;
+import java.util.logging.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+/** Delivers events to each listener asynchronously, on a dedicated thread per listener, so that a slow listener
+ *  doesn't delay the publisher or the other listeners.
+ *
+ *  Each listener has a bounded queue. Events with the same key as an event which is still queued replace it in place,
+ *  so a listener only sees the latest event for each key. A publisher only blocks if a listener's queue is full.
+ */
+public class EventBus<E> {
+	private static final Logger LOG = Logging.LOG();
+    public static final int DEFAULT_QUEUE_SIZE = 10_000;
+
+    public static class Stats {
+        public final String listener;
+        public final long published, coalesced, delivered, failed, blockedPublishes, blockedMillis;
+        public final int queued, maxQueued;
+
+        public Stats(String listener, long published, long coalesced, long delivered, long failed,
+                     long blockedPublishes, long blockedMillis, int queued, int maxQueued) {
+            this.listener = listener;
+            this.published = published;
+            this.coalesced = coalesced;
+            this.delivered = delivered;
+            this.failed = failed;
+            this.blockedPublishes = blockedPublishes;
+            this.blockedMillis = blockedMillis;
+            this.queued = queued;
+            this.maxQueued = maxQueued;
+        }
+
+        @Override
+        public String toString() {
+            return listener + ": published " + published + ", coalesced " + coalesced + ", delivered " + delivered +
+                    ", failed " + failed + ", queued " + queued + " (max " + maxQueued + "), publishers blocked " +
+                    blockedPublishes + " times for " + blockedMillis + " mS";
+        }
+    }
+
+    private class Subscription implements Runnable {
+        private final String name;
+        private final Consumer<? super E> listener;
+        private final int capacity;
+        // insertion ordered, so events for different keys are delivered in the order they were first queued
+        private final LinkedHashMap<Object, E> queue = new LinkedHashMap<>();
+        private long published, coalesced, delivered, failed, blockedPublishes, blockedNanos;
+        private int maxQueued;
+
+        Subscription(String name, Consumer<? super E> listener, int capacity) {
+            this.name = name;
+            this.listener = listener;
+            this.capacity = capacity;
+        }
+
+        synchronized void publish(Object key, E event) throws InterruptedException {
+            published++;
+            if (queue.containsKey(key)) {
+                queue.put(key, event);
+                coalesced++;
+                return;
+            }
+            if (queue.size() >= capacity) {
+                if (blockedPublishes++ % 1000 == 0)
+                    LOG.warning("Event queue for " + name + " is full, blocking publisher. " + stats());
+                long t0 = System.nanoTime();
+                while (queue.size() >= capacity && ! isClosed)
+                    wait();
+                blockedNanos += System.nanoTime() - t0;
+            }
+            queue.put(key, event);
+            maxQueued = Math.max(maxQueued, queue.size());
+            notifyAll();
+        }
+
+        private synchronized E take() throws InterruptedException {
+            while (queue.isEmpty() && ! isClosed)
+                wait();
+            if (queue.isEmpty())
+                return null;
+            Iterator<E> first = queue.values().iterator();
+            E event = first.next();
+            first.remove();
+            notifyAll();
+            return event;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                E event;
+                try {
+                    event = take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (event == null)
+                    return;
+                try {
+                    listener.accept(event);
+                    synchronized (this) {
+                        delivered++;
+                    }
+                } catch (Throwable t) {
+                    synchronized (this) {
+                        failed++;
+                    }
+                    LOG.log(Level.WARNING, "Error delivering event to " + name + ": " + t.getMessage(), t);
+                }
+            }
+        }
+
+        synchronized Stats stats() {
+            return new Stats(name, published, coalesced, delivered, failed, blockedPublishes,
+                    blockedNanos / 1_000_000, queue.size(), maxQueued);
+        }
+
+        synchronized void close() {
+            notifyAll();
+        }
+    }
+
+    private final String name;
+    private final Function<? super E, ?> keyOf;
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private volatile boolean isClosed = false;
+
+    /**
+     *
+     * @param name
+     * @param keyOf events with equal keys are coalesced whilst queued
+     */
+    public EventBus(String name, Function<? super E, ?> keyOf) {
+        this.name = name;
+        this.keyOf = keyOf;
+    }
+
+    public void addListener(String listenerName, Consumer<? super E> listener, int queueSize) {
+        Subscription sub = new Subscription(name + " -> " + listenerName, listener, queueSize);
+        subscriptions.add(sub);
+        Thread deliverer = new Thread(sub, "Event delivery " + sub.name);
+        deliverer.setDaemon(true);
+        deliverer.start();
+    }
+
+    public void addListener(Consumer<? super E> listener) {
+        addListener("listener " + subscriptions.size(), listener, DEFAULT_QUEUE_SIZE);
+    }
+
+    public void publish(E event) {
+        Object key = keyOf.apply(event);
+        for (Subscription sub : subscriptions) {
+            try {
+                sub.publish(key, event);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    public List<Stats> getStats() {
+        List<Stats> res = new ArrayList<>();
+        for (Subscription sub : subscriptions)
+            res.add(sub.stats());
+        return res;
+    }
+
+    /** Stop delivering events, after the events which are already queued
+     */
+    public void close() {
+        isClosed = true;
+        for (Subscription sub : subscriptions)
+            sub.close();
+    }
+}
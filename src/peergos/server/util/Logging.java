@@ -3,7 +3,10 @@ package peergos.server.util;
 
 import java.io.IOException;
 import java.nio.file.Paths;
+import java.util.*;
+import java.util.logging.ConsoleHandler;
 import java.util.logging.FileHandler;
+import java.util.logging.Handler;
 import java.util.logging.Logger;
 
 public class Logging {
@@ -27,6 +30,7 @@ public class Logging {
         boolean logAppend = a.getBoolean("logAppend", true);
         boolean logToConsole = a.getBoolean("logToConsole", false);
         boolean logToFile = a.getBoolean("logToFile", true);
+        boolean asyncLog = a.getBoolean("asyncLog", true);
         String peergosDir = a.getArg(Args.PEERGOS_DIR, System.getProperty("user.dir"));
         String logPath = Paths.get(peergosDir, logName).toString();
         try {
@@ -38,11 +42,14 @@ public class Logging {
             // tell  console where we're logging to
             LOG().info("Logging to file"+ logPath.replace("%g", "0"));
 
-            LOG().addHandler(fileHandler);
+            LOG().addHandler(asyncLog ? async(fileHandler, a) : fileHandler);
             // also logging to stdout?
             if (! logToConsole)
                 LOG().setUseParentHandlers(false);
-
+            else if (asyncLog) {
+                LOG().setUseParentHandlers(false);
+                LOG().addHandler(async(new ConsoleHandler(), a));
+            }
         } catch (IOException ioe) {
             throw new IllegalStateException(ioe.getMessage(), ioe);
         } finally {
@@ -51,4 +58,26 @@ public class Logging {
 
 
     }
+
+    /**
+     *
+     * @param target
+     * @param a
+     * @return A handler which writes to target in batches from a background thread
+     */
+    private static Handler async(Handler target, Args a) {
+        int bufferSize = a.getInt("logBufferSize", 64 * 1024);
+        AsyncLogHandler.OverflowPolicy overflow = AsyncLogHandler.OverflowPolicy.valueOf(a.getArg("logOverflow", "DROP"));
+        // e.g. block/get:100,block/stat:10 will log 1 in 100 block gets and 1 in 10 block stats
+        Map<String, Integer> sampleRates = new HashMap<>();
+        for (String rate : a.getArg("logSample", "").split(",")) {
+            if (rate.isEmpty())
+                continue;
+            int sep = rate.lastIndexOf(":");
+            sampleRates.put(rate.substring(0, sep), Integer.parseInt(rate.substring(sep + 1)));
+        }
+        AsyncLogHandler handler = new AsyncLogHandler(target, bufferSize, overflow, sampleRates);
+        Runtime.getRuntime().addShutdownHook(new Thread(handler::close));
+        return handler;
+    }
 }
@@ -56,8 +56,8 @@ public class Crypto {
 
     public static Crypto initJava() {
         SafeRandom.Java random = new SafeRandom.Java();
-        Salsa20Poly1305.Java symmetricProvider = new Salsa20Poly1305.Java();
-        Ed25519.Java signer = new Ed25519.Java();
+        Salsa20Poly1305.FastJava symmetricProvider = new Salsa20Poly1305.FastJava();
+        Ed25519.FastJava signer = new Ed25519.FastJava();
         Curve25519 boxer = new Curve25519.Java();
         return init(() -> new Crypto(random, new ScryptJava(), symmetricProvider, signer, boxer), true);
     }
@@ -14,6 +14,7 @@ import peergos.shared.crypto.hash.*;
 import peergos.shared.crypto.symmetric.*;
 import peergos.shared.io.ipfs.cid.*;
 import peergos.shared.io.ipfs.multihash.*;
+import peergos.shared.merklebtree.*;
 import peergos.shared.mutable.*;
 import peergos.shared.social.*;
 import peergos.shared.storage.*;
@@ -33,6 +34,8 @@ import java.util.stream.*;
  */
 public class NetworkAccess {
     private static final Logger LOG = Logger.getGlobal();
+    // JVM clients share a pointer cache per server, so there is only one thread polling each server's pointer feed
+    private static final Map<String, CachingPointers> sharedPointers = new HashMap<>();
 
     public final CoreNode coreNode;
     public final SocialNetwork social;
@@ -83,7 +86,7 @@ public class NetworkAccess {
         LOG.info("Using caching corenode with TTL: " + cacheTTL + " mS");
         CoreNode coreNode = new HTTPCoreNode(poster);
         SocialNetwork social = new HttpSocialNetwork(poster);
-        MutablePointers mutable = new CachingPointers(new HttpMutablePointers(poster), cacheTTL);
+        CachingPointers mutable = isJavascript ? buildPointers(poster, cacheTTL, true) : getSharedPointers(poster, cacheTTL);
 
         // allow 10MiB of ram for caching tree entries
         ContentAddressedStorage dht = new CachingStorage(new ContentAddressedStorage.HTTP(poster), 10_000, 50 * 1024);
@@ -92,6 +95,27 @@ public class NetworkAccess {
                 .thenApply(usernames -> new NetworkAccess(coreNode, social, dht, mutable, btree, usernames, isJavascript));
     }
 
+    private static CachingPointers buildPointers(HttpPoster poster, int cacheTTL, boolean isJavascript) {
+        HttpMutablePointers httpMutable = new HttpMutablePointers(poster);
+        CachingPointers mutable = new CachingPointers(httpMutable, cacheTTL);
+        // In the browser we can't block a thread on a long poll, or to wait before retrying, so follow asynchronously
+        if (isJavascript)
+            mutable.followUpdatesAsync(httpMutable, (task, millis) -> NativeJSTimer.setTimeout(task::run, millis));
+        else
+            mutable.followUpdates(httpMutable);
+        return mutable;
+    }
+
+    private static synchronized CachingPointers getSharedPointers(HttpPoster poster, int cacheTTL) {
+        String server = poster.toString();
+        CachingPointers existing = sharedPointers.get(server);
+        if (existing != null)
+            return existing;
+        CachingPointers mutable = buildPointers(poster, cacheTTL, false);
+        sharedPointers.put(server, mutable);
+        return mutable;
+    }
+
     @JsMethod
     public static CompletableFuture<NetworkAccess> buildJS() {
         System.setOut(new ConsolePrintStream());
@@ -119,11 +143,11 @@ public class NetworkAccess {
                     return tree.get(loc.writer, loc.getMapKey())
                             .thenCompose(key -> {
                                 if (key.isPresent())
-                                    return dhtClient.get(key.get())
+                                    return dhtClient.getRaw(key.get())
                                             .thenApply(dataOpt ->  dataOpt
-                                                    .map(cbor -> new RetrievedFilePointer(
+                                                    .map(raw -> new RetrievedFilePointer(
                                                             link.toReadableFilePointer(baseKey),
-                                                            CryptreeNode.fromCbor(cbor, key.get()))));
+                                                            CryptreeNode.fromRaw(raw, key.get()))));
                                 LOG.severe("Couldn't download link at: " + loc);
                                 Optional<RetrievedFilePointer> result = Optional.empty();
                                 return CompletableFuture.completedFuture(result);
@@ -155,8 +179,8 @@ public class NetworkAccess {
         // download the metadata blob for this entry point
         return tree.get(entry.pointer.location.writer, entry.pointer.location.getMapKey()).thenCompose(btreeValue -> {
             if (btreeValue.isPresent())
-                return dhtClient.get(btreeValue.get())
-                        .thenApply(value -> value.map(cbor -> CryptreeNode.fromCbor(cbor,  btreeValue.get())));
+                return dhtClient.getRaw(btreeValue.get())
+                        .thenApply(value -> value.map(raw -> CryptreeNode.fromRaw(raw,  btreeValue.get())));
             return CompletableFuture.completedFuture(Optional.empty());
         });
     }
@@ -209,14 +233,42 @@ public class NetworkAccess {
         }
     }
 
+    /** Upload several chunks, which may belong to different writers, and commit them all in a single atomic transaction.
+     *  If it fails none of the chunks are committed.
+     *
+     * @param owner
+     * @param chunks the metadata to upload, with its location and the signer for its writer
+     * @return the hashes of the uploaded chunks, in order
+     */
+    public CompletableFuture<List<Multihash>> uploadChunks(PublicKeyHash owner,
+                                                           List<Triple<CryptreeNode, Location, SigningPrivateKeyAndPublicHash>> chunks) {
+        for (Triple<CryptreeNode, Location, SigningPrivateKeyAndPublicHash> chunk : chunks)
+            if (! chunk.right.publicKeyHash.equals(chunk.middle.writer))
+                throw new IllegalStateException("Non matching location writer and signing writer key!");
+        List<CompletableFuture<Multihash>> blobs = chunks.stream()
+                .map(chunk -> {
+                    byte[] metaBlob = chunk.left.serialize();
+                    return dhtClient.put(chunk.middle.writer, chunk.right.secret.signatureOnly(metaBlob), metaBlob);
+                }).collect(Collectors.toList());
+        return Futures.combineAllInOrder(blobs).thenCompose(hashes -> {
+            List<MutableTree.Change> changes = new ArrayList<>();
+            for (int i = 0; i < chunks.size(); i++) {
+                Triple<CryptreeNode, Location, SigningPrivateKeyAndPublicHash> chunk = chunks.get(i);
+                changes.add(new MutableTree.Change(chunk.right, chunk.middle.getMapKey(), chunk.left.committedHash(),
+                        MaybeMultihash.of(hashes.get(i))));
+            }
+            return tree.updateAll(owner, changes).thenApply(res -> hashes);
+        });
+    }
+
     public CompletableFuture<Optional<CryptreeNode>> getMetadata(Location loc) {
         if (loc == null)
             return CompletableFuture.completedFuture(Optional.empty());
         return tree.get(loc.writer, loc.getMapKey()).thenCompose(blobHash -> {
             if (!blobHash.isPresent())
                 return CompletableFuture.completedFuture(Optional.empty());
-            return dhtClient.get(blobHash.get())
-                    .thenApply(rawOpt -> rawOpt.map(cbor -> CryptreeNode.fromCbor(cbor, blobHash.get())));
+            return dhtClient.getRaw(blobHash.get())
+                    .thenApply(rawOpt -> rawOpt.map(raw -> CryptreeNode.fromRaw(raw, blobHash.get())));
         });
     }
 
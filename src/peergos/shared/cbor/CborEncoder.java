@@ -19,6 +19,8 @@ public class CborEncoder {
     private static final int NEG_INT_MASK = TYPE_NEGATIVE_INTEGER << 5;
 
     private final OutputStream m_os;
+    private final byte[] m_buf;
+    private int m_pos;
 
     /**
      * Creates a new {@link CborEncoder} instance.
@@ -30,6 +32,73 @@ public class CborEncoder {
             throw new IllegalArgumentException("OutputStream cannot be null!");
         }
         m_os = os;
+        m_buf = null;
+    }
+
+    /**
+     * Creates a new {@link CborEncoder} instance which writes directly into an array, which must be large enough for
+     * everything written to it, see {@link #typeSize(long)}.
+     *
+     * @param buf the array to write the CBOR-encoded data to, cannot be <code>null</code>.
+     */
+    public CborEncoder(byte[] buf) {
+        if (buf == null) {
+            throw new IllegalArgumentException("Buffer cannot be null!");
+        }
+        m_os = null;
+        m_buf = buf;
+    }
+
+    /**
+     * @return the number of bytes written to the array this encoder was constructed with.
+     */
+    public int position() {
+        return m_pos;
+    }
+
+    /**
+     * The size of the encoded major type indicator for a given payload (length), or of an unsigned integer.
+     *
+     * @param value the payload, should be &gt;= 0.
+     * @return the number of bytes written by {@link #writeType(int, long)} for this value.
+     */
+    public static int typeSize(long value) {
+        if (value < 0x18L)
+            return 1;
+        if (value < 0x100L)
+            return 2;
+        if (value < 0x10000L)
+            return 3;
+        if (value < 0x100000000L)
+            return 5;
+        return 9;
+    }
+
+    /**
+     * The size of a signed or unsigned integer in canonical CBOR format.
+     *
+     * @param value the value, values from {@link Long#MIN_VALUE} to {@link Long#MAX_VALUE} are supported.
+     * @return the number of bytes written by {@link #writeInt(long)} for this value.
+     */
+    public static int intSize(long value) {
+        return typeSize((value >> 63) ^ value);
+    }
+
+    /**
+     * The size of a byte or text string in canonical CBOR format.
+     *
+     * @param length the number of bytes in the string.
+     * @return the number of bytes written for a string of this length.
+     */
+    public static int stringSize(int length) {
+        return typeSize(length) + length;
+    }
+
+    private void write(int b) throws IOException {
+        if (m_buf != null)
+            m_buf[m_pos++] = (byte) b;
+        else
+            m_os.write(b);
     }
 
     /**
@@ -318,7 +387,7 @@ public class CborEncoder {
         // complement negative value...
         value = Math.min(0x17, (sign ^ value));
 
-        m_os.write((int) (mt | value));
+        write((int) (mt | value));
     }
 
     /**
@@ -379,7 +448,7 @@ public class CborEncoder {
      * @throws IOException in case of I/O problems writing the CBOR-encoded value to the underlying output stream.
      */
     protected void writeSimpleType(int majorType, int value) throws IOException {
-        m_os.write((majorType << 5) | (value & 0x1f));
+        write((majorType << 5) | (value & 0x1f));
     }
 
     /**
@@ -392,8 +461,14 @@ public class CborEncoder {
     protected void writeString(int majorType, byte[] bytes) throws IOException {
         int len = (bytes == null) ? 0 : bytes.length;
         writeType(majorType, len);
+        if (m_buf != null) {
+            if (len > 0)
+                System.arraycopy(bytes, 0, m_buf, m_pos, len);
+            m_pos += len;
+            return;
+        }
         for (int i = 0; i < len; i++) {
-            m_os.write(bytes[i]);
+            write(bytes[i]);
         }
     }
 
@@ -417,7 +492,7 @@ public class CborEncoder {
      */
     protected void writeUInt(int mt, long value) throws IOException {
         if (value < 0x18L) {
-            m_os.write((int) (mt | value));
+            write((int) (mt | value));
         } else if (value < 0x100L) {
             writeUInt8(mt, (int) value);
         } else if (value < 0x10000L) {
@@ -437,9 +512,9 @@ public class CborEncoder {
      * @throws IOException in case of I/O problems writing the CBOR-encoded value to the underlying output stream.
      */
     protected void writeUInt16(int mt, int value) throws IOException {
-        m_os.write(mt | TWO_BYTES);
-        m_os.write(value >> 8);
-        m_os.write(value & 0xFF);
+        write(mt | TWO_BYTES);
+        write(value >> 8);
+        write(value & 0xFF);
     }
 
     /**
@@ -450,11 +525,11 @@ public class CborEncoder {
      * @throws IOException in case of I/O problems writing the CBOR-encoded value to the underlying output stream.
      */
     protected void writeUInt32(int mt, int value) throws IOException {
-        m_os.write(mt | FOUR_BYTES);
-        m_os.write(value >> 24);
-        m_os.write(value >> 16);
-        m_os.write(value >> 8);
-        m_os.write(value & 0xFF);
+        write(mt | FOUR_BYTES);
+        write(value >> 24);
+        write(value >> 16);
+        write(value >> 8);
+        write(value & 0xFF);
     }
 
     /**
@@ -465,15 +540,15 @@ public class CborEncoder {
      * @throws IOException in case of I/O problems writing the CBOR-encoded value to the underlying output stream.
      */
     protected void writeUInt64(int mt, long value) throws IOException {
-        m_os.write(mt | EIGHT_BYTES);
-        m_os.write((int) (value >> 56));
-        m_os.write((int) (value >> 48));
-        m_os.write((int) (value >> 40));
-        m_os.write((int) (value >> 32));
-        m_os.write((int) (value >> 24));
-        m_os.write((int) (value >> 16));
-        m_os.write((int) (value >> 8));
-        m_os.write((int) (value & 0xFF));
+        write(mt | EIGHT_BYTES);
+        write((int) (value >> 56));
+        write((int) (value >> 48));
+        write((int) (value >> 40));
+        write((int) (value >> 32));
+        write((int) (value >> 24));
+        write((int) (value >> 16));
+        write((int) (value >> 8));
+        write((int) (value & 0xFF));
     }
 
     /**
@@ -484,7 +559,7 @@ public class CborEncoder {
      * @throws IOException in case of I/O problems writing the CBOR-encoded value to the underlying output stream.
      */
     protected void writeUInt8(int mt, int value) throws IOException {
-        m_os.write(mt | ONE_BYTE);
-        m_os.write(value & 0xFF);
+        write(mt | ONE_BYTE);
+        write(value & 0xFF);
     }
 }
\ No newline at end of file
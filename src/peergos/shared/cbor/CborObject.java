@@ -14,13 +14,30 @@ public interface CborObject extends Cborable {
 
     void serialize(CborEncoder encoder);
 
+    /**
+     *
+     * @return The exact number of bytes in the serialization of this object
+     */
+    int serializedSize();
+
     List<Multihash> links();
 
     default byte[] toByteArray() {
-        ByteArrayOutputStream bout = new ByteArrayOutputStream();
-        CborEncoder encoder = new CborEncoder(bout);
-        serialize(encoder);
-        return bout.toByteArray();
+        return encode(this);
+    }
+
+    /** Serialize an object into an array of exactly the right size
+     *
+     * @param obj
+     * @return
+     */
+    static byte[] encode(CborObject obj) {
+        byte[] res = new byte[obj.serializedSize()];
+        CborEncoder encoder = new CborEncoder(res);
+        obj.serialize(encoder);
+        if (encoder.position() != res.length)
+            throw new IllegalStateException("Incorrect serialized size for cbor: " + encoder.position() + " != " + res.length);
+        return res;
     }
 
     @Override
@@ -31,7 +48,7 @@ public interface CborObject extends Cborable {
     int LINK_TAG = 42;
 
     static CborObject fromByteArray(byte[] cbor) {
-        return deserialize(new CborDecoder(new ByteArrayInputStream(cbor)), cbor.length);
+        return CborView.of(cbor).toCbor();
     }
 
     static CborObject deserialize(CborDecoder decoder, int maxGroupSize) {
@@ -64,13 +81,13 @@ public interface CborObject extends Cborable {
                     long nValues = decoder.readMapLength();
                     if (nValues > maxGroupSize)
                         throw new IllegalStateException("Invalid cbor: more map elements than original bytes!");
-                    SortedMap<CborObject, Cborable> result = new TreeMap<>();
+                    List<CborObject> keys = new ArrayList<>((int) nValues);
+                    List<CborObject> values = new ArrayList<>((int) nValues);
                     for (long i=0; i < nValues; i++) {
-                        CborObject key = deserialize(decoder, maxGroupSize);
-                        CborObject value = deserialize(decoder, maxGroupSize);
-                        result.put(key, value);
+                        keys.add(deserialize(decoder, maxGroupSize));
+                        values.add(deserialize(decoder, maxGroupSize));
                     }
-                    return new CborMap(result);
+                    return new CborMap(SortedArrayMap.build(keys, values));
                 }
                 case CborConstants.TYPE_ARRAY:
                     long nItems = decoder.readArrayLength();
@@ -103,21 +120,41 @@ public interface CborObject extends Cborable {
         }
     }
 
+    /** An immutable map, whose values are converted to cbor once, when it is constructed.
+     *
+     */
     final class CborMap implements CborObject {
         public final SortedMap<CborObject,? extends Cborable> values;
 
         public CborMap(SortedMap<CborObject,? extends Cborable> values) {
-            this.values = values;
+            this.values = values instanceof SortedArrayMap && allCbor(values.values()) ? values : toCbor(values);
+        }
+
+        private static boolean allCbor(Collection<? extends Cborable> values) {
+            for (Cborable value : values)
+                if (! (value instanceof CborObject))
+                    return false;
+            return true;
+        }
+
+        private static SortedArrayMap<CborObject> toCbor(SortedMap<CborObject,? extends Cborable> values) {
+            List<CborObject> keys = new ArrayList<>(values.size());
+            List<CborObject> vals = new ArrayList<>(values.size());
+            for (Map.Entry<CborObject, ? extends Cborable> e : values.entrySet()) {
+                keys.add(e.getKey());
+                vals.add(e.getValue().toCbor());
+            }
+            return SortedArrayMap.build(keys, vals);
         }
 
         public static CborMap build(Map<String, ? extends Cborable> values) {
-            SortedMap<CborObject, Cborable> transformed = values.entrySet()
-                    .stream()
-                    .collect(Collectors.toMap(
-                            e -> new CborString(e.getKey()),
-                            e -> e.getValue(),
-                            (a, b) -> a, TreeMap::new));
-            return new CborMap(transformed);
+            List<CborObject> keys = new ArrayList<>(values.size());
+            List<CborObject> vals = new ArrayList<>(values.size());
+            for (Map.Entry<String, ? extends Cborable> e : values.entrySet()) {
+                keys.add(new CborString(e.getKey()));
+                vals.add(e.getValue().toCbor());
+            }
+            return new CborMap(SortedArrayMap.build(keys, vals));
         }
 
         @Override
@@ -133,6 +170,14 @@ public interface CborObject extends Cborable {
             }
         }
 
+        @Override
+        public int serializedSize() {
+            int size = CborEncoder.typeSize(values.size());
+            for (Map.Entry<CborObject, ? extends Cborable>  entry : values.entrySet())
+                size += entry.getKey().serializedSize() + entry.getValue().toCbor().serializedSize();
+            return size;
+        }
+
         @Override
         public List<Multihash> links() {
             return values.values().stream()
@@ -159,24 +204,37 @@ public interface CborObject extends Cborable {
 
     final class CborMerkleLink implements CborObject {
         public final Multihash target;
+        private byte[] withMultibaseHeader;
 
         public CborMerkleLink(Multihash target) {
             this.target = target;
         }
 
+        private byte[] withMultibaseHeader() {
+            if (withMultibaseHeader == null) {
+                byte[] cid = target.toBytes();
+                byte[] res = new byte[cid.length + 1];
+                System.arraycopy(cid, 0, res, 1, cid.length);
+                withMultibaseHeader = res;
+            }
+            return withMultibaseHeader;
+        }
+
         @Override
         public void serialize(CborEncoder encoder) {
             try {
                 encoder.writeTag(LINK_TAG);
-                byte[] cid = target.toBytes();
-                byte[] withMultibaseHeader = new byte[cid.length + 1];
-                System.arraycopy(cid, 0, withMultibaseHeader, 1, cid.length);
-                encoder.writeByteString(withMultibaseHeader);
+                encoder.writeByteString(withMultibaseHeader());
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
         }
 
+        @Override
+        public int serializedSize() {
+            return CborEncoder.typeSize(LINK_TAG) + CborEncoder.stringSize(withMultibaseHeader().length);
+        }
+
         @Override
         public List<Multihash> links() {
             return Collections.singletonList(target);
@@ -199,11 +257,17 @@ public interface CborObject extends Cborable {
         }
     }
 
+    /** An immutable list, whose elements are converted to cbor once, when it is constructed.
+     *
+     */
     final class CborList implements CborObject {
         public final List<? extends Cborable> value;
 
         public CborList(List<? extends Cborable> value) {
-            this.value = value;
+            List<CborObject> converted = new ArrayList<>(value.size());
+            for (Cborable object : value)
+                converted.add(object.toCbor());
+            this.value = Collections.unmodifiableList(converted);
         }
 
         @Override
@@ -218,6 +282,14 @@ public interface CborObject extends Cborable {
             }
         }
 
+        @Override
+        public int serializedSize() {
+            int size = CborEncoder.typeSize(value.size());
+            for (Cborable object : value)
+                size += object.toCbor().serializedSize();
+            return size;
+        }
+
         @Override
         public List<Multihash> links() {
             return value.stream()
@@ -257,6 +329,11 @@ public interface CborObject extends Cborable {
             }
         }
 
+        @Override
+        public int serializedSize() {
+            return 1;
+        }
+
         @Override
         public List<Multihash> links() {
             return Collections.emptyList();
@@ -323,6 +400,11 @@ public interface CborObject extends Cborable {
             }
         }
 
+        @Override
+        public int serializedSize() {
+            return CborEncoder.stringSize(value == null ? 0 : value.length);
+        }
+
         @Override
         public List<Multihash> links() {
             return Collections.emptyList();
@@ -348,11 +430,23 @@ public interface CborObject extends Cborable {
     final class CborString implements CborObject, Comparable<CborString> {
 
         public final String value;
+        private byte[] utf8;
 
         public CborString(String value) {
             this.value = value;
         }
 
+        private byte[] utf8() {
+            if (utf8 == null) {
+                try {
+                    utf8 = value.getBytes("UTF-8");
+                } catch (UnsupportedEncodingException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            return utf8;
+        }
+
         @Override
         public int compareTo(CborString cborString) {
             int lenDiff = value.length() - cborString.value.length();
@@ -364,12 +458,17 @@ public interface CborObject extends Cborable {
         @Override
         public void serialize(CborEncoder encoder) {
             try {
-                encoder.writeTextString(value);
+                encoder.writeString(TYPE_TEXT_STRING, utf8());
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
         }
 
+        @Override
+        public int serializedSize() {
+            return CborEncoder.stringSize(utf8().length);
+        }
+
         @Override
         public List<Multihash> links() {
             return Collections.emptyList();
@@ -420,6 +519,11 @@ public interface CborObject extends Cborable {
             }
         }
 
+        @Override
+        public int serializedSize() {
+            return CborEncoder.intSize(value);
+        }
+
         @Override
         public List<Multihash> links() {
             return Collections.emptyList();
@@ -466,6 +570,11 @@ public interface CborObject extends Cborable {
             }
         }
 
+        @Override
+        public int serializedSize() {
+            return 1;
+        }
+
         @Override
         public List<Multihash> links() {
             return Collections.emptyList();
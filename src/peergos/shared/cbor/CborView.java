@@ -0,0 +1,372 @@
+package peergos.shared.cbor;
+
+import peergos.shared.io.ipfs.cid.*;
+import peergos.shared.io.ipfs.multihash.*;
+
+import java.io.*;
+import java.util.*;
+
+import static peergos.shared.cbor.CborConstants.*;
+
+/** A lazy view of an item in a block of cbor. The block is indexed in a single pass without decoding anything, and
+ *  values are only decoded, directly from the original bytes, when they are accessed. Any item can be converted to
+ *  the equivalent CborObject with toCbor.
+ *
+ *  This works on a byte[] rather than a ByteBuffer, which isn't available in the browser.
+ */
+public final class CborView implements Cborable {
+
+    private static final class Index {
+        private final byte[] data;
+        private int size = 0;
+        // For each item, in the order they are encoded: the offset of its initial byte, the start of its payload, the
+        // end of its encoding including any children, the index of the item following all its children, and its
+        // argument, which is an integer value, a length, an element count, a tag or a simple value
+        private int[] starts, payloads, ends, nexts;
+        private long[] args;
+
+        Index(byte[] data) {
+            this.data = data;
+            int capacity = Math.max(4, Math.min(data.length, 16));
+            starts = new int[capacity];
+            payloads = new int[capacity];
+            ends = new int[capacity];
+            nexts = new int[capacity];
+            args = new long[capacity];
+        }
+
+        private int add(int start) {
+            if (size == starts.length) {
+                int capacity = size * 2;
+                starts = Arrays.copyOf(starts, capacity);
+                payloads = Arrays.copyOf(payloads, capacity);
+                ends = Arrays.copyOf(ends, capacity);
+                nexts = Arrays.copyOf(nexts, capacity);
+                args = Arrays.copyOf(args, capacity);
+            }
+            starts[size] = start;
+            return size++;
+        }
+
+        private long readUInt(int pos, int nBytes, int end) {
+            if (end - pos < nBytes)
+                throw new IllegalStateException("Invalid cbor: unexpected end of input!");
+            long res = 0;
+            for (int i = 0; i < nBytes; i++)
+                res = res << 8 | (data[pos + i] & 0xFF);
+            return res;
+        }
+
+        /**
+         *
+         * @param pos
+         * @param end
+         * @return the offset after the item at pos, and all its children
+         */
+        int parse(int pos, int end) {
+            if (pos >= end)
+                throw new IllegalStateException("Invalid cbor: unexpected end of input!");
+            int item = add(pos);
+            int initial = data[pos] & 0xFF;
+            int majorType = initial >> 5;
+            int info = initial & 0x1F;
+            int p = pos + 1;
+            long arg;
+            if (info < ONE_BYTE)
+                arg = info;
+            else if (info <= EIGHT_BYTES) {
+                int nBytes = 1 << (info - ONE_BYTE);
+                arg = readUInt(p, nBytes, end);
+                p += nBytes;
+            } else
+                throw new IllegalStateException("Invalid cbor: unsupported length " + info);
+            payloads[item] = p;
+            args[item] = arg;
+            switch (majorType) {
+                case TYPE_BYTE_STRING:
+                case TYPE_TEXT_STRING:
+                    if (arg < 0 || arg > end - p)
+                        throw new IllegalStateException("Invalid cbor: string longer than original bytes!");
+                    p += (int) arg;
+                    break;
+                case TYPE_ARRAY:
+                    if (arg < 0 || arg > end - p)
+                        throw new IllegalStateException("Invalid cbor: more array elements than original bytes!");
+                    for (long i = 0; i < arg; i++)
+                        p = parse(p, end);
+                    break;
+                case TYPE_MAP:
+                    if (arg < 0 || arg > end - p)
+                        throw new IllegalStateException("Invalid cbor: more map elements than original bytes!");
+                    for (long i = 0; i < 2 * arg; i++)
+                        p = parse(p, end);
+                    break;
+                case TYPE_TAG:
+                    p = parse(p, end);
+                    break;
+                default:
+                    // integers and simple values have no payload beyond their argument
+            }
+            ends[item] = p;
+            nexts[item] = size;
+            return p;
+        }
+    }
+
+    private final Index index;
+    private final int item;
+
+    private CborView(Index index, int item) {
+        this.index = index;
+        this.item = item;
+    }
+
+    /** Index a block of cbor
+     *
+     * @param cbor
+     * @return a view of the first item in the block
+     */
+    public static CborView of(byte[] cbor) {
+        Index index = new Index(cbor);
+        index.parse(0, cbor.length);
+        return new CborView(index, 0);
+    }
+
+    public int getMajorType() {
+        return (index.data[index.starts[item]] & 0xFF) >> 5;
+    }
+
+    private long arg() {
+        return index.args[item];
+    }
+
+    private boolean isSimple(int value) {
+        return getMajorType() == TYPE_FLOAT_SIMPLE && arg() == value;
+    }
+
+    public boolean isNull() {
+        return isSimple(NULL);
+    }
+
+    public boolean isBoolean() {
+        return isSimple(TRUE) || isSimple(FALSE);
+    }
+
+    public boolean isLong() {
+        int type = getMajorType();
+        return type == TYPE_UNSIGNED_INTEGER || type == TYPE_NEGATIVE_INTEGER;
+    }
+
+    public boolean isByteArray() {
+        return getMajorType() == TYPE_BYTE_STRING;
+    }
+
+    public boolean isString() {
+        return getMajorType() == TYPE_TEXT_STRING;
+    }
+
+    public boolean isList() {
+        return getMajorType() == TYPE_ARRAY;
+    }
+
+    public boolean isMap() {
+        return getMajorType() == TYPE_MAP;
+    }
+
+    public boolean isLink() {
+        return getMajorType() == TYPE_TAG && arg() == CborObject.LINK_TAG;
+    }
+
+    private void expect(boolean isType, String type) {
+        if (! isType)
+            throw new IllegalStateException("Cbor is not a " + type + ", major type: " + getMajorType());
+    }
+
+    public long getLong() {
+        expect(isLong(), "long");
+        // a negative integer n is encoded as -1 - n
+        return getMajorType() == TYPE_NEGATIVE_INTEGER ? ~arg() : arg();
+    }
+
+    public boolean getBoolean() {
+        expect(isBoolean(), "boolean");
+        return arg() == TRUE;
+    }
+
+    public String getString() {
+        expect(isString(), "string");
+        try {
+            return new String(index.data, index.payloads[item], (int) arg(), "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     *
+     * @return a copy of the bytes of this byte string
+     */
+    public byte[] getByteArray() {
+        expect(isByteArray(), "byte array");
+        int start = index.payloads[item];
+        return Arrays.copyOfRange(index.data, start, start + (int) arg());
+    }
+
+    public int getByteArrayLength() {
+        expect(isByteArray(), "byte array");
+        return (int) arg();
+    }
+
+    public Multihash getLink() {
+        expect(isLink(), "merkle link");
+        CborView value = new CborView(index, item + 1);
+        if (value.isString())
+            return Cid.decode(value.getString());
+        if (value.isByteArray()) {
+            int start = value.index.payloads[value.item];
+            int length = (int) value.arg();
+            if (length > 0 && index.data[start] == 0) // multibase for binary
+                return Cid.cast(Arrays.copyOfRange(index.data, start + 1, start + length));
+            throw new IllegalStateException("Unknown Multibase decoding Merkle link: " + (length > 0 ? index.data[start] : -1));
+        }
+        throw new IllegalStateException("Invalid type for merkle link: " + value.getMajorType());
+    }
+
+    /**
+     *
+     * @return the number of elements in a list, or of entries in a map
+     */
+    public int size() {
+        expect(isList() || isMap(), "list or map");
+        return (int) arg();
+    }
+
+    /**
+     *
+     * @param i
+     * @return a view of element i of this list
+     */
+    public CborView get(int i) {
+        expect(isList(), "list");
+        if (i < 0 || i >= arg())
+            throw new IndexOutOfBoundsException("Index " + i + " of cbor list of size " + arg());
+        int child = item + 1;
+        for (int j = 0; j < i; j++)
+            child = index.nexts[child];
+        return new CborView(index, child);
+    }
+
+    /**
+     *
+     * @return views of the elements of this list
+     */
+    public List<CborView> getList() {
+        expect(isList(), "list");
+        List<CborView> res = new ArrayList<>((int) arg());
+        int child = item + 1;
+        for (long j = 0; j < arg(); j++) {
+            res.add(new CborView(index, child));
+            child = index.nexts[child];
+        }
+        return res;
+    }
+
+    /** Look up a string key in a map, without decoding the other keys
+     *
+     * @param key
+     * @return a view of the value for key, if present
+     */
+    public Optional<CborView> get(String key) {
+        expect(isMap(), "map");
+        byte[] raw;
+        try {
+            raw = key.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+        int child = item + 1;
+        for (long j = 0; j < arg(); j++) {
+            CborView k = new CborView(index, child);
+            int value = index.nexts[child];
+            if (k.isString() && k.arg() == raw.length && equalRange(index.data, index.payloads[child], raw))
+                return Optional.of(new CborView(index, value));
+            child = index.nexts[value];
+        }
+        return Optional.empty();
+    }
+
+    private static boolean equalRange(byte[] data, int offset, byte[] target) {
+        for (int i = 0; i < target.length; i++)
+            if (data[offset + i] != target[i])
+                return false;
+        return true;
+    }
+
+    /**
+     *
+     * @return a copy of the encoding of this item, including any children
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOfRange(index.data, index.starts[item], index.ends[item]);
+    }
+
+    public List<Multihash> links() {
+        List<Multihash> res = new ArrayList<>();
+        for (int i = item; i < index.nexts[item]; i++) {
+            CborView descendant = new CborView(index, i);
+            if (descendant.isLink())
+                res.add(descendant.getLink());
+        }
+        return res;
+    }
+
+    /**
+     *
+     * @return the fully decoded CborObject equivalent to this item
+     */
+    @Override
+    public CborObject toCbor() {
+        switch (getMajorType()) {
+            case TYPE_TEXT_STRING:
+                return new CborObject.CborString(getString());
+            case TYPE_BYTE_STRING:
+                return new CborObject.CborByteArray(getByteArray());
+            case TYPE_UNSIGNED_INTEGER:
+            case TYPE_NEGATIVE_INTEGER:
+                return new CborObject.CborLong(getLong());
+            case TYPE_FLOAT_SIMPLE:
+                if (isNull())
+                    return new CborObject.CborNull();
+                if (isBoolean())
+                    return new CborObject.CborBoolean(getBoolean());
+                throw new IllegalStateException("Unimplemented simple type! " + arg());
+            case TYPE_MAP: {
+                List<CborObject> keys = new ArrayList<>((int) arg());
+                List<CborObject> values = new ArrayList<>((int) arg());
+                int child = item + 1;
+                for (long j = 0; j < arg(); j++) {
+                    int value = index.nexts[child];
+                    keys.add(new CborView(index, child).toCbor());
+                    values.add(new CborView(index, value).toCbor());
+                    child = index.nexts[value];
+                }
+                return new CborObject.CborMap(SortedArrayMap.build(keys, values));
+            }
+            case TYPE_ARRAY: {
+                List<CborObject> res = new ArrayList<>((int) arg());
+                int child = item + 1;
+                for (long j = 0; j < arg(); j++) {
+                    res.add(new CborView(index, child).toCbor());
+                    child = index.nexts[child];
+                }
+                return new CborObject.CborList(res);
+            }
+            case TYPE_TAG:
+                if (isLink())
+                    return new CborObject.CborMerkleLink(getLink());
+                throw new IllegalStateException("Unknown TAG in CBOR: " + arg());
+            default:
+                throw new IllegalStateException("Unimplemented cbor type: " + getMajorType());
+        }
+    }
+}
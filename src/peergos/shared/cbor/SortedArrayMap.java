@@ -0,0 +1,170 @@
+package peergos.shared.cbor;
+
+import java.util.*;
+
+/** An immutable sorted map backed by parallel arrays of keys and values, in the same order a TreeMap would use.
+ *  Decoded cbor maps are already in canonical order, so they are built without any sorting or tree nodes. Small maps
+ *  are searched linearly, larger ones with a binary search.
+ *
+ * @param <V>
+ */
+final class SortedArrayMap<V> extends AbstractMap<CborObject, V> implements SortedMap<CborObject, V> {
+    private static final int MAX_LINEAR_SCAN_SIZE = 8;
+
+    private final CborObject[] keys;
+    private final Object[] values;
+
+    private SortedArrayMap(CborObject[] keys, Object[] values) {
+        this.keys = keys;
+        this.values = values;
+    }
+
+    /**
+     *
+     * @param keys
+     * @param values
+     * @param <V>
+     * @return A map of each key to the value at the same index, where later duplicate keys replace earlier ones
+     */
+    static <V> SortedArrayMap<V> build(List<? extends CborObject> keys, List<? extends V> values) {
+        if (keys.size() != values.size())
+            throw new IllegalArgumentException("Different numbers of keys and values!");
+        CborObject[] sortedKeys = keys.toArray(new CborObject[keys.size()]);
+        for (int i = 1; i < sortedKeys.length; i++) {
+            if (compare(sortedKeys[i - 1], sortedKeys[i]) >= 0) {
+                // not in canonical order, or with duplicate keys
+                SortedMap<CborObject, V> sorted = new TreeMap<>();
+                for (int j = 0; j < sortedKeys.length; j++)
+                    sorted.put(sortedKeys[j], values.get(j));
+                return new SortedArrayMap<>(sorted.keySet().toArray(new CborObject[sorted.size()]),
+                        sorted.values().toArray());
+            }
+        }
+        return new SortedArrayMap<>(sortedKeys, values.toArray());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static int compare(CborObject a, CborObject b) {
+        return ((Comparable<CborObject>) a).compareTo(b);
+    }
+
+    private int indexOf(Object key) {
+        if (keys.length <= MAX_LINEAR_SCAN_SIZE) {
+            for (int i = 0; i < keys.length; i++)
+                if (keys[i].equals(key))
+                    return i;
+            return -1;
+        }
+        if (! (key instanceof CborObject))
+            return -1;
+        int index = lowerBound((CborObject) key);
+        return index < keys.length && compare(keys[index], (CborObject) key) == 0 ? index : -1;
+    }
+
+    /**
+     *
+     * @param key
+     * @return The index of the first key which is not less than key
+     */
+    private int lowerBound(CborObject key) {
+        int low = 0, high = keys.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compare(keys[mid], key) < 0)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    @Override
+    public int size() {
+        return keys.length;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) >= 0;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        int index = indexOf(key);
+        return index < 0 ? null : (V) values[index];
+    }
+
+    @Override
+    public Comparator<? super CborObject> comparator() {
+        return null;
+    }
+
+    private SortedArrayMap<V> range(int from, int to) {
+        return new SortedArrayMap<>(Arrays.copyOfRange(keys, from, Math.max(from, to)),
+                Arrays.copyOfRange(values, from, Math.max(from, to)));
+    }
+
+    @Override
+    public SortedMap<CborObject, V> subMap(CborObject fromKey, CborObject toKey) {
+        if (compare(fromKey, toKey) > 0)
+            throw new IllegalArgumentException("fromKey > toKey");
+        return range(lowerBound(fromKey), lowerBound(toKey));
+    }
+
+    @Override
+    public SortedMap<CborObject, V> headMap(CborObject toKey) {
+        return range(0, lowerBound(toKey));
+    }
+
+    @Override
+    public SortedMap<CborObject, V> tailMap(CborObject fromKey) {
+        return range(lowerBound(fromKey), keys.length);
+    }
+
+    @Override
+    public CborObject firstKey() {
+        if (keys.length == 0)
+            throw new NoSuchElementException();
+        return keys[0];
+    }
+
+    @Override
+    public CborObject lastKey() {
+        if (keys.length == 0)
+            throw new NoSuchElementException();
+        return keys[keys.length - 1];
+    }
+
+    @Override
+    public Set<Entry<CborObject, V>> entrySet() {
+        return new AbstractSet<Entry<CborObject, V>>() {
+            @Override
+            public Iterator<Entry<CborObject, V>> iterator() {
+                return new Iterator<Entry<CborObject, V>>() {
+                    private int index = 0;
+
+                    @Override
+                    public boolean hasNext() {
+                        return index < keys.length;
+                    }
+
+                    @Override
+                    @SuppressWarnings("unchecked")
+                    public Entry<CborObject, V> next() {
+                        if (index >= keys.length)
+                            throw new NoSuchElementException();
+                        Entry<CborObject, V> res = new SimpleImmutableEntry<>(keys[index], (V) values[index]);
+                        index++;
+                        return res;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return keys.length;
+            }
+        };
+    }
+}
@@ -0,0 +1,819 @@
+package peergos.shared.crypto;
+
+import java.security.*;
+import java.util.*;
+
+/** An implementation of the same Ed25519 signatures as TweetNaCl, which produces identical output and accepts exactly
+ *  the same signatures.
+ *
+ *  Field elements are 10 int limbs of alternately 26 and 25 bits, so products fit in a long without any intermediate
+ *  carries. Signing uses a fixed base comb over a table of precomputed multiples of the base point, and verifying
+ *  uses a sliding window double scalar multiplication, with variable time, as it only handles public values.
+ */
+public class FastEd25519 {
+
+    public static byte[] crypto_sign(byte[] message, byte[] secretSigningKey) {
+        byte[] d = sha512(secretSigningKey, 0, 32, null, 0, 0, null, 0, 0);
+        clamp(d);
+
+        byte[] r = sha512(d, 32, 32, null, 0, 0, message, 0, message.length);
+        TweetNaCl.reduce(r);
+        byte[] signed = new byte[TweetNaCl.SIGNATURE_SIZE_BYTES + message.length];
+        scalarMultBase(r).toBytes(signed, 0);
+
+        byte[] h = sha512(signed, 0, 32, secretSigningKey, 32, 32, message, 0, message.length);
+        TweetNaCl.reduce(h);
+
+        long[] x = new long[64];
+        for (int i = 0; i < 32; i++)
+            x[i] = r[i] & 0xff;
+        for (int i = 0; i < 32; i++)
+            for (int j = 0; j < 32; j++)
+                x[i + j] += (h[i] & 0xff) * (long) (d[j] & 0xff);
+        TweetNaCl.modL(signed, 32, x);
+        System.arraycopy(message, 0, signed, 64, message.length);
+        return signed;
+    }
+
+    public static byte[] crypto_sign_open(byte[] signed, byte[] publicSigningKey) {
+        if (signed.length < TweetNaCl.SIGNATURE_SIZE_BYTES)
+            throw new TweetNaCl.InvalidSignatureException();
+        P3 negA = P3.fromBytesNegate(publicSigningKey);
+        if (negA == null)
+            throw new TweetNaCl.InvalidSignatureException();
+
+        byte[] h = sha512(signed, 0, 32, publicSigningKey, 0, 32, signed, 64, signed.length - 64);
+        TweetNaCl.reduce(h);
+        // TweetNaCl uses all 256 bits of S, which is equivalent to using S mod L because the base point has order L
+        byte[] s = new byte[64];
+        System.arraycopy(signed, 32, s, 0, 32);
+        TweetNaCl.reduce(s);
+
+        byte[] check = new byte[32];
+        doubleScalarMultVartime(h, negA, s).toBytes(check, 0);
+        int diff = 0;
+        for (int i = 0; i < 32; i++)
+            diff |= check[i] ^ signed[i];
+        if (diff != 0)
+            throw new TweetNaCl.InvalidSignatureException();
+        return Arrays.copyOfRange(signed, 64, signed.length);
+    }
+
+    public static void crypto_sign_keypair(byte[] pk, byte[] sk) {
+        byte[] d = sha512(sk, 0, 32, null, 0, 0, null, 0, 0);
+        clamp(d);
+        scalarMultBase(d).toBytes(pk, 0);
+        System.arraycopy(pk, 0, sk, 32, 32);
+    }
+
+    private static void clamp(byte[] d) {
+        d[0] &= (byte) 248;
+        d[31] &= 127;
+        d[31] |= 64;
+    }
+
+    /**
+     *
+     * @return The SHA-512 hash of the concatenation of the given ranges of a, b and m
+     */
+    private static byte[] sha512(byte[] a, int aOff, int aLen, byte[] b, int bOff, int bLen, byte[] m, int mOff, int mLen) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-512");
+            md.update(a, aOff, aLen);
+            if (bLen > 0)
+                md.update(b, bOff, bLen);
+            if (mLen > 0)
+                md.update(m, mOff, mLen);
+            return md.digest();
+        } catch (NoSuchAlgorithmException e) {
+            byte[] input = new byte[aLen + bLen + mLen];
+            System.arraycopy(a, aOff, input, 0, aLen);
+            if (bLen > 0)
+                System.arraycopy(b, bOff, input, aLen, bLen);
+            if (mLen > 0)
+                System.arraycopy(m, mOff, input, aLen + bLen, mLen);
+            byte[] res = new byte[64];
+            TweetNaCl.crypto_hash(res, input, input.length);
+            return res;
+        }
+    }
+
+    /* Field arithmetic modulo 2^255 - 19. The limbs of an element h represent
+     * h[0] + 2^26 h[1] + 2^51 h[2] + 2^77 h[3] + 2^102 h[4] + ... + 2^230 h[9]
+     */
+
+    private static final int[] ONE = one();
+
+    private static final int[] LIMB_OFFSETS = {0, 26, 51, 77, 102, 128, 153, 179, 204, 230, 255};
+
+    private static int[] zero() {
+        return new int[10];
+    }
+
+    private static int[] one() {
+        int[] h = new int[10];
+        h[0] = 1;
+        return h;
+    }
+
+    private static void add(int[] h, int[] f, int[] g) {
+        for (int i = 0; i < 10; i++)
+            h[i] = f[i] + g[i];
+    }
+
+    private static void sub(int[] h, int[] f, int[] g) {
+        for (int i = 0; i < 10; i++)
+            h[i] = f[i] - g[i];
+    }
+
+    private static void neg(int[] h, int[] f) {
+        for (int i = 0; i < 10; i++)
+            h[i] = -f[i];
+    }
+
+    /** Replace f with g if b is 1, or leave f unchanged if b is 0, in constant time.
+     */
+    private static void cmov(int[] f, int[] g, int b) {
+        int mask = -b;
+        for (int i = 0; i < 10; i++)
+            f[i] ^= mask & (f[i] ^ g[i]);
+    }
+
+    private static int[] fromBytes(byte[] s, int off) {
+        int[] h = new int[10];
+        for (int i = 0; i < 10; i++) {
+            int start = LIMB_OFFSETS[i], width = LIMB_OFFSETS[i + 1] - start;
+            long v = 0;
+            for (int j = 0; j < 5 && (start >> 3) + j < 32; j++)
+                v |= (long) (s[off + (start >> 3) + j] & 0xff) << (8 * j);
+            h[i] = (int) ((v >>> (start & 7)) & ((1L << width) - 1));
+        }
+        return h;
+    }
+
+    /** Write the unique representative of h in [0, p) to s.
+     */
+    private static void toBytes(byte[] s, int off, int[] f) {
+        int[] h = new int[10];
+        mul(h, f, ONE);
+        // q is floor(h / p), given that h is close to reduced
+        int q = (19 * h[9] + (1 << 24)) >> 25;
+        for (int i = 0; i < 10; i++)
+            q = (h[i] + q) >> ((i & 1) == 0 ? 26 : 25);
+        h[0] += 19 * q;
+        for (int i = 0; i < 9; i++) {
+            int bits = (i & 1) == 0 ? 26 : 25;
+            int carry = h[i] >> bits;
+            h[i + 1] += carry;
+            h[i] -= carry << bits;
+        }
+        h[9] &= (1 << 25) - 1;
+
+        long acc = 0;
+        int accBits = 0, index = off;
+        for (int i = 0; i < 10; i++) {
+            acc |= (long) h[i] << accBits;
+            accBits += (i & 1) == 0 ? 26 : 25;
+            while (accBits >= 8) {
+                s[index++] = (byte) acc;
+                acc >>>= 8;
+                accBits -= 8;
+            }
+        }
+        s[index] = (byte) acc;
+    }
+
+    private static int isNegative(int[] f) {
+        byte[] s = new byte[32];
+        toBytes(s, 0, f);
+        return s[0] & 1;
+    }
+
+    private static boolean isNonZero(int[] f) {
+        byte[] s = new byte[32];
+        toBytes(s, 0, f);
+        int res = 0;
+        for (int i = 0; i < 32; i++)
+            res |= s[i];
+        return res != 0;
+    }
+
+    private static void mul(int[] h, int[] f, int[] g) {
+        int f0 = f[0]; int f1 = f[1]; int f2 = f[2]; int f3 = f[3]; int f4 = f[4]; int f5 = f[5]; int f6 = f[6];
+        int f7 = f[7]; int f8 = f[8]; int f9 = f[9];
+        int g0 = g[0]; int g1 = g[1]; int g2 = g[2]; int g3 = g[3]; int g4 = g[4]; int g5 = g[5]; int g6 = g[6];
+        int g7 = g[7]; int g8 = g[8]; int g9 = g[9];
+        int g1_19 = 19 * g1; int g2_19 = 19 * g2; int g3_19 = 19 * g3; int g4_19 = 19 * g4; int g5_19 = 19 * g5;
+        int g6_19 = 19 * g6; int g7_19 = 19 * g7; int g8_19 = 19 * g8; int g9_19 = 19 * g9;
+        int f1_2 = 2 * f1; int f3_2 = 2 * f3; int f5_2 = 2 * f5; int f7_2 = 2 * f7; int f9_2 = 2 * f9;
+        long h0 = f0 * (long) g0 + f1_2 * (long) g9_19 + f2 * (long) g8_19 + f3_2 * (long) g7_19 + f4 * (long) g6_19
+                + f5_2 * (long) g5_19 + f6 * (long) g4_19 + f7_2 * (long) g3_19 + f8 * (long) g2_19
+                + f9_2 * (long) g1_19;
+        long h1 = f0 * (long) g1 + f1 * (long) g0 + f2 * (long) g9_19 + f3 * (long) g8_19 + f4 * (long) g7_19
+                + f5 * (long) g6_19 + f6 * (long) g5_19 + f7 * (long) g4_19 + f8 * (long) g3_19 + f9 * (long) g2_19;
+        long h2 = f0 * (long) g2 + f1_2 * (long) g1 + f2 * (long) g0 + f3_2 * (long) g9_19 + f4 * (long) g8_19
+                + f5_2 * (long) g7_19 + f6 * (long) g6_19 + f7_2 * (long) g5_19 + f8 * (long) g4_19
+                + f9_2 * (long) g3_19;
+        long h3 = f0 * (long) g3 + f1 * (long) g2 + f2 * (long) g1 + f3 * (long) g0 + f4 * (long) g9_19
+                + f5 * (long) g8_19 + f6 * (long) g7_19 + f7 * (long) g6_19 + f8 * (long) g5_19 + f9 * (long) g4_19;
+        long h4 = f0 * (long) g4 + f1_2 * (long) g3 + f2 * (long) g2 + f3_2 * (long) g1 + f4 * (long) g0
+                + f5_2 * (long) g9_19 + f6 * (long) g8_19 + f7_2 * (long) g7_19 + f8 * (long) g6_19
+                + f9_2 * (long) g5_19;
+        long h5 = f0 * (long) g5 + f1 * (long) g4 + f2 * (long) g3 + f3 * (long) g2 + f4 * (long) g1 + f5 * (long) g0
+                + f6 * (long) g9_19 + f7 * (long) g8_19 + f8 * (long) g7_19 + f9 * (long) g6_19;
+        long h6 = f0 * (long) g6 + f1_2 * (long) g5 + f2 * (long) g4 + f3_2 * (long) g3 + f4 * (long) g2
+                + f5_2 * (long) g1 + f6 * (long) g0 + f7_2 * (long) g9_19 + f8 * (long) g8_19 + f9_2 * (long) g7_19;
+        long h7 = f0 * (long) g7 + f1 * (long) g6 + f2 * (long) g5 + f3 * (long) g4 + f4 * (long) g3 + f5 * (long) g2
+                + f6 * (long) g1 + f7 * (long) g0 + f8 * (long) g9_19 + f9 * (long) g8_19;
+        long h8 = f0 * (long) g8 + f1_2 * (long) g7 + f2 * (long) g6 + f3_2 * (long) g5 + f4 * (long) g4
+                + f5_2 * (long) g3 + f6 * (long) g2 + f7_2 * (long) g1 + f8 * (long) g0 + f9_2 * (long) g9_19;
+        long h9 = f0 * (long) g9 + f1 * (long) g8 + f2 * (long) g7 + f3 * (long) g6 + f4 * (long) g5 + f5 * (long) g4
+                + f6 * (long) g3 + f7 * (long) g2 + f8 * (long) g1 + f9 * (long) g0;
+        long carry0 = (h0 + (1L << 25)) >> 26; h1 += carry0; h0 -= carry0 << 26;
+        long carry4 = (h4 + (1L << 25)) >> 26; h5 += carry4; h4 -= carry4 << 26;
+        long carry1 = (h1 + (1L << 24)) >> 25; h2 += carry1; h1 -= carry1 << 25;
+        long carry5 = (h5 + (1L << 24)) >> 25; h6 += carry5; h5 -= carry5 << 25;
+        long carry2 = (h2 + (1L << 25)) >> 26; h3 += carry2; h2 -= carry2 << 26;
+        long carry6 = (h6 + (1L << 25)) >> 26; h7 += carry6; h6 -= carry6 << 26;
+        long carry3 = (h3 + (1L << 24)) >> 25; h4 += carry3; h3 -= carry3 << 25;
+        long carry7 = (h7 + (1L << 24)) >> 25; h8 += carry7; h7 -= carry7 << 25;
+        carry4 = (h4 + (1L << 25)) >> 26; h5 += carry4; h4 -= carry4 << 26;
+        long carry8 = (h8 + (1L << 25)) >> 26; h9 += carry8; h8 -= carry8 << 26;
+        long carry9 = (h9 + (1L << 24)) >> 25; h0 += carry9 * 19; h9 -= carry9 << 25;
+        carry0 = (h0 + (1L << 25)) >> 26; h1 += carry0; h0 -= carry0 << 26;
+        h[0] = (int) h0; h[1] = (int) h1; h[2] = (int) h2; h[3] = (int) h3; h[4] = (int) h4; h[5] = (int) h5;
+        h[6] = (int) h6; h[7] = (int) h7; h[8] = (int) h8; h[9] = (int) h9;
+    }
+
+    private static void sq(int[] h, int[] f) {
+        int f0 = f[0]; int f1 = f[1]; int f2 = f[2]; int f3 = f[3]; int f4 = f[4]; int f5 = f[5]; int f6 = f[6];
+        int f7 = f[7]; int f8 = f[8]; int f9 = f[9];
+        int f0_2 = 2 * f0; int f1_2 = 2 * f1; int f2_2 = 2 * f2; int f3_2 = 2 * f3; int f4_2 = 2 * f4; int f5_2 = 2 * f5;
+        int f6_2 = 2 * f6; int f7_2 = 2 * f7; int f8_2 = 2 * f8; int f9_2 = 2 * f9;
+        int f1_19 = 19 * f1; int f2_19 = 19 * f2; int f3_19 = 19 * f3; int f4_19 = 19 * f4; int f5_19 = 19 * f5;
+        int f6_19 = 19 * f6; int f7_19 = 19 * f7; int f8_19 = 19 * f8; int f9_19 = 19 * f9;
+        int f1_38 = 38 * f1; int f3_38 = 38 * f3; int f5_38 = 38 * f5; int f7_38 = 38 * f7; int f9_38 = 38 * f9;
+        long h0 = f0 * (long) f0 + f1_2 * (long) f9_38 + f2_2 * (long) f8_19 + f3_2 * (long) f7_38 + f4_2 * (long) f6_19
+                + f5 * (long) f5_38;
+        long h1 = f0_2 * (long) f1 + f2_2 * (long) f9_19 + f3_2 * (long) f8_19 + f4_2 * (long) f7_19
+                + f5_2 * (long) f6_19;
+        long h2 = f0_2 * (long) f2 + f1 * (long) f1_2 + f3_2 * (long) f9_38 + f4_2 * (long) f8_19 + f5_2 * (long) f7_38
+                + f6 * (long) f6_19;
+        long h3 = f0_2 * (long) f3 + f1_2 * (long) f2 + f4_2 * (long) f9_19 + f5_2 * (long) f8_19 + f6_2 * (long) f7_19;
+        long h4 = f0_2 * (long) f4 + f1_2 * (long) f3_2 + f2 * (long) f2 + f5_2 * (long) f9_38 + f6_2 * (long) f8_19
+                + f7 * (long) f7_38;
+        long h5 = f0_2 * (long) f5 + f1_2 * (long) f4 + f2_2 * (long) f3 + f6_2 * (long) f9_19 + f7_2 * (long) f8_19;
+        long h6 = f0_2 * (long) f6 + f1_2 * (long) f5_2 + f2_2 * (long) f4 + f3 * (long) f3_2 + f7_2 * (long) f9_38
+                + f8 * (long) f8_19;
+        long h7 = f0_2 * (long) f7 + f1_2 * (long) f6 + f2_2 * (long) f5 + f3_2 * (long) f4 + f8_2 * (long) f9_19;
+        long h8 = f0_2 * (long) f8 + f1_2 * (long) f7_2 + f2_2 * (long) f6 + f3_2 * (long) f5_2 + f4 * (long) f4
+                + f9 * (long) f9_38;
+        long h9 = f0_2 * (long) f9 + f1_2 * (long) f8 + f2_2 * (long) f7 + f3_2 * (long) f6 + f4_2 * (long) f5;
+        long carry0 = (h0 + (1L << 25)) >> 26; h1 += carry0; h0 -= carry0 << 26;
+        long carry4 = (h4 + (1L << 25)) >> 26; h5 += carry4; h4 -= carry4 << 26;
+        long carry1 = (h1 + (1L << 24)) >> 25; h2 += carry1; h1 -= carry1 << 25;
+        long carry5 = (h5 + (1L << 24)) >> 25; h6 += carry5; h5 -= carry5 << 25;
+        long carry2 = (h2 + (1L << 25)) >> 26; h3 += carry2; h2 -= carry2 << 26;
+        long carry6 = (h6 + (1L << 25)) >> 26; h7 += carry6; h6 -= carry6 << 26;
+        long carry3 = (h3 + (1L << 24)) >> 25; h4 += carry3; h3 -= carry3 << 25;
+        long carry7 = (h7 + (1L << 24)) >> 25; h8 += carry7; h7 -= carry7 << 25;
+        carry4 = (h4 + (1L << 25)) >> 26; h5 += carry4; h4 -= carry4 << 26;
+        long carry8 = (h8 + (1L << 25)) >> 26; h9 += carry8; h8 -= carry8 << 26;
+        long carry9 = (h9 + (1L << 24)) >> 25; h0 += carry9 * 19; h9 -= carry9 << 25;
+        carry0 = (h0 + (1L << 25)) >> 26; h1 += carry0; h0 -= carry0 << 26;
+        h[0] = (int) h0; h[1] = (int) h1; h[2] = (int) h2; h[3] = (int) h3; h[4] = (int) h4; h[5] = (int) h5;
+        h[6] = (int) h6; h[7] = (int) h7; h[8] = (int) h8; h[9] = (int) h9;
+    }
+
+    private static void sq2(int[] h, int[] f) {
+        int f0 = f[0]; int f1 = f[1]; int f2 = f[2]; int f3 = f[3]; int f4 = f[4]; int f5 = f[5]; int f6 = f[6];
+        int f7 = f[7]; int f8 = f[8]; int f9 = f[9];
+        int f0_2 = 2 * f0; int f1_2 = 2 * f1; int f2_2 = 2 * f2; int f3_2 = 2 * f3; int f4_2 = 2 * f4; int f5_2 = 2 * f5;
+        int f6_2 = 2 * f6; int f7_2 = 2 * f7; int f8_2 = 2 * f8; int f9_2 = 2 * f9;
+        int f1_19 = 19 * f1; int f2_19 = 19 * f2; int f3_19 = 19 * f3; int f4_19 = 19 * f4; int f5_19 = 19 * f5;
+        int f6_19 = 19 * f6; int f7_19 = 19 * f7; int f8_19 = 19 * f8; int f9_19 = 19 * f9;
+        int f1_38 = 38 * f1; int f3_38 = 38 * f3; int f5_38 = 38 * f5; int f7_38 = 38 * f7; int f9_38 = 38 * f9;
+        long h0 = f0 * (long) f0 + f1_2 * (long) f9_38 + f2_2 * (long) f8_19 + f3_2 * (long) f7_38 + f4_2 * (long) f6_19
+                + f5 * (long) f5_38;
+        long h1 = f0_2 * (long) f1 + f2_2 * (long) f9_19 + f3_2 * (long) f8_19 + f4_2 * (long) f7_19
+                + f5_2 * (long) f6_19;
+        long h2 = f0_2 * (long) f2 + f1 * (long) f1_2 + f3_2 * (long) f9_38 + f4_2 * (long) f8_19 + f5_2 * (long) f7_38
+                + f6 * (long) f6_19;
+        long h3 = f0_2 * (long) f3 + f1_2 * (long) f2 + f4_2 * (long) f9_19 + f5_2 * (long) f8_19 + f6_2 * (long) f7_19;
+        long h4 = f0_2 * (long) f4 + f1_2 * (long) f3_2 + f2 * (long) f2 + f5_2 * (long) f9_38 + f6_2 * (long) f8_19
+                + f7 * (long) f7_38;
+        long h5 = f0_2 * (long) f5 + f1_2 * (long) f4 + f2_2 * (long) f3 + f6_2 * (long) f9_19 + f7_2 * (long) f8_19;
+        long h6 = f0_2 * (long) f6 + f1_2 * (long) f5_2 + f2_2 * (long) f4 + f3 * (long) f3_2 + f7_2 * (long) f9_38
+                + f8 * (long) f8_19;
+        long h7 = f0_2 * (long) f7 + f1_2 * (long) f6 + f2_2 * (long) f5 + f3_2 * (long) f4 + f8_2 * (long) f9_19;
+        long h8 = f0_2 * (long) f8 + f1_2 * (long) f7_2 + f2_2 * (long) f6 + f3_2 * (long) f5_2 + f4 * (long) f4
+                + f9 * (long) f9_38;
+        long h9 = f0_2 * (long) f9 + f1_2 * (long) f8 + f2_2 * (long) f7 + f3_2 * (long) f6 + f4_2 * (long) f5;
+        h0 += h0; h1 += h1; h2 += h2; h3 += h3; h4 += h4; h5 += h5; h6 += h6; h7 += h7; h8 += h8; h9 += h9;
+        long carry0 = (h0 + (1L << 25)) >> 26; h1 += carry0; h0 -= carry0 << 26;
+        long carry4 = (h4 + (1L << 25)) >> 26; h5 += carry4; h4 -= carry4 << 26;
+        long carry1 = (h1 + (1L << 24)) >> 25; h2 += carry1; h1 -= carry1 << 25;
+        long carry5 = (h5 + (1L << 24)) >> 25; h6 += carry5; h5 -= carry5 << 25;
+        long carry2 = (h2 + (1L << 25)) >> 26; h3 += carry2; h2 -= carry2 << 26;
+        long carry6 = (h6 + (1L << 25)) >> 26; h7 += carry6; h6 -= carry6 << 26;
+        long carry3 = (h3 + (1L << 24)) >> 25; h4 += carry3; h3 -= carry3 << 25;
+        long carry7 = (h7 + (1L << 24)) >> 25; h8 += carry7; h7 -= carry7 << 25;
+        carry4 = (h4 + (1L << 25)) >> 26; h5 += carry4; h4 -= carry4 << 26;
+        long carry8 = (h8 + (1L << 25)) >> 26; h9 += carry8; h8 -= carry8 << 26;
+        long carry9 = (h9 + (1L << 24)) >> 25; h0 += carry9 * 19; h9 -= carry9 << 25;
+        carry0 = (h0 + (1L << 25)) >> 26; h1 += carry0; h0 -= carry0 << 26;
+        h[0] = (int) h0; h[1] = (int) h1; h[2] = (int) h2; h[3] = (int) h3; h[4] = (int) h4; h[5] = (int) h5;
+        h[6] = (int) h6; h[7] = (int) h7; h[8] = (int) h8; h[9] = (int) h9;
+    }
+
+    private static void sqTimes(int[] h, int[] f, int times) {
+        sq(h, f);
+        for (int i = 1; i < times; i++)
+            sq(h, h);
+    }
+
+    /**
+     *
+     * @param out
+     * @param z
+     * Set out to z^(p - 2), the inverse of z
+     */
+    private static void invert(int[] out, int[] z) {
+        int[] t0 = new int[10], t1 = new int[10], t2 = new int[10], t3 = new int[10];
+        sq(t0, z);
+        sqTimes(t1, t0, 2);
+        mul(t1, z, t1);
+        mul(t0, t0, t1);
+        sq(t2, t0);
+        mul(t1, t1, t2);
+        sqTimes(t2, t1, 5);
+        mul(t1, t2, t1);
+        sqTimes(t2, t1, 10);
+        mul(t2, t2, t1);
+        sqTimes(t3, t2, 20);
+        mul(t2, t3, t2);
+        sqTimes(t2, t2, 10);
+        mul(t1, t2, t1);
+        sqTimes(t2, t1, 50);
+        mul(t2, t2, t1);
+        sqTimes(t3, t2, 100);
+        mul(t2, t3, t2);
+        sqTimes(t2, t2, 50);
+        mul(t1, t2, t1);
+        sqTimes(t1, t1, 5);
+        mul(out, t1, t0);
+    }
+
+    /**
+     *
+     * @param out
+     * @param z
+     * Set out to z^((p - 5) / 8)
+     */
+    private static void pow22523(int[] out, int[] z) {
+        int[] t0 = new int[10], t1 = new int[10], t2 = new int[10];
+        sq(t0, z);
+        sqTimes(t1, t0, 2);
+        mul(t1, z, t1);
+        mul(t0, t0, t1);
+        sq(t0, t0);
+        mul(t0, t1, t0);
+        sqTimes(t1, t0, 5);
+        mul(t0, t1, t0);
+        sqTimes(t1, t0, 10);
+        mul(t1, t1, t0);
+        sqTimes(t2, t1, 20);
+        mul(t1, t2, t1);
+        sqTimes(t1, t1, 10);
+        mul(t0, t1, t0);
+        sqTimes(t1, t0, 50);
+        mul(t1, t1, t0);
+        sqTimes(t2, t1, 100);
+        mul(t1, t2, t1);
+        sqTimes(t1, t1, 50);
+        mul(t0, t1, t0);
+        sqTimes(t0, t0, 2);
+        mul(out, t0, z);
+    }
+
+    private static int[] fromTweetNaCl(long[] gf) {
+        byte[] s = new byte[32];
+        for (int i = 0; i < 16; i++) {
+            s[2 * i] = (byte) gf[i];
+            s[2 * i + 1] = (byte) (gf[i] >> 8);
+        }
+        return fromBytes(s, 0);
+    }
+
+    private static final int[] D = fromTweetNaCl(TweetNaCl.D);
+    private static final int[] D2 = fromTweetNaCl(TweetNaCl.D2);
+    private static final int[] SQRT_M1 = fromTweetNaCl(TweetNaCl.I);
+
+    /* Points on the curve -x^2 + y^2 = 1 + d x^2 y^2 in the representations of "Twisted Edwards Curves Revisited".
+     */
+
+    /** Projective coordinates (X:Y:Z) with x = X/Z and y = Y/Z
+     */
+    private static final class P2 {
+        final int[] X, Y, Z;
+
+        P2(int[] X, int[] Y, int[] Z) {
+            this.X = X;
+            this.Y = Y;
+            this.Z = Z;
+        }
+
+        static P2 identity() {
+            return new P2(zero(), one(), one());
+        }
+
+        void toBytes(byte[] s, int off) {
+            int[] recip = new int[10], x = new int[10], y = new int[10];
+            invert(recip, Z);
+            mul(x, X, recip);
+            mul(y, Y, recip);
+            FastEd25519.toBytes(s, off, y);
+            s[off + 31] ^= isNegative(x) << 7;
+        }
+
+        P1P1 dbl() {
+            P1P1 r = new P1P1();
+            int[] t0 = new int[10];
+            sq(r.X, X);
+            sq(r.Z, Y);
+            sq2(r.T, Z);
+            add(r.Y, X, Y);
+            sq(t0, r.Y);
+            add(r.Y, r.Z, r.X);
+            sub(r.Z, r.Z, r.X);
+            sub(r.X, t0, r.Y);
+            sub(r.T, r.T, r.Z);
+            return r;
+        }
+    }
+
+    /** Extended coordinates (X:Y:Z:T) with x = X/Z, y = Y/Z and xy = T/Z
+     */
+    private static final class P3 {
+        final int[] X, Y, Z, T;
+
+        P3(int[] X, int[] Y, int[] Z, int[] T) {
+            this.X = X;
+            this.Y = Y;
+            this.Z = Z;
+            this.T = T;
+        }
+
+        static P3 identity() {
+            return new P3(zero(), one(), one(), zero());
+        }
+
+        /**
+         *
+         * @param s
+         * @return The negation of the point encoded in s, or null if s is not the encoding of a point
+         */
+        static P3 fromBytesNegate(byte[] s) {
+            int[] Y = fromBytes(s, 0), Z = one();
+            int[] u = new int[10], v = new int[10], v3 = new int[10], vxx = new int[10], check = new int[10];
+            int[] X = new int[10], T = new int[10];
+            sq(u, Y);
+            mul(v, u, D);
+            sub(u, u, Z);      // u = y^2 - 1
+            add(v, v, Z);      // v = d y^2 + 1
+
+            sq(v3, v);
+            mul(v3, v3, v);    // v3 = v^3
+            sq(X, v3);
+            mul(X, X, v);
+            mul(X, X, u);      // x = u v^7
+            pow22523(X, X);    // x = (u v^7)^((q - 5) / 8)
+            mul(X, X, v3);
+            mul(X, X, u);      // x = u v^3 (u v^7)^((q - 5) / 8)
+
+            sq(vxx, X);
+            mul(vxx, vxx, v);
+            sub(check, vxx, u);
+            if (isNonZero(check)) {
+                add(check, vxx, u);
+                if (isNonZero(check))
+                    return null;
+                mul(X, X, SQRT_M1);
+            }
+            if (isNegative(X) == ((s[31] & 0xff) >> 7))
+                neg(X, X);
+            mul(T, X, Y);
+            return new P3(X, Y, Z, T);
+        }
+
+        P2 toP2() {
+            return new P2(X, Y, Z);
+        }
+
+        Cached toCached() {
+            Cached r = new Cached();
+            add(r.YplusX, Y, X);
+            sub(r.YminusX, Y, X);
+            System.arraycopy(Z, 0, r.Z, 0, 10);
+            mul(r.T2d, T, D2);
+            return r;
+        }
+
+        /**
+         *
+         * @return The affine form of this point, used in the tables of multiples of the base point
+         */
+        Precomp toPrecomp() {
+            int[] recip = new int[10], x = new int[10], y = new int[10];
+            invert(recip, Z);
+            mul(x, X, recip);
+            mul(y, Y, recip);
+            Precomp r = new Precomp();
+            add(r.yplusx, y, x);
+            sub(r.yminusx, y, x);
+            mul(r.xy2d, x, y);
+            mul(r.xy2d, r.xy2d, D2);
+            return r;
+        }
+
+        P1P1 dbl() {
+            return toP2().dbl();
+        }
+
+        P1P1 plus(Cached q) {
+            P1P1 r = new P1P1();
+            int[] t0 = new int[10];
+            add(r.X, Y, X);
+            sub(r.Y, Y, X);
+            mul(r.Z, r.X, q.YplusX);
+            mul(r.Y, r.Y, q.YminusX);
+            mul(r.T, q.T2d, T);
+            mul(r.X, Z, q.Z);
+            add(t0, r.X, r.X);
+            sub(r.X, r.Z, r.Y);
+            add(r.Y, r.Z, r.Y);
+            add(r.Z, t0, r.T);
+            sub(r.T, t0, r.T);
+            return r;
+        }
+
+        P1P1 minus(Cached q) {
+            P1P1 r = new P1P1();
+            int[] t0 = new int[10];
+            add(r.X, Y, X);
+            sub(r.Y, Y, X);
+            mul(r.Z, r.X, q.YminusX);
+            mul(r.Y, r.Y, q.YplusX);
+            mul(r.T, q.T2d, T);
+            mul(r.X, Z, q.Z);
+            add(t0, r.X, r.X);
+            sub(r.X, r.Z, r.Y);
+            add(r.Y, r.Z, r.Y);
+            sub(r.Z, t0, r.T);
+            add(r.T, t0, r.T);
+            return r;
+        }
+
+        P1P1 madd(Precomp q) {
+            P1P1 r = new P1P1();
+            int[] t0 = new int[10];
+            add(r.X, Y, X);
+            sub(r.Y, Y, X);
+            mul(r.Z, r.X, q.yplusx);
+            mul(r.Y, r.Y, q.yminusx);
+            mul(r.T, q.xy2d, T);
+            add(t0, Z, Z);
+            sub(r.X, r.Z, r.Y);
+            add(r.Y, r.Z, r.Y);
+            add(r.Z, t0, r.T);
+            sub(r.T, t0, r.T);
+            return r;
+        }
+
+        P1P1 msub(Precomp q) {
+            P1P1 r = new P1P1();
+            int[] t0 = new int[10];
+            add(r.X, Y, X);
+            sub(r.Y, Y, X);
+            mul(r.Z, r.X, q.yminusx);
+            mul(r.Y, r.Y, q.yplusx);
+            mul(r.T, q.xy2d, T);
+            add(t0, Z, Z);
+            sub(r.X, r.Z, r.Y);
+            add(r.Y, r.Z, r.Y);
+            sub(r.Z, t0, r.T);
+            add(r.T, t0, r.T);
+            return r;
+        }
+    }
+
+    /** Completed coordinates ((X:Z),(Y:T)) with x = X/Z and y = Y/T, the result of additions and doublings
+     */
+    private static final class P1P1 {
+        final int[] X = new int[10], Y = new int[10], Z = new int[10], T = new int[10];
+
+        P2 toP2() {
+            P2 r = new P2(new int[10], new int[10], new int[10]);
+            mul(r.X, X, T);
+            mul(r.Y, Y, Z);
+            mul(r.Z, Z, T);
+            return r;
+        }
+
+        P3 toP3() {
+            P3 r = new P3(new int[10], new int[10], new int[10], new int[10]);
+            mul(r.X, X, T);
+            mul(r.Y, Y, Z);
+            mul(r.Z, Z, T);
+            mul(r.T, X, Y);
+            return r;
+        }
+    }
+
+    /** Affine (y + x, y - x, 2dxy), for adding a known point with fewer multiplications
+     */
+    private static final class Precomp {
+        final int[] yplusx = new int[10], yminusx = new int[10], xy2d = new int[10];
+
+        static Precomp identity() {
+            Precomp r = new Precomp();
+            r.yplusx[0] = 1;
+            r.yminusx[0] = 1;
+            return r;
+        }
+
+        void cmov(Precomp u, int b) {
+            FastEd25519.cmov(yplusx, u.yplusx, b);
+            FastEd25519.cmov(yminusx, u.yminusx, b);
+            FastEd25519.cmov(xy2d, u.xy2d, b);
+        }
+    }
+
+    /** (Y + X, Y - X, Z, 2dT), for adding an arbitrary point with fewer multiplications
+     */
+    private static final class Cached {
+        final int[] YplusX = new int[10], YminusX = new int[10], Z = new int[10], T2d = new int[10];
+    }
+
+    private static final P3 BASE = new P3(fromTweetNaCl(TweetNaCl.X), fromTweetNaCl(TweetNaCl.Y), one(), mulOf(
+            fromTweetNaCl(TweetNaCl.X), fromTweetNaCl(TweetNaCl.Y)));
+
+    private static int[] mulOf(int[] f, int[] g) {
+        int[] h = new int[10];
+        mul(h, f, g);
+        return h;
+    }
+
+    /** BASE_TABLE[i][j] = (j + 1) * 256^i * B
+     */
+    private static final Precomp[][] BASE_TABLE = new Precomp[32][8];
+    /** ODD_MULTIPLES[i] = (2i + 1) * B
+     */
+    private static final Precomp[] ODD_MULTIPLES = new Precomp[8];
+    static {
+        P3 p = BASE;
+        for (int i = 0; i < 32; i++) {
+            Cached step = p.toCached();
+            P3 multiple = p;
+            for (int j = 0; j < 8; j++) {
+                BASE_TABLE[i][j] = multiple.toPrecomp();
+                multiple = multiple.plus(step).toP3();
+            }
+            for (int k = 0; k < 8; k++)
+                p = p.dbl().toP3();
+        }
+
+        Cached twice = BASE.dbl().toP3().toCached();
+        P3 multiple = BASE;
+        for (int i = 0; i < 8; i++) {
+            ODD_MULTIPLES[i] = multiple.toPrecomp();
+            multiple = multiple.plus(twice).toP3();
+        }
+    }
+
+    private static int equal(int b, int c) {
+        return ((b ^ c) - 1) >>> 31;
+    }
+
+    /**
+     *
+     * @param pos
+     * @param b in [-8, 8]
+     * @return b * 256^pos * B, selected from the table in constant time
+     */
+    private static Precomp select(int pos, int b) {
+        int negative = b >>> 31;
+        int babs = b - (((-negative) & b) << 1);
+        Precomp t = Precomp.identity();
+        for (int j = 0; j < 8; j++)
+            t.cmov(BASE_TABLE[pos][j], equal(babs, j + 1));
+        Precomp minust = new Precomp();
+        System.arraycopy(t.yminusx, 0, minust.yplusx, 0, 10);
+        System.arraycopy(t.yplusx, 0, minust.yminusx, 0, 10);
+        neg(minust.xy2d, t.xy2d);
+        t.cmov(minust, negative);
+        return t;
+    }
+
+    /**
+     *
+     * @param a a little endian scalar with a[31] <= 127
+     * @return a * B, computed in constant time
+     */
+    private static P2 scalarMultBase(byte[] a) {
+        // write a in radix 16 with signed digits in [-8, 8)
+        int[] e = new int[64];
+        for (int i = 0; i < 32; i++) {
+            e[2 * i] = a[i] & 15;
+            e[2 * i + 1] = (a[i] >> 4) & 15;
+        }
+        int carry = 0;
+        for (int i = 0; i < 63; i++) {
+            e[i] += carry;
+            carry = (e[i] + 8) >> 4;
+            e[i] -= carry << 4;
+        }
+        e[63] += carry;
+
+        P3 h = P3.identity();
+        for (int i = 1; i < 64; i += 2)
+            h = h.madd(select(i / 2, e[i])).toP3();
+        P2 s = h.dbl().toP2();
+        s = s.dbl().toP2();
+        s = s.dbl().toP2();
+        h = s.dbl().toP3();
+        for (int i = 0; i < 64; i += 2)
+            h = h.madd(select(i / 2, e[i])).toP3();
+        return h.toP2();
+    }
+
+    /**
+     *
+     * @param a a little endian scalar less than 2^253
+     * @return a in non adjacent form with odd digits in [-15, 15]
+     */
+    private static byte[] slide(byte[] a) {
+        byte[] r = new byte[256];
+        for (int i = 0; i < 256; i++)
+            r[i] = (byte) (1 & (a[i >> 3] >> (i & 7)));
+        for (int i = 0; i < 256; i++) {
+            if (r[i] == 0)
+                continue;
+            for (int b = 1; b <= 6 && i + b < 256; b++) {
+                if (r[i + b] == 0)
+                    continue;
+                if (r[i] + (r[i + b] << b) <= 15) {
+                    r[i] += r[i + b] << b;
+                    r[i + b] = 0;
+                } else if (r[i] - (r[i + b] << b) >= -15) {
+                    r[i] -= r[i + b] << b;
+                    for (int k = i + b; k < 256; k++) {
+                        if (r[k] == 0) {
+                            r[k] = 1;
+                            break;
+                        }
+                        r[k] = 0;
+                    }
+                } else
+                    break;
+            }
+        }
+        return r;
+    }
+
+    /**
+     *
+     * @param a
+     * @param A
+     * @param b
+     * @return a * A + b * B, in variable time
+     */
+    private static P2 doubleScalarMultVartime(byte[] a, P3 A, byte[] b) {
+        byte[] aslide = slide(a);
+        byte[] bslide = slide(b);
+
+        Cached[] Ai = new Cached[8];
+        Ai[0] = A.toCached();
+        P3 A2 = A.dbl().toP3();
+        for (int i = 1; i < 8; i++)
+            Ai[i] = A2.plus(Ai[i - 1]).toP3().toCached();
+
+        P2 r = P2.identity();
+        int i = 255;
+        while (i >= 0 && aslide[i] == 0 && bslide[i] == 0)
+            i--;
+        for (; i >= 0; i--) {
+            P1P1 t = r.dbl();
+            if (aslide[i] > 0)
+                t = t.toP3().plus(Ai[aslide[i] / 2]);
+            else if (aslide[i] < 0)
+                t = t.toP3().minus(Ai[-aslide[i] / 2]);
+            if (bslide[i] > 0)
+                t = t.toP3().madd(ODD_MULTIPLES[bslide[i] / 2]);
+            else if (bslide[i] < 0)
+                t = t.toP3().msub(ODD_MULTIPLES[-bslide[i] / 2]);
+            r = t.toP2();
+        }
+        return r;
+    }
+}
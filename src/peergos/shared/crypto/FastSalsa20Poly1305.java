@@ -0,0 +1,243 @@
+package peergos.shared.crypto;
+
+import peergos.shared.util.*;
+
+import java.util.*;
+
+/** A word oriented implementation of the same XSalsa20-Poly1305 secretbox as TweetNaCl, which produces identical output.
+ *
+ *  Salsa20 runs on 32 bit words and produces a whole 64 byte block of key stream per invocation, and Poly1305 uses 5
+ *  limbs of 26 bits, so that a 16 byte block costs 25 multiplications rather than 289.
+ */
+public class FastSalsa20Poly1305 {
+
+    private static final int SIGMA0 = 0x61707865, SIGMA1 = 0x3320646e, SIGMA2 = 0x79622d32, SIGMA3 = 0x6b206574;
+
+    public static byte[] secretbox(byte[] message, byte[] nonce, byte[] key) {
+        int[] state = initialState(nonce, key);
+        byte[] firstBlock = new byte[64];
+        salsa20Block(state, firstBlock);
+        state[8] = 1;
+
+        byte[] res = new byte[TweetNaCl.SECRETBOX_OVERHEAD_BYTES + message.length];
+        int head = Math.min(32, message.length);
+        for (int i = 0; i < head; i++)
+            res[16 + i] = (byte) (message[i] ^ firstBlock[32 + i]);
+        xorStream(state, message, head, res, 16 + head, message.length - head);
+
+        poly1305(res, 0, res, 16, message.length, firstBlock);
+        return res;
+    }
+
+    public static byte[] secretbox_open(byte[] cipher, byte[] nonce, byte[] key) {
+        if (cipher.length < TweetNaCl.SECRETBOX_OVERHEAD_BYTES)
+            throw invalid(cipher);
+        int[] state = initialState(nonce, key);
+        byte[] firstBlock = new byte[64];
+        salsa20Block(state, firstBlock);
+        state[8] = 1;
+
+        int length = cipher.length - 16;
+        byte[] tag = new byte[16];
+        poly1305(tag, 0, cipher, 16, length, firstBlock);
+        int diff = 0;
+        for (int i = 0; i < 16; i++)
+            diff |= tag[i] ^ cipher[i];
+        if (diff != 0)
+            throw invalid(cipher);
+
+        byte[] res = new byte[length];
+        int head = Math.min(32, length);
+        for (int i = 0; i < head; i++)
+            res[i] = (byte) (cipher[16 + i] ^ firstBlock[32 + i]);
+        xorStream(state, cipher, 16 + head, res, head, length - head);
+        return res;
+    }
+
+    private static TweetNaCl.InvalidCipherTextException invalid(byte[] cipher) {
+        return new TweetNaCl.InvalidCipherTextException("Invalid encryption! ["+ cipher.length + "] = " +
+                ArrayOps.bytesToHex(Arrays.copyOfRange(cipher, 0, Math.min(cipher.length, 64))) + " ... " +
+                ArrayOps.bytesToHex(Arrays.copyOfRange(cipher, Math.max(0, cipher.length - 64), cipher.length)));
+    }
+
+    private static int rotl(int x, int c) {
+        return (x << c) | (x >>> (32 - c));
+    }
+
+    private static int load32(byte[] x, int off) {
+        return (x[off] & 0xff) | (x[off + 1] & 0xff) << 8 | (x[off + 2] & 0xff) << 16 | (x[off + 3] & 0xff) << 24;
+    }
+
+    private static void store32(byte[] x, int off, int u) {
+        x[off] = (byte) u;
+        x[off + 1] = (byte) (u >>> 8);
+        x[off + 2] = (byte) (u >>> 16);
+        x[off + 3] = (byte) (u >>> 24);
+    }
+
+    /**
+     *
+     * @param nonce
+     * @param key
+     * @return The Salsa20 input block for block 0 of the XSalsa20 stream, using a subkey derived with HSalsa20
+     */
+    private static int[] initialState(byte[] nonce, byte[] key) {
+        int[] state = new int[16];
+        state[0] = SIGMA0;
+        state[5] = SIGMA1;
+        state[10] = SIGMA2;
+        state[15] = SIGMA3;
+        for (int i = 0; i < 4; i++) {
+            state[1 + i] = load32(key, 4 * i);
+            state[11 + i] = load32(key, 16 + 4 * i);
+            state[6 + i] = load32(nonce, 4 * i);
+        }
+        int[] x = Arrays.copyOf(state, 16);
+        rounds(x);
+        // the subkey is the output words on the diagonal and those that held the nonce, without the final addition
+        state[1] = x[0];
+        state[2] = x[5];
+        state[3] = x[10];
+        state[4] = x[15];
+        state[11] = x[6];
+        state[12] = x[7];
+        state[13] = x[8];
+        state[14] = x[9];
+        state[6] = load32(nonce, 16);
+        state[7] = load32(nonce, 20);
+        state[8] = 0;
+        state[9] = 0;
+        return state;
+    }
+
+    private static void rounds(int[] x) {
+        int x0 = x[0], x1 = x[1], x2 = x[2], x3 = x[3], x4 = x[4], x5 = x[5], x6 = x[6], x7 = x[7],
+                x8 = x[8], x9 = x[9], x10 = x[10], x11 = x[11], x12 = x[12], x13 = x[13], x14 = x[14], x15 = x[15];
+        for (int i = 0; i < 20; i += 2) {
+            // columns
+            x4 ^= rotl(x0 + x12, 7);   x8 ^= rotl(x4 + x0, 9);    x12 ^= rotl(x8 + x4, 13);  x0 ^= rotl(x12 + x8, 18);
+            x9 ^= rotl(x5 + x1, 7);    x13 ^= rotl(x9 + x5, 9);   x1 ^= rotl(x13 + x9, 13);  x5 ^= rotl(x1 + x13, 18);
+            x14 ^= rotl(x10 + x6, 7);  x2 ^= rotl(x14 + x10, 9);  x6 ^= rotl(x2 + x14, 13);  x10 ^= rotl(x6 + x2, 18);
+            x3 ^= rotl(x15 + x11, 7);  x7 ^= rotl(x3 + x15, 9);   x11 ^= rotl(x7 + x3, 13);  x15 ^= rotl(x11 + x7, 18);
+            // rows
+            x1 ^= rotl(x0 + x3, 7);    x2 ^= rotl(x1 + x0, 9);    x3 ^= rotl(x2 + x1, 13);   x0 ^= rotl(x3 + x2, 18);
+            x6 ^= rotl(x5 + x4, 7);    x7 ^= rotl(x6 + x5, 9);    x4 ^= rotl(x7 + x6, 13);   x5 ^= rotl(x4 + x7, 18);
+            x11 ^= rotl(x10 + x9, 7);  x8 ^= rotl(x11 + x10, 9);  x9 ^= rotl(x8 + x11, 13);  x10 ^= rotl(x9 + x8, 18);
+            x12 ^= rotl(x15 + x14, 7); x13 ^= rotl(x12 + x15, 9); x14 ^= rotl(x13 + x12, 13); x15 ^= rotl(x14 + x13, 18);
+        }
+        x[0] = x0; x[1] = x1; x[2] = x2; x[3] = x3; x[4] = x4; x[5] = x5; x[6] = x6; x[7] = x7;
+        x[8] = x8; x[9] = x9; x[10] = x10; x[11] = x11; x[12] = x12; x[13] = x13; x[14] = x14; x[15] = x15;
+    }
+
+    /** Write the 64 bytes of key stream for the current state to out.
+     */
+    private static void salsa20Block(int[] state, byte[] out) {
+        int[] x = Arrays.copyOf(state, 16);
+        rounds(x);
+        for (int i = 0; i < 16; i++)
+            store32(out, 4 * i, x[i] + state[i]);
+    }
+
+    /** XOR len bytes of input with the key stream starting at the block counter in state, incrementing the counter.
+     */
+    private static void xorStream(int[] state, byte[] in, int inOff, byte[] out, int outOff, int len) {
+        int[] x = new int[16];
+        while (len > 0) {
+            System.arraycopy(state, 0, x, 0, 16);
+            rounds(x);
+            if (len >= 64) {
+                for (int i = 0; i < 16; i++)
+                    store32(out, outOff + 4 * i, load32(in, inOff + 4 * i) ^ (x[i] + state[i]));
+            } else {
+                byte[] block = new byte[64];
+                for (int i = 0; i < 16; i++)
+                    store32(block, 4 * i, x[i] + state[i]);
+                for (int i = 0; i < len; i++)
+                    out[outOff + i] = (byte) (in[inOff + i] ^ block[i]);
+            }
+            if (++state[8] == 0)
+                state[9]++;
+            inOff += 64;
+            outOff += 64;
+            len -= 64;
+        }
+    }
+
+    /** Write the 16 byte Poly1305 tag of the message using the one time key in the first 32 bytes of key.
+     */
+    private static void poly1305(byte[] out, int outOff, byte[] m, int mOff, int len, byte[] key) {
+        int r0 = load32(key, 0) & 0x3ffffff;
+        int r1 = (load32(key, 3) >>> 2) & 0x3ffff03;
+        int r2 = (load32(key, 6) >>> 4) & 0x3ffc0ff;
+        int r3 = (load32(key, 9) >>> 6) & 0x3f03fff;
+        int r4 = (load32(key, 12) >>> 8) & 0x00fffff;
+        long s1 = r1 * 5, s2 = r2 * 5, s3 = r3 * 5, s4 = r4 * 5;
+
+        int h0 = 0, h1 = 0, h2 = 0, h3 = 0, h4 = 0;
+        byte[] last = new byte[16];
+        while (len > 0) {
+            byte[] block = m;
+            int off = mOff;
+            int hibit = 1 << 24;
+            if (len < 16) {
+                System.arraycopy(m, mOff, last, 0, len);
+                last[len] = 1;
+                block = last;
+                off = 0;
+                hibit = 0;
+            }
+            h0 += load32(block, off) & 0x3ffffff;
+            h1 += (load32(block, off + 3) >>> 2) & 0x3ffffff;
+            h2 += (load32(block, off + 6) >>> 4) & 0x3ffffff;
+            h3 += (load32(block, off + 9) >>> 6) & 0x3ffffff;
+            h4 += (load32(block, off + 12) >>> 8) | hibit;
+
+            long d0 = h0 * (long) r0 + h1 * s4 + h2 * s3 + h3 * s2 + h4 * s1;
+            long d1 = h0 * (long) r1 + h1 * (long) r0 + h2 * s4 + h3 * s3 + h4 * s2;
+            long d2 = h0 * (long) r2 + h1 * (long) r1 + h2 * (long) r0 + h3 * s4 + h4 * s3;
+            long d3 = h0 * (long) r3 + h1 * (long) r2 + h2 * (long) r1 + h3 * (long) r0 + h4 * s4;
+            long d4 = h0 * (long) r4 + h1 * (long) r3 + h2 * (long) r2 + h3 * (long) r1 + h4 * (long) r0;
+
+            long c = d0 >>> 26; h0 = (int) d0 & 0x3ffffff;
+            d1 += c; c = d1 >>> 26; h1 = (int) d1 & 0x3ffffff;
+            d2 += c; c = d2 >>> 26; h2 = (int) d2 & 0x3ffffff;
+            d3 += c; c = d3 >>> 26; h3 = (int) d3 & 0x3ffffff;
+            d4 += c; c = d4 >>> 26; h4 = (int) d4 & 0x3ffffff;
+            h0 += (int) c * 5; h1 += h0 >>> 26; h0 &= 0x3ffffff;
+
+            mOff += 16;
+            len -= 16;
+        }
+
+        // fully carry h
+        int c = h1 >>> 26; h1 &= 0x3ffffff;
+        h2 += c; c = h2 >>> 26; h2 &= 0x3ffffff;
+        h3 += c; c = h3 >>> 26; h3 &= 0x3ffffff;
+        h4 += c; c = h4 >>> 26; h4 &= 0x3ffffff;
+        h0 += c * 5; c = h0 >>> 26; h0 &= 0x3ffffff;
+        h1 += c;
+
+        // compute h - p and select it if it is not negative
+        int g0 = h0 + 5; c = g0 >>> 26; g0 &= 0x3ffffff;
+        int g1 = h1 + c; c = g1 >>> 26; g1 &= 0x3ffffff;
+        int g2 = h2 + c; c = g2 >>> 26; g2 &= 0x3ffffff;
+        int g3 = h3 + c; c = g3 >>> 26; g3 &= 0x3ffffff;
+        int g4 = h4 + c - (1 << 26);
+        int mask = (g4 >>> 31) - 1;
+        h0 = (h0 & ~mask) | (g0 & mask);
+        h1 = (h1 & ~mask) | (g1 & mask);
+        h2 = (h2 & ~mask) | (g2 & mask);
+        h3 = (h3 & ~mask) | (g3 & mask);
+        h4 = (h4 & ~mask) | (g4 & mask);
+
+        // h + s mod 2^128
+        long f0 = ((h0 | (h1 << 26)) & 0xffffffffL) + (load32(key, 16) & 0xffffffffL);
+        long f1 = (((h1 >>> 6) | (h2 << 20)) & 0xffffffffL) + (load32(key, 20) & 0xffffffffL) + (f0 >>> 32);
+        long f2 = (((h2 >>> 12) | (h3 << 14)) & 0xffffffffL) + (load32(key, 24) & 0xffffffffL) + (f1 >>> 32);
+        long f3 = (((h3 >>> 18) | (h4 << 8)) & 0xffffffffL) + (load32(key, 28) & 0xffffffffL) + (f2 >>> 32);
+        store32(out, outOff, (int) f0);
+        store32(out, outOff + 4, (int) f1);
+        store32(out, outOff + 8, (int) f2);
+        store32(out, outOff + 12, (int) f3);
+    }
+}
@@ -138,7 +138,7 @@ public class TweetNaCl {
     private static long[]  gf0 = new long[GF_LEN];
     private static long[] gf1 = new long[GF_LEN]; static{gf1[0] = 1;}
     private static long[]  _121665 = new long[GF_LEN]; static{_121665[0] = 0xDB41; _121665[1] =1;}
-    private static long[]  D = new long[]{0x78a3, 0x1359, 0x4dca, 0x75eb, 0xd8ab, 0x4141, 0x0a4d, 0x0070, 0xe898, 0x7779, 0x4079, 0x8cc7, 0xfe73, 0x2b6f, 0x6cee, 0x5203},
+    static final long[] D = new long[]{0x78a3, 0x1359, 0x4dca, 0x75eb, 0xd8ab, 0x4141, 0x0a4d, 0x0070, 0xe898, 0x7779, 0x4079, 0x8cc7, 0xfe73, 0x2b6f, 0x6cee, 0x5203},
             D2 = new long[]{0xf159, 0x26b2, 0x9b94, 0xebd6, 0xb156, 0x8283, 0x149a, 0x00e0, 0xd130, 0xeef3, 0x80f2, 0x198e, 0xfce7, 0x56df, 0xd9dc, 0x2406},
             X = new long[]{0xd51a, 0x8f25, 0x2d60, 0xc956, 0xa7b2, 0x9525, 0xc760, 0x692c, 0xdc5c, 0xfdd6, 0xe231, 0xc0a4, 0x53fe, 0xcd6e, 0x36d3, 0x2169},
             Y = new long[]{0x6658, 0x6666, 0x6666, 0x6666, 0x6666, 0x6666, 0x6666, 0x6666, 0x6666, 0x6666, 0x6666, 0x6666, 0x6666, 0x6666, 0x6666, 0x6666},
@@ -600,7 +600,7 @@ public class TweetNaCl {
         return crypto_box_open_afternm(m, c, d, n, k);
     }
 
-    private static int crypto_hash(byte[] out, byte[] m, int n) {
+    static int crypto_hash(byte[] out, byte[] m, int n) {
         int[] hh = new int[8], hl = new int[8];
         byte[] x = new byte[256];
         int i, b = n;
@@ -1129,7 +1129,7 @@ public class TweetNaCl {
             0, 0, 0, 0, 0, 0, 0, 0,
             0, 0, 0, 0, 0, 0, 0, 0x10};
 
-    private static void modL(byte[] r, int rOff, long[] x/*[64]*/)
+    static void modL(byte[] r, int rOff, long[] x/*[64]*/)
     {
         long carry;
         int i,j;
@@ -1156,7 +1156,7 @@ public class TweetNaCl {
     }
     }
 
-    private static void reduce(byte[] r)
+    static void reduce(byte[] r)
     {
         long[] x = new long[64];
         for (int i=0;i < 64; i++) x[i] = 0xff & r[i];
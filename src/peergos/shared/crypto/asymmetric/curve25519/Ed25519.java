@@ -27,6 +27,26 @@ public interface Ed25519 {
             TweetNaCl.crypto_sign_keypair(pk, sk, true);
         }
     }
+
+    /** Produces identical signatures to the Java implementation, using precomputed multiples of the base point
+     */
+    class FastJava implements Ed25519 {
+        @Override
+        public byte[] crypto_sign_open(byte[] signed, byte[] publicSigningKey) {
+            return FastEd25519.crypto_sign_open(signed, publicSigningKey);
+        }
+
+        @Override
+        public byte[] crypto_sign(byte[] message, byte[] secretSigningKey) {
+            return FastEd25519.crypto_sign(message, secretSigningKey);
+        }
+
+        @Override
+        public void crypto_sign_keypair(byte[] pk, byte[] sk) {
+            FastEd25519.crypto_sign_keypair(pk, sk);
+        }
+    }
+
     class Javascript implements Ed25519 {
         JSNaCl scriptJS = new JSNaCl();
 
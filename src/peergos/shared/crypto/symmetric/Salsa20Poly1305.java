@@ -69,4 +69,32 @@ public interface Salsa20Poly1305 {
         }
     }
 
+    /** Produces identical output to the Java implementation, with word oriented Salsa20 and 26 bit limb Poly1305
+     */
+    class FastJava implements Salsa20Poly1305 {
+
+        @Override
+        public byte[] secretbox(byte[] data, byte[] nonce, byte[] key) {
+            return FastSalsa20Poly1305.secretbox(data, nonce, key);
+        }
+
+        @Override
+        public byte[] secretbox_open(byte[] cipher, byte[] nonce, byte[] key) {
+            return FastSalsa20Poly1305.secretbox_open(cipher, nonce, key);
+        }
+
+        @Override
+        public CompletableFuture<byte[]> secretboxAsync(byte[] data, byte[] nonce, byte[] key) {
+            CompletableFuture<byte[]> res = new CompletableFuture<>();
+            res.complete(secretbox(data, nonce, key));
+            return res;
+        }
+
+        @Override
+        public CompletableFuture<byte[]> secretbox_openAsync(byte[] cipher, byte[] nonce, byte[] key) {
+            CompletableFuture<byte[]> res = new CompletableFuture<>();
+            res.complete(secretbox_open(cipher, nonce, key));
+            return res;
+        }
+    }
 }
@@ -58,24 +58,145 @@ public class Champ implements Cborable {
         }
     }
 
-    private static final Champ EMPTY = new Champ(new BitSet(), new BitSet(), new HashPrefixPayload[0]);
+    private static final int COMPACT_BITMAP_SIZE = 32;
+    private static final Champ EMPTY = new Champ(0, 0, new HashPrefixPayload[0]);
 
     public static Champ empty() {
         return EMPTY;
     }
 
-    private final BitSet dataMap, nodeMap;
+    // Bitmaps of up to 32 positions (a bit width of up to 5) are stored in the ints, otherwise in the BitSets. Ints
+    // rather than longs, because longs are emulated in javascript.
+    private final int dataBits, nodeBits;
+    private final BitSet wideDataMap, wideNodeMap;
     private final HashPrefixPayload[] contents;
 
-    public Champ(BitSet dataMap, BitSet nodeMap, HashPrefixPayload[] contents) {
-        this.dataMap = dataMap;
-        this.nodeMap = nodeMap;
+    private Champ(int dataBits, int nodeBits, BitSet wideDataMap, BitSet wideNodeMap, HashPrefixPayload[] contents) {
+        this.dataBits = dataBits;
+        this.nodeBits = nodeBits;
+        this.wideDataMap = wideDataMap;
+        this.wideNodeMap = wideNodeMap;
         this.contents = contents;
         for (int i=0; i< contents.length; i++)
             if (contents[i] == null)
                 throw new IllegalStateException();
     }
 
+    private Champ(int dataBits, int nodeBits, HashPrefixPayload[] contents) {
+        this(dataBits, nodeBits, null, null, contents);
+    }
+
+    private Champ(BitSet dataMap, BitSet nodeMap, HashPrefixPayload[] contents) {
+        this(isCompact(dataMap, nodeMap) ? toInt(dataMap.toByteArray()) : 0,
+                isCompact(dataMap, nodeMap) ? toInt(nodeMap.toByteArray()) : 0,
+                isCompact(dataMap, nodeMap) ? null : dataMap,
+                isCompact(dataMap, nodeMap) ? null : nodeMap,
+                contents);
+    }
+
+    private static boolean isCompact(BitSet dataMap, BitSet nodeMap) {
+        return dataMap.length() <= COMPACT_BITMAP_SIZE && nodeMap.length() <= COMPACT_BITMAP_SIZE;
+    }
+
+    private static int toInt(byte[] littleEndian) {
+        int res = 0;
+        for (int i = 0; i < littleEndian.length; i++)
+            res |= (littleEndian[i] & 0xFF) << (8 * i);
+        return res;
+    }
+
+    /** The same encoding as BitSet.toByteArray() */
+    private static byte[] toByteArray(int bits) {
+        byte[] res = new byte[(COMPACT_BITMAP_SIZE - Integer.numberOfLeadingZeros(bits) + 7) / 8];
+        for (int i = 0; i < res.length; i++)
+            res[i] = (byte) (bits >>> (8 * i));
+        return res;
+    }
+
+    private boolean isCompact() {
+        return wideDataMap == null;
+    }
+
+    private static boolean isSet(int bits, int bitpos) {
+        return bitpos < COMPACT_BITMAP_SIZE && ((bits >>> bitpos) & 1) != 0;
+    }
+
+    private boolean hasData(int bitpos) {
+        return isCompact() ? isSet(dataBits, bitpos) : wideDataMap.get(bitpos);
+    }
+
+    private boolean hasNode(int bitpos) {
+        return isCompact() ? isSet(nodeBits, bitpos) : wideNodeMap.get(bitpos);
+    }
+
+    private static int getIndex(int bits, int bitpos) {
+        return Integer.bitCount(bitpos >= COMPACT_BITMAP_SIZE ? bits : bits & ((1 << bitpos) - 1));
+    }
+
+    private int dataIndex(int bitpos) {
+        return isCompact() ? getIndex(dataBits, bitpos) : getIndex(wideDataMap, bitpos);
+    }
+
+    private int nodeIndex(int bitpos) {
+        return isCompact() ? getIndex(nodeBits, bitpos) : getIndex(wideNodeMap, bitpos);
+    }
+
+    private byte[] dataMapBytes() {
+        return isCompact() ? toByteArray(dataBits) : wideDataMap.toByteArray();
+    }
+
+    private byte[] nodeMapBytes() {
+        return isCompact() ? toByteArray(nodeBits) : wideNodeMap.toByteArray();
+    }
+
+    /**
+     *
+     * @return A node with the given contents, and this node's bitmaps with the data and node bits at bitpos set to
+     * the given values
+     */
+    private Champ withBits(int bitpos, boolean data, boolean node, HashPrefixPayload[] contents) {
+        if (isCompact() && bitpos < COMPACT_BITMAP_SIZE) {
+            int bit = 1 << bitpos;
+            return new Champ(data ? dataBits | bit : dataBits & ~bit, node ? nodeBits | bit : nodeBits & ~bit, contents);
+        }
+        BitSet newDataMap = BitSet.valueOf(dataMapBytes());
+        newDataMap.set(bitpos, data);
+        BitSet newNodeMap = BitSet.valueOf(nodeMapBytes());
+        newNodeMap.set(bitpos, node);
+        return new Champ(newDataMap, newNodeMap, contents);
+    }
+
+    private Champ withContents(HashPrefixPayload[] contents) {
+        return new Champ(dataBits, nodeBits, wideDataMap, wideNodeMap, contents);
+    }
+
+    /**
+     *
+     * @param hash The hash of a champ node
+     * @param storage The storage
+     * @return The decoded node, from the cache of decoded nodes if possible
+     */
+    public static CompletableFuture<Optional<Champ>> getNode(Multihash hash, ContentAddressedStorage storage) {
+        Optional<ChampNodeCache> cache = storage.champNodes();
+        Champ cached = cache.map(c -> c.get(hash)).orElse(null);
+        if (cached != null)
+            return CompletableFuture.completedFuture(Optional.of(cached));
+        return storage.getRaw(hash).thenApply(rawOpt -> rawOpt.map(raw -> {
+            Champ node = fromView(CborView.of(raw));
+            cache.ifPresent(c -> c.put(hash, node));
+            return node;
+        }));
+    }
+
+    private static CompletableFuture<Pair<Champ, Multihash>> store(SigningPrivateKeyAndPublicHash writer,
+                                                                   Champ champ,
+                                                                   ContentAddressedStorage storage) {
+        return storage.put(writer, champ.serialize()).thenApply(h -> {
+            storage.champNodes().ifPresent(c -> c.put(h, champ));
+            return new Pair<>(champ, h);
+        });
+    }
+
     private int keyCount() {
         int count = 0;
         for (HashPrefixPayload payload : contents) {
@@ -117,32 +238,22 @@ public class Champ implements Cborable {
 
     CompletableFuture<Pair<Multihash, Optional<Champ>>> getChild(byte[] hash, int depth, int bitWidth, ContentAddressedStorage storage) {
         int bitpos = mask(hash, depth, bitWidth);
-        int index = contents.length - 1 - getIndex(this.nodeMap, bitpos);
+        int index = contents.length - 1 - nodeIndex(bitpos);
         Multihash childHash = contents[index].link.get();
-        return storage.get(childHash)
-                .thenApply(x -> new Pair<>(childHash, x.map(Champ::fromCbor)));
+        return getNode(childHash, storage)
+                .thenApply(x -> new Pair<>(childHash, x));
     }
 
+    /**
+     *
+     * @param depth The current depth in the champ (top = 0)
+     * @param storage The storage
+     * @return The number of keys in this node and its descendants
+     */
     public CompletableFuture<Long> size(int depth, ContentAddressedStorage storage) {
-        long keys = keyCount();
         if (nodeCount() == 0)
-            return CompletableFuture.completedFuture(keys);
-
-        List<CompletableFuture<Long>> childCounts = new ArrayList<>();
-        for (int i = contents.length - 1; i >= 0; i--) {
-            HashPrefixPayload pointer = contents[i];
-            if (! pointer.isShard())
-                break; // we reach the key section
-            childCounts.add(storage.get(pointer.link.get())
-                    .thenApply(x -> new Pair<>(pointer.link.get(), x.map(Champ::fromCbor)))
-                    .thenCompose(child -> child.right.map(c -> c.size(depth + 1, storage))
-                            .orElse(CompletableFuture.completedFuture(0L)))
-            );
-        }
-        List<Integer> indices = IntStream.range(0, childCounts.size())
-                .mapToObj(x -> x)
-                .collect(Collectors.toList());
-        return Futures.reduceAll(indices, keys, (t, index) -> childCounts.get(index).thenApply(c -> c + t), (a, b) -> a + b);
+            return CompletableFuture.completedFuture((long) keyCount());
+        return new Traversal(this, storage).reduce(0L, (total, node) -> CompletableFuture.completedFuture(total + node.keyCount()));
     }
 
     /**
@@ -157,8 +268,8 @@ public class Champ implements Cborable {
     public CompletableFuture<MaybeMultihash> get(ByteArrayWrapper key, byte[] hash, int depth, int bitWidth, ContentAddressedStorage storage) {
         final int bitpos = mask(hash, depth, bitWidth);
 
-        if (dataMap.get(bitpos)) { // local value
-            int index = getIndex(this.dataMap, bitpos);
+        if (hasData(bitpos)) { // local value
+            int index = dataIndex(bitpos);
             HashPrefixPayload payload = contents[index];
             for (KeyElement candidate : payload.mappings) {
                 if (candidate.key.equals(key)) {
@@ -169,7 +280,7 @@ public class Champ implements Cborable {
             return CompletableFuture.completedFuture(MaybeMultihash.empty());
         }
 
-        if (nodeMap.get(bitpos)) { // child node
+        if (hasNode(bitpos)) { // child node
             return getChild(hash, depth, bitWidth, storage)
                     .thenCompose(child -> child.right.map(c -> c.get(key, hash, depth + 1, bitWidth, storage))
                             .orElse(CompletableFuture.completedFuture(MaybeMultihash.empty())));
@@ -178,6 +289,28 @@ public class Champ implements Cborable {
         return CompletableFuture.completedFuture(MaybeMultihash.empty());
     }
 
+    /**
+     *
+     * @param hash The hash of the key
+     * @param depth The current depth in the champ (top = 0)
+     * @param bitWidth The champ bit width
+     * @param storage The storage
+     * @return The hashes of the descendant nodes that a lookup of the key visits, in order of depth
+     */
+    public CompletableFuture<List<Multihash>> getPath(byte[] hash, int depth, int bitWidth, ContentAddressedStorage storage) {
+        final int bitpos = mask(hash, depth, bitWidth);
+        if (! hasNode(bitpos))
+            return CompletableFuture.completedFuture(new ArrayList<>());
+
+        return getChild(hash, depth, bitWidth, storage)
+                .thenCompose(child -> child.right.map(c -> c.getPath(hash, depth + 1, bitWidth, storage))
+                        .orElse(CompletableFuture.completedFuture(new ArrayList<>()))
+                        .thenApply(below -> {
+                            below.add(0, child.left);
+                            return below;
+                        }));
+    }
+
     /**
      *
      * @param writer The writer key with permission to write
@@ -206,8 +339,8 @@ public class Champ implements Cborable {
                                                          Multihash ourHash) {
         int bitpos = mask(hash, depth, bitWidth);
 
-        if (dataMap.get(bitpos)) { // local value
-            int index = getIndex(this.dataMap, bitpos);
+        if (hasData(bitpos)) { // local value
+            int index = dataIndex(bitpos);
             HashPrefixPayload payload = contents[index];
             KeyElement[] mappings = payload.mappings;
             for (int payloadIndex = 0; payloadIndex < mappings.length; payloadIndex++) {
@@ -223,21 +356,21 @@ public class Champ implements Cborable {
 
                     // update mapping
                     Champ champ = copyAndSetValue(index, payloadIndex, value);
-                    return storage.put(writer, champ.serialize()).thenApply(h -> new Pair<>(champ, h));
+                    return store(writer, champ, storage);
                 }
             }
             if (mappings.length < maxCollisions) {
                 Champ champ = insertIntoPrefix(index, key, value);
-                return storage.put(writer, champ.serialize()).thenApply(h -> new Pair<>(champ, h));
+                return store(writer, champ, storage);
             }
 
             return pushMappingsDownALevel(writer, mappings,
                     key, hash, value, depth + 1, bitWidth, maxCollisions, hasher, storage)
                     .thenCompose(p -> {
                         Champ champ = copyAndMigrateFromInlineToNode(bitpos, p);
-                        return storage.put(writer, champ.serialize()).thenApply(h -> new Pair<>(champ, h));
+                        return store(writer, champ, storage);
                     });
-        } else if (nodeMap.get(bitpos)) { // child node
+        } else if (hasNode(bitpos)) { // child node
             return getChild(hash, depth, bitWidth, storage)
                     .thenCompose(child -> child.right.get().put(writer, key, hash, depth + 1, expected, value,
                             bitWidth, maxCollisions, hasher, storage, child.left)
@@ -245,15 +378,69 @@ public class Champ implements Cborable {
                                 if (newChild.right.equals(child.left))
                                     return CompletableFuture.completedFuture(new Pair<>(this, ourHash));
                                 Champ champ = overwriteChildLink(bitpos, newChild);
-                                return storage.put(writer, champ.serialize()).thenApply(h -> new Pair<>(champ, h));
+                                return store(writer, champ, storage);
                             }));
         } else {
             // no value
             Champ champ = addNewPrefix(bitpos, key, value);
-            return storage.put(writer, champ.serialize()).thenApply(h -> new Pair<>(champ, h));
+            return store(writer, champ, storage);
         }
     }
 
+    /** Apply many changes to a champ, only writing the final version of each modified node, in a single batch.
+     *  The result is identical to applying each change with put or remove.
+     *
+     * @param writer The writer key with permission to write
+     * @param root The root of the champ
+     * @param rootHash The hash of the root
+     * @param changes The changes to apply: a key, its expected current value, and its new value, which is
+     *                removed if empty
+     * @param bitWidth The champ bitwidth
+     * @param maxCollisions The maximum number of hash collision per layer in this champ
+     * @param hasher The function to calculate the hash of keys
+     * @param storage The storage
+     * @return The new root and its hash
+     */
+    public static CompletableFuture<Pair<Champ, Multihash>> bulkUpdate(SigningPrivateKeyAndPublicHash writer,
+                                                                       Champ root,
+                                                                       Multihash rootHash,
+                                                                       List<Triple<ByteArrayWrapper, MaybeMultihash, MaybeMultihash>> changes,
+                                                                       int bitWidth,
+                                                                       int maxCollisions,
+                                                                       Function<ByteArrayWrapper, byte[]> hasher,
+                                                                       ContentAddressedStorage storage) {
+        return bulkApply(writer, root, rootHash, changes, (current, change, buffer) -> {
+            byte[] hash = hasher.apply(change.left);
+            return change.right.isPresent() ?
+                    current.left.put(writer, change.left, hash, 0, change.middle, change.right,
+                            bitWidth, maxCollisions, hasher, buffer, current.right) :
+                    current.left.remove(writer, change.left, hash, 0, change.middle,
+                            bitWidth, maxCollisions, buffer, current.right);
+        }, hasher, storage);
+    }
+
+    interface ChangeApplier<T> {
+        CompletableFuture<Pair<Champ, Multihash>> apply(Pair<Champ, Multihash> current, T change, ContentAddressedStorage buffer);
+    }
+
+    static <T> CompletableFuture<Pair<Champ, Multihash>> bulkApply(SigningPrivateKeyAndPublicHash writer,
+                                                                   Champ root,
+                                                                   Multihash rootHash,
+                                                                   List<Triple<ByteArrayWrapper, MaybeMultihash, T>> changes,
+                                                                   ChangeApplier<Triple<ByteArrayWrapper, MaybeMultihash, T>> applier,
+                                                                   Function<ByteArrayWrapper, byte[]> hasher,
+                                                                   ContentAddressedStorage storage) {
+        BufferedStorage buffer = new BufferedStorage(storage);
+        // consecutive keys with a common hash prefix share the same path, which is then in the node cache
+        List<Triple<ByteArrayWrapper, MaybeMultihash, T>> sorted = new ArrayList<>(changes);
+        sorted.sort(Comparator.comparing(c -> new ByteArrayWrapper(hasher.apply(c.left))));
+        return Futures.reduceAll(sorted, new Pair<>(root, rootHash),
+                (current, change) -> applier.apply(current, change, buffer),
+                (a, b) -> b)
+                .thenCompose(result -> buffer.commit(writer, result.right)
+                        .thenApply(written -> result));
+    }
+
     private CompletableFuture<Pair<Champ, Multihash>> pushMappingsDownALevel(SigningPrivateKeyAndPublicHash writer,
                                                                              KeyElement[] mappings,
                                                                              ByteArrayWrapper key1,
@@ -268,9 +455,7 @@ public class Champ implements Cborable {
              throw new IllegalStateException("Hash collision!");
         }
 
-        Champ empty = empty();
-        return storage.put(writer, empty.serialize())
-                .thenApply(h -> new Pair<>(empty, h))
+        return store(writer, empty(), storage)
                 .thenCompose(p -> p.left.put(writer, key1, hash1, depth, MaybeMultihash.empty(), val1,
                         bitWidth, maxCollisions, hasher, storage, p.right))
                 .thenCompose(one -> Futures.reduceAll(
@@ -292,7 +477,7 @@ public class Champ implements Cborable {
         updated[payloadIndex] = new KeyElement(existing.mappings[payloadIndex].key, val);
         dst[setIndex] = new HashPrefixPayload(updated);
 
-        return new Champ(dataMap, nodeMap, dst);
+        return withContents(dst);
     }
 
     private Champ insertIntoPrefix(final int index, final ByteArrayWrapper key, final MaybeMultihash val) {
@@ -306,11 +491,11 @@ public class Champ implements Cborable {
         Arrays.sort(prefix, Comparator.comparing(m -> m.key));
         result[index] = new HashPrefixPayload(prefix);
 
-        return new Champ(dataMap, nodeMap, result);
+        return withContents(result);
     }
 
     private Champ addNewPrefix(final int bitpos, final ByteArrayWrapper key, final MaybeMultihash val) {
-        final int insertIndex = getIndex(dataMap, bitpos);
+        final int insertIndex = dataIndex(bitpos);
 
         final HashPrefixPayload[] src = this.contents;
         final HashPrefixPayload[] result = new HashPrefixPayload[src.length + 1];
@@ -319,15 +504,13 @@ public class Champ implements Cborable {
         System.arraycopy(src, insertIndex, result, insertIndex + 1, src.length - insertIndex);
         result[insertIndex] = new HashPrefixPayload(new KeyElement[]{new KeyElement(key, val)});
 
-        BitSet newDataMap = BitSet.valueOf(dataMap.toByteArray());
-        newDataMap.set(bitpos);
-        return new Champ(newDataMap, nodeMap, result);
+        return withBits(bitpos, true, false, result);
     }
 
     private Champ copyAndMigrateFromInlineToNode(final int bitpos, final Pair<Champ, Multihash> node) {
 
-        final int oldIndex = getIndex(dataMap, bitpos);
-        final int newIndex = this.contents.length - 1 - getIndex(nodeMap, bitpos);
+        final int oldIndex = dataIndex(bitpos);
+        final int newIndex = this.contents.length - 1 - nodeIndex(bitpos);
 
         final HashPrefixPayload[] src = this.contents;
         final HashPrefixPayload[] dst = new HashPrefixPayload[src.length];
@@ -340,23 +523,19 @@ public class Champ implements Cborable {
         dst[newIndex] = new HashPrefixPayload(MaybeMultihash.of(node.right));
         System.arraycopy(src, newIndex + 1, dst, newIndex + 1, src.length - newIndex - 1);
 
-        BitSet newNodeMap = BitSet.valueOf(nodeMap.toByteArray());
-        newNodeMap.set(bitpos);
-        BitSet newDataMap = BitSet.valueOf(dataMap.toByteArray());
-        newDataMap.set(bitpos, false);
-        return new Champ(newDataMap, newNodeMap, dst);
+        return withBits(bitpos, false, true, dst);
     }
 
     private Champ overwriteChildLink(final int bitpos, final Pair<Champ, Multihash> node) {
 
-        final int setIndex = this.contents.length - 1 - getIndex(nodeMap, bitpos);
+        final int setIndex = this.contents.length - 1 - nodeIndex(bitpos);
 
         final HashPrefixPayload[] src = this.contents;
         final HashPrefixPayload[] dst = Arrays.copyOf(src, src.length);
 
         dst[setIndex] = new HashPrefixPayload(MaybeMultihash.of(node.right));
 
-        return new Champ(dataMap, nodeMap, dst);
+        return withContents(dst);
     }
 
     /**
@@ -383,8 +562,8 @@ public class Champ implements Cborable {
                                                             Multihash ourHash) {
         int bitpos = mask(hash, depth, bitWidth);
 
-        if (dataMap.get(bitpos)) { // in place value
-            final int dataIndex = getIndex(dataMap, bitpos);
+        if (hasData(bitpos)) { // in place value
+            final int dataIndex = dataIndex(bitpos);
 
             HashPrefixPayload payload = contents[dataIndex];
             KeyElement[] mappings = payload.mappings;
@@ -405,7 +584,7 @@ public class Champ implements Cborable {
 						 * will a) either become the new root returned, or b)
 						 * unwrapped and inlined during returning.
 						 */
-                        final BitSet newDataMap = BitSet.valueOf((depth == 0) ? dataMap.toByteArray() : new byte[0]);
+                        final BitSet newDataMap = BitSet.valueOf((depth == 0) ? dataMapBytes() : new byte[0]);
                         boolean lastInPrefix = mappings.length == 1;
                         if (depth == 0 && lastInPrefix)
                             newDataMap.clear(bitpos);
@@ -424,15 +603,15 @@ public class Champ implements Cborable {
                         }
 
                         Champ champ = new Champ(newDataMap, new BitSet(), dst);
-                        return storage.put(writer, champ.serialize()).thenApply(h -> new Pair<>(champ, h));
+                        return store(writer, champ, storage);
                     } else {
                         Champ champ = removeMapping(bitpos, payloadIndex);
-                        return storage.put(writer, champ.serialize()).thenApply(h -> new Pair<>(champ, h));
+                        return store(writer, champ, storage);
                     }
                 }
             }
             return CompletableFuture.completedFuture(new Pair<>(this, ourHash));
-        } else if (nodeMap.get(bitpos)) { // node (not value)
+        } else if (hasNode(bitpos)) { // node (not value)
             return getChild(hash, depth, bitWidth, storage)
                     .thenCompose(child -> child.right.get().remove(writer, key, hash, depth + 1, expected, bitWidth, maxCollisions, storage, child.left)
                             .thenCompose(newChild -> {
@@ -448,12 +627,12 @@ public class Champ implements Cborable {
                                     } else {
                                         // inline value (move to front)
                                         Champ champ = copyAndMigrateFromNodeToInline(bitpos, newChild.left);
-                                        return storage.put(writer, champ.serialize()).thenApply(h -> new Pair<>(champ, h));
+                                        return store(writer, champ, storage);
                                     }
                                 } else {
                                     // modify current node (set replacement node)
                                     Champ champ = overwriteChildLink(bitpos, newChild);
-                                    return storage.put(writer, champ.serialize()).thenApply(h -> new Pair<>(champ, h));
+                                    return store(writer, champ, storage);
                                 }
                             }));
         }
@@ -463,8 +642,8 @@ public class Champ implements Cborable {
 
     private Champ copyAndMigrateFromNodeToInline(final int bitpos, final Champ node) {
 
-        final int oldIndex = this.contents.length - 1 - getIndex(nodeMap, bitpos);
-        final int newIndex = getIndex(dataMap, bitpos);
+        final int oldIndex = this.contents.length - 1 - nodeIndex(bitpos);
+        final int newIndex = dataIndex(bitpos);
 
         final HashPrefixPayload[] src = this.contents;
         final HashPrefixPayload[] dst = new HashPrefixPayload[src.length];
@@ -485,15 +664,11 @@ public class Champ implements Cborable {
         System.arraycopy(src, newIndex, dst, newIndex + 1, oldIndex - newIndex);
         System.arraycopy(src, oldIndex + 1, dst, oldIndex + 1, src.length - oldIndex - 1);
 
-        BitSet newNodeMap = BitSet.valueOf(nodeMap.toByteArray());
-        newNodeMap.set(bitpos, false);
-        BitSet newDataMap = BitSet.valueOf(dataMap.toByteArray());
-        newDataMap.set(bitpos, true);
-        return new Champ(newDataMap, newNodeMap, dst);
+        return withBits(bitpos, true, false, dst);
     }
 
     private Champ removeMapping(final int bitpos, final int payloadIndex) {
-        final int index = getIndex(dataMap, bitpos);
+        final int index = dataIndex(bitpos);
         final HashPrefixPayload[] src = this.contents;
         KeyElement[] existing = src[index].mappings;
         boolean lastInPrefix = existing.length == 1;
@@ -509,30 +684,182 @@ public class Champ implements Cborable {
             dst[index] = new HashPrefixPayload(remaining);
         }
 
-        BitSet newDataMap = BitSet.valueOf(dataMap.toByteArray());
-        if (lastInPrefix)
-            newDataMap.clear(bitpos);
-        return new Champ(newDataMap, nodeMap, dst);
+        return lastInPrefix ? withBits(bitpos, false, false, dst) : withContents(dst);
     }
 
+    /** Apply the consumer to every mapping in this node and its descendants, in order. Child nodes are prefetched
+     *  concurrently ahead of the consumer.
+     *
+     */
     public <T> CompletableFuture<T> applyToAllMappings(T identity,
                                                        BiFunction<T, Pair<ByteArrayWrapper, MaybeMultihash>, CompletableFuture<T>> consumer,
                                                        ContentAddressedStorage storage) {
-        return Futures.reduceAll(Arrays.stream(contents).collect(Collectors.toList()), identity, (res, payload) ->
-                (! payload.isShard() ?
-                        Futures.reduceAll(
-                                Arrays.stream(payload.mappings).collect(Collectors.toList()),
-                                res,
-                                (x, mapping) -> consumer.apply(x, new Pair<>(mapping.key, mapping.valueHash)),
-                                (a, b) ->  a) :
-                        CompletableFuture.completedFuture(res)
-                ).thenCompose(newRes ->
-                        payload.isShard() && payload.link.isPresent() ?
-                                storage.get(payload.link.get())
-                                        .thenApply(rawOpt -> Champ.fromCbor(rawOpt.orElseThrow(() -> new IllegalStateException("Hash not present! " + payload.link))))
-                                        .thenCompose(child -> child.applyToAllMappings(newRes, consumer, storage)) :
-                                CompletableFuture.completedFuture(newRes)
-                ), (a, b) -> a);
+        return new Traversal(this, storage).reduce(identity, (res, node) -> Futures.reduceAll(
+                node.getMappings(),
+                res,
+                (x, mapping) -> consumer.apply(x, new Pair<>(mapping.key, mapping.valueHash)),
+                (a, b) -> a));
+    }
+
+    /** A lazy stream of every mapping in this node and its descendants, in the same order as applyToAllMappings.
+     *  Child nodes are prefetched concurrently, and consuming the stream blocks until the next node is available, so
+     *  it can't be used in JS.
+     *
+     */
+    public Stream<Pair<ByteArrayWrapper, MaybeMultihash>> stream(ContentAddressedStorage storage) {
+        Traversal traversal = new Traversal(this, storage);
+        Iterator<Pair<ByteArrayWrapper, MaybeMultihash>> iterator = new Iterator<Pair<ByteArrayWrapper, MaybeMultihash>>() {
+            private Champ node = Champ.this;
+            private List<KeyElement> mappings = getMappings();
+            private int index = 0;
+
+            @Override
+            public boolean hasNext() {
+                while (index >= mappings.size()) {
+                    if (node != null)
+                        traversal.pushChildren(node);
+                    node = traversal.next();
+                    if (node == null)
+                        return false;
+                    mappings = node.getMappings();
+                    index = 0;
+                }
+                return true;
+            }
+
+            @Override
+            public Pair<ByteArrayWrapper, MaybeMultihash> next() {
+                if (! hasNext())
+                    throw new NoSuchElementException();
+                KeyElement mapping = mappings.get(index++);
+                return new Pair<>(mapping.key, mapping.valueHash);
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED), false);
+    }
+
+    /** A pre-order walk over the nodes of a champ. Child links are fetched breadth first as soon as their parent has
+     *  been retrieved, with at most MAX_PARALLEL_FETCHES outstanding and at most MAX_PREFETCHED_NODES fetched ahead
+     *  of the walk.
+     *
+     */
+    private static final class Traversal {
+        private static final int MAX_PARALLEL_FETCHES = 16;
+        private static final int MAX_PREFETCHED_NODES = 256;
+
+        private final ContentAddressedStorage storage;
+        private final Champ root;
+        private final Deque<Multihash> toVisit = new ArrayDeque<>();
+        private final Set<Multihash> toFetch = new LinkedHashSet<>();
+        private final Map<Multihash, CompletableFuture<Champ>> prefetched = new HashMap<>();
+        private int inFlight = 0;
+
+        Traversal(Champ root, ContentAddressedStorage storage) {
+            this.root = root;
+            this.storage = storage;
+            fetched(root, false);
+        }
+
+        /**
+         *
+         * @return The result of applying the visitor to every node in pre-order, starting with the root
+         */
+        <T> CompletableFuture<T> reduce(T identity, BiFunction<T, Champ, CompletableFuture<T>> visitor) {
+            return visitor.apply(identity, root).thenCompose(res -> {
+                pushChildren(root);
+                return reduceRemaining(res, visitor);
+            });
+        }
+
+        private <T> CompletableFuture<T> reduceRemaining(T identity, BiFunction<T, Champ, CompletableFuture<T>> visitor) {
+            T result = identity;
+            // loop while results are already available, to avoid deep future chains on local storage
+            while (! toVisit.isEmpty()) {
+                T current = result;
+                CompletableFuture<T> next = claim(toVisit.pop()).thenCompose(node -> {
+                    pushChildren(node);
+                    return visitor.apply(current, node);
+                });
+                if (! next.isDone() || next.isCompletedExceptionally())
+                    return next.thenCompose(res -> reduceRemaining(res, visitor));
+                // a completed future runs the callback immediately (there is no synchronous get in JS)
+                List<T> completed = new ArrayList<>(1);
+                next.thenAccept(completed::add);
+                result = completed.get(0);
+            }
+            return CompletableFuture.completedFuture(result);
+        }
+
+        void pushChildren(Champ node) {
+            for (int i = node.contents.length - 1; i >= 0; i--) {
+                HashPrefixPayload payload = node.contents[i];
+                if (! payload.isShard())
+                    break; // we reach the key section
+                if (payload.link.isPresent())
+                    toVisit.push(payload.link.get());
+            }
+        }
+
+        /**
+         *
+         * @return The next node in pre-order, blocking until it has been retrieved, or null if there are none left
+         */
+        Champ next() {
+            if (toVisit.isEmpty())
+                return null;
+            try {
+                return claim(toVisit.pop()).get();
+            } catch (InterruptedException | ExecutionException e) {
+                throw new RuntimeException(e.getCause() != null ? e.getCause() : e);
+            }
+        }
+
+        private synchronized CompletableFuture<Champ> claim(Multihash link) {
+            CompletableFuture<Champ> res = prefetched.remove(link);
+            if (res != null) {
+                prefetch();
+                return res;
+            }
+            toFetch.remove(link);
+            return fetch(link);
+        }
+
+        private synchronized CompletableFuture<Champ> fetch(Multihash link) {
+            inFlight++;
+            return getNode(link, storage)
+                    .thenApply(opt -> {
+                        Champ node = opt.orElseThrow(() -> new IllegalStateException("Hash not present! " + link));
+                        fetched(node, true);
+                        return node;
+                    }).exceptionally(t -> {
+                        fetched(null, true);
+                        throw t instanceof RuntimeException ? (RuntimeException) t : new RuntimeException(t);
+                    });
+        }
+
+        private synchronized void fetched(Champ node, boolean wasInFlight) {
+            if (wasInFlight)
+                inFlight--;
+            if (node != null)
+                for (HashPrefixPayload payload : node.contents)
+                    if (payload.isShard() && payload.link.isPresent())
+                        toFetch.add(payload.link.get());
+            prefetch();
+        }
+
+        private synchronized void prefetch() {
+            while (inFlight < MAX_PARALLEL_FETCHES && prefetched.size() < MAX_PREFETCHED_NODES && ! toFetch.isEmpty()) {
+                Iterator<Multihash> it = toFetch.iterator();
+                Multihash link = it.next();
+                it.remove();
+                // reserve the slot before fetching, as local storage completes the fetch, and its prefetches, inline
+                CompletableFuture<Champ> res = new CompletableFuture<>();
+                prefetched.put(link, res);
+                fetch(link)
+                        .thenApply(res::complete)
+                        .exceptionally(res::completeExceptionally);
+            }
+        }
     }
 
     private List<KeyElement> getMappings() {
@@ -542,68 +869,187 @@ public class Champ implements Cborable {
                 .collect(Collectors.toList());
     }
 
-    private List<HashPrefixPayload> getLinks() {
-        return Arrays.stream(contents)
-                .filter(p -> p.isShard())
-                .collect(Collectors.toList());
-    }
-
+    /** Apply the consumer to every difference between two champs with the same bit width. Each difference is a key,
+     *  its value in the original (empty if absent) and its value in the updated tree (empty if absent), and is passed
+     *  to the consumer as soon as it is found. The consumer is never called concurrently.
+     *
+     * @param original
+     * @param updated
+     * @param consumer
+     * @param storage
+     * @return true when the whole diff has been applied
+     */
     public static CompletableFuture<Boolean> applyToDiff(
             MaybeMultihash original,
             MaybeMultihash updated,
             Consumer<Triple<ByteArrayWrapper, MaybeMultihash, MaybeMultihash>> consumer,
             ContentAddressedStorage storage) {
+        return new Diff(consumer, storage).run(original, updated);
+    }
 
-        if (updated.equals(original))
-            return CompletableFuture.completedFuture(true);
-        return original.map(storage::get).orElseGet(() -> CompletableFuture.completedFuture(Optional.empty()))
-                .thenApply(rawOpt -> rawOpt.map(Champ::fromCbor))
-                .thenCompose(left -> updated.map(storage::get).orElseGet(() -> CompletableFuture.completedFuture(Optional.empty()))
-                        .thenApply(rawOpt -> rawOpt.map(Champ::fromCbor))
-                        .thenCompose(right -> {
-                            List<KeyElement> leftMappings = left.map(Champ::getMappings).orElseGet(Collections::emptyList);
-                            List<KeyElement> rightMappings = right.map(Champ::getMappings).orElseGet(Collections::emptyList);
-                            Map<ByteArrayWrapper, MaybeMultihash> leftMap = leftMappings.stream()
-                                    .collect(Collectors.toMap(e -> e.key, e -> e.valueHash));
-                            Map<ByteArrayWrapper, MaybeMultihash> rightMap = rightMappings.stream()
-                                    .collect(Collectors.toMap(e -> e.key, e -> e.valueHash));
-
-                            HashSet<ByteArrayWrapper> both = new HashSet<>(leftMap.keySet());
-                            both.retainAll(rightMap.keySet());
-                            for (Map.Entry<ByteArrayWrapper, MaybeMultihash> entry : leftMap.entrySet()) {
-                                if (! both.contains(entry.getKey()))
-                                    consumer.accept(new Triple<>(entry.getKey(), entry.getValue(), MaybeMultihash.empty()));
-                                else
-                                    consumer.accept(new Triple<>(entry.getKey(), entry.getValue(), rightMap.get(entry.getKey())));
-                            }
-                            for (Map.Entry<ByteArrayWrapper, MaybeMultihash> entry : rightMap.entrySet()) {
-                                if (! both.contains(entry.getKey()))
-                                    consumer.accept(new Triple<>(entry.getKey(), MaybeMultihash.empty(), entry.getValue()));
-                            }
-
-                            // Now descend recursively, diffing equal indexed elements
-                            List<HashPrefixPayload> leftLinks = left.map(Champ::getLinks).orElseGet(Collections::emptyList);
-                            List<HashPrefixPayload> rightLinks = right.map(Champ::getLinks).orElseGet(Collections::emptyList);
-
-                            List<Pair<MaybeMultihash, MaybeMultihash>> linkPairs = new ArrayList<>();
-                            for (int i=0; i < Math.max(leftLinks.size(), rightLinks.size()); i++) {
-                                linkPairs.add(new Pair<>(i < leftLinks.size() ? leftLinks.get(i).link : MaybeMultihash.empty(),
-                                        i < rightLinks.size() ? rightLinks.get(i).link : MaybeMultihash.empty()));
-                            }
-
-                            return Futures.combineAll(linkPairs.stream()
-                                    .map(p -> applyToDiff(p.left, p.right, consumer, storage))
-                                    .collect(Collectors.toList()))
-                                    .thenApply(x -> true);
-                        })
-        );
+    /**
+     *
+     * @return the payload at each occupied bit position
+     */
+    private Map<Integer, HashPrefixPayload> payloadsByPosition() {
+        Map<Integer, HashPrefixPayload> res = new HashMap<>();
+        int positions = isCompact() ? COMPACT_BITMAP_SIZE : Math.max(wideDataMap.length(), wideNodeMap.length());
+        for (int bitpos = 0; bitpos < positions; bitpos++) {
+            if (hasData(bitpos))
+                res.put(bitpos, contents[dataIndex(bitpos)]);
+            else if (hasNode(bitpos))
+                res.put(bitpos, contents[contents.length - 1 - nodeIndex(bitpos)]);
+        }
+        return res;
+    }
+
+    /** Compares two champs position by position, skipping identical subtrees. Differing children of both trees are
+     *  retrieved concurrently, with at most MAX_PARALLEL_FETCHES outstanding.
+     *
+     */
+    private static final class Diff {
+        private static final int MAX_PARALLEL_FETCHES = 16;
+
+        private final Consumer<Triple<ByteArrayWrapper, MaybeMultihash, MaybeMultihash>> consumer;
+        private final ContentAddressedStorage storage;
+        private final Deque<Supplier<CompletableFuture<Boolean>>> tasks = new ArrayDeque<>();
+        private final CompletableFuture<Boolean> done = new CompletableFuture<>();
+        private int running = 0;
+        private boolean scheduling = false;
+
+        Diff(Consumer<Triple<ByteArrayWrapper, MaybeMultihash, MaybeMultihash>> consumer, ContentAddressedStorage storage) {
+            this.consumer = consumer;
+            this.storage = storage;
+        }
+
+        CompletableFuture<Boolean> run(MaybeMultihash original, MaybeMultihash updated) {
+            if (! original.equals(updated))
+                submit(() -> diffLinks(original, updated));
+            schedule();
+            return done;
+        }
+
+        private synchronized void submit(Supplier<CompletableFuture<Boolean>> task) {
+            tasks.add(task);
+        }
+
+        private void schedule() {
+            synchronized (this) {
+                if (scheduling)
+                    return; // the active loop will pick up any new tasks
+                scheduling = true;
+            }
+            // loop rather than recurse, as tasks on local storage complete, and finish, inline
+            while (true) {
+                Supplier<CompletableFuture<Boolean>> task;
+                synchronized (this) {
+                    if (done.isDone() || running >= MAX_PARALLEL_FETCHES || tasks.isEmpty()) {
+                        if (running == 0 && tasks.isEmpty())
+                            done.complete(true);
+                        scheduling = false;
+                        return;
+                    }
+                    running++;
+                    task = tasks.poll();
+                }
+                CompletableFuture<Boolean> result;
+                try {
+                    result = task.get();
+                } catch (Throwable t) {
+                    result = new CompletableFuture<>();
+                    result.completeExceptionally(t);
+                }
+                result.thenApply(x -> {
+                    synchronized (this) {
+                        running--;
+                    }
+                    schedule();
+                    return true;
+                }).exceptionally(t -> done.completeExceptionally(t));
+            }
+        }
+
+        private CompletableFuture<Optional<Champ>> getNodeIfPresent(MaybeMultihash hash) {
+            if (! hash.isPresent())
+                return CompletableFuture.completedFuture(Optional.empty());
+            return getNode(hash.get(), storage)
+                    .thenApply(opt -> {
+                        if (! opt.isPresent())
+                            throw new IllegalStateException("Hash not present! " + hash);
+                        return opt;
+                    });
+        }
+
+        private CompletableFuture<Boolean> diffLinks(MaybeMultihash original, MaybeMultihash updated) {
+            return getNodeIfPresent(original).thenCombine(getNodeIfPresent(updated), (left, right) -> {
+                Map<Integer, HashPrefixPayload> before = left.map(Champ::payloadsByPosition).orElseGet(Collections::emptyMap);
+                Map<Integer, HashPrefixPayload> after = right.map(Champ::payloadsByPosition).orElseGet(Collections::emptyMap);
+                Set<Integer> positions = new HashSet<>(before.keySet());
+                positions.addAll(after.keySet());
+                for (Integer bitpos : positions) {
+                    HashPrefixPayload a = before.get(bitpos);
+                    HashPrefixPayload b = after.get(bitpos);
+                    boolean aIsLink = a != null && a.isShard();
+                    boolean bIsLink = b != null && b.isShard();
+                    List<KeyElement> aMappings = a == null || aIsLink ? Collections.emptyList() : Arrays.asList(a.mappings);
+                    List<KeyElement> bMappings = b == null || bIsLink ? Collections.emptyList() : Arrays.asList(b.mappings);
+                    if (aIsLink && bIsLink) {
+                        if (! a.link.equals(b.link))
+                            submit(() -> diffLinks(a.link, b.link));
+                    } else if (aIsLink) {
+                        if (bMappings.isEmpty())
+                            submit(() -> diffLinks(a.link, MaybeMultihash.empty()));
+                        else
+                            submit(() -> allMappings(a.link).thenApply(all -> emit(all, bMappings)));
+                    } else if (bIsLink) {
+                        if (aMappings.isEmpty())
+                            submit(() -> diffLinks(MaybeMultihash.empty(), b.link));
+                        else
+                            submit(() -> allMappings(b.link).thenApply(all -> emit(aMappings, all)));
+                    } else
+                        emit(aMappings, bMappings);
+                }
+                return true;
+            });
+        }
+
+        /**
+         *
+         * @return every mapping in a subtree, to compare against mappings held inline in the other tree
+         */
+        private CompletableFuture<List<KeyElement>> allMappings(MaybeMultihash subtree) {
+            return getNodeIfPresent(subtree).thenCompose(node -> new Traversal(node.get(), storage)
+                    .reduce(new ArrayList<>(), (all, child) -> {
+                        all.addAll(child.getMappings());
+                        return CompletableFuture.completedFuture(all);
+                    }));
+        }
+
+        private synchronized boolean emit(List<KeyElement> original, List<KeyElement> updated) {
+            Map<ByteArrayWrapper, MaybeMultihash> before = new HashMap<>();
+            for (KeyElement mapping : original)
+                before.put(mapping.key, mapping.valueHash);
+            Map<ByteArrayWrapper, MaybeMultihash> after = new HashMap<>();
+            for (KeyElement mapping : updated)
+                after.put(mapping.key, mapping.valueHash);
+            // a key mapped to an empty value is equivalent to an absent key
+            for (Map.Entry<ByteArrayWrapper, MaybeMultihash> e : before.entrySet()) {
+                MaybeMultihash newValue = after.getOrDefault(e.getKey(), MaybeMultihash.empty());
+                if (! e.getValue().equals(newValue))
+                    consumer.accept(new Triple<>(e.getKey(), e.getValue(), newValue));
+            }
+            for (Map.Entry<ByteArrayWrapper, MaybeMultihash> e : after.entrySet())
+                if (! before.containsKey(e.getKey()) && e.getValue().isPresent())
+                    consumer.accept(new Triple<>(e.getKey(), MaybeMultihash.empty(), e.getValue()));
+            return true;
+        }
     }
 
     @Override
     public CborObject toCbor() {
         return new CborObject.CborList(Arrays.asList(
-                new CborObject.CborByteArray(dataMap.toByteArray()),
-                new CborObject.CborByteArray(nodeMap.toByteArray()),
+                new CborObject.CborByteArray(dataMapBytes()),
+                new CborObject.CborByteArray(nodeMapBytes()),
                 new CborObject.CborList(Arrays.stream(contents)
                         .flatMap(e -> e.link != null ?
                                 Stream.of(new CborObject.CborMerkleLink(e.link.get())) :
@@ -626,8 +1072,8 @@ public class Champ implements Cborable {
 
         if (! (list.get(0) instanceof CborObject.CborByteArray))
             throw new IllegalStateException("Invalid cbor for a champ, is this a btree?");
-        BitSet dataMap = BitSet.valueOf(((CborObject.CborByteArray)list.get(0)).value);
-        BitSet nodeMap = BitSet.valueOf(((CborObject.CborByteArray)list.get(1)).value);
+        byte[] dataMap = ((CborObject.CborByteArray)list.get(0)).value;
+        byte[] nodeMap = ((CborObject.CborByteArray)list.get(1)).value;
         List<? extends Cborable> contentsCbor = ((CborObject.CborList) list.get(2)).value;
 
         List<HashPrefixPayload> contents = new ArrayList<>();
@@ -649,6 +1095,49 @@ public class Champ implements Cborable {
                 contents.add(new HashPrefixPayload(MaybeMultihash.of(((CborObject.CborMerkleLink)keyOrHash).target)));
             }
         }
-        return new Champ(dataMap, nodeMap, contents.toArray(new HashPrefixPayload[contents.size()]));
+        HashPrefixPayload[] payloads = contents.toArray(new HashPrefixPayload[contents.size()]);
+        if (dataMap.length <= COMPACT_BITMAP_SIZE / 8 && nodeMap.length <= COMPACT_BITMAP_SIZE / 8)
+            return new Champ(toInt(dataMap), toInt(nodeMap), payloads);
+        return new Champ(BitSet.valueOf(dataMap), BitSet.valueOf(nodeMap), payloads);
+    }
+
+    /** Decode a node directly from its serialized form, without building the intermediate CborObjects
+     *
+     * @param view
+     * @return
+     */
+    public static Champ fromView(CborView view) {
+        if (! view.isList())
+            throw new IllegalStateException("Invalid cbor for CHAMP! " + view.toCbor());
+        List<CborView> list = view.getList();
+
+        if (! list.get(0).isByteArray())
+            throw new IllegalStateException("Invalid cbor for a champ, is this a btree?");
+        byte[] dataMap = list.get(0).getByteArray();
+        byte[] nodeMap = list.get(1).getByteArray();
+        List<CborView> contentsCbor = list.get(2).getList();
+
+        HashPrefixPayload[] payloads = new HashPrefixPayload[contentsCbor.size()];
+        for (int i=0; i < contentsCbor.size(); i++) {
+            CborView keyOrHash = contentsCbor.get(i);
+            if (keyOrHash.isList()) {
+                List<CborView> mappingsCbor = keyOrHash.getList();
+                KeyElement[] mappings = new KeyElement[mappingsCbor.size() / 2];
+                for (int j=0; j < mappings.length; j++) {
+                    byte[] key = mappingsCbor.get(2 * j).getByteArray();
+                    CborView value = mappingsCbor.get(2 * j + 1);
+                    mappings[j] = new KeyElement(new ByteArrayWrapper(key),
+                            value.isNull() ?
+                                    MaybeMultihash.empty() :
+                                    MaybeMultihash.of(value.getLink()));
+                }
+                payloads[i] = new HashPrefixPayload(mappings);
+            } else {
+                payloads[i] = new HashPrefixPayload(MaybeMultihash.of(keyOrHash.getLink()));
+            }
+        }
+        if (dataMap.length <= COMPACT_BITMAP_SIZE / 8 && nodeMap.length <= COMPACT_BITMAP_SIZE / 8)
+            return new Champ(toInt(dataMap), toInt(nodeMap), payloads);
+        return new Champ(BitSet.valueOf(dataMap), BitSet.valueOf(nodeMap), payloads);
     }
 }
@@ -0,0 +1,199 @@
+package peergos.shared.hamt;
+
+import peergos.shared.cbor.*;
+import peergos.shared.crypto.hash.*;
+import peergos.shared.io.ipfs.multiaddr.*;
+import peergos.shared.io.ipfs.multihash.*;
+import peergos.shared.merklebtree.*;
+import peergos.shared.mutable.*;
+import peergos.shared.storage.*;
+import peergos.shared.user.*;
+import peergos.shared.util.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.*;
+
+/** A writer's signed pointer, and the blocks needed to look up a key in its champ starting from the pointer: the
+ *  writer's signing key, the WriterData and each champ node on the path to the key. This lets a server resolve a
+ *  lookup in a single round trip. The blocks are only used if they match the hashes they are requested by, and the
+ *  pointer is verified as usual, so we trust the server no more than for any other block.
+ */
+public class ChampLookup implements Cborable {
+
+    public final Optional<byte[]> signedPointer;
+    public final List<byte[]> blocks;
+
+    public ChampLookup(Optional<byte[]> signedPointer, List<byte[]> blocks) {
+        this.signedPointer = signedPointer;
+        this.blocks = blocks;
+    }
+
+    /**
+     *
+     * @param fallback
+     * @return a storage which serves the blocks of this lookup, and retrieves anything else from fallback
+     */
+    public ContentAddressedStorage storage(ContentAddressedStorage fallback) {
+        if (blocks.isEmpty())
+            return fallback;
+        return new ProofStorage(blocks, fallback);
+    }
+
+    /** Resolve a lookup locally, collecting the blocks along the path to the key. The path within a legacy btree is
+     *  not included.
+     *
+     * @param writer
+     * @param mapKey
+     * @param mutable
+     * @param dht
+     * @return the lookup
+     */
+    public static CompletableFuture<ChampLookup> build(PublicKeyHash writer,
+                                                       byte[] mapKey,
+                                                       MutablePointers mutable,
+                                                       ContentAddressedStorage dht) {
+        return mutable.getPointer(writer).thenCompose(pointer -> {
+            if (! pointer.isPresent())
+                return CompletableFuture.completedFuture(new ChampLookup(pointer, Collections.emptyList()));
+            return VerifiedPointers.getTarget(writer, pointer, dht)
+                    .thenCompose(target -> WriterData.getWriterData(writer, target, dht))
+                    .thenCompose(committed -> {
+                        List<Multihash> path = new ArrayList<>();
+                        path.add(writer.multihash);
+                        path.add(committed.hash.get());
+                        if (! committed.props.tree.isPresent())
+                            return CompletableFuture.completedFuture(path);
+                        Multihash root = committed.props.tree.get();
+                        path.add(root);
+                        return Champ.getNode(root, dht).thenCompose(rootOpt -> {
+                            if (! rootOpt.isPresent())
+                                throw new IllegalStateException("Champ root not present: " + root);
+                            return rootOpt.get().getPath(mapKey, 0, ChampWrapper.BIT_WIDTH, dht);
+                        }).thenApply(below -> {
+                            path.addAll(below);
+                            return path;
+                        });
+                    }).thenCompose(path -> Futures.combineAllInOrder(path.stream()
+                            .map(h -> dht.get(h)
+                                    .thenApply(cborOpt -> cborOpt.orElseThrow(() -> new IllegalStateException("Block not present: " + h))
+                                            .toByteArray()))
+                            .collect(Collectors.toList())))
+                    .thenApply(blocks -> new ChampLookup(pointer, blocks));
+        });
+    }
+
+    @Override
+    public CborObject toCbor() {
+        return new CborObject.CborList(Arrays.asList(
+                new CborObject.CborByteArray(signedPointer.orElse(new byte[0])),
+                new CborObject.CborList(blocks.stream()
+                        .map(CborObject.CborByteArray::new)
+                        .collect(Collectors.toList()))
+        ));
+    }
+
+    public static ChampLookup fromCbor(CborObject cbor) {
+        if (! (cbor instanceof CborObject.CborList))
+            throw new IllegalStateException("Incorrect cbor for ChampLookup: " + cbor);
+
+        List<? extends Cborable> value = ((CborObject.CborList) cbor).value;
+        byte[] pointer = ((CborObject.CborByteArray) value.get(0)).value;
+        return new ChampLookup(
+                pointer.length == 0 ? Optional.empty() : Optional.of(pointer),
+                ((CborObject.CborList) value.get(1)).value.stream()
+                        .map(b -> ((CborObject.CborByteArray) b).value)
+                        .collect(Collectors.toList()));
+    }
+
+    /** Serves the blocks of a lookup by their sha256, so a block can only be returned for its own hash
+     */
+    private static class ProofStorage implements ContentAddressedStorage {
+        private final Map<ByteArrayWrapper, byte[]> blocks = new HashMap<>();
+        private final ContentAddressedStorage fallback;
+
+        ProofStorage(List<byte[]> blocks, ContentAddressedStorage fallback) {
+            for (byte[] block : blocks)
+                this.blocks.put(new ByteArrayWrapper(Hash.sha256(block)), block);
+            this.fallback = fallback;
+        }
+
+        private byte[] getLocal(Multihash hash) {
+            if (hash.type != Multihash.Type.sha2_256)
+                return null;
+            return blocks.get(new ByteArrayWrapper(hash.getHash()));
+        }
+
+        @Override
+        public CompletableFuture<Optional<CborObject>> get(Multihash hash) {
+            byte[] block = getLocal(hash);
+            if (block != null)
+                return CompletableFuture.completedFuture(Optional.of(CborObject.fromByteArray(block)));
+            return fallback.get(hash);
+        }
+
+        @Override
+        public CompletableFuture<Optional<byte[]>> getRaw(Multihash hash) {
+            byte[] block = getLocal(hash);
+            if (block != null)
+                return CompletableFuture.completedFuture(Optional.of(block));
+            return fallback.getRaw(hash);
+        }
+
+        @Override
+        public CompletableFuture<Multihash> id() {
+            return fallback.id();
+        }
+
+        @Override
+        public CompletableFuture<List<Multihash>> put(PublicKeyHash writer, List<byte[]> signatures, List<byte[]> blocks) {
+            return fallback.put(writer, signatures, blocks);
+        }
+
+        @Override
+        public CompletableFuture<List<Multihash>> putRaw(PublicKeyHash writer, List<byte[]> signatures, List<byte[]> blocks) {
+            return fallback.putRaw(writer, signatures, blocks);
+        }
+
+        @Override
+        public CompletableFuture<List<MultiAddress>> pinUpdate(Multihash existing, Multihash updated) {
+            return fallback.pinUpdate(existing, updated);
+        }
+
+        @Override
+        public CompletableFuture<List<Multihash>> recursivePin(Multihash h) {
+            return fallback.recursivePin(h);
+        }
+
+        @Override
+        public CompletableFuture<List<Multihash>> recursiveUnpin(Multihash h) {
+            return fallback.recursiveUnpin(h);
+        }
+
+        @Override
+        public CompletableFuture<List<Multihash>> directPin(List<Multihash> blocks) {
+            return fallback.directPin(blocks);
+        }
+
+        @Override
+        public CompletableFuture<List<Multihash>> directUnpin(List<Multihash> blocks) {
+            return fallback.directUnpin(blocks);
+        }
+
+        @Override
+        public CompletableFuture<List<Multihash>> getLinks(Multihash root) {
+            byte[] block = getLocal(root);
+            if (block != null)
+                return CompletableFuture.completedFuture(CborObject.fromByteArray(block).links());
+            return fallback.getLinks(root);
+        }
+
+        @Override
+        public CompletableFuture<Optional<Integer>> getSize(Multihash block) {
+            byte[] data = getLocal(block);
+            if (data != null)
+                return CompletableFuture.completedFuture(Optional.of(data.length));
+            return fallback.getSize(block);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package peergos.shared.hamt;
+
+import peergos.shared.io.ipfs.multihash.*;
+import peergos.shared.util.*;
+
+/** Decoded champ nodes which are known to be in a particular storage, because they have been read from it, or written
+ *  to it and the write has completed. Nodes are immutable and content addressed, so they can be shared by every tree
+ *  and thread using that storage.
+ */
+public interface ChampNodeCache {
+    int MAX_CACHED_NODES = 10_000;
+
+    /**
+     *
+     * @param hash
+     * @return The decoded node, or null if it isn't cached
+     */
+    Champ get(Multihash hash);
+
+    /** Only for nodes which have been read from, or committed to, the storage this cache belongs to
+     *
+     * @param hash
+     * @param node
+     */
+    void put(Multihash hash, Champ node);
+
+    void clear();
+
+    static ChampNodeCache bounded() {
+        return new Bounded(MAX_CACHED_NODES);
+    }
+
+    class Bounded implements ChampNodeCache {
+        private final GenerationalCache<Multihash, Champ> decoded;
+
+        public Bounded(int maxNodes) {
+            this.decoded = new GenerationalCache<>(maxNodes);
+        }
+
+        @Override
+        public Champ get(Multihash hash) {
+            return decoded.get(hash);
+        }
+
+        @Override
+        public void put(Multihash hash, Champ node) {
+            decoded.put(hash, node);
+        }
+
+        @Override
+        public void clear() {
+            decoded.clear();
+        }
+    }
+}
@@ -9,8 +9,10 @@ import peergos.shared.user.*;
 import peergos.shared.util.*;
 
 import java.io.*;
+import java.util.*;
 import java.util.concurrent.*;
 import java.util.function.*;
+import java.util.stream.*;
 
 public class ChampWrapper implements ImmutableTree
 {
@@ -30,10 +32,10 @@ public class ChampWrapper implements ImmutableTree
     }
 
     public static CompletableFuture<ChampWrapper> create(Multihash rootHash, Function<ByteArrayWrapper, byte[]> hasher, ContentAddressedStorage dht) {
-        return dht.get(rootHash).thenApply(rawOpt -> {
-            if (! rawOpt.isPresent())
+        return Champ.getNode(rootHash, dht).thenApply(rootOpt -> {
+            if (! rootOpt.isPresent())
                 throw new IllegalStateException("Null byte[] returned by DHT for hash: " + rootHash);
-            return new ChampWrapper(Champ.fromCbor(rawOpt.get()), rootHash, hasher, dht, BIT_WIDTH);
+            return new ChampWrapper(rootOpt.get(), rootHash, hasher, dht, BIT_WIDTH);
         });
     }
 
@@ -82,6 +84,54 @@ public class ChampWrapper implements ImmutableTree
                 .thenCompose(newRoot -> commit(writer, newRoot));
     }
 
+    /** Put many mappings, only writing the final version of each modified node
+     *
+     * @param writer
+     * @param changes raw keys, their expected current values, and their new values
+     * @return hash of new tree root
+     */
+    public CompletableFuture<Multihash> putAll(SigningPrivateKeyAndPublicHash writer,
+                                               List<Triple<byte[], MaybeMultihash, Multihash>> changes) {
+        return bulkPut(writer, changes.stream()
+                .map(c -> new Triple<>(new ByteArrayWrapper(c.left), c.middle, MaybeMultihash.of(c.right)))
+                .collect(Collectors.toList()));
+    }
+
+    /** Remove many mappings, only writing the final version of each modified node
+     *
+     * @param writer
+     * @param changes raw keys and their expected current values
+     * @return hash of new tree root
+     */
+    public CompletableFuture<Multihash> removeAll(SigningPrivateKeyAndPublicHash writer,
+                                                  List<Pair<byte[], MaybeMultihash>> changes) {
+        // consistent with remove
+        return bulkPut(writer, changes.stream()
+                .map(c -> new Triple<>(new ByteArrayWrapper(c.left), c.right, MaybeMultihash.empty()))
+                .collect(Collectors.toList()));
+    }
+
+    /** Apply many puts and removes, only writing the final version of each modified node
+     *
+     * @param writer
+     * @param changes raw keys, their expected current values, and their new values (empty for a remove)
+     * @return hash of new tree root
+     */
+    public CompletableFuture<Multihash> updateAll(SigningPrivateKeyAndPublicHash writer,
+                                                  List<Triple<byte[], MaybeMultihash, MaybeMultihash>> changes) {
+        return bulkPut(writer, changes.stream()
+                .map(c -> new Triple<>(new ByteArrayWrapper(c.left), c.middle, c.right))
+                .collect(Collectors.toList()));
+    }
+
+    private CompletableFuture<Multihash> bulkPut(SigningPrivateKeyAndPublicHash writer,
+                                                 List<Triple<ByteArrayWrapper, MaybeMultihash, MaybeMultihash>> changes) {
+        return Champ.bulkApply(writer, root.left, root.right, changes, (current, change, buffer) ->
+                current.left.put(writer, change.left, hasher.apply(change.left), 0, change.middle, change.right,
+                        BIT_WIDTH, MAX_HASH_COLLISIONS_PER_LEVEL, hasher, buffer, current.right), hasher, storage)
+                .thenCompose(newRoot -> commit(writer, newRoot));
+    }
+
     private CompletableFuture<Multihash> commit(SigningPrivateKeyAndPublicHash writer, Pair<Champ, Multihash> newRoot) {
         root = newRoot;
         return CompletableFuture.completedFuture(newRoot.right);
@@ -105,4 +155,12 @@ public class ChampWrapper implements ImmutableTree
                                                        BiFunction<T, Pair<ByteArrayWrapper, MaybeMultihash>, CompletableFuture<T>> consumer) {
         return root.left.applyToAllMappings(identity, consumer, storage);
     }
+
+    /**
+     *
+     * @return a lazy stream of every mapping in the tree
+     */
+    public Stream<Pair<ByteArrayWrapper, MaybeMultihash>> stream() {
+        return root.left.stream(storage);
+    }
 }
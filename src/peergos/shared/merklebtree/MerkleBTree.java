@@ -108,6 +108,17 @@ public class MerkleBTree implements ImmutableTree
         return root.applyToAllMappings(identity, consumer, storage);
     }
 
+    /**
+     *
+     * @param after the key to start after, or empty to start at the beginning
+     * @param limit
+     * @return the first limit mappings after the given key, in key order
+     */
+    public CompletableFuture<List<Pair<ByteArrayWrapper, MaybeMultihash>>> getMappingsAfter(Optional<ByteArrayWrapper> after,
+                                                                                       int limit) {
+        return root.getMappingsAfter(after, limit, storage);
+    }
+
     public void print(PrintStream w) throws Exception {
         root.print(w, 0, storage);
     }
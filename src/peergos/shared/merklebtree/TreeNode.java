@@ -223,6 +223,47 @@ public class TreeNode implements Cborable {
                 ), (a, b) -> a);
     }
 
+    /** The first mappings, in key order, after a given key. Subtrees which only hold earlier keys aren't retrieved.
+     *
+     * @param after the key to start after, or empty to start at the beginning
+     * @param limit the maximum number of mappings to return
+     * @param storage
+     * @return at most limit mappings, in key order
+     */
+    public CompletableFuture<List<Pair<ByteArrayWrapper, MaybeMultihash>>> getMappingsAfter(Optional<ByteArrayWrapper> after,
+                                                                                       int limit,
+                                                                                       ContentAddressedStorage storage) {
+        return getMappingsAfter(after, limit, new ArrayList<>(), storage);
+    }
+
+    private CompletableFuture<List<Pair<ByteArrayWrapper, MaybeMultihash>>> getMappingsAfter(Optional<ByteArrayWrapper> after,
+                                                                                        int limit,
+                                                                                        List<Pair<ByteArrayWrapper, MaybeMultihash>> res,
+                                                                                        ContentAddressedStorage storage) {
+        List<KeyElement> elements = new ArrayList<>(keys);
+        List<Integer> indices = IntStream.range(0, elements.size()).boxed().collect(Collectors.toList());
+        return Futures.reduceAll(indices, res, (acc, i) -> {
+            if (acc.size() >= limit)
+                return CompletableFuture.completedFuture(acc);
+            KeyElement key = elements.get(i);
+            if (key.valueHash.isPresent() && isAfter(key.key, after))
+                acc.add(new Pair<>(key.key, key.valueHash));
+            if (acc.size() >= limit || ! key.targetHash.isPresent())
+                return CompletableFuture.completedFuture(acc);
+            // the child only holds keys before the next key in this node
+            if (i + 1 < elements.size() && ! isAfter(elements.get(i + 1).key, after))
+                return CompletableFuture.completedFuture(acc);
+            Multihash child = key.targetHash.get();
+            return storage.get(child)
+                    .thenApply(rawOpt -> TreeNode.fromCbor(rawOpt.orElseThrow(() -> new IllegalStateException("Hash not present! " + child))))
+                    .thenCompose(node -> node.getMappingsAfter(after, limit, acc, storage));
+        }, (a, b) -> b);
+    }
+
+    private static boolean isAfter(ByteArrayWrapper key, Optional<ByteArrayWrapper> after) {
+        return ! after.isPresent() || key.compareTo(after.get()) > 0;
+    }
+
     private KeyElement smallestNonZeroKey() {
         return keys.tailSet(new KeyElement(new ByteArrayWrapper(new byte[]{0}), MaybeMultihash.empty(), MaybeMultihash.empty())).first();
     }
@@ -1,45 +1,355 @@
 package peergos.shared.mutable;
 
+import peergos.shared.crypto.*;
 import peergos.shared.crypto.hash.*;
+import peergos.shared.hamt.*;
 import peergos.shared.util.*;
 
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.function.*;
+import java.util.stream.*;
 
 /*
- * A CoreNode that caches previous metadata blob reads for a certain time
+ * A bounded cache of mutable pointers. Whilst it is subscribed to changes to a pointer from the server's feed, the
+ * cached pointer is valid until the feed says it has changed, otherwise it expires after a certain time. The
+ * subscription is to the most recently used cached pointers, and to the follow requests of any owners added with
+ * subscribeToFollowRequests.
  */
 public class CachingPointers implements MutablePointers {
+    private static final int MAX_RETRY_DELAY_MILLIS = 5 * 60 * 1000;
+
+    private static class CachedPointer {
+        final Optional<byte[]> value;
+        final long timestamp;
+        volatile long lastAccess;
+        // the number of feed responses applied before this value was known to be current
+        volatile long feedPosition;
+
+        CachedPointer(Optional<byte[]> value, long timestamp, long feedPosition) {
+            this.value = value;
+            this.timestamp = timestamp;
+            this.lastAccess = timestamp;
+            this.feedPosition = feedPosition;
+        }
+    }
 
     private final MutablePointers target;
     private final int cacheTTL;
-    private final Map<PublicKeyHash, Pair<Optional<byte[]>, Long>> cache = new HashMap<>();
+    private final int maxEntries;
+    private final Map<PublicKeyHash, CachedPointer> cache = new ConcurrentHashMap<>();
+    private volatile boolean isFollowingUpdates = false;
+    // set if the server doesn't have a feed, in which case we only ever expire entries
+    private volatile boolean isFeedUnsupported = false;
+    // the keys included in the feed request in progress, and the number of feed responses applied before it was sent
+    private volatile Set<PublicKeyHash> subscribed = Collections.emptySet();
+    private volatile Set<PublicKeyHash> subscribedOwners = Collections.emptySet();
+    private volatile long subscribedPosition = 0;
+    private volatile long feedResponses = 0;
+    private final Map<PublicKeyHash, FollowRequestsSubscription> followRequestSubscriptions = new HashMap<>();
+    // incremented for a key whenever its follow requests may have changed
+    private final Map<PublicKeyHash, Long> followRequestVersions = new HashMap<>();
+    // the number of feed updates applied, used to avoid caching a value which was fetched before a change
+    private volatile long generation = 0;
+    private long feedEpoch = 0, feedSequence = PointerFeed.START;
 
-    public CachingPointers(MutablePointers target, int cacheTTL) {
+    public CachingPointers(MutablePointers target, int cacheTTL, int maxEntries) {
         this.target = target;
         this.cacheTTL = cacheTTL;
+        this.maxEntries = maxEntries;
+    }
+
+    public CachingPointers(MutablePointers target, int cacheTTL) {
+        this(target, cacheTTL, 10_000);
     }
 
     @Override
     public CompletableFuture<Optional<byte[]>> getPointer(PublicKeyHash writer) {
-        synchronized (cache) {
-            Pair<Optional<byte[]>, Long> cached = cache.get(writer);
-            if (cached != null && System.currentTimeMillis() - cached.right < cacheTTL)
-                return CompletableFuture.completedFuture(cached.left);
+        CachedPointer cached = cache.get(writer);
+        long now = System.currentTimeMillis();
+        if (cached != null && isValid(writer, cached, now)) {
+            cached.lastAccess = now;
+            return CompletableFuture.completedFuture(cached.value);
         }
+        long generationBefore = generation;
+        long positionBefore = feedResponses;
         return target.getPointer(writer).thenApply(m -> {
-            synchronized (cache) {
-                cache.put(writer, new Pair<>(m, System.currentTimeMillis()));
+            synchronized (this) {
+                if (generation == generationBefore)
+                    put(writer, m, positionBefore);
             }
             return m;
         });
     }
 
+    @Override
+    public CompletableFuture<Map<PublicKeyHash, Optional<byte[]>>> getPointers(List<PublicKeyHash> writers) {
+        Map<PublicKeyHash, Optional<byte[]>> res = new HashMap<>();
+        List<PublicKeyHash> missing = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        for (PublicKeyHash writer : writers) {
+            CachedPointer cached = cache.get(writer);
+            if (cached != null && isValid(writer, cached, now)) {
+                cached.lastAccess = now;
+                res.put(writer, cached.value);
+            } else
+                missing.add(writer);
+        }
+        if (missing.isEmpty())
+            return CompletableFuture.completedFuture(res);
+        long generationBefore = generation;
+        long positionBefore = feedResponses;
+        return target.getPointers(missing).thenApply(fetched -> {
+            synchronized (this) {
+                if (generation == generationBefore)
+                    for (Map.Entry<PublicKeyHash, Optional<byte[]>> e : fetched.entrySet())
+                        put(e.getKey(), e.getValue(), positionBefore);
+            }
+            res.putAll(fetched);
+            return res;
+        });
+    }
+
+    /** A cached pointer is used with blocks retrieved as needed, otherwise the whole lookup is done remotely and its
+     *  pointer is cached.
+     *
+     */
+    @Override
+    public CompletableFuture<ChampLookup> getLookup(PublicKeyHash writer, byte[] mapKey) {
+        CachedPointer cached = cache.get(writer);
+        long now = System.currentTimeMillis();
+        if (cached != null && isValid(writer, cached, now)) {
+            cached.lastAccess = now;
+            return CompletableFuture.completedFuture(new ChampLookup(cached.value, Collections.emptyList()));
+        }
+        long generationBefore = generation;
+        long positionBefore = feedResponses;
+        return target.getLookup(writer, mapKey).thenApply(lookup -> {
+            synchronized (this) {
+                if (generation == generationBefore)
+                    put(writer, lookup.signedPointer, positionBefore);
+            }
+            return lookup;
+        });
+    }
+
     @Override
     public CompletableFuture<Boolean> setPointer(PublicKeyHash ownerPublicKey, PublicKeyHash writer, byte[] writerSignedBtreeRootHash) {
-        synchronized (cache) {
-            cache.remove(writer);
+        cache.remove(writer);
+        return target.setPointer(ownerPublicKey, writer, writerSignedBtreeRootHash).thenApply(success -> {
+            if (success)
+                written(Collections.singletonList(new PointerUpdates.PointerUpdate(writer, writerSignedBtreeRootHash)));
+            return success;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Boolean> setPointers(PublicKeyHash owner, List<PointerUpdates.PointerUpdate> updates) {
+        for (PointerUpdates.PointerUpdate update : updates)
+            cache.remove(update.writer);
+        return target.setPointers(owner, updates).thenApply(success -> {
+            if (success)
+                written(updates);
+            return success;
+        });
+    }
+
+    /** Cache the values we have just written, and stop any read which started before the write from caching the
+     *  value it fetched.
+     *
+     */
+    private synchronized void written(List<PointerUpdates.PointerUpdate> updates) {
+        generation++;
+        for (PointerUpdates.PointerUpdate update : updates)
+            put(update.writer, Optional.of(update.writerSignedBtreeRootHash), feedResponses);
+    }
+
+    private boolean isValid(PublicKeyHash writer, CachedPointer cached, long now) {
+        // The feed request in progress only reports changes after the position it was sent from
+        boolean isFollowed = isFollowingUpdates && subscribed.contains(writer) && cached.feedPosition >= subscribedPosition;
+        return isFollowed || now - cached.timestamp < cacheTTL;
+    }
+
+    /** Include the follow requests sent to an owner in the subscription to the feed. The owner signs the subscription,
+     *  and signs it again whenever it is half way to expiring.
+     *
+     * @param owner
+     */
+    public synchronized void subscribeToFollowRequests(SigningPrivateKeyAndPublicHash owner) {
+        long now = System.currentTimeMillis();
+        FollowRequestsSubscription existing = followRequestSubscriptions.get(owner.publicKeyHash);
+        if (existing == null || now - existing.time > FollowRequestsSubscription.MAX_AGE_MILLIS / 2)
+            followRequestSubscriptions.put(owner.publicKeyHash, FollowRequestsSubscription.sign(owner, now));
+    }
+
+    /** The follow requests of a key can be cached while this version stays the same. It is empty if the feed isn't
+     *  currently following the key, in which case they must be retrieved every time.
+     *
+     * @param owner a key added with subscribeToFollowRequests
+     * @return
+     */
+    public synchronized Optional<Long> getFollowRequestsVersion(PublicKeyHash owner) {
+        if (! isFollowingUpdates || ! subscribedOwners.contains(owner))
+            return Optional.empty();
+        return Optional.of(followRequestVersions.getOrDefault(owner, 0L));
+    }
+
+    private void followRequestsChanged(Collection<PublicKeyHash> owners) {
+        for (PublicKeyHash owner : owners)
+            followRequestVersions.put(owner, followRequestVersions.getOrDefault(owner, 0L) + 1);
+    }
+
+    private synchronized List<FollowRequestsSubscription> followRequestsToSubscribe() {
+        long now = System.currentTimeMillis();
+        return followRequestSubscriptions.values().stream()
+                .filter(sub -> sub.isCurrent(now))
+                .limit(PointerFeed.MAX_SUBSCRIBED_KEYS)
+                .collect(Collectors.toList());
+    }
+
+    private synchronized Set<PublicKeyHash> writersToSubscribe(int maxWriters) {
+        return cache.entrySet().stream()
+                .sorted((a, b) -> Long.compare(b.getValue().lastAccess, a.getValue().lastAccess))
+                .limit(maxWriters)
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toSet());
+    }
+
+    private void put(PublicKeyHash writer, Optional<byte[]> value, long feedPosition) {
+        cache.put(writer, new CachedPointer(value, System.currentTimeMillis(), feedPosition));
+        if (cache.size() > maxEntries)
+            evictLeastRecentlyUsed();
+    }
+
+    private synchronized void evictLeastRecentlyUsed() {
+        int toRemove = cache.size() - maxEntries + maxEntries / 8;
+        if (toRemove <= 0)
+            return;
+        List<Map.Entry<PublicKeyHash, CachedPointer>> entries = new ArrayList<>(cache.entrySet());
+        entries.sort(Comparator.comparingLong(e -> e.getValue().lastAccess));
+        for (int i = 0; i < toRemove && i < entries.size(); i++)
+            cache.remove(entries.get(i).getKey());
+    }
+
+    /** Apply the next batch of changes to the subscribed keys from a feed of pointer changes.
+     *
+     * @param feed
+     * @return true if the cache is now up to date with the feed
+     */
+    public CompletableFuture<Boolean> pollUpdates(PointerFeed feed) {
+        if (isFeedUnsupported)
+            return CompletableFuture.completedFuture(false);
+        Set<PublicKeyHash> keys;
+        List<FollowRequestsSubscription> followRequests;
+        long requestPosition;
+        synchronized (this) {
+            followRequests = followRequestsToSubscribe();
+            keys = writersToSubscribe(PointerFeed.MAX_SUBSCRIBED_KEYS - followRequests.size());
+            requestPosition = feedResponses;
+            // A writer cached after this is only covered by the next request
+            subscribed = keys;
+            subscribedOwners = followRequests.stream()
+                    .map(sub -> sub.owner)
+                    .collect(Collectors.toSet());
+            subscribedPosition = requestPosition;
         }
-        return target.setPointer(ownerPublicKey, writer, writerSignedBtreeRootHash);
+        return feed.getUpdates(feedEpoch, feedSequence, keys, followRequests).thenApply(updates -> {
+            synchronized (this) {
+                if (updates.reset || ! updates.updates.isEmpty())
+                    generation++;
+                if (updates.reset) {
+                    cache.clear();
+                    // we may have missed changes to follow requests too
+                    followRequestsChanged(followRequestSubscriptions.keySet());
+                }
+                long position = ++feedResponses;
+                long now = System.currentTimeMillis();
+                // every subscribed value which was current when the request was sent is now current up to the response
+                for (PublicKeyHash key : keys) {
+                    CachedPointer cached = cache.get(key);
+                    if (cached != null && cached.feedPosition >= requestPosition)
+                        cached.feedPosition = position;
+                }
+                for (PointerUpdates.PointerUpdate update : updates.updates)
+                    if (cache.containsKey(update.writer))
+                        cache.put(update.writer, new CachedPointer(Optional.of(update.writerSignedBtreeRootHash), now, position));
+                feedEpoch = updates.epoch;
+                feedSequence = updates.sequence;
+                followRequestsChanged(updates.followRequests);
+                isFollowingUpdates = true;
+            }
+            return true;
+        }).exceptionally(t -> {
+            if (Exceptions.isUnknownMethod(t))
+                isFeedUnsupported = true;
+            stopFollowing();
+            return false;
+        });
+    }
+
+    /**
+     *
+     * @return whether the server has told us it has no feed, so cached pointers can only ever expire
+     */
+    public boolean isFeedUnsupported() {
+        return isFeedUnsupported;
+    }
+
+    /** We may miss changes until we reconnect, so fall back to expiring entries, and retrieving follow requests
+     *
+     */
+    private synchronized void stopFollowing() {
+        isFollowingUpdates = false;
+        followRequestsChanged(followRequestSubscriptions.keySet());
+    }
+
+    /** The delay before polling again after consecutive failures, which doubles up to a maximum
+     */
+    private int retryDelay(int failures) {
+        return (int) Math.min(MAX_RETRY_DELAY_MILLIS, (long) cacheTTL << Math.min(failures - 1, 16));
+    }
+
+    /** Keep this cache up to date by polling the feed asynchronously, one request at a time. If a request fails,
+     *  stop following, so cached pointers expire again, and try again after a delay, unless the server doesn't have a
+     *  feed.
+     *
+     * @param feed
+     * @param delay runs a task after a number of milliseconds
+     */
+    public void followUpdatesAsync(PointerFeed feed, BiConsumer<Runnable, Integer> delay) {
+        followUpdatesAsync(feed, delay, 0);
+    }
+
+    private void followUpdatesAsync(PointerFeed feed, BiConsumer<Runnable, Integer> delay, int failures) {
+        // start each request from the previous response, rather than chaining futures which would never be released
+        pollUpdates(feed).thenAccept(upToDate -> {
+            if (upToDate)
+                followUpdatesAsync(feed, delay, 0);
+            else if (! isFeedUnsupported)
+                delay.accept(() -> followUpdatesAsync(feed, delay, failures + 1), retryDelay(failures + 1));
+        });
+    }
+
+    /** Keep this cache up to date from a background thread, retrying after failures, unless the server doesn't have a
+     *  feed. This is only for JVM clients, which should share one instance per server, see NetworkAccess.
+     *
+     * @param feed
+     */
+    public void followUpdates(PointerFeed feed) {
+        Thread updater = new Thread(() -> {
+            int failures = 0;
+            while (! isFeedUnsupported) {
+                try {
+                    if (pollUpdates(feed).get())
+                        failures = 0;
+                    else
+                        Thread.sleep(retryDelay(++failures));
+                } catch (Exception e) {
+                    stopFollowing();
+                }
+            }
+        });
+        updater.setDaemon(true);
+        updater.start();
     }
 }
@@ -0,0 +1,82 @@
+package peergos.shared.mutable;
+
+import peergos.shared.cbor.*;
+import peergos.shared.crypto.*;
+import peergos.shared.crypto.hash.*;
+import peergos.shared.storage.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/** A request, signed by an owner, to be told by a PointerFeed when the follow requests sent to the owner change.
+ *  Without this anyone could see when someone sends a follow request to a key, just by naming it.
+ *
+ */
+public class FollowRequestsSubscription implements Cborable {
+    /** How long a subscription is accepted for after it is signed, either side of the server's clock */
+    public static final long MAX_AGE_MILLIS = 24 * 60 * 60 * 1000L;
+
+    public final PublicKeyHash owner;
+    public final long time;
+    private final byte[] signedPayload;
+
+    public FollowRequestsSubscription(PublicKeyHash owner, long time, byte[] signedPayload) {
+        this.owner = owner;
+        this.time = time;
+        this.signedPayload = signedPayload;
+    }
+
+    private static byte[] payload(long time) {
+        return new CborObject.CborList(Arrays.asList(
+                new CborObject.CborString("followRequests"),
+                new CborObject.CborLong(time)
+        )).serialize();
+    }
+
+    public static FollowRequestsSubscription sign(SigningPrivateKeyAndPublicHash owner, long time) {
+        return new FollowRequestsSubscription(owner.publicKeyHash, time, owner.secret.signMessage(payload(time)));
+    }
+
+    public boolean isCurrent(long now) {
+        return Math.abs(now - time) < MAX_AGE_MILLIS;
+    }
+
+    /**
+     *
+     * @param dht where to find the owner's public signing key
+     * @param now
+     * @return whether this is current and really signed by the owner
+     */
+    public CompletableFuture<Boolean> isValid(ContentAddressedStorage dht, long now) {
+        if (! isCurrent(now))
+            return CompletableFuture.completedFuture(false);
+        return dht.getSigningKey(owner).thenApply(key -> {
+            if (! key.isPresent())
+                return false;
+            try {
+                return Arrays.equals(payload(time), key.get().unsignMessage(signedPayload));
+            } catch (RuntimeException e) {
+                return false;
+            }
+        });
+    }
+
+    @Override
+    public CborObject toCbor() {
+        return new CborObject.CborList(Arrays.asList(
+                owner.toCbor(),
+                new CborObject.CborLong(time),
+                new CborObject.CborByteArray(signedPayload)
+        ));
+    }
+
+    public static FollowRequestsSubscription fromCbor(Cborable cbor) {
+        if (! (cbor instanceof CborObject.CborList))
+            throw new IllegalStateException("Incorrect cbor for FollowRequestsSubscription: " + cbor);
+        List<? extends Cborable> value = ((CborObject.CborList) cbor).value;
+        return new FollowRequestsSubscription(
+                PublicKeyHash.fromCbor(value.get(0)),
+                ((CborObject.CborLong) value.get(1)).value,
+                ((CborObject.CborByteArray) value.get(2)).value);
+    }
+}
@@ -2,7 +2,9 @@
 package peergos.shared.mutable;
 import java.util.logging.*;
 
+import peergos.shared.cbor.*;
 import peergos.shared.crypto.hash.*;
+import peergos.shared.hamt.*;
 import peergos.shared.user.*;
 import peergos.shared.util.*;
 
@@ -11,11 +13,13 @@ import java.net.*;
 import java.util.*;
 import java.util.concurrent.*;
 
-public class HttpMutablePointers implements MutablePointers {
+public class HttpMutablePointers implements MutablePointers, PointerFeed {
 	private static final Logger LOG = Logger.getGlobal();
 
     private static final boolean LOGGING = true;
     private final HttpPoster poster;
+    // set once the server tells us it can't resolve lookups, e.g. it has no dht
+    private volatile boolean isLookupUnsupported = false;
 
     public static MutablePointers getInstance(URL coreURL) throws IOException {
         return new HttpMutablePointers(new JavaPoster(coreURL));
@@ -59,6 +63,47 @@ public class HttpMutablePointers implements MutablePointers {
         }
     }
 
+    @Override
+    public CompletableFuture<Boolean> setPointers(PublicKeyHash owner, List<PointerUpdates.PointerUpdate> updates) {
+        if (updates.isEmpty())
+            return CompletableFuture.completedFuture(true);
+        if (updates.size() == 1)
+            return setPointer(owner, updates.get(0).writer, updates.get(0).writerSignedBtreeRootHash);
+        CborObject.CborList request = new CborObject.CborList(Arrays.asList(owner.toCbor(), new CborObject.CborList(updates)));
+        return poster.postUnzip("mutable/setPointers", request.serialize()).thenApply(res -> {
+            DataInputStream din = new DataInputStream(new ByteArrayInputStream(res));
+            try {
+                return din.readBoolean();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<PointerUpdates> getUpdates(long epoch,
+                                                        long since,
+                                                        Set<PublicKeyHash> writers,
+                                                        List<FollowRequestsSubscription> followRequests) {
+        try {
+            ByteArrayOutputStream bout = new ByteArrayOutputStream();
+            DataOutputStream dout = new DataOutputStream(bout);
+            dout.writeLong(epoch);
+            dout.writeLong(since);
+            dout.write(new CborObject.CborList(Arrays.asList(
+                    new CborObject.CborList(new ArrayList<>(writers)),
+                    new CborObject.CborList(followRequests)
+            )).serialize());
+            dout.flush();
+            return poster.postUnzip("mutable/subscribe", bout.toByteArray())
+                    .thenApply(res -> PointerUpdates.fromCbor(CborObject.fromByteArray(res)));
+        } catch (IOException ioe) {
+            CompletableFuture<PointerUpdates> err = new CompletableFuture<>();
+            err.completeExceptionally(ioe);
+            return err;
+        }
+    }
+
     @Override
     public CompletableFuture<Optional<byte[]>> getPointer(PublicKeyHash writer)
     {
@@ -75,4 +120,69 @@ public class HttpMutablePointers implements MutablePointers {
                 LOG.info("HttpMutablePointers.get took " + (t2 -t1) + "mS");
         }
     }
+
+    /** The server limits the size of each request, so larger lookups are split into several concurrent requests
+     *
+     */
+    @Override
+    public CompletableFuture<Map<PublicKeyHash, Optional<byte[]>>> getPointers(List<PublicKeyHash> writers) {
+        if (writers.isEmpty())
+            return CompletableFuture.completedFuture(Collections.emptyMap());
+        List<PublicKeyHash> distinct = new ArrayList<>(new LinkedHashSet<>(writers));
+        if (distinct.size() <= MAX_WRITERS_PER_GET_POINTERS)
+            return getPointersBatch(distinct);
+        List<CompletableFuture<Map<PublicKeyHash, Optional<byte[]>>>> batches = new ArrayList<>();
+        for (int i = 0; i < distinct.size(); i += MAX_WRITERS_PER_GET_POINTERS)
+            batches.add(getPointersBatch(distinct.subList(i, Math.min(distinct.size(), i + MAX_WRITERS_PER_GET_POINTERS))));
+        return Futures.combineAllInOrder(batches).thenApply(results -> {
+            Map<PublicKeyHash, Optional<byte[]>> res = new HashMap<>();
+            for (Map<PublicKeyHash, Optional<byte[]>> batch : results)
+                res.putAll(batch);
+            return res;
+        });
+    }
+
+    private CompletableFuture<Map<PublicKeyHash, Optional<byte[]>>> getPointersBatch(List<PublicKeyHash> distinct) {
+        return poster.postUnzip("mutable/getPointers", new CborObject.CborList(distinct).serialize())
+                .thenApply(raw -> {
+                    List<? extends Cborable> values = ((CborObject.CborList) CborObject.fromByteArray(raw)).value;
+                    if (values.size() != distinct.size())
+                        throw new IllegalStateException("Incorrect number of pointers returned!");
+                    Map<PublicKeyHash, Optional<byte[]>> res = new HashMap<>();
+                    for (int i = 0; i < distinct.size(); i++) {
+                        byte[] meta = ((CborObject.CborByteArray) values.get(i)).value;
+                        res.put(distinct.get(i), meta.length == 0 ? Optional.empty() : Optional.of(meta));
+                    }
+                    return res;
+                });
+    }
+
+    /** A remote lookup is only an optimisation, so if it fails we fall back to just the pointer, and the caller walks
+     *  the champ itself.
+     *
+     */
+    @Override
+    public CompletableFuture<ChampLookup> getLookup(PublicKeyHash writer, byte[] mapKey) {
+        if (isLookupUnsupported)
+            return getPointerOnly(writer);
+        CborObject.CborList request = new CborObject.CborList(Arrays.asList(writer.toCbor(), new CborObject.CborByteArray(mapKey)));
+        CompletableFuture<ChampLookup> res = new CompletableFuture<>();
+        poster.postUnzip("mutable/lookup", request.serialize())
+                .thenApply(raw -> res.complete(ChampLookup.fromCbor(CborObject.fromByteArray(raw))))
+                .exceptionally(t -> {
+                    if (Exceptions.isUnknownMethod(t))
+                        isLookupUnsupported = true;
+                    else
+                        LOG.log(Level.WARNING, t.getMessage(), t);
+                    getPointerOnly(writer)
+                            .thenApply(res::complete)
+                            .exceptionally(e -> res.completeExceptionally(e));
+                    return false;
+                });
+        return res;
+    }
+
+    private CompletableFuture<ChampLookup> getPointerOnly(PublicKeyHash writer) {
+        return getPointer(writer).thenApply(pointer -> new ChampLookup(pointer, Collections.emptyList()));
+    }
 }
@@ -3,16 +3,21 @@ package peergos.shared.mutable;
 import peergos.shared.cbor.CborObject;
 import peergos.shared.crypto.asymmetric.*;
 import peergos.shared.crypto.hash.*;
+import peergos.shared.hamt.*;
 import peergos.shared.io.ipfs.multihash.*;
 import peergos.shared.merklebtree.HashCasPair;
 import peergos.shared.merklebtree.MaybeMultihash;
 import peergos.shared.storage.ContentAddressedStorage;
+import peergos.shared.util.*;
 
 import java.util.*;
 import java.util.concurrent.*;
 
 public interface MutablePointers {
 
+    /** The maximum number of writers a server will look up in a single getPointers request */
+    int MAX_WRITERS_PER_GET_POINTERS = 1024;
+
     /** Update the hash that a public key maps to (doing a cas with the existing value)
      *
      * @param owner
@@ -22,6 +27,24 @@ public interface MutablePointers {
      */
     CompletableFuture<Boolean> setPointer(PublicKeyHash owner, PublicKeyHash writer, byte[] writerSignedBtreeRootHash);
 
+    /** Update the hashes that several public keys map to, atomically. Each update is a cas with the existing value of
+     *  its writer, and either all of them are applied or none are. Implementations which talk to a remote server
+     *  should do this in a single request. By default only a single update is supported.
+     *
+     * @param owner
+     * @param updates at most one per writer
+     * @return true if every update was applied
+     */
+    default CompletableFuture<Boolean> setPointers(PublicKeyHash owner, List<PointerUpdates.PointerUpdate> updates) {
+        if (updates.isEmpty())
+            return CompletableFuture.completedFuture(true);
+        if (updates.size() == 1)
+            return setPointer(owner, updates.get(0).writer, updates.get(0).writerSignedBtreeRootHash);
+        CompletableFuture<Boolean> err = new CompletableFuture<>();
+        err.completeExceptionally(new IllegalStateException("Atomic update of multiple pointers is not supported!"));
+        return err;
+    }
+
     /** Get the current hash a public key maps to
      *
      * @param writer
@@ -29,6 +52,37 @@ public interface MutablePointers {
      */
     CompletableFuture<Optional<byte[]>> getPointer(PublicKeyHash writer);
 
+    /** Get the current hashes that a set of public keys map to. Implementations which talk to a remote server should
+     *  do this in a single round trip for each MAX_WRITERS_PER_GET_POINTERS writers.
+     *
+     * @param writers
+     * @return a map with an entry for every requested writer
+     */
+    default CompletableFuture<Map<PublicKeyHash, Optional<byte[]>>> getPointers(List<PublicKeyHash> writers) {
+        List<PublicKeyHash> distinct = new ArrayList<>(new LinkedHashSet<>(writers));
+        List<CompletableFuture<Optional<byte[]>>> futures = new ArrayList<>();
+        for (PublicKeyHash writer : distinct)
+            futures.add(getPointer(writer));
+        return Futures.combineAllInOrder(futures).thenApply(values -> {
+            Map<PublicKeyHash, Optional<byte[]>> res = new HashMap<>();
+            for (int i = 0; i < distinct.size(); i++)
+                res.put(distinct.get(i), values.get(i));
+            return res;
+        });
+    }
+
+    /** Get the current hash a public key maps to, along with the blocks needed to look up a key in its champ.
+     *  Implementations which talk to a remote server should do this in a single round trip. By default no blocks are
+     *  included, and they are retrieved as needed.
+     *
+     * @param writer
+     * @param mapKey
+     * @return the pointer and any blocks on the path to mapKey
+     */
+    default CompletableFuture<ChampLookup> getLookup(PublicKeyHash writer, byte[] mapKey) {
+        return getPointer(writer).thenApply(pointer -> new ChampLookup(pointer, Collections.emptyList()));
+    }
+
     /**
      * Get the CAS key-hash for the data pointed to by a writer-key.
      * @param writerKeyHash
@@ -37,24 +91,20 @@ public interface MutablePointers {
      */
     default CompletableFuture<MaybeMultihash> getPointerTarget(PublicKeyHash writerKeyHash, ContentAddressedStorage ipfs) {
         return getPointer(writerKeyHash)
-                .thenCompose(current -> ipfs.getSigningKey(writerKeyHash)
-                        .thenApply(writerOpt -> writerOpt.map(writerKey -> current
-                                .map(signed -> HashCasPair.fromCbor(CborObject.fromByteArray(writerKey.unsignMessage(signed))).updated)
-                                .orElse(MaybeMultihash.empty()))
-                                .orElse(MaybeMultihash.empty())
-                        )
-                );
+                .thenCompose(current -> VerifiedPointers.getTarget(writerKeyHash, current, ipfs));
     }
 
-    static boolean isValidUpdate(PublicSigningKey writerKey, Optional<byte[]> current, byte[] writerSignedBtreeRootHash) {
-        byte[] bothHashes = writerKey.unsignMessage(writerSignedBtreeRootHash);
+    static boolean isValidUpdate(PublicKeyHash writer,
+                                 PublicSigningKey writerKey,
+                                 Optional<byte[]> current,
+                                 byte[] writerSignedBtreeRootHash) {
         // check CAS [current hash, new hash]
-        HashCasPair cas = HashCasPair.fromCbor(CborObject.fromByteArray(bothHashes));
+        HashCasPair cas = VerifiedPointers.verify(writer, writerKey, writerSignedBtreeRootHash);
         MaybeMultihash claimedCurrentHash = cas.original;
         Multihash newHash = cas.updated.get();
 
         MaybeMultihash existing = current
-                .map(signed -> HashCasPair.fromCbor(CborObject.fromByteArray(writerKey.unsignMessage(signed))).updated)
+                .map(signed -> VerifiedPointers.verify(writer, writerKey, signed).updated)
                 .orElse(MaybeMultihash.empty());
         return existing.equals(claimedCurrentHash);
     }
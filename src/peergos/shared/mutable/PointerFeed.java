@@ -0,0 +1,33 @@
+package peergos.shared.mutable;
+
+import peergos.shared.crypto.hash.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/** A feed of committed changes to mutable pointers, and of changes to follow requests
+ *
+ */
+public interface PointerFeed {
+
+    /** The resume position to use for the first request to a feed */
+    long START = -1;
+
+    /** The maximum number of keys in a single subscription */
+    int MAX_SUBSCRIBED_KEYS = 1000;
+
+    /** Wait for changes to the mutable pointers of a set of writers, or the follow requests sent to a set of owners,
+     *  after a given position in the feed. This will complete once any of them change, or after a timeout with no
+     *  changes.
+     *
+     * @param epoch the epoch of the feed returned by the previous request, or 0
+     * @param since the sequence returned by the previous request, or START
+     * @param writers the writers to receive pointer changes for
+     * @param followRequests the owners to receive follow request changes for, which are ignored unless valid
+     * @return the changes to the given keys, and the position to resume from
+     */
+    CompletableFuture<PointerUpdates> getUpdates(long epoch,
+                                                 long since,
+                                                 Set<PublicKeyHash> writers,
+                                                 List<FollowRequestsSubscription> followRequests);
+}
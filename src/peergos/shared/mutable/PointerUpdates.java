@@ -0,0 +1,92 @@
+package peergos.shared.mutable;
+
+import peergos.shared.cbor.*;
+import peergos.shared.crypto.hash.*;
+
+import java.util.*;
+import java.util.stream.*;
+
+/** A batch of changes from a PointerFeed
+ *
+ */
+public class PointerUpdates implements Cborable {
+
+    public static class PointerUpdate implements Cborable {
+        public final PublicKeyHash writer;
+        public final byte[] writerSignedBtreeRootHash;
+
+        public PointerUpdate(PublicKeyHash writer, byte[] writerSignedBtreeRootHash) {
+            this.writer = writer;
+            this.writerSignedBtreeRootHash = writerSignedBtreeRootHash;
+        }
+
+        @Override
+        public CborObject toCbor() {
+            return new CborObject.CborList(Arrays.asList(
+                    writer.toCbor(),
+                    new CborObject.CborByteArray(writerSignedBtreeRootHash)
+            ));
+        }
+
+        public static PointerUpdate fromCbor(Cborable cbor) {
+            if (! (cbor instanceof CborObject.CborList))
+                throw new IllegalStateException("Incorrect cbor for PointerUpdate: " + cbor);
+            List<? extends Cborable> value = ((CborObject.CborList) cbor).value;
+            return new PointerUpdate(PublicKeyHash.fromCbor(value.get(0)), ((CborObject.CborByteArray) value.get(1)).value);
+        }
+    }
+
+    /** The position to resume the feed from */
+    public final long epoch, sequence;
+    /** Whether changes have been missed since the requested position, in which case anything derived from earlier
+     *  pointer values must be discarded */
+    public final boolean reset;
+    /** The latest value of each pointer that changed, in commit order */
+    public final List<PointerUpdate> updates;
+    /** The owners whose pending follow requests changed */
+    public final List<PublicKeyHash> followRequests;
+
+    public PointerUpdates(long epoch, long sequence, boolean reset, List<PointerUpdate> updates, List<PublicKeyHash> followRequests) {
+        this.epoch = epoch;
+        this.sequence = sequence;
+        this.reset = reset;
+        this.updates = updates;
+        this.followRequests = followRequests;
+    }
+
+    public PointerUpdates(long epoch, long sequence, boolean reset, List<PointerUpdate> updates) {
+        this(epoch, sequence, reset, updates, Collections.emptyList());
+    }
+
+    public boolean isEmpty() {
+        return updates.isEmpty() && followRequests.isEmpty();
+    }
+
+    @Override
+    public CborObject toCbor() {
+        return new CborObject.CborList(Arrays.asList(
+                new CborObject.CborLong(epoch),
+                new CborObject.CborLong(sequence),
+                new CborObject.CborBoolean(reset),
+                new CborObject.CborList(updates),
+                new CborObject.CborList(followRequests)
+        ));
+    }
+
+    public static PointerUpdates fromCbor(CborObject cbor) {
+        if (! (cbor instanceof CborObject.CborList))
+            throw new IllegalStateException("Incorrect cbor for PointerUpdates: " + cbor);
+
+        List<? extends Cborable> value = ((CborObject.CborList) cbor).value;
+        return new PointerUpdates(
+                ((CborObject.CborLong) value.get(0)).value,
+                ((CborObject.CborLong) value.get(1)).value,
+                ((CborObject.CborBoolean) value.get(2)).value,
+                ((CborObject.CborList) value.get(3)).value.stream()
+                        .map(PointerUpdate::fromCbor)
+                        .collect(Collectors.toList()),
+                value.size() < 5 ? Collections.emptyList() : ((CborObject.CborList) value.get(4)).value.stream()
+                        .map(PublicKeyHash::fromCbor)
+                        .collect(Collectors.toList()));
+    }
+}
@@ -0,0 +1,109 @@
+package peergos.shared.mutable;
+
+import peergos.shared.cbor.*;
+import peergos.shared.crypto.asymmetric.*;
+import peergos.shared.crypto.hash.*;
+import peergos.shared.merklebtree.*;
+import peergos.shared.storage.*;
+import peergos.shared.util.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/** A bounded cache of the verified contents of signed pointer values.
+ *
+ *  Verifying the signature on a pointer is comparatively expensive, and an unchanged pointer is read many times. A
+ *  writer's signing key is content addressed by the writer's hash, so a signed value which verified once for a writer
+ *  always will, and we can reuse the result without the signing key.
+ */
+public class VerifiedPointers {
+
+    private static final int MAX_ENTRIES = 10_000;
+
+    private static final class Key {
+        private final PublicKeyHash writer;
+        private final ByteArrayWrapper signed;
+
+        Key(PublicKeyHash writer, byte[] signed) {
+            this.writer = writer;
+            this.signed = new ByteArrayWrapper(signed);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return writer.equals(key.writer) && signed.equals(key.signed);
+        }
+
+        @Override
+        public int hashCode() {
+            return writer.hashCode() * 31 + signed.hashCode();
+        }
+    }
+
+    private static final Map<Key, HashCasPair> verified = new ConcurrentHashMap<>();
+
+    /**
+     *
+     * @param writer
+     * @param writerKey the signing key of writer
+     * @param writerSignedBtreeRootHash the signed serialization of the HashCasPair
+     * @return the verified HashCasPair
+     */
+    public static HashCasPair verify(PublicKeyHash writer, PublicSigningKey writerKey, byte[] writerSignedBtreeRootHash) {
+        HashCasPair cached = verified.get(new Key(writer, writerSignedBtreeRootHash));
+        if (cached != null)
+            return cached;
+        HashCasPair cas = HashCasPair.fromCbor(CborObject.fromByteArray(writerKey.unsignMessage(writerSignedBtreeRootHash)));
+        cache(writer, writerSignedBtreeRootHash, cas);
+        return cas;
+    }
+
+    /** Verify a signed pointer value, only retrieving the writer's signing key if it isn't already cached
+     *
+     * @param writer
+     * @param writerSignedBtreeRootHash the signed serialization of the HashCasPair
+     * @param dht
+     * @return the verified HashCasPair
+     */
+    public static CompletableFuture<HashCasPair> verify(PublicKeyHash writer,
+                                                        byte[] writerSignedBtreeRootHash,
+                                                        ContentAddressedStorage dht) {
+        HashCasPair cached = verified.get(new Key(writer, writerSignedBtreeRootHash));
+        if (cached != null)
+            return CompletableFuture.completedFuture(cached);
+        return dht.getSigningKey(writer)
+                .thenApply(signer -> verify(writer, signer.orElseThrow(() ->
+                        new IllegalStateException("Couldn't retrieve signing key for " + writer)), writerSignedBtreeRootHash));
+    }
+
+    /**
+     *
+     * @param writer
+     * @param current the current signed pointer value of writer, if any
+     * @param dht
+     * @return the verified target of the pointer, or empty if there is no pointer or signing key for writer
+     */
+    public static CompletableFuture<MaybeMultihash> getTarget(PublicKeyHash writer,
+                                                              Optional<byte[]> current,
+                                                              ContentAddressedStorage dht) {
+        if (! current.isPresent())
+            return CompletableFuture.completedFuture(MaybeMultihash.empty());
+        HashCasPair cached = verified.get(new Key(writer, current.get()));
+        if (cached != null)
+            return CompletableFuture.completedFuture(cached.updated);
+        return dht.getSigningKey(writer)
+                .thenApply(signer -> signer.map(key -> verify(writer, key, current.get()).updated)
+                        .orElse(MaybeMultihash.empty()));
+    }
+
+    private static void cache(PublicKeyHash writer, byte[] writerSignedBtreeRootHash, HashCasPair cas) {
+        // entries are small and cheap to recreate, so just start again when full
+        if (verified.size() >= MAX_ENTRIES)
+            verified.clear();
+        // copy so later changes to the caller's array can't alter the key
+        verified.put(new Key(writer, Arrays.copyOf(writerSignedBtreeRootHash, writerSignedBtreeRootHash.length)), cas);
+    }
+}
@@ -0,0 +1,176 @@
+package peergos.shared.storage;
+
+import peergos.shared.cbor.*;
+import peergos.shared.crypto.*;
+import peergos.shared.crypto.hash.*;
+import peergos.shared.hamt.*;
+import peergos.shared.io.ipfs.cid.*;
+import peergos.shared.io.ipfs.multiaddr.*;
+import peergos.shared.io.ipfs.multihash.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/** Buffers cbor blocks in memory, without signing them, until they are committed. Committing only writes the buffered
+ *  blocks which are reachable from a given root, in a single batch, so intermediate versions of a structure which is
+ *  modified many times are never signed or written.
+ *
+ *  This is for a single sequence of modifications, and is not thread safe.
+ */
+public class BufferedStorage implements ContentAddressedStorage {
+
+    private final ContentAddressedStorage target;
+    private final Map<Multihash, byte[]> buffered = new HashMap<>();
+    private final Optional<ChampNodeCache> champNodes;
+
+    public BufferedStorage(ContentAddressedStorage target) {
+        this.target = target;
+        // buffered nodes may never be committed, so only nodes in the target are cached
+        this.champNodes = target.champNodes().map(committed -> new ChampNodeCache() {
+            @Override
+            public Champ get(Multihash hash) {
+                return committed.get(hash);
+            }
+
+            @Override
+            public void put(Multihash hash, Champ node) {
+                if (! buffered.containsKey(hash))
+                    committed.put(hash, node);
+            }
+
+            @Override
+            public void clear() {
+                committed.clear();
+            }
+        });
+    }
+
+    private static Multihash hashOf(byte[] block) {
+        return new Cid(1, Cid.Codec.DagCbor, new Multihash(Multihash.Type.sha2_256, Hash.sha256(block)));
+    }
+
+    @Override
+    public CompletableFuture<Multihash> put(SigningPrivateKeyAndPublicHash writer, byte[] block) {
+        Multihash hash = hashOf(block);
+        buffered.put(hash, block);
+        return CompletableFuture.completedFuture(hash);
+    }
+
+    @Override
+    public CompletableFuture<List<Multihash>> put(PublicKeyHash writer, List<byte[]> signatures, List<byte[]> blocks) {
+        List<Multihash> res = new ArrayList<>();
+        for (byte[] block : blocks) {
+            Multihash hash = hashOf(block);
+            buffered.put(hash, block);
+            res.add(hash);
+        }
+        return CompletableFuture.completedFuture(res);
+    }
+
+    /** Sign and write the buffered blocks reachable from root, then discard all buffered blocks
+     *
+     * @param writer
+     * @param root
+     * @return The hashes of the blocks written
+     */
+    public CompletableFuture<List<Multihash>> commit(SigningPrivateKeyAndPublicHash writer, Multihash root) {
+        List<Multihash> hashes = new ArrayList<>();
+        List<byte[]> blocks = new ArrayList<>();
+        Set<Multihash> seen = new HashSet<>();
+        LinkedList<Multihash> toVisit = new LinkedList<>();
+        toVisit.add(root);
+        while (! toVisit.isEmpty()) {
+            Multihash next = toVisit.poll();
+            byte[] block = buffered.get(next);
+            if (block == null || ! seen.add(next))
+                continue; // already stored
+            hashes.add(next);
+            blocks.add(block);
+            toVisit.addAll(CborObject.fromByteArray(block).links());
+        }
+        buffered.clear();
+        if (blocks.isEmpty())
+            return CompletableFuture.completedFuture(Collections.emptyList());
+
+        List<byte[]> signatures = new ArrayList<>();
+        for (byte[] block : blocks)
+            signatures.add(writer.secret.signatureOnly(block));
+        return target.put(writer.publicKeyHash, signatures, blocks).thenApply(written -> {
+            if (! written.equals(hashes))
+                throw new IllegalStateException("Stored blocks have different hashes from buffered blocks!");
+            return written;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Optional<CborObject>> get(Multihash hash) {
+        byte[] block = buffered.get(hash);
+        if (block != null)
+            return CompletableFuture.completedFuture(Optional.of(CborObject.fromByteArray(block)));
+        return target.get(hash);
+    }
+
+    @Override
+    public CompletableFuture<Multihash> id() {
+        return target.id();
+    }
+
+    @Override
+    public CompletableFuture<List<Multihash>> putRaw(PublicKeyHash writer, List<byte[]> signatures, List<byte[]> blocks) {
+        return target.putRaw(writer, signatures, blocks);
+    }
+
+    @Override
+    public CompletableFuture<Optional<byte[]>> getRaw(Multihash hash) {
+        byte[] block = buffered.get(hash);
+        if (block != null)
+            return CompletableFuture.completedFuture(Optional.of(block));
+        return target.getRaw(hash);
+    }
+
+    @Override
+    public CompletableFuture<List<Multihash>> recursivePin(Multihash h) {
+        return target.recursivePin(h);
+    }
+
+    @Override
+    public CompletableFuture<List<Multihash>> recursiveUnpin(Multihash h) {
+        return target.recursiveUnpin(h);
+    }
+
+    @Override
+    public CompletableFuture<List<Multihash>> directPin(List<Multihash> blocks) {
+        return target.directPin(blocks);
+    }
+
+    @Override
+    public CompletableFuture<List<Multihash>> directUnpin(List<Multihash> blocks) {
+        return target.directUnpin(blocks);
+    }
+
+    @Override
+    public CompletableFuture<List<MultiAddress>> pinUpdate(Multihash existing, Multihash updated) {
+        return target.pinUpdate(existing, updated);
+    }
+
+    @Override
+    public CompletableFuture<List<Multihash>> getLinks(Multihash root) {
+        byte[] block = buffered.get(root);
+        if (block != null)
+            return CompletableFuture.completedFuture(CborObject.fromByteArray(block).links());
+        return target.getLinks(root);
+    }
+
+    @Override
+    public CompletableFuture<Optional<Integer>> getSize(Multihash block) {
+        byte[] data = buffered.get(block);
+        if (data != null)
+            return CompletableFuture.completedFuture(Optional.of(data.length));
+        return target.getSize(block);
+    }
+
+    @Override
+    public Optional<ChampNodeCache> champNodes() {
+        return champNodes;
+    }
+}
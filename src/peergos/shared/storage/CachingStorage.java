@@ -3,6 +3,7 @@ package peergos.shared.storage;
 import peergos.shared.cbor.*;
 import peergos.shared.crypto.asymmetric.*;
 import peergos.shared.crypto.hash.*;
+import peergos.shared.hamt.*;
 import peergos.shared.io.ipfs.multiaddr.*;
 import peergos.shared.io.ipfs.multihash.*;
 import peergos.shared.util.*;
@@ -80,7 +81,9 @@ public class CachingStorage implements ContentAddressedStorage {
 
         CompletableFuture<Optional<byte[]>> pipe = new CompletableFuture<>();
         pendingRaw.put(key, pipe);
-        return target.getRaw(key).thenApply(rawOpt -> {
+
+        CompletableFuture<Optional<byte[]>> result = new CompletableFuture<>();
+        target.getRaw(key).thenAccept(rawOpt -> {
             if (rawOpt.isPresent()) {
                 byte[] value = rawOpt.get();
                 if (value.length > 0 && value.length < maxValueSize)
@@ -88,12 +91,14 @@ public class CachingStorage implements ContentAddressedStorage {
             }
             pendingRaw.remove(key);
             pipe.complete(rawOpt);
-            return rawOpt;
+            result.complete(rawOpt);
         }).exceptionally(t -> {
-            pending.remove(key);
+            pendingRaw.remove(key);
             pipe.completeExceptionally(t);
+            result.completeExceptionally(t);
             return null;
         });
+        return result;
     }
 
     @Override
@@ -106,6 +111,16 @@ public class CachingStorage implements ContentAddressedStorage {
         return target.recursiveUnpin(h);
     }
 
+    @Override
+    public CompletableFuture<List<Multihash>> directPin(List<Multihash> blocks) {
+        return target.directPin(blocks);
+    }
+
+    @Override
+    public CompletableFuture<List<Multihash>> directUnpin(List<Multihash> blocks) {
+        return target.directUnpin(blocks);
+    }
+
     @Override
     public CompletableFuture<List<MultiAddress>> pinUpdate(Multihash existing, Multihash updated) {
         return target.pinUpdate(existing, updated);
@@ -120,4 +135,9 @@ public class CachingStorage implements ContentAddressedStorage {
     public CompletableFuture<Optional<Integer>> getSize(Multihash block) {
         return target.getSize(block);
     }
+
+    @Override
+    public Optional<ChampNodeCache> champNodes() {
+        return target.champNodes();
+    }
 }
@@ -4,6 +4,7 @@ import peergos.shared.cbor.*;
 import peergos.shared.crypto.*;
 import peergos.shared.crypto.asymmetric.*;
 import peergos.shared.crypto.hash.*;
+import peergos.shared.hamt.*;
 import peergos.shared.io.ipfs.api.*;
 import peergos.shared.io.ipfs.cid.*;
 import peergos.shared.io.ipfs.multiaddr.*;
@@ -57,10 +58,32 @@ public interface ContentAddressedStorage {
 
     CompletableFuture<List<Multihash>> recursiveUnpin(Multihash h);
 
+    /** Pin individual blocks, without their descendants
+     *
+     * @param blocks
+     * @return the pinned blocks
+     */
+    CompletableFuture<List<Multihash>> directPin(List<Multihash> blocks);
+
+    /** Unpin individual blocks which were pinned with directPin
+     *
+     * @param blocks
+     * @return the unpinned blocks
+     */
+    CompletableFuture<List<Multihash>> directUnpin(List<Multihash> blocks);
+
     CompletableFuture<List<Multihash>> getLinks(Multihash root);
 
     CompletableFuture<Optional<Integer>> getSize(Multihash block);
 
+    /**
+     *
+     * @return The cache of decoded champ nodes which are in this storage, if it keeps one
+     */
+    default Optional<ChampNodeCache> champNodes() {
+        return Optional.empty();
+    }
+
     default CompletableFuture<PublicKeyHash> putSigningKey(byte[] signature,
                                                            PublicKeyHash authKeyHash,
                                                            PublicSigningKey newKey) {
@@ -150,6 +173,7 @@ public interface ContentAddressedStorage {
 
         private final HttpPoster poster;
         private final String apiPrefix = "api/v0/";
+        private final ChampNodeCache champNodes = ChampNodeCache.bounded();
 
         public HTTP(HttpPoster poster) {
             this.poster = poster;
@@ -221,6 +245,26 @@ public interface ContentAddressedStorage {
                     .thenApply(this::getPins);
         }
 
+        @Override
+        public CompletableFuture<List<Multihash>> directPin(List<Multihash> blocks) {
+            if (blocks.isEmpty())
+                return CompletableFuture.completedFuture(Collections.emptyList());
+            return poster.get(apiPrefix + "pin/add?stream-channels=true&recursive=false" + args(blocks))
+                    .thenApply(this::getPins);
+        }
+
+        @Override
+        public CompletableFuture<List<Multihash>> directUnpin(List<Multihash> blocks) {
+            if (blocks.isEmpty())
+                return CompletableFuture.completedFuture(Collections.emptyList());
+            return poster.get(apiPrefix + "pin/rm?stream-channels=true&r=false" + args(blocks))
+                    .thenApply(this::getPins);
+        }
+
+        private static String args(List<Multihash> hashes) {
+            return hashes.stream().map(h -> "&arg=" + h).collect(Collectors.joining());
+        }
+
         @Override
         public CompletableFuture<List<MultiAddress>> pinUpdate(Multihash existing, Multihash updated) {
             return poster.get(apiPrefix + "pin/update?stream-channels=true&arg=" + existing.toString() + "&arg=" + updated + "&unpin=false")
@@ -254,5 +298,10 @@ public interface ContentAddressedStorage {
             return poster.get(apiPrefix + "block/stat?stream-channels=true&arg=" + block.toString())
                     .thenApply(raw -> Optional.of((Integer)((Map)JSONParser.parse(new String(raw))).get("Size")));
         }
+
+        @Override
+        public Optional<ChampNodeCache> champNodes() {
+            return Optional.of(champNodes);
+        }
     }
 }
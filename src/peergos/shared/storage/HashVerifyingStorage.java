@@ -3,6 +3,7 @@ package peergos.shared.storage;
 import peergos.shared.cbor.*;
 import peergos.shared.crypto.asymmetric.*;
 import peergos.shared.crypto.hash.*;
+import peergos.shared.hamt.*;
 import peergos.shared.io.ipfs.cid.*;
 import peergos.shared.io.ipfs.multiaddr.*;
 import peergos.shared.io.ipfs.multihash.*;
@@ -83,6 +84,16 @@ public class HashVerifyingStorage implements ContentAddressedStorage {
         return source.recursiveUnpin(h);
     }
 
+    @Override
+    public CompletableFuture<List<Multihash>> directPin(List<Multihash> blocks) {
+        return source.directPin(blocks);
+    }
+
+    @Override
+    public CompletableFuture<List<Multihash>> directUnpin(List<Multihash> blocks) {
+        return source.directUnpin(blocks);
+    }
+
     @Override
     public CompletableFuture<List<Multihash>> getLinks(Multihash root) {
         return source.getLinks(root);
@@ -92,4 +103,9 @@ public class HashVerifyingStorage implements ContentAddressedStorage {
     public CompletableFuture<Optional<Integer>> getSize(Multihash block) {
         return source.getSize(block);
     }
+
+    @Override
+    public Optional<ChampNodeCache> champNodes() {
+        return source.champNodes();
+    }
 }
@@ -0,0 +1,51 @@
+package peergos.shared.user;
+
+import peergos.shared.cbor.*;
+import peergos.shared.io.ipfs.multihash.*;
+import peergos.shared.util.*;
+
+import java.util.*;
+
+/** The progress of replacing a writer's legacy btree with a champ, which is recorded in its WriterData after each
+ *  batch. The champ holds every mapping of the btree up to and including lastKey, and until the migration completes,
+ *  changes to those keys are applied to both trees.
+ */
+public class ChampMigration implements Cborable {
+    public final Multihash champ;
+    public final ByteArrayWrapper lastKey;
+
+    public ChampMigration(Multihash champ, ByteArrayWrapper lastKey) {
+        this.champ = champ;
+        this.lastKey = lastKey;
+    }
+
+    public ChampMigration withChamp(Multihash champ) {
+        return new ChampMigration(champ, lastKey);
+    }
+
+    /**
+     *
+     * @param key
+     * @return whether the key has already been copied to the champ
+     */
+    public boolean isMigrated(ByteArrayWrapper key) {
+        return key.compareTo(lastKey) <= 0;
+    }
+
+    @Override
+    public CborObject toCbor() {
+        Map<String, CborObject> cbor = new TreeMap<>();
+        cbor.put("champ", new CborObject.CborMerkleLink(champ));
+        cbor.put("last", new CborObject.CborByteArray(lastKey.data));
+        return CborObject.CborMap.build(cbor);
+    }
+
+    public static ChampMigration fromCbor(Cborable cbor) {
+        if (! (cbor instanceof CborObject.CborMap))
+            throw new IllegalStateException("Incorrect cbor for ChampMigration: " + cbor);
+        SortedMap<CborObject, ? extends Cborable> map = ((CborObject.CborMap) cbor).values;
+        Multihash champ = ((CborObject.CborMerkleLink) map.get(new CborObject.CborString("champ"))).target;
+        byte[] lastKey = ((CborObject.CborByteArray) map.get(new CborObject.CborString("last"))).value;
+        return new ChampMigration(champ, new ByteArrayWrapper(lastKey));
+    }
+}
@@ -13,4 +13,21 @@ public interface HttpPoster {
 
     CompletableFuture<byte[]> get(String url);
 
+    /** Get the bytes from start (inclusive) to end (exclusive) of a resource, truncated at the end of the resource.
+     *  The result is empty if the range is empty or starts at or after the end of the resource.
+     *
+     * @param url
+     * @param start
+     * @param end
+     * @return
+     */
+    default CompletableFuture<byte[]> get(String url, int start, int end) {
+        return get(url).thenApply(raw -> slice(raw, start, end));
+    }
+
+    static byte[] slice(byte[] raw, int start, int end) {
+        int from = Math.min(start, raw.length);
+        return Arrays.copyOfRange(raw, from, Math.max(from, Math.min(end, raw.length)));
+    }
+
 }
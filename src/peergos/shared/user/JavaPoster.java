@@ -98,6 +98,38 @@ public class JavaPoster implements HttpPoster {
         }
     }
 
+    @Override
+    public CompletableFuture<byte[]> get(String url, int start, int end) {
+        if (start >= end)
+            return CompletableFuture.completedFuture(new byte[0]);
+        HttpURLConnection conn = null;
+        try
+        {
+            conn = (HttpURLConnection) buildURL(url).openConnection();
+            conn.setDoInput(true);
+            // A gzipped response would give us a range of the encoded bytes
+            conn.setRequestProperty("Accept-Encoding", "identity");
+            conn.setRequestProperty("Range", "bytes=" + start + "-" + (end - 1));
+
+            int status = conn.getResponseCode();
+            if (status == 416)
+                return CompletableFuture.completedFuture(new byte[0]);
+            DataInputStream din = new DataInputStream(conn.getInputStream());
+            byte[] raw = Serialize.readFully(din);
+            if (status == 206)
+                return CompletableFuture.completedFuture(raw);
+            // The server ignored the range and sent the whole resource
+            return CompletableFuture.completedFuture(HttpPoster.slice(raw, start, end));
+        } catch (IOException e) {
+            CompletableFuture<byte[]> res = new CompletableFuture<>();
+            res.completeExceptionally(e);
+            return res;
+        } finally {
+            if (conn != null)
+                conn.disconnect();
+        }
+    }
+
     @Override
     public String toString() {
         return dht.toString();
@@ -6,6 +6,7 @@ import peergos.shared.io.ipfs.multihash.*;
 import peergos.shared.merklebtree.MaybeMultihash;
 
 import java.io.*;
+import java.util.*;
 import java.util.concurrent.*;
 
 public interface MutableTree {
@@ -38,6 +39,33 @@ public interface MutableTree {
      */
     CompletableFuture<Boolean> remove(SigningPrivateKeyAndPublicHash sharingKey, byte[] mapKey, MaybeMultihash existing);
 
+    /** Apply changes to the trees of several writers, and commit them with a single atomic update of their pointers.
+     *  Either every change is committed or none are.
+     *
+     * @param owner
+     * @param changes
+     * @return true when all the changes have been committed
+     */
+    CompletableFuture<Boolean> updateAll(PublicKeyHash owner, List<Change> changes);
+
+    class Change {
+        public final SigningPrivateKeyAndPublicHash writer;
+        public final byte[] mapKey;
+        public final MaybeMultihash existing;
+        public final MaybeMultihash value; // empty for a remove
+
+        public Change(SigningPrivateKeyAndPublicHash writer, byte[] mapKey, MaybeMultihash existing, MaybeMultihash value) {
+            this.writer = writer;
+            this.mapKey = mapKey;
+            this.existing = existing;
+            this.value = value;
+        }
+
+        public boolean isRemove() {
+            return ! value.isPresent();
+        }
+    }
+
 
     class CasException extends RuntimeException {
 
@@ -14,6 +14,7 @@ import peergos.shared.util.*;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.function.*;
+import java.util.stream.*;
 
 public class MutableTreeImpl implements MutableTree {
 	private static final Logger LOG = Logger.getGlobal();
@@ -22,6 +23,11 @@ public class MutableTreeImpl implements MutableTree {
     private static final boolean LOGGING = false;
     private final Function<ByteArrayWrapper, byte[]> hasher = x -> x.data;
     private final Map<PublicKeyHash, CompletableFuture<CommittedWriterData>> pending = new HashMap<>();
+    private final Map<PublicKeyHash, List<Update>> openBatches = new HashMap<>();
+    // The most recent committed writer data we have seen for each writer. Reads resolve against this without queueing
+    private final Map<PublicKeyHash, CommittedWriterData> latest = new ConcurrentHashMap<>();
+    // Writers whose legacy btree is being migrated to a champ in the background
+    private final Set<PublicKeyHash> migrating = new HashSet<>();
 
     public MutableTreeImpl(MutablePointers mutable, ContentAddressedStorage dht) {
         this.mutable = mutable;
@@ -35,23 +41,31 @@ public class MutableTreeImpl implements MutableTree {
     }
 
     private CompletableFuture<CommittedWriterData> getWriterData(PublicKeyHash controller, MaybeMultihash hash) {
+        return getWriterData(controller, hash, dht);
+    }
+
+    private CompletableFuture<CommittedWriterData> getWriterData(PublicKeyHash controller,
+                                                                 MaybeMultihash hash,
+                                                                 ContentAddressedStorage dht) {
         if (!hash.isPresent())
             return CompletableFuture.completedFuture(new CommittedWriterData(MaybeMultihash.empty(), WriterData.createEmpty(controller)));
+        CommittedWriterData current = latest.get(controller);
+        if (current != null && current.hash.equals(hash))
+            return CompletableFuture.completedFuture(current);
         return dht.get(hash.get())
                 .thenApply(cborOpt -> {
                     if (! cborOpt.isPresent())
                         throw new IllegalStateException("Couldn't retrieve WriterData from dht! " + hash);
-                    return new CommittedWriterData(hash, WriterData.fromCbor(cborOpt.get(), null));
+                    CommittedWriterData res = new CommittedWriterData(hash, WriterData.fromCbor(cborOpt.get(), null));
+                    latest.put(controller, res);
+                    return res;
                 });
     }
 
     private CompletableFuture<CommittedWriterData> getWriterData(PublicKeyHash hash) {
         return mutable.getPointer(hash)
-                .thenCompose(dataOpt -> dht.getSigningKey(hash)
-                        .thenApply(signer -> dataOpt.isPresent() ?
-                                HashCasPair.fromCbor(CborObject.fromByteArray(signer.get().unsignMessage(dataOpt.get()))).updated :
-                                MaybeMultihash.empty())
-                        .thenCompose(x -> getWriterData(hash, x)));
+                .thenCompose(dataOpt -> VerifiedPointers.getTarget(hash, dataOpt, dht))
+                .thenCompose(x -> getWriterData(hash, x));
     }
 
     private CompletableFuture<CommittedWriterData> addToQueue(PublicKeyHash pubKey, CompletableFuture<CommittedWriterData> lock) {
@@ -71,72 +85,406 @@ public class MutableTreeImpl implements MutableTree {
 
     @Override
     public CompletableFuture<Boolean> put(SigningPrivateKeyAndPublicHash writer, byte[] mapKey, MaybeMultihash existing, Multihash value) {
-        PublicKeyHash publicWriterKey = writer.publicKeyHash;
-        CompletableFuture<CommittedWriterData> lock = new CompletableFuture<>();
-
-        return addToQueue(publicWriterKey, lock)
-                .thenCompose(committed -> {
-                    WriterData holder = committed.props;
-                    boolean isChamp = ! holder.btree.isPresent();
-                    return (holder.tree.isPresent() ?
-                            ChampWrapper.create(holder.tree.get(), hasher, dht) :
-                            isChamp ?
-                                    ChampWrapper.create(writer, x -> x.data, dht) :
-                                    MerkleBTree.create(writer.publicKeyHash, holder.btree.get(), dht)
-                    ).thenCompose(tree -> tree.put(writer, mapKey, existing, value))
-                            .thenApply(newRoot -> LOGGING ? log(newRoot, "TREE.put (" + ArrayOps.bytesToHex(mapKey)
-                                    + ", " + value + ") => CAS(" + holder.tree + ", " + newRoot + ")") : newRoot)
-                            .thenCompose(newTreeRoot -> (isChamp ? holder.withChamp(newTreeRoot) : holder.withBtree(newTreeRoot))
-                                    .commit(writer, committed.hash, mutable, dht, lock::complete))
-                            .thenApply(x -> true)
-                            .exceptionally(e -> {
-                                lock.complete(committed);
-                                if (e instanceof RuntimeException)
-                                    throw (RuntimeException) e;
-                                throw new RuntimeException(e);
-                            });
-                });
+        return groupCommit(new Update(writer, mapKey, existing, MaybeMultihash.of(value)));
     }
 
+    /** Reads aren't queued behind writes. They resolve against the current pointer target, which the mutable pointers
+     *  may serve from a cache, and reuse the in memory writer data if it matches. If the pointer isn't cached, a remote
+     *  server sends it along with the blocks on the path to the key, so the lookup takes a single round trip.
+     *
+     */
     @Override
     public CompletableFuture<MaybeMultihash> get(PublicKeyHash writer, byte[] mapKey) {
-        CompletableFuture<CommittedWriterData> lock = new CompletableFuture<>();
-
-        return addToQueue(writer, lock)
-                .thenCompose(committed -> {
-                    lock.complete(committed);
-                    WriterData holder = committed.props;
-                    if (! holder.tree.isPresent() && ! holder.btree.isPresent())
-                        throw new IllegalStateException("Tree root not present for " + writer);
-                    boolean isChamp = ! holder.btree.isPresent();
-                    return (isChamp ?
-                            ChampWrapper.create(holder.tree.get(), hasher, dht) :
-                            MerkleBTree.create(writer, holder.btree.get(), dht)
-                    ).thenCompose(tree -> tree.get(mapKey))
-                            .thenApply(maybe -> LOGGING ?
-                                    log(maybe, "TREE.get (" + ArrayOps.bytesToHex(mapKey) + ", root="+holder.tree.get()+" => " + maybe) : maybe);
+        return mutable.getLookup(writer, mapKey)
+                .thenCompose(lookup -> {
+                    ContentAddressedStorage storage = lookup.storage(dht);
+                    return VerifiedPointers.getTarget(writer, lookup.signedPointer, storage)
+                            .thenCompose(target -> getWriterData(writer, target, storage))
+                            .thenCompose(committed -> get(writer, committed, mapKey, storage));
                 });
     }
 
+    private CompletableFuture<MaybeMultihash> get(PublicKeyHash writer,
+                                                  CommittedWriterData committed,
+                                                  byte[] mapKey,
+                                                  ContentAddressedStorage storage) {
+        WriterData holder = committed.props;
+        if (! holder.tree.isPresent() && ! holder.btree.isPresent())
+            throw new IllegalStateException("Tree root not present for " + writer);
+        boolean isChamp = ! holder.btree.isPresent();
+        return (isChamp ?
+                ChampWrapper.create(holder.tree.get(), hasher, storage) :
+                MerkleBTree.create(writer, holder.btree.get(), storage)
+        ).thenCompose(tree -> tree.get(mapKey))
+                .thenApply(maybe -> LOGGING ?
+                        log(maybe, "TREE.get (" + ArrayOps.bytesToHex(mapKey) + ", root="+holder.tree.get()+" => " + maybe) : maybe);
+    }
+
     @Override
     public CompletableFuture<Boolean> remove(SigningPrivateKeyAndPublicHash writer, byte[] mapKey, MaybeMultihash existing) {
-        PublicKeyHash publicWriter = writer.publicKeyHash;
-        CompletableFuture<CommittedWriterData> future = new CompletableFuture<>();
+        return groupCommit(new Update(writer, mapKey, existing, MaybeMultihash.empty()));
+    }
 
-        return addToQueue(publicWriter, future)
+    /** The transaction waits for its turn in the queue of every writer it touches, then applies each writer's changes
+     *  and writes the new WriterData blocks, before committing all the pointer updates in one atomic request.
+     *
+     */
+    @Override
+    public CompletableFuture<Boolean> updateAll(PublicKeyHash owner, List<Change> changes) {
+        Map<PublicKeyHash, List<Change>> byWriter = new LinkedHashMap<>();
+        for (Change change : changes)
+            byWriter.computeIfAbsent(change.writer.publicKeyHash, w -> new ArrayList<>()).add(change);
+        if (byWriter.isEmpty())
+            return CompletableFuture.completedFuture(true);
+        List<PublicKeyHash> writers = new ArrayList<>(byWriter.keySet());
+        List<CompletableFuture<CommittedWriterData>> locks = new ArrayList<>();
+        List<CompletableFuture<CommittedWriterData>> turns = new ArrayList<>();
+        synchronized (pending) {
+            // Queueing for every writer at once means two transactions are queued in the same order for all the
+            // writers they share, so they can't wait on each other
+            for (PublicKeyHash writer : writers) {
+                CompletableFuture<CommittedWriterData> lock = new CompletableFuture<>();
+                locks.add(lock);
+                turns.add(addToQueue(writer, lock));
+            }
+        }
+        // Only release our place in any queue once we have our turn in all of them
+        List<CompletableFuture<Boolean>> settled = turns.stream()
+                .map(turn -> turn.thenApply(x -> true).exceptionally(t -> false))
+                .collect(Collectors.toList());
+        return Futures.combineAllInOrder(settled)
+                .thenCompose(x -> Futures.combineAllInOrder(turns))
                 .thenCompose(committed -> {
-                    WriterData holder = committed.props;
-                    if (! holder.tree.isPresent() && ! holder.btree.isPresent())
-                        throw new IllegalStateException("Tree root not present!");
-                    boolean isChamp = ! holder.btree.isPresent();
+                    List<CompletableFuture<Pair<CommittedWriterData, Optional<PointerUpdates.PointerUpdate>>>> staged = new ArrayList<>();
+                    for (int i = 0; i < writers.size(); i++)
+                        staged.add(stage(byWriter.get(writers.get(i)), committed.get(i)));
+                    return Futures.combineAllInOrder(staged);
+                }).thenCompose(staged -> mutable.setPointers(owner, staged.stream()
+                        .flatMap(p -> p.right.map(Stream::of).orElse(Stream.empty()))
+                        .collect(Collectors.toList()))
+                        .thenApply(res -> {
+                            if (! res)
+                                throw new IllegalStateException("Corenode Crypto CAS failed!");
+                            for (int i = 0; i < writers.size(); i++) {
+                                CommittedWriterData newCommitted = staged.get(i).left;
+                                latest.put(writers.get(i), newCommitted);
+                                locks.get(i).complete(newCommitted);
+                                if (newCommitted.props.btree.isPresent())
+                                    migrateInBackground(byWriter.get(writers.get(i)).get(0).writer);
+                            }
+                            return true;
+                        })
+                ).exceptionally(t -> {
+                    // Nothing was committed, so the next transaction for each writer starts from the current pointer
+                    locks.forEach(lock -> lock.complete(null));
+                    throw t instanceof RuntimeException ? (RuntimeException) t : new RuntimeException(t);
+                });
+    }
+
+    /** Apply a writer's changes within a transaction, and write the resulting WriterData.
+     *
+     * @return the new committed writer data, and its signed pointer update if it has changed
+     */
+    private CompletableFuture<Pair<CommittedWriterData, Optional<PointerUpdates.PointerUpdate>>> stage(List<Change> changes,
+                                                                                                     CommittedWriterData committed) {
+        WriterData holder = committed.props;
+        SigningPrivateKeyAndPublicHash writer = changes.get(0).writer;
+        boolean isChamp = ! holder.btree.isPresent();
+        boolean hasTree = holder.tree.isPresent() || holder.btree.isPresent();
+        if (! hasTree && changes.stream().anyMatch(Change::isRemove))
+            throw new IllegalStateException("Tree root not present!");
+        List<Triple<byte[], MaybeMultihash, MaybeMultihash>> triples = changes.stream()
+                .map(c -> new Triple<>(c.mapKey, c.existing, c.value))
+                .collect(Collectors.toList());
+        return getTree(writer, holder)
+                .thenCompose(tree -> tree instanceof ChampWrapper ?
+                        ((ChampWrapper) tree).updateAll(writer, triples) :
+                        Futures.reduceAll(changes, (Multihash) null, (root, c) -> c.isRemove() ?
+                                tree.remove(writer, c.mapKey, c.existing) :
+                                tree.put(writer, c.mapKey, c.existing, c.value.get()), (a, b) -> b))
+                .thenCompose(root -> isChamp ?
+                        CompletableFuture.completedFuture(holder.withChamp(root)) :
+                        withBtree(writer, holder, root, triples))
+                .thenCompose(updated -> {
+                    byte[] raw = updated.serialize();
+                    return dht.put(writer.publicKeyHash, writer.secret.signatureOnly(raw), raw)
+                            .thenApply(blobHash -> {
+                                MaybeMultihash newHash = MaybeMultihash.of(blobHash);
+                                if (newHash.equals(committed.hash))
+                                    return new Pair<>(committed, Optional.empty());
+                                HashCasPair cas = new HashCasPair(committed.hash, newHash);
+                                byte[] signed = writer.secret.signMessage(cas.serialize());
+                                return new Pair<>(updated.committed(newHash),
+                                        Optional.of(new PointerUpdates.PointerUpdate(writer.publicKeyHash, signed)));
+                            });
+                });
+    }
+
+    /** While a legacy btree is being migrated, changes to keys which have already been copied to the champ are applied
+     *  to both trees.
+     *
+     * @param writer
+     * @param holder
+     * @param btreeRoot the root of the btree with the changes applied
+     * @param changes
+     * @return the writer data with the new btree and migration progress
+     */
+    private CompletableFuture<WriterData> withBtree(SigningPrivateKeyAndPublicHash writer,
+                                                    WriterData holder,
+                                                    Multihash btreeRoot,
+                                                    List<Triple<byte[], MaybeMultihash, MaybeMultihash>> changes) {
+        WriterData updated = holder.withBtree(btreeRoot);
+        if (! holder.migration.isPresent())
+            return CompletableFuture.completedFuture(updated);
+        ChampMigration progress = holder.migration.get();
+        List<Triple<byte[], MaybeMultihash, MaybeMultihash>> migrated = changes.stream()
+                .filter(c -> progress.isMigrated(new ByteArrayWrapper(c.left)))
+                .collect(Collectors.toList());
+        if (migrated.isEmpty())
+            return CompletableFuture.completedFuture(updated);
+        return ChampWrapper.create(progress.champ, hasher, dht)
+                .thenCompose(champ -> champ.updateAll(writer, migrated))
+                .thenApply(champRoot -> updated.withMigration(progress.withChamp(champRoot)));
+    }
+
+    private CompletableFuture<? extends ImmutableTree> getTree(SigningPrivateKeyAndPublicHash writer, WriterData holder) {
+        boolean isChamp = ! holder.btree.isPresent();
+        return holder.tree.isPresent() ?
+                ChampWrapper.create(holder.tree.get(), hasher, dht) :
+                isChamp ?
+                        ChampWrapper.create(writer, x -> x.data, dht) :
+                        MerkleBTree.create(writer.publicKeyHash, holder.btree.get(), dht);
+    }
+
+    /** Replace a writer's legacy btree with a champ. Each batch of the migration is queued with any other writes for
+     *  the writer, and commits its progress, so writes can proceed during a migration and an interrupted migration
+     *  resumes where it left off.
+     *
+     * @param writer
+     * @return the committed writer data, which has a champ
+     */
+    public CompletableFuture<CommittedWriterData> migrateToChamp(SigningPrivateKeyAndPublicHash writer) {
+        return migrateNextBatch(writer)
+                .thenCompose(committed -> committed.props.btree.isPresent() ?
+                        migrateToChamp(writer) :
+                        CompletableFuture.completedFuture(committed));
+    }
+
+    private CompletableFuture<CommittedWriterData> migrateNextBatch(SigningPrivateKeyAndPublicHash writer) {
+        PublicKeyHash writerHash = writer.publicKeyHash;
+        CompletableFuture<CommittedWriterData> lock = new CompletableFuture<>();
+        CompletableFuture<CommittedWriterData> turn;
+        synchronized (pending) {
+            turn = addToQueue(writerHash, lock);
+        }
+        return turn.thenCompose(committed -> committed.props.migrateNextBatch(writer, committed.hash,
+                WriterData.MIGRATION_BATCH_SIZE, mutable, dht, newCommitted -> latest.put(writerHash, newCommitted))
+                .thenApply(migrated -> {
+                    lock.complete(migrated);
+                    return migrated;
+                }).exceptionally(t -> {
+                    lock.complete(committed);
+                    throw t instanceof RuntimeException ? (RuntimeException) t : new RuntimeException(t);
+                })
+        ).exceptionally(t -> {
+            // we couldn't retrieve the current writer data
+            lock.complete(null);
+            throw t instanceof RuntimeException ? (RuntimeException) t : new RuntimeException(t);
+        });
+    }
+
+    /** Migrate any of the writers which still have a legacy btree to a champ, one at a time, without waiting for it.
+     *
+     * @param writers
+     */
+    public void migrateAllInBackground(Collection<SigningPrivateKeyAndPublicHash> writers) {
+        Futures.reduceAll(writers, true, (res, writer) -> getWriterData(writer.publicKeyHash)
+                .thenCompose(committed -> committed.props.btree.isPresent() ?
+                        migrateInBackground(writer) :
+                        CompletableFuture.completedFuture(true))
+                .exceptionally(t -> {
+                    LOG.log(Level.WARNING, "Couldn't retrieve writer data of " + writer.publicKeyHash + ": " + t.getMessage(), t);
+                    return false;
+                }), (a, b) -> a && b);
+    }
+
+    /** Migrate a writer with a legacy btree to a champ, without waiting for it. Progress is committed after each batch,
+     *  so a failed migration resumes from the last batch on the writer's next update.
+     *
+     * @param writer
+     * @return true when the migration has finished, or false if it failed
+     */
+    private CompletableFuture<Boolean> migrateInBackground(SigningPrivateKeyAndPublicHash writer) {
+        synchronized (migrating) {
+            if (! migrating.add(writer.publicKeyHash))
+                return CompletableFuture.completedFuture(true);
+        }
+        return migrateToChamp(writer).thenApply(migrated -> {
+            synchronized (migrating) {
+                migrating.remove(writer.publicKeyHash);
+            }
+            return true;
+        }).exceptionally(t -> {
+            LOG.log(Level.WARNING, "Couldn't migrate btree of " + writer.publicKeyHash + " to a champ: " + t.getMessage(), t);
+            synchronized (migrating) {
+                migrating.remove(writer.publicKeyHash);
+            }
+            return false;
+        });
+    }
+
+    private static class Update {
+        public final SigningPrivateKeyAndPublicHash writer;
+        public final byte[] mapKey;
+        public final MaybeMultihash existing;
+        public final MaybeMultihash value; // empty for a remove
+        public final CompletableFuture<Boolean> result = new CompletableFuture<>();
+
+        public Update(SigningPrivateKeyAndPublicHash writer, byte[] mapKey, MaybeMultihash existing, MaybeMultihash value) {
+            this.writer = writer;
+            this.mapKey = mapKey;
+            this.existing = existing;
+            this.value = value;
+        }
+
+        public boolean isRemove() {
+            return ! value.isPresent();
+        }
+
+        public Triple<byte[], MaybeMultihash, MaybeMultihash> toChange() {
+            return new Triple<>(mapKey, existing, value);
+        }
+    }
+
+    /** Updates for a writer that arrive while it has a transaction in progress are collected into a single batch.
+     *  When the batch reaches the front of the queue it is applied to the tree at once and committed with a single
+     *  WriterData commit and pointer update.
+     *
+     * @param update
+     * @return true when the update has been committed
+     */
+    private CompletableFuture<Boolean> groupCommit(Update update) {
+        PublicKeyHash writerHash = update.writer.publicKeyHash;
+        CompletableFuture<CommittedWriterData> lock = new CompletableFuture<>();
+        CompletableFuture<CommittedWriterData> turn;
+        synchronized (pending) {
+            List<Update> open = openBatches.get(writerHash);
+            if (open != null) {
+                open.add(update);
+                return update.result;
+            }
+            List<Update> batch = new ArrayList<>();
+            batch.add(update);
+            openBatches.put(writerHash, batch);
+            turn = addToQueue(writerHash, lock);
+        }
+        turn.thenCompose(committed -> {
+            List<Update> batch;
+            synchronized (pending) {
+                batch = openBatches.remove(writerHash);
+            }
+            return applyAndCommit(batch, committed, lock);
+        }).exceptionally(t -> {
+            // we couldn't retrieve the current writer data, so nothing was committed
+            List<Update> batch;
+            synchronized (pending) {
+                batch = openBatches.remove(writerHash);
+            }
+            if (batch != null)
+                batch.forEach(u -> u.result.completeExceptionally(t));
+            lock.complete(null);
+            return false;
+        });
+        return update.result;
+    }
+
+    private CompletableFuture<Boolean> applyAndCommit(List<Update> batch,
+                                                      CommittedWriterData committed,
+                                                      CompletableFuture<CommittedWriterData> lock) {
+        WriterData holder = committed.props;
+        SigningPrivateKeyAndPublicHash writer = batch.get(0).writer;
+        boolean isChamp = ! holder.btree.isPresent();
+        boolean hasTree = holder.tree.isPresent() || holder.btree.isPresent();
+        List<Update> applicable = new ArrayList<>();
+        for (Update update : batch) {
+            if (update.isRemove() && ! hasTree)
+                update.result.completeExceptionally(new IllegalStateException("Tree root not present!"));
+            else
+                applicable.add(update);
+        }
+        if (applicable.isEmpty()) {
+            lock.complete(committed);
+            return CompletableFuture.completedFuture(true);
+        }
+
+        return getTree(writer, holder)
+                .thenCompose(tree -> applyAll(writer, tree, applicable))
+                .thenApply(res -> LOGGING ? log(res, "TREE.update (" + res.right.size() + " of " + applicable.size()
+                        + " changes) => CAS(" + holder.tree + ", " + res.left + ")") : res)
+                .thenCompose(res -> {
+                    if (res.right.isEmpty()) {
+                        lock.complete(committed);
+                        return CompletableFuture.completedFuture(true);
+                    }
                     return (isChamp ?
-                            ChampWrapper.create(holder.tree.get(), hasher, dht) :
-                            MerkleBTree.create(writer.publicKeyHash, holder.btree.get(), dht)
-                    ).thenCompose(tree -> tree.remove(writer, mapKey, existing))
-                            .thenApply(pair -> LOGGING ? log(pair, "TREE.rm (" + ArrayOps.bytesToHex(mapKey) + "  => " + pair) : pair)
-                            .thenCompose(newTreeRoot -> (isChamp ? holder.withChamp(newTreeRoot) : holder.withBtree(newTreeRoot))
-                                    .commit(writer, committed.hash, mutable, dht, future::complete))
-                            .thenApply(x -> true);
+                            CompletableFuture.completedFuture(holder.withChamp(res.left)) :
+                            withBtree(writer, holder, res.left, res.right.stream()
+                                    .map(Update::toChange)
+                                    .collect(Collectors.toList()))
+                    ).thenCompose(updated -> updated.commit(writer, committed.hash, mutable, dht, newCommitted -> {
+                                latest.put(writer.publicKeyHash, newCommitted);
+                                lock.complete(newCommitted);
+                            }))
+                            .thenApply(x -> {
+                                res.right.forEach(u -> u.result.complete(true));
+                                if (! isChamp)
+                                    migrateInBackground(writer);
+                                return true;
+                            });
+                }).exceptionally(t -> {
+                    lock.complete(committed);
+                    applicable.forEach(u -> u.result.completeExceptionally(t));
+                    return false;
+                });
+    }
+
+    /** Apply the updates to the tree, as a single champ batch if possible. If the batch fails, e.g. due to a CAS
+     *  failure, they are applied individually so that only the failing updates are rejected.
+     *
+     * @return the new tree root, and the updates which were applied
+     */
+    private static CompletableFuture<Pair<Multihash, List<Update>>> applyAll(SigningPrivateKeyAndPublicHash writer,
+                                                                           ImmutableTree tree,
+                                                                           List<Update> updates) {
+        if (! (tree instanceof ChampWrapper) || updates.size() == 1)
+            return applyEach(writer, tree, updates);
+        CompletableFuture<Pair<Multihash, List<Update>>> res = new CompletableFuture<>();
+        ((ChampWrapper) tree).updateAll(writer, updates.stream().map(Update::toChange).collect(Collectors.toList()))
+                .thenApply(root -> res.complete(new Pair<>(root, updates)))
+                .exceptionally(t -> {
+                    applyEach(writer, tree, updates)
+                            .thenApply(res::complete)
+                            .exceptionally(res::completeExceptionally);
+                    return true;
                 });
+        return res;
+    }
+
+    private static CompletableFuture<Pair<Multihash, List<Update>>> applyEach(SigningPrivateKeyAndPublicHash writer,
+                                                                            ImmutableTree tree,
+                                                                            List<Update> updates) {
+        Pair<Multihash, List<Update>> identity = new Pair<>(null, Collections.emptyList());
+        return Futures.reduceAll(updates, identity, (res, update) ->
+                (update.isRemove() ?
+                        tree.remove(writer, update.mapKey, update.existing) :
+                        tree.put(writer, update.mapKey, update.existing, update.value.get())
+                ).thenApply(root -> {
+                    List<Update> applied = new ArrayList<>(res.right);
+                    applied.add(update);
+                    return new Pair<>(root, applied);
+                }).exceptionally(t -> {
+                    update.result.completeExceptionally(t);
+                    return res;
+                }), (a, b) -> b);
     }
 }
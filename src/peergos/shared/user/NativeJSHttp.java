@@ -28,7 +28,8 @@ public class NativeJSHttp {
                 if (req.status == 200) {
 	        	    resolve(new Uint8Array(req.response));
                 } else {
-		            reject(Error(req.statusText));
+                    // servers put the reason for an error in the trailer
+		            reject(Error(req.getResponseHeader("Trailer") || req.statusText));
                 }
     	    };
 
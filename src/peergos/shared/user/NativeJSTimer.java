@@ -0,0 +1,17 @@
+package peergos.shared.user;
+
+import jsinterop.annotations.*;
+
+/** The browser's timer, to wait without blocking the only thread. This is only available in the browser.
+ *
+ */
+public class NativeJSTimer {
+
+    @JsFunction
+    public interface Callback {
+        void run();
+    }
+
+    @JsMethod(namespace = JsPackage.GLOBAL)
+    public static native int setTimeout(Callback callback, int delayMillis);
+}
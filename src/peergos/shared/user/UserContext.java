@@ -10,6 +10,7 @@ import peergos.shared.crypto.hash.*;
 import peergos.shared.crypto.symmetric.*;
 import peergos.shared.io.ipfs.multihash.Multihash;
 import peergos.shared.merklebtree.*;
+import peergos.shared.mutable.*;
 import peergos.shared.storage.*;
 import peergos.shared.user.fs.*;
 import peergos.shared.util.*;
@@ -37,6 +38,8 @@ public class UserContext {
     public final Fragmenter fragmenter;
 
     private CompletableFuture<CommittedWriterData> userData;
+    // the follow requests last retrieved, and their version in the pointer feed if it is following them
+    private volatile Optional<Pair<Long, byte[]>> cachedFollowRequests = Optional.empty();
     @JsProperty
     public TrieNode entrie; // ba dum che!
 
@@ -294,11 +297,26 @@ public class UserContext {
                                         if (!sharedOpt.isPresent())
                                             throw new IllegalStateException("Couldn't find shared folder!");
                                         lock.complete(wd);
+                                        migrateOwnTrees(wd.props);
                                         return this;
                                     });
                         }));
     }
 
+    /** Start migrating the legacy btrees of the writers of our own entry points to champs, rather than waiting for
+     *  them to be written to.
+     *
+     */
+    private void migrateOwnTrees(WriterData userData) {
+        if (! (network.tree instanceof MutableTreeImpl) || ! userData.staticData.isPresent())
+            return;
+        List<SigningPrivateKeyAndPublicHash> writers = userData.staticData.get().getEntryPoints().stream()
+                .filter(e -> e.owner.equals(username) && e.pointer.isWritable())
+                .map(e -> e.pointer.signer())
+                .collect(Collectors.toList());
+        ((MutableTreeImpl) network.tree).migrateAllInBackground(writers);
+    }
+
     public CompletableFuture<Boolean> cleanEntryPoints() {
         CompletableFuture<CommittedWriterData> lock = new CompletableFuture<>();
         return addToUserDataQueue(lock)
@@ -636,7 +654,7 @@ public class UserContext {
                 resp.writeArray(payload);
                 network.social.sendFollowRequest(initialRequest.entry.get().pointer.location.owner, resp.toByteArray());
                 // remove pending follow request from them
-                return network.social.removeFollowRequest(signer.publicKeyHash, signer.secret.signMessage(initialRequest.rawCipher));
+                return removeFollowRequest(initialRequest);
             });
         }
 
@@ -689,7 +707,7 @@ public class UserContext {
         }).thenCompose(trie -> {
             // remove original request
             entrie = trie;
-            return network.social.removeFollowRequest(signer.publicKeyHash, signer.secret.signMessage(initialRequest.rawCipher));
+            return removeFollowRequest(initialRequest);
         });
     }
 
@@ -872,6 +890,7 @@ public class UserContext {
                 (a, b) -> a && b);
     }
 
+    // TODO commit the link and the shared directory with a single MutableTree.updateAll, as FileTreeNode.moveTo does
     @JsMethod
     public CompletableFuture<Boolean> shareWith(FileTreeNode file, String usernameToGrantReadAccess) {
         return getByPath("/" + username + "/shared/" + usernameToGrantReadAccess)
@@ -913,7 +932,7 @@ public class UserContext {
      * @return initial follow requests
      */
     public CompletableFuture<List<FollowRequest>> processFollowRequests() {
-        return network.social.getFollowRequests(signer.publicKeyHash).thenCompose(reqs -> {
+        return getFollowRequests().thenCompose(reqs -> {
             DataSource din = new DataSource(reqs);
             List<FollowRequest> all;
             try {
@@ -936,6 +955,33 @@ public class UserContext {
         });
     }
 
+    /** Only retrieve our follow requests if the pointer feed isn't following them, or says they have changed
+     *
+     */
+    private CompletableFuture<byte[]> getFollowRequests() {
+        if (! (network.mutable instanceof CachingPointers))
+            return network.social.getFollowRequests(signer.publicKeyHash);
+        CachingPointers pointers = (CachingPointers) network.mutable;
+        pointers.subscribeToFollowRequests(signer);
+        Optional<Long> version = pointers.getFollowRequestsVersion(signer.publicKeyHash);
+        Optional<Pair<Long, byte[]>> cached = cachedFollowRequests;
+        if (version.isPresent() && cached.isPresent() && cached.get().left.equals(version.get()))
+            return CompletableFuture.completedFuture(cached.get().right);
+        return network.social.getFollowRequests(signer.publicKeyHash).thenApply(reqs -> {
+            cachedFollowRequests = version.map(v -> new Pair<>(v, reqs));
+            return reqs;
+        });
+    }
+
+    private CompletableFuture<Boolean> removeFollowRequest(FollowRequest req) {
+        cachedFollowRequests = Optional.empty();
+        return network.social.removeFollowRequest(signer.publicKeyHash, signer.secret.signMessage(req.rawCipher))
+                .thenApply(removed -> {
+                    cachedFollowRequests = Optional.empty();
+                    return removed;
+                });
+    }
+
     private CompletableFuture<List<FollowRequest>> processFollowRequests(List<FollowRequest> all) {
         return getSharingFolder().thenCompose(sharing ->
                 getFollowerRoots().thenCompose(followerRoots -> {
@@ -951,7 +997,7 @@ public class UserContext {
                             return updatedRoot.thenCompose(newRoot -> {
                                 entrie = newRoot;
                                 // clear their response follow req too
-                                return network.social.removeFollowRequest(signer.publicKeyHash, signer.secret.signMessage(freq.rawCipher))
+                                return removeFollowRequest(freq)
                                         .thenApply(b -> newRoot);
                             });
                         }
@@ -1047,7 +1093,8 @@ public class UserContext {
                 .stream()
                 .filter(e -> e.owner.equals(ourName))
                 .collect(Collectors.toList());
-        return Futures.reduceAll(ourFileSystemEntries, root, (t, e) -> addEntryPoint(ourName, t, e, network), (a, b) -> a)
+        return prefetchPointers(ourFileSystemEntries, network)
+                .thenCompose(x -> Futures.reduceAll(ourFileSystemEntries, root, (t, e) -> addEntryPoint(ourName, t, e, network), (a, b) -> a))
                 .exceptionally(Futures::logError);
     }
 
@@ -1061,13 +1108,32 @@ public class UserContext {
                 .stream()
                 .filter(e -> ! e.owner.equals(ourName))
                 .collect(Collectors.toList());
-        List<CompletableFuture<Pair<EntryPoint, Optional<String>>>> retrievedEntries = notOurFileSystemEntries.stream()
-                .map(entry -> network.retrieveEntryPoint(entry)
-                        .thenCompose(opt -> opt.map(f -> f.getPath(network).thenApply(path -> new Pair<>(entry, Optional.of(path))))
-                        .orElse(CompletableFuture.completedFuture(new Pair<>(entry, Optional.empty())))))
+        return prefetchPointers(notOurFileSystemEntries, network).thenCompose(x -> {
+            List<CompletableFuture<Pair<EntryPoint, Optional<String>>>> retrievedEntries = notOurFileSystemEntries.stream()
+                    .map(entry -> network.retrieveEntryPoint(entry)
+                            .thenCompose(opt -> opt.map(f -> f.getPath(network).thenApply(path -> new Pair<>(entry, Optional.of(path))))
+                                    .orElse(CompletableFuture.completedFuture(new Pair<>(entry, Optional.empty())))))
+                    .collect(Collectors.toList());
+            return Futures.reduceAll(retrievedEntries, ourRoot, (t, p) -> addRetrievedEntryPoint(ourName, t, p, network), (a, b) -> a);
+        }).exceptionally(Futures::logError);
+    }
+
+    /** Load the pointers of all the writers of some entry points in one request, so that the following entry point
+     *  retrievals are served from the pointer cache
+     */
+    private static CompletableFuture<Boolean> prefetchPointers(List<EntryPoint> entries, NetworkAccess network) {
+        List<PublicKeyHash> writers = entries.stream()
+                .map(e -> e.pointer.location.writer)
+                .distinct()
                 .collect(Collectors.toList());
-        return Futures.reduceAll(retrievedEntries, ourRoot, (t, p) -> addRetrievedEntryPoint(ourName, t, p, network), (a, b) -> a)
-                .exceptionally(Futures::logError);
+        if (writers.size() < 2)
+            return CompletableFuture.completedFuture(true);
+        return network.mutable.getPointers(writers)
+                .thenApply(x -> true)
+                .exceptionally(t -> {
+                    LOG.log(Level.WARNING, t.getMessage(), t);
+                    return false;
+                });
     }
 
     private static CompletableFuture<TrieNode> addRetrievedEntryPoint(String ourName,
@@ -1162,10 +1228,7 @@ public class UserContext {
 
     private static CompletableFuture<Pair<Multihash, CborObject>> getWriterDataCbor(NetworkAccess network, PublicKeyHash signerHash) {
         return network.mutable.getPointer(signerHash)
-                .thenCompose(casOpt -> network.dhtClient.getSigningKey(signerHash)
-                        .thenApply(signer -> casOpt.map(raw -> HashCasPair.fromCbor(CborObject.fromByteArray(
-                                signer.get().unsignMessage(raw))).updated)
-                                .orElse(MaybeMultihash.empty())))
+                .thenCompose(casOpt -> VerifiedPointers.getTarget(signerHash, casOpt, network.dhtClient))
                         .thenCompose(key -> network.dhtClient.get(key.get())
                                 .thenApply(Optional::get)
                                 .thenApply(cbor -> new Pair<>(key.get(), cbor))
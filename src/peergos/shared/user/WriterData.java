@@ -18,9 +18,13 @@ import peergos.shared.util.*;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.function.*;
+import java.util.logging.*;
 import java.util.stream.*;
 
 public class WriterData implements Cborable {
+    private static final Logger LOG = Logger.getGlobal();
+    public static final int MIGRATION_BATCH_SIZE = 1024;
+
     /**
      *  Represents the merkle node that a public key maps to
      */
@@ -46,6 +50,8 @@ public class WriterData implements Cborable {
     // accessible under IPFS address $hash/tree (present on writer keys)
     public final Optional<Multihash> tree;
     public final Optional<Multihash> btree; // legacy only
+    // accessible under IPFS address $hash/migration (present while a legacy btree is being migrated to a champ)
+    public final Optional<ChampMigration> migration;
 
     /**
      *
@@ -55,6 +61,8 @@ public class WriterData implements Cborable {
      * @param ownedKeys Any public keys owned by this key
      * @param staticData Any static data owner by this key (list of entry points)
      * @param tree Any file tree owned by this key
+     * @param btree Any legacy file tree owned by this key
+     * @param migration The progress of migrating the legacy btree to a champ
      */
     public WriterData(PublicKeyHash controller,
                       Optional<SecretGenerationAlgorithm> generationAlgorithm,
@@ -64,7 +72,8 @@ public class WriterData implements Cborable {
                       Map<String, PublicKeyHash> namedOwnedKeys,
                       Optional<UserStaticData> staticData,
                       Optional<Multihash> tree,
-                      Optional<Multihash> btree) {
+                      Optional<Multihash> btree,
+                      Optional<ChampMigration> migration) {
         this.controller = controller;
         this.generationAlgorithm = generationAlgorithm;
         this.publicData = publicData;
@@ -74,32 +83,39 @@ public class WriterData implements Cborable {
         this.staticData = staticData;
         this.tree = tree;
         this.btree = btree;
+        this.migration = migration;
         if (tree.isPresent() && btree.isPresent())
             throw new IllegalStateException("A writer cannot have both a legacy btree and a champ!");
+        if (migration.isPresent() && ! btree.isPresent())
+            throw new IllegalStateException("Only a legacy btree can be migrated!");
     }
 
     public WriterData withBtree(Multihash treeRoot) {
-        return new WriterData(controller, generationAlgorithm, publicData, followRequestReceiver, ownedKeys, namedOwnedKeys, staticData, Optional.empty(), Optional.of(treeRoot));
+        return new WriterData(controller, generationAlgorithm, publicData, followRequestReceiver, ownedKeys, namedOwnedKeys, staticData, Optional.empty(), Optional.of(treeRoot), migration);
     }
 
     public WriterData withChamp(Multihash treeRoot) {
-        return new WriterData(controller, generationAlgorithm, publicData, followRequestReceiver, ownedKeys, namedOwnedKeys, staticData, Optional.of(treeRoot), Optional.empty());
+        return new WriterData(controller, generationAlgorithm, publicData, followRequestReceiver, ownedKeys, namedOwnedKeys, staticData, Optional.of(treeRoot), Optional.empty(), Optional.empty());
+    }
+
+    public WriterData withMigration(ChampMigration progress) {
+        return new WriterData(controller, generationAlgorithm, publicData, followRequestReceiver, ownedKeys, namedOwnedKeys, staticData, tree, btree, Optional.of(progress));
     }
 
     public WriterData withOwnedKeys(Set<PublicKeyHash> owned) {
-        return new WriterData(controller, generationAlgorithm, publicData, followRequestReceiver, owned, namedOwnedKeys, staticData, tree, btree);
+        return new WriterData(controller, generationAlgorithm, publicData, followRequestReceiver, owned, namedOwnedKeys, staticData, tree, btree, migration);
     }
 
     public WriterData addOwnedKey(PublicKeyHash newOwned) {
         Set<PublicKeyHash> updated = new HashSet<>(ownedKeys);
         updated.add(newOwned);
-        return new WriterData(controller, generationAlgorithm, publicData, followRequestReceiver, updated, namedOwnedKeys, staticData, tree, btree);
+        return new WriterData(controller, generationAlgorithm, publicData, followRequestReceiver, updated, namedOwnedKeys, staticData, tree, btree, migration);
     }
 
     public WriterData addNamedKey(String name, PublicKeyHash newNamedKey) {
         Map<String, PublicKeyHash> updated = new TreeMap<>(namedOwnedKeys);
         updated.put(name, newNamedKey);
-        return new WriterData(controller, generationAlgorithm, publicData, followRequestReceiver, ownedKeys, updated, staticData, tree, btree);
+        return new WriterData(controller, generationAlgorithm, publicData, followRequestReceiver, ownedKeys, updated, staticData, tree, btree, migration);
     }
 
     public static WriterData createEmpty(PublicKeyHash controller) {
@@ -111,6 +127,7 @@ public class WriterData implements Cborable {
                 Collections.emptyMap(),
                 Optional.empty(),
                 Optional.empty(),
+                Optional.empty(),
                 Optional.empty());
     }
 
@@ -125,6 +142,7 @@ public class WriterData implements Cborable {
                 Collections.emptyMap(),
                 Optional.of(new UserStaticData(rootKey)),
                 Optional.empty(),
+                Optional.empty(),
                 Optional.empty());
     }
 
@@ -170,7 +188,8 @@ public class WriterData implements Cborable {
                                 namedOwnedKeys,
                                 newEntryPoints,
                                 tree,
-                                btree);
+                                btree,
+                                migration);
                         return updated.commit(signer, MaybeMultihash.empty(), network, updater);
                     });
         });
@@ -180,38 +199,72 @@ public class WriterData implements Cborable {
                                                                  MaybeMultihash currentHash,
                                                                  NetworkAccess network,
                                                                  Consumer<CommittedWriterData> updater) {
+        return migrateToChamp(writer, currentHash, network.mutable, network.dhtClient, updater);
+    }
+
+    /** Replace the legacy btree with a champ holding the same mappings, committing the progress after each batch.
+     *  This is a no-op if we already have a champ.
+     *
+     * @param writer
+     * @param currentHash
+     * @param mutable
+     * @param dht
+     * @param updater
+     * @return the committed writer data with a champ
+     */
+    public CompletableFuture<CommittedWriterData> migrateToChamp(SigningPrivateKeyAndPublicHash writer,
+                                                                 MaybeMultihash currentHash,
+                                                                 MutablePointers mutable,
+                                                                 ContentAddressedStorage dht,
+                                                                 Consumer<CommittedWriterData> updater) {
+        return migrateNextBatch(writer, currentHash, MIGRATION_BATCH_SIZE, mutable, dht, updater)
+                .thenCompose(committed -> committed.props.btree.isPresent() ?
+                        committed.props.migrateToChamp(writer, committed.hash, mutable, dht, updater) :
+                        CompletableFuture.completedFuture(committed));
+    }
+
+    /** Copy the next batch of mappings, in key order, from the legacy btree into the champ and commit the progress.
+     *  After the last batch the champ replaces the btree. An interrupted migration resumes after the last committed
+     *  batch. This is a no-op if we already have a champ.
+     *
+     * @param writer
+     * @param currentHash
+     * @param batchSize the maximum number of mappings to copy
+     * @param mutable
+     * @param dht
+     * @param updater
+     * @return the committed writer data, which has a champ if the migration is complete
+     */
+    public CompletableFuture<CommittedWriterData> migrateNextBatch(SigningPrivateKeyAndPublicHash writer,
+                                                                   MaybeMultihash currentHash,
+                                                                   int batchSize,
+                                                                   MutablePointers mutable,
+                                                                   ContentAddressedStorage dht,
+                                                                   Consumer<CommittedWriterData> updater) {
         CommittedWriterData original = this.committed(currentHash);
         if (tree.isPresent())
             return CompletableFuture.completedFuture(original);
         if (! btree.isPresent())
             throw new IllegalStateException("btree not present!");
 
-        Function<ByteArrayWrapper, byte[]> hasher = b -> b.data;
-        BiFunction<Pair<Champ, Multihash>,
-                Pair<ByteArrayWrapper, MaybeMultihash>,
-                CompletableFuture<Pair<Champ, Multihash>>> inserter =
-                (root, pair) -> root.left.put(writer, pair.left, pair.left.data, 0, MaybeMultihash.empty(), pair.right,
-                            ChampWrapper.BIT_WIDTH, ChampWrapper.MAX_HASH_COLLISIONS_PER_LEVEL, hasher, network.dhtClient, root.right);
-
-        Champ newRoot = Champ.empty();
-        byte[] raw = newRoot.serialize();
-        return network.dhtClient.put(writer.publicKeyHash, writer.secret.signatureOnly(raw), raw)
-                .thenApply(rootHash -> new Pair<>(newRoot, rootHash))
-                .thenCompose(empty -> MerkleBTree.create(writer.publicKeyHash, btree.get(), network.dhtClient)
-                        .thenCompose(mbtree -> mbtree.applyToAllMappings(empty, inserter))
-                        .thenCompose(champPair -> {
-                            WriterData updated = new WriterData(writer.publicKeyHash,
-                                    generationAlgorithm,
-                                    publicData,
-                                    followRequestReceiver,
-                                    ownedKeys,
-                                    namedOwnedKeys,
-                                    staticData,
-                                    Optional.of(champPair.right),
-                                    Optional.empty());
-                            return updated.commit(writer, currentHash, network, updater);
-                        })
-                );
+        CompletableFuture<Multihash> champRoot = migration.isPresent() ?
+                CompletableFuture.completedFuture(migration.get().champ) :
+                dht.put(writer.publicKeyHash, writer.secret.signatureOnly(Champ.empty().serialize()), Champ.empty().serialize());
+        return MerkleBTree.create(writer.publicKeyHash, btree.get(), dht)
+                .thenCompose(btree -> btree.getMappingsAfter(migration.map(m -> m.lastKey), batchSize))
+                .thenCompose(mappings -> champRoot.thenCompose(root -> {
+                    if (mappings.isEmpty())
+                        return CompletableFuture.completedFuture(withChamp(root));
+                    List<Triple<byte[], MaybeMultihash, MaybeMultihash>> puts = mappings.stream()
+                            .map(p -> new Triple<>(p.left.data, MaybeMultihash.empty(), p.right))
+                            .collect(Collectors.toList());
+                    ByteArrayWrapper lastKey = mappings.get(mappings.size() - 1).left;
+                    return ChampWrapper.create(root, b -> b.data, dht)
+                            .thenCompose(champ -> champ.updateAll(writer, puts))
+                            .thenApply(newRoot -> mappings.size() < batchSize ?
+                                    withChamp(newRoot) :
+                                    withMigration(new ChampMigration(newRoot, lastKey)));
+                })).thenCompose(updated -> updated.commit(writer, currentHash, mutable, dht, updater));
     }
 
     public CompletableFuture<CommittedWriterData> commit(SigningPrivateKeyAndPublicHash signer, MaybeMultihash currentHash,
@@ -264,6 +317,7 @@ public class WriterData implements Cborable {
         staticData.ifPresent(sd -> result.put("static", sd.toCbor()));
         tree.ifPresent(tree -> result.put("tree", new CborObject.CborMerkleLink(tree)));
         btree.ifPresent(btree -> result.put("btree", new CborObject.CborMerkleLink(btree)));
+        migration.ifPresent(progress -> result.put("migration", progress.toCbor()));
         return CborObject.CborMap.build(result);
     }
 
@@ -307,7 +361,8 @@ public class WriterData implements Cborable {
         Optional<UserStaticData> staticData = rootKey == null ? Optional.empty() : extract.apply("static").map(raw -> UserStaticData.fromCbor(raw, rootKey));
         Optional<Multihash> tree = extract.apply("tree").map(val -> ((CborObject.CborMerkleLink)val).target);
         Optional<Multihash> btree = extract.apply("btree").map(val -> ((CborObject.CborMerkleLink)val).target);
-        return new WriterData(controller, algo, publicData, followRequestReceiver, owned, named, staticData, tree, btree);
+        Optional<ChampMigration> migration = extract.apply("migration").map(ChampMigration::fromCbor);
+        return new WriterData(controller, algo, publicData, followRequestReceiver, owned, named, staticData, tree, btree, migration);
     }
 
     public static Set<PublicKeyHash> getOwnedKeysRecursive(String username,
@@ -329,37 +384,73 @@ public class WriterData implements Cborable {
     public static Set<PublicKeyHash> getOwnedKeysRecursive(PublicKeyHash writer,
                                                            MutablePointers mutable,
                                                            ContentAddressedStorage dht) {
-        Set<PublicKeyHash> res = new HashSet<>();
-        res.add(writer);
-        try {
-            CommittedWriterData subspaceDescriptor = mutable.getPointer(writer)
-                    .thenCompose(dataOpt -> dataOpt.isPresent() ?
-                            dht.getSigningKey(writer)
-                                    .thenApply(signer -> HashCasPair.fromCbor(CborObject.fromByteArray(signer.get()
-                                            .unsignMessage(dataOpt.get()))).updated) :
-                            CompletableFuture.completedFuture(MaybeMultihash.empty()))
-                    .thenCompose(x -> getWriterData(writer, x, dht)).get();
+        return getOwnedKeysRecursive(Collections.singletonList(writer), mutable, dht);
+    }
 
-            for (PublicKeyHash subKey : subspaceDescriptor.props.ownedKeys) {
-                res.addAll(getOwnedKeysRecursive(subKey, mutable, dht));
+    /** Each level of the ownership trees is resolved with a single batched pointer lookup
+     *
+     * @param writers
+     * @param mutable
+     * @param dht
+     * @return the writers and all the keys they own, directly or indirectly
+     */
+    public static Set<PublicKeyHash> getOwnedKeysRecursive(Collection<PublicKeyHash> writers,
+                                                           MutablePointers mutable,
+                                                           ContentAddressedStorage dht) {
+        Set<PublicKeyHash> res = new HashSet<>(writers);
+        List<PublicKeyHash> level = new ArrayList<>(res);
+        while (! level.isEmpty()) {
+            Map<PublicKeyHash, Optional<byte[]>> pointers = getPointers(level, mutable);
+            List<Pair<PublicKeyHash, CompletableFuture<CommittedWriterData>>> descriptors = new ArrayList<>();
+            for (PublicKeyHash writer : level) {
+                if (! pointers.containsKey(writer))
+                    continue;
+                Optional<byte[]> dataOpt = pointers.get(writer);
+                descriptors.add(new Pair<>(writer, VerifiedPointers.getTarget(writer, dataOpt, dht)
+                        .thenCompose(x -> getWriterData(writer, x, dht))));
             }
-        } catch (Exception e) {
-            e.printStackTrace();
+            List<PublicKeyHash> nextLevel = new ArrayList<>();
+            for (Pair<PublicKeyHash, CompletableFuture<CommittedWriterData>> descriptor : descriptors) {
+                try {
+                    for (PublicKeyHash subKey : descriptor.right.get().props.ownedKeys)
+                        if (res.add(subKey))
+                            nextLevel.add(subKey);
+                } catch (Exception e) {
+                    LOG.log(Level.WARNING, "Couldn't retrieve owned keys of " + descriptor.left, e);
+                }
+            }
+            level = nextLevel;
         }
         return res;
     }
 
+    /** A single failing writer, e.g. a banned one, fails a whole batch, so then look each writer up individually
+     *
+     * @return the pointers of every writer which could be retrieved
+     */
+    private static Map<PublicKeyHash, Optional<byte[]>> getPointers(List<PublicKeyHash> writers, MutablePointers mutable) {
+        try {
+            return mutable.getPointers(writers).get();
+        } catch (Exception e) {
+            Map<PublicKeyHash, Optional<byte[]>> res = new HashMap<>();
+            for (PublicKeyHash writer : writers) {
+                try {
+                    res.put(writer, mutable.getPointer(writer).get());
+                } catch (Exception f) {
+                    LOG.log(Level.WARNING, "Couldn't retrieve pointer of " + writer, f);
+                }
+            }
+            return res;
+        }
+    }
+
     public static Set<PublicKeyHash> getDirectOwnedKeys(PublicKeyHash writer,
                                                         MutablePointers mutable,
                                                         ContentAddressedStorage dht) {
         Set<PublicKeyHash> res = new HashSet<>();
         try {
             CommittedWriterData subspaceDescriptor = mutable.getPointer(writer)
-                    .thenCompose(dataOpt -> dataOpt.isPresent() ?
-                            dht.getSigningKey(writer)
-                                    .thenApply(signer -> HashCasPair.fromCbor(CborObject.fromByteArray(signer.get()
-                                            .unsignMessage(dataOpt.get()))).updated) :
-                            CompletableFuture.completedFuture(MaybeMultihash.empty()))
+                    .thenCompose(dataOpt -> VerifiedPointers.getTarget(writer, dataOpt, dht))
                     .thenCompose(x -> getWriterData(writer, x, dht)).get();
 
             res.addAll(subspaceDescriptor.props.ownedKeys);
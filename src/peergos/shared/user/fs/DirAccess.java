@@ -275,16 +275,20 @@ public class DirAccess implements CryptreeNode {
                 }
             });
         } else {
-            ArrayList<SymmetricLocationLink> newSubfolders = new ArrayList<>(subfolders);
-            for (FilePointer targetCAP : targetCAPs)
-                newSubfolders.add(SymmetricLocationLink.create(ourSubfolders, targetCAP.baseKey, targetCAP.getLocation()));
-
-            return new DirAccess(lastCommittedHash, version, subfolders2files, subfolders2parent, parent2meta, parentLink, properties,
-                    newSubfolders, files, moreFolderContents)
+            return withSubdirs(targetCAPs, ourSubfolders)
                     .commit(ourPointer.getLocation(), signer, network);
         }
     }
 
+    private DirAccess withSubdirs(List<FilePointer> targetCAPs, SymmetricKey ourSubfolders) {
+        ArrayList<SymmetricLocationLink> newSubfolders = new ArrayList<>(subfolders);
+        for (FilePointer targetCAP : targetCAPs)
+            newSubfolders.add(SymmetricLocationLink.create(ourSubfolders, targetCAP.baseKey, targetCAP.getLocation()));
+
+        return new DirAccess(lastCommittedHash, version, subfolders2files, subfolders2parent, parent2meta, parentLink, properties,
+                newSubfolders, files, moreFolderContents);
+    }
+
     private CompletableFuture<List<RetrievedFilePointer>> getNextMetablob(SymmetricKey subfoldersKey, NetworkAccess network) {
         if (!moreFolderContents.isPresent())
             return CompletableFuture.completedFuture(Collections.emptyList());
@@ -305,6 +309,36 @@ public class DirAccess implements CryptreeNode {
 
     public CompletableFuture<DirAccess> removeChild(RetrievedFilePointer childRetrievedPointer, FilePointer ourPointer,
                                                   SigningPrivateKeyAndPublicHash signer, NetworkAccess network) {
+        return withoutChild(childRetrievedPointer, ourPointer).commit(ourPointer.getLocation(), signer, network);
+    }
+
+    /**
+     *
+     * @param extraLinks
+     * @return whether links to this many more children fit in this blob, without overflowing into the next one
+     */
+    public boolean hasRoomFor(int extraLinks) {
+        return subfolders.size() + files.size() + extraLinks <= MAX_CHILD_LINKS_PER_BLOB;
+    }
+
+    /** Add a link to a child in this blob, without committing it
+     *
+     * @return the new version of this directory
+     */
+    public DirAccess withChild(FilePointer targetCAP, boolean isDirectory, SymmetricKey ourSubfolders) {
+        if (isDirectory)
+            return withSubdirs(Arrays.asList(targetCAP), ourSubfolders);
+        SymmetricKey filesKey = this.subfolders2files.target(ourSubfolders);
+        ArrayList<SymmetricLocationLink> newFiles = new ArrayList<>(files);
+        newFiles.add(SymmetricLocationLink.create(filesKey, targetCAP.baseKey, targetCAP.getLocation()));
+        return withFiles(newFiles);
+    }
+
+    /** Remove the link to a child from this blob, without committing it
+     *
+     * @return the new version of this directory
+     */
+    public DirAccess withoutChild(RetrievedFilePointer childRetrievedPointer, FilePointer ourPointer) {
         DirAccess updated;
         if (childRetrievedPointer.fileAccess.isDirectory()) {
             List<SymmetricLocationLink> newSubfolders = subfolders.stream().filter(e -> {
@@ -344,7 +378,7 @@ public class DirAccess implements CryptreeNode {
             }).collect(Collectors.toList());
             updated = this.withFiles(newFiles);
         }
-        return updated.commit(ourPointer.getLocation(), signer, network);
+        return updated;
     }
 
     // returns [RetrievedFilePointer]
@@ -449,12 +483,18 @@ public class DirAccess implements CryptreeNode {
         DirAccess dir = DirAccess.create(MaybeMultihash.empty(), dirReadKey, new FileProperties(name, "", 0, LocalDateTime.now(),
                 isSystemFolder, Optional.empty()), ourLocation, ourParentKey, null);
         Location chunkLocation = new Location(ownerPublic, writer.publicKeyHash, dirMapKey);
-        return network.uploadChunk(dir, chunkLocation, writer).thenCompose(resultHash -> {
-            FilePointer ourPointer = new FilePointer(ownerPublic, writer.publicKeyHash, ourMapKey, baseKey);
-            FilePointer subdirPointer = new FilePointer(chunkLocation, Optional.empty(), dirReadKey);
-            return addSubdirAndCommit(subdirPointer, baseKey, ourPointer, writer, network, random)
-                    .thenApply(modified -> new FilePointer(ownerPublic, writer.publicKeyHash, dirMapKey, dirReadKey));
-        });
+        FilePointer ourPointer = new FilePointer(ownerPublic, writer.publicKeyHash, ourMapKey, baseKey);
+        FilePointer subdirPointer = new FilePointer(chunkLocation, Optional.empty(), dirReadKey);
+        FilePointer result = new FilePointer(ownerPublic, writer.publicKeyHash, dirMapKey, dirReadKey);
+        if (subfolders.size() + files.size() + 1 > MAX_CHILD_LINKS_PER_BLOB)
+            return network.uploadChunk(dir, chunkLocation, writer)
+                    .thenCompose(resultHash -> addSubdirAndCommit(subdirPointer, baseKey, ourPointer, writer, network, random))
+                    .thenApply(modified -> result);
+        // commit the new directory and the link to it together, so a failure can't leave an unreachable directory
+        return network.uploadChunks(ownerPublic, Arrays.asList(
+                new Triple<>(dir, chunkLocation, writer),
+                new Triple<>(withSubdirs(Arrays.asList(subdirPointer), baseKey), ourLocation, writer)))
+                .thenApply(hashes -> result);
     }
 
     public CompletableFuture<DirAccess> commit(Location ourLocation, SigningPrivateKeyAndPublicHash signer, NetworkAccess network) {
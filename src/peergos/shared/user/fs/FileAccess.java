@@ -194,6 +194,38 @@ public class FileAccess implements CryptreeNode {
         return new FileAccess(MaybeMultihash.of(hash), versionAndType >> 1, parentToMeta, parentToData, properties, retriever, parentLink);
     }
 
+    /** Decode a file directly from its serialized form, without building the intermediate CborObjects for the
+     *  links and properties
+     *
+     * @param view
+     * @param hash
+     * @return
+     */
+    public static FileAccess fromView(CborView view, Multihash hash) {
+        if (! view.isList())
+            throw new IllegalStateException("Incorrect cbor for FileAccess: " + view.toCbor());
+
+        List<CborView> value = view.getList();
+
+        int index = 0;
+        int versionAndType = (int) value.get(index++).getLong();
+        SymmetricLink parentToMeta = new SymmetricLink(value.get(index++).getByteArray());
+        SymmetricLink parentToData = new SymmetricLink(value.get(index++).getByteArray());
+
+        CborView parentLinkCbor = value.get(index++);
+        SymmetricLocationLink parentLink = parentLinkCbor.isNull() ?
+                null :
+                SymmetricLocationLink.fromCbor(parentLinkCbor.toCbor());
+
+        byte[] properties = value.get(index++).getByteArray();
+        CborView retrieverCbor = value.get(index++);
+        FileRetriever retriever = retrieverCbor.isNull() ?
+                null :
+                FileRetriever.fromCbor(retrieverCbor.toCbor());
+
+        return new FileAccess(MaybeMultihash.of(hash), versionAndType >> 1, parentToMeta, parentToData, properties, retriever, parentLink);
+    }
+
     public static FileAccess create(MaybeMultihash existingHash,
                                     SymmetricKey parentKey,
                                     SymmetricKey metaKey,
@@ -853,6 +853,7 @@ public class FileTreeNode {
         return entryWriterKey;
     }
 
+    // TODO commit the new child and the target directory with a single MutableTree.updateAll, as moveTo does
     @JsMethod
     public CompletableFuture<FileTreeNode> copyTo(FileTreeNode target,
                                                   NetworkAccess network,
@@ -898,6 +899,75 @@ public class FileTreeNode {
         });
     }
 
+    /** Move this into another directory. When we have the same writer as the target, and it has room for another
+     *  link, the link is added to the target and removed from our parent in a single atomic commit, so a failure
+     *  can't leave us in both directories or neither. Otherwise we are copied and then removed.
+     *
+     * @param target
+     * @param parent
+     * @param network
+     * @param random
+     * @param fragmenter
+     * @return the updated parent
+     */
+    public CompletableFuture<FileTreeNode> moveTo(FileTreeNode target,
+                                                  FileTreeNode parent,
+                                                  NetworkAccess network,
+                                                  SafeRandom random,
+                                                  Fragmenter fragmenter) {
+        ensureUnmodified();
+        CompletableFuture<FileTreeNode> result = new CompletableFuture<>();
+        if (! target.isDirectory()) {
+            result.completeExceptionally(new IllegalStateException("MoveTo target " + target + " must be a directory"));
+            return result;
+        }
+        boolean atomic = parent != null && parent.isWritable() && target.isWritable() &&
+                getLocation().writer.equals(target.getLocation().writer) &&
+                getLocation().owner.equals(target.getLocation().owner) &&
+                parent.getLocation().owner.equals(target.getLocation().owner) &&
+                ! parent.getLocation().equals(target.getLocation()) &&
+                ((DirAccess) target.pointer.fileAccess).hasRoomFor(1);
+        if (! atomic)
+            return copyTo(target, network, random, fragmenter)
+                    .thenCompose(x -> remove(network, parent));
+
+        return target.hasChildWithName(getName(), network).thenCompose(childExists -> {
+            if (childExists) {
+                result.completeExceptionally(new IllegalStateException("MoveTo target " + target + " already has child with name " + getName()));
+                return result;
+            }
+            byte[] newMapKey = new byte[32];
+            random.randombytes(newMapKey, 0, 32);
+            SymmetricKey newBaseKey = SymmetricKey.random();
+            Location targetLocation = target.getLocation();
+            FilePointer newPointer = new FilePointer(targetLocation.owner, targetLocation.writer, newMapKey, newBaseKey);
+
+            // the new copy is unreachable until the commit which links to it
+            return pointer.fileAccess.copyTo(getKey(), newBaseKey, targetLocation, target.getParentKey(),
+                    targetLocation.owner, getSigner(), newMapKey, network, random)
+                    .thenCompose(newAccess -> {
+                        DirAccess targetDir = ((DirAccess) target.pointer.fileAccess)
+                                .withChild(newPointer, isDirectory(), target.getKey());
+                        DirAccess sourceDir = ((DirAccess) parent.pointer.fileAccess)
+                                .withoutChild(pointer, parent.pointer.filePointer);
+                        return network.uploadChunks(targetLocation.owner, Arrays.asList(
+                                new Triple<>(targetDir, targetLocation, target.getSigner()),
+                                new Triple<>(sourceDir, parent.getLocation(), parent.getSigner())))
+                                .thenCompose(hashes -> {
+                                    parent.setModified();
+                                    target.setModified();
+                                    FileTreeNode updatedParent = new FileTreeNode(parent.globalRoot,
+                                            new RetrievedFilePointer(parent.pointer.filePointer, sourceDir.withHash(hashes.get(1))),
+                                            parent.ownername, parent.readers, parent.writers, parent.entryWriterKey);
+                                    // nothing links to the original any more, so its metadata can be removed
+                                    return new RetrievedFilePointer(writableFilePointer(), pointer.fileAccess)
+                                            .remove(network, null, getSigner())
+                                            .thenApply(x -> updatedParent);
+                                });
+                    });
+        });
+    }
+
     /**
      * @param network
      * @param parent
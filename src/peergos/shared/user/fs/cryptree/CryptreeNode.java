@@ -74,4 +74,22 @@ public interface CryptreeNode extends Cborable {
             return FileAccess.fromCbor(cbor, hash);
         return DirAccess.fromCbor(cbor, hash);
     }
+
+    /** Decode a node from the raw bytes of its block. Files are decoded directly from the bytes.
+     *
+     * @param raw
+     * @param hash
+     * @return
+     */
+    static CryptreeNode fromRaw(byte[] raw, Multihash hash) {
+        CborView view = CborView.of(raw);
+        if (! view.isList())
+            throw new IllegalStateException("Incorrect cbor for FileAccess: " + view.toCbor());
+
+        int versionAndType = (int) view.get(0).getLong();
+        boolean isFile = (versionAndType & 1) != 0;
+        if (isFile)
+            return FileAccess.fromView(view, hash);
+        return DirAccess.fromCbor(view.toCbor(), hash);
+    }
 }
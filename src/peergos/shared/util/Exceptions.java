@@ -11,4 +11,14 @@ public class Exceptions {
             return getRootCause(cause);
         return t;
     }
+
+    /**
+     *
+     * @param t
+     * @return whether a remote call failed because the server doesn't have the method, e.g. an older server
+     */
+    public static boolean isUnknownMethod(Throwable t) {
+        String message = getRootCause(t).getMessage();
+        return message != null && message.contains("Unknown method");
+    }
 }
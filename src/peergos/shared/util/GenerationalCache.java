@@ -0,0 +1,54 @@
+package peergos.shared.util;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/** A bounded concurrent cache which approximates least recently used eviction without locking on reads.
+ *
+ *  Entries are added to the current generation. When it is full it becomes the previous generation, and the old
+ *  previous generation is dropped. Reading an entry from the previous generation moves it to the current one, so
+ *  anything used within the last two generations is retained.
+ */
+public class GenerationalCache<K, V> {
+
+    private final int generationSize;
+    private volatile Map<K, V> current = new ConcurrentHashMap<>();
+    private volatile Map<K, V> previous = new ConcurrentHashMap<>();
+
+    /**
+     *
+     * @param maxEntries the maximum number of entries retained
+     */
+    public GenerationalCache(int maxEntries) {
+        this.generationSize = Math.max(1, maxEntries / 2);
+    }
+
+    public V get(K key) {
+        V value = current.get(key);
+        if (value != null)
+            return value;
+        value = previous.get(key);
+        if (value != null)
+            put(key, value);
+        return value;
+    }
+
+    public void put(K key, V value) {
+        Map<K, V> gen = current;
+        gen.put(key, value);
+        if (gen.size() >= generationSize)
+            rotate(gen);
+    }
+
+    private synchronized void rotate(Map<K, V> full) {
+        if (current != full)
+            return; // someone else already rotated
+        previous = full;
+        current = new ConcurrentHashMap<>();
+    }
+
+    public synchronized void clear() {
+        current = new ConcurrentHashMap<>();
+        previous = new ConcurrentHashMap<>();
+    }
+}